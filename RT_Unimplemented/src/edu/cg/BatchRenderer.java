@@ -0,0 +1,438 @@
+package edu.cg;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+import com.google.gson.GsonBuilder;
+
+import edu.cg.distributed.RenderCoordinator;
+import edu.cg.image.HdrFramebuffer;
+import edu.cg.image.MappedFramebuffer;
+import edu.cg.image.PngWriter;
+import edu.cg.image.RowSource;
+import edu.cg.image.TiffWriter;
+import edu.cg.image.ToneMapper;
+import edu.cg.scene.RenderStatistics;
+import edu.cg.scene.Scene;
+
+/**
+ * A command line entry point that renders scene files to PNG images without opening any window.
+ * Several scenes are rendered at the same time, and all of them share one pool of worker threads.
+ *
+ * Usage: BatchRenderer [options] scene.json...
+ * Scene files ending with .rtscene are read as binary scene files (see BinaryScene).
+ */
+public class BatchRenderer {
+	private static final String USAGE = String.join(System.lineSeparator(),
+			"Usage: BatchRenderer [options] scene.json...",
+			"Scenes may also be binary scene files (" + SceneIO.BINARY_EXTENSION + "), see SceneConverter.",
+			"Options:",
+			"  --width N              image width in pixels (default 400)",
+			"  --height N             image height in pixels (default 400)",
+			"  --view-width W         width of the view plain in world coordinates (default 4.0)",
+			"  --aa N                 anti aliasing factor: 1, 2 or 3 (default: as in the scene)",
+			"  --adaptive-aa on|off   supersample only pixels that differ from their neighbors (default: as in the scene)",
+			"  --aa-threshold T       color difference between neighbors, 0 to 1, that needs supersampling, 0 for every pixel (default: as in the scene)",
+			"  --recursion N          max recursion level: 1 to 1000 (default: as in the scene)",
+			"  --iterative on|off     trace reflections and refractions with an explicit stack (default: only above level 16)",
+			"  --min-contribution W   don't trace secondary rays whose weight in the pixel is below W, 0 to 1 (default: as in the scene)",
+			"  --roulette on|off      trace rays below the contribution threshold by Russian roulette (default: as in the scene)",
+			"  --cheap-shading N      shade hits from recursion level N on without specular terms and shadows, 0 for never (default: as in the scene)",
+			"  --reflections on|off   render reflections (default: as in the scene)",
+			"  --refractions on|off   render refractions (default: as in the scene)",
+			"  --out DIR              output directory (default outputs)",
+			"  --format png|tiff|ppm  output image format (default png), ppm needs --mapped on",
+			"  --mapped on|off        render into a memory mapped file <scene>.ppm in the output directory instead of the heap,",
+			"                         for images too large for the heap; the file is then converted to the output format (default off)",
+			"  --hdr on|off           render float pixels, write them to <scene>.pfm in the output directory and tone map",
+			"                         the image from them (default off), see ToneMap",
+			"  --exposure E           with --hdr, multiply the colors by 2^E before they are clipped (default 0)",
+			"  --gamma G              with --hdr, raise the clipped colors to 1/G (default 1)",
+			"  --parallel N           number of scenes rendered at the same time (default 2)",
+			"  --threads N            number of worker threads shared by all scenes (default: number of cores)",
+			"  --packets on|off       trace primary rays in SIMD packets when the vector API is available (default on)",
+			"  --float on|off         intersect rays in single precision, shading stays in double precision (default off)",
+			"  --compare-precision    render every scene in double and in single precision too, print how the images differ",
+			"                         and write it to <scene>.precision.json in the output directory",
+			"  --distribute [HOST:]PORT  render the tiles on RenderWorker processes that connect to PORT, on localhost",
+			"                         unless HOST is given (* for all addresses); the scenes are then rendered one at a time",
+			"  --cache DIR            reuse images of earlier renders of the same scene and parameters from DIR",
+			"  --cache-size MB        maximal size of the render cache, least recently used images are deleted (default 1024)",
+			"  --check-determinism    render every scene with 1 and with all the threads and fail if the pixels differ",
+			"  --stats                print ray statistics and write them to <scene>.stats.json in the output directory",
+			"  --verbose              print the renderer's log",
+			"  --help                 print this message");
+
+	private final RenderParameters parameters = new RenderParameters();
+	private final List<String> sceneFiles = new ArrayList<>();
+	private File outputDir = new File("outputs");
+	private int parallelScenes = 2;
+	private int nThreads = Runtime.getRuntime().availableProcessors();
+	private boolean verbose = false;
+	private boolean statistics = false;
+	private boolean packets = true;
+	private boolean iterative = false;
+	private boolean singlePrecision = false;
+	private boolean comparePrecision = false;
+	private String format = "png";
+	private boolean mapped = false;
+	private boolean hdr = false;
+	private final ToneMapper toneMapper = new ToneMapper();
+	private File cacheDir = null;
+	private long cacheMegabytes = 1024;
+	private boolean checkDeterminism = false;
+	private RenderCache cache = null;
+	private String distributeAddress = null;
+	private RenderCoordinator coordinator = null;
+
+	public static void main(String[] args) {
+		System.setProperty("java.awt.headless", "true");
+
+		BatchRenderer renderer = new BatchRenderer();
+		try {
+			if(!renderer.parseArguments(args)) {
+				System.out.println(USAGE);
+				return;
+			}
+		} catch(IllegalArgumentException e) {
+			System.err.println(e.getMessage());
+			System.err.println(USAGE);
+			System.exit(2);
+		}
+
+		int failures = renderer.run();
+		System.exit(failures == 0 ? 0 : 1);
+	}
+
+	/**
+	 * Reads the command line arguments.
+	 * @return false if only the usage message should be printed.
+	 */
+	private boolean parseArguments(String[] args) {
+		for(int i = 0; i < args.length; ++i) {
+			String arg = args[i];
+			if(!arg.startsWith("--")) {
+				sceneFiles.add(arg);
+				continue;
+			}
+
+			switch(arg) {
+			case "--help":
+				return false;
+			case "--verbose":
+				verbose = true;
+				continue;
+			case "--stats":
+				statistics = true;
+				continue;
+			case "--check-determinism":
+				checkDeterminism = true;
+				continue;
+			case "--compare-precision":
+				comparePrecision = true;
+				continue;
+			default:
+				break;
+			}
+
+			if(i + 1 >= args.length)
+				throw new IllegalArgumentException("Missing value for " + arg);
+			String value = args[++i];
+			try {
+				if(parameters.initOption(arg.substring(2), value))
+					continue;
+				switch(arg) {
+				case "--iterative":
+					iterative = parseSwitch(arg, value);
+					break;
+				case "--packets":
+					packets = parseSwitch(arg, value);
+					break;
+				case "--float":
+					singlePrecision = parseSwitch(arg, value);
+					break;
+				case "--cache":
+					cacheDir = new File(value);
+					break;
+				case "--cache-size":
+					cacheMegabytes = positive(arg, Integer.parseInt(value));
+					break;
+				case "--out":
+					outputDir = new File(value);
+					break;
+				case "--format":
+					if(!value.equals("png") && !value.equals("tiff") && !value.equals("ppm"))
+						throw new IllegalArgumentException("--format must be png, tiff or ppm");
+					format = value;
+					break;
+				case "--mapped":
+					mapped = parseSwitch(arg, value);
+					break;
+				case "--hdr":
+					hdr = parseSwitch(arg, value);
+					break;
+				case "--exposure":
+					toneMapper.initExposure(Double.parseDouble(value));
+					break;
+				case "--gamma":
+					toneMapper.initGamma(Double.parseDouble(value));
+					break;
+				case "--parallel":
+					parallelScenes = positive(arg, Integer.parseInt(value));
+					break;
+				case "--threads":
+					nThreads = positive(arg, Integer.parseInt(value));
+					break;
+				case "--distribute":
+					distributeAddress = value;
+					break;
+				default:
+					throw new IllegalArgumentException("Unknown option " + arg);
+				}
+			} catch(NumberFormatException e) {
+				throw new IllegalArgumentException("Bad value for " + arg + ": " + value);
+			}
+		}
+
+		if(sceneFiles.isEmpty())
+			throw new IllegalArgumentException("No scene files were given");
+		if(format.equals("ppm") && !mapped)
+			throw new IllegalArgumentException("--format ppm needs --mapped on");
+		if(mapped && (cacheDir != null || distributeAddress != null))
+			throw new IllegalArgumentException("--mapped can't be used with --cache or --distribute, which keep images in the heap");
+		if(hdr && (mapped || cacheDir != null || distributeAddress != null))
+			throw new IllegalArgumentException("--hdr can't be used with --mapped, --cache or --distribute, which keep 8 bit pixels");
+		if(!hdr && (toneMapper.getExposure() != 0.0 || toneMapper.getGamma() != 1.0))
+			throw new IllegalArgumentException("--exposure and --gamma need --hdr on");
+		return true;
+	}
+
+	private static boolean parseSwitch(String arg, String value) {
+		return RenderParameters.parseSwitch(arg, value);
+	}
+
+	private static int positive(String arg, int value) {
+		if(value <= 0)
+			throw new IllegalArgumentException(arg + " must be positive");
+		return value;
+	}
+
+	/**
+	 * Renders all the scenes.
+	 * @return the number of scenes that failed.
+	 */
+	private int run() {
+		if(!outputDir.exists() && !outputDir.mkdirs())
+			throw new RuntimeException("Couldn't create the folder " + outputDir + "...");
+		if(cacheDir != null) {
+			try {
+				cache = new RenderCache(cacheDir.toPath(), cacheMegabytes * 1024 * 1024);
+			} catch(IOException e) {
+				throw new RuntimeException("Couldn't open the render cache " + cacheDir + ": " + e.getMessage());
+			}
+			System.out.println("Using the render cache " + cache);
+		}
+		if(distributeAddress != null) {
+			try {
+				coordinator = startCoordinator(distributeAddress);
+			} catch(IOException e) {
+				throw new RuntimeException("Couldn't listen for workers on " + distributeAddress + ": " + e.getMessage());
+			}
+			System.out.println("Waiting for RenderWorker processes on port " + coordinator.getPort());
+		}
+
+		System.out.println("Rendering " + sceneFiles.size() + " scene(s) at " + parameters + " with " +
+				nThreads + " threads, " + parallelScenes + " scene(s) at a time");
+
+		ForkJoinPool workers = new ForkJoinPool(nThreads);
+		ExecutorService scenes = Executors.newFixedThreadPool(Math.min(parallelScenes, sceneFiles.size()));
+		long start = System.nanoTime();
+		int failures = 0;
+		try {
+			List<Future<Boolean>> results = new ArrayList<>();
+			for(String sceneFile : sceneFiles)
+				results.add(scenes.submit(() -> renderScene(sceneFile, workers)));
+
+			for(Future<Boolean> result : results) {
+				try {
+					if(!result.get())
+						++failures;
+				} catch(Exception e) {
+					++failures;
+				}
+			}
+		} finally {
+			scenes.shutdown();
+			workers.shutdown();
+			if(coordinator != null) {
+				try {
+					coordinator.close();
+				} catch(IOException e) {
+					//the workers notice the lost connection and exit anyway
+				}
+			}
+		}
+
+		double seconds = (System.nanoTime() - start) / 1e9;
+		System.out.printf("Rendered %d of %d scene(s) in %.2f s%n", sceneFiles.size() - failures, sceneFiles.size(), seconds);
+		return failures;
+	}
+
+	/**
+	 * Listens for workers on [host:]port, on the loopback address if no host is given and on all addresses for *.
+	 */
+	private static RenderCoordinator startCoordinator(String address) throws IOException {
+		int colon = address.lastIndexOf(':');
+		String host = colon < 0 ? null : address.substring(0, colon);
+		int port = Integer.parseInt(address.substring(colon + 1));
+		InetAddress bindAddress = host == null ? InetAddress.getLoopbackAddress() :
+			(host.equals("*") ? null : InetAddress.getByName(host));
+		return new RenderCoordinator(bindAddress, port, s -> log("coordinator", s));
+	}
+
+	private boolean renderScene(String sceneFile, ForkJoinPool workers) {
+		String baseName = new File(sceneFile).getName().replaceFirst("\\.[^.]*$", "");
+		Logger logger = verbose ? (s -> log(baseName, s)) : (s -> {});
+		try {
+			long loadStart = System.nanoTime();
+			Scene scene = SceneIO.load(sceneFile);
+			parameters.applyTo(scene);
+			scene.initCollectStatistics(statistics).initPacketTracing(packets).initIterativeTracing(iterative)
+				.initSinglePrecision(singlePrecision);
+			if(checkDeterminism) {
+				String difference = RenderCache.checkDeterminism(scene, parameters.width(), parameters.height(),
+						parameters.viewPlainWidth(), logger, 1, nThreads);
+				if(difference != null) {
+					log(baseName, "The render is not deterministic: " + difference);
+					return false;
+				}
+				log(baseName, "Rendering with 1 and " + nThreads + " threads gives identical pixels");
+			}
+			if(comparePrecision) {
+				PrecisionReport report = PrecisionReport.compare(scene, parameters.width(), parameters.height(),
+						parameters.viewPlainWidth(), logger, workers);
+				log(baseName, report);
+				writeJson(report, new File(outputDir, baseName + ".precision.json"));
+			}
+			long renderStart = System.nanoTime();
+
+			String key = cache != null ? RenderCache.key(scene, parameters.width(), parameters.height(),
+					parameters.viewPlainWidth()) : null;
+			BufferedImage img = key != null ? cache.get(key) : null;
+			File output = new File(outputDir, baseName + "." + format);
+			if(img != null) {
+				writeImage(img, output, workers);
+				log(baseName, String.format("loaded in %.3f s, found in the render cache -> %s",
+						(renderStart - loadStart) / 1e9, output.getPath()));
+				return true;
+			}
+
+			long renderEnd;
+			if(mapped) {
+				renderEnd = renderMapped(scene, baseName, output, workers, logger);
+			} else if(hdr) {
+				renderEnd = renderHdr(scene, baseName, output, workers, logger);
+			} else {
+				if(coordinator != null)
+					img = coordinator.render(scene, parameters.width(), parameters.height(), parameters.viewPlainWidth(), logger);
+				else
+					img = scene.render(parameters.width(), parameters.height(), parameters.viewPlainWidth(), logger, workers);
+				renderEnd = System.nanoTime();
+				if(key != null)
+					cache.put(key, img, workers);
+				writeImage(img, output, workers);
+			}
+
+			double loadSeconds = (renderStart - loadStart) / 1e9;
+			double renderSeconds = (renderEnd - renderStart) / 1e9;
+			RenderStatistics renderStatistics = scene.getStatistics();
+			long primaryRays = renderStatistics != null ? renderStatistics.getPrimaryRays() :
+				(long)parameters.width() * parameters.height() * scene.getFactor() * scene.getFactor();
+			log(baseName, String.format("loaded in %.3f s, rendered in %.3f s, %d primary rays (%.0f rays/s) -> %s",
+					loadSeconds, renderSeconds, primaryRays, primaryRays / renderSeconds, output.getPath()));
+			if(renderStatistics != null) {
+				if(!verbose)
+					log(baseName, renderStatistics);
+				writeJson(renderStatistics, new File(outputDir, baseName + ".stats.json"));
+			}
+			return true;
+		} catch(Exception e) {
+			log(baseName, "Couldn't render " + sceneFile + ": " + e);
+			return false;
+		}
+	}
+
+	/**
+	 * Renders the scene into a memory mapped <scene>.ppm file in the output directory, and writes it in the
+	 * output format unless that is ppm, without holding the image in the heap.
+	 * @return when the rendering was done, before the image was written.
+	 */
+	private long renderMapped(Scene scene, String baseName, File output, ForkJoinPool workers, Logger logger)
+			throws IOException, InterruptedException, ExecutionException {
+		Path framebufferFile = new File(outputDir, baseName + ".ppm").toPath();
+		long renderEnd;
+		try(MappedFramebuffer framebuffer = MappedFramebuffer.create(framebufferFile, parameters.width(), parameters.height())) {
+			scene.render(framebuffer, parameters.viewPlainWidth(), logger, workers);
+			renderEnd = System.nanoTime();
+			if(format.equals("png"))
+				PngWriter.write(framebuffer, output.toPath(), workers);
+			else if(format.equals("tiff"))
+				TiffWriter.write(framebuffer, output.toPath());
+		}
+		if(!format.equals("ppm"))
+			Files.delete(framebufferFile);
+		return renderEnd;
+	}
+
+	/**
+	 * Renders the scene into float pixels, writes them to <scene>.pfm in the output directory, and writes the
+	 * image tone mapped from them in the output format.
+	 * @return when the rendering was done, before the images were written.
+	 */
+	private long renderHdr(Scene scene, String baseName, File output, ForkJoinPool workers, Logger logger)
+			throws IOException, InterruptedException, ExecutionException {
+		HdrFramebuffer framebuffer = scene.renderHdr(parameters.width(), parameters.height(), parameters.viewPlainWidth(),
+				logger, workers);
+		long renderEnd = System.nanoTime();
+		framebuffer.writePfm(new File(outputDir, baseName + ".pfm").toPath());
+		//the rows are tone mapped as the image writer reads them, on the render pool for PNG images
+		RowSource rows = toneMapper.rows(framebuffer);
+		if(format.equals("tiff"))
+			TiffWriter.write(rows, output.toPath());
+		else
+			PngWriter.write(rows, output.toPath(), workers);
+		return renderEnd;
+	}
+
+	//PNG images are compressed on the render pool
+	private void writeImage(BufferedImage img, File output, ForkJoinPool workers) throws IOException {
+		if(format.equals("tiff"))
+			TiffWriter.write(RowSource.of(img), output.toPath());
+		else
+			PngWriter.write(RowSource.of(img), output.toPath(), workers);
+	}
+
+	private static void writeJson(Object report, File file) throws IOException {
+		try(Writer writer = new FileWriter(file)) {
+			//the PSNR of identical images is infinite
+			new GsonBuilder().setPrettyPrinting().serializeSpecialFloatingPointValues().create().toJson(report, writer);
+		}
+	}
+	
+	private static synchronized void log(String sceneName, Object message) {
+		System.out.println("[" + sceneName + "] " + message);
+	}
+}
@@ -0,0 +1,454 @@
+package edu.cg;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+
+import edu.cg.algebra.Point;
+import edu.cg.algebra.Vec;
+import edu.cg.menu.GsonMaker;
+import edu.cg.scene.Scene;
+import edu.cg.scene.camera.PinholeCamera;
+import edu.cg.scene.lightSources.DirectionalLight;
+import edu.cg.scene.lightSources.Light;
+import edu.cg.scene.lightSources.PointLight;
+import edu.cg.scene.lightSources.Spotlight;
+import edu.cg.scene.objects.AxisAlignedBox;
+import edu.cg.scene.objects.Material;
+import edu.cg.scene.objects.Plain;
+import edu.cg.scene.objects.Sphere;
+import edu.cg.scene.objects.Surface;
+
+/**
+ * A compact binary scene file format, read through a memory mapping of the file without Gson.
+ * All numbers are little endian. A file holds, in order:
+ * <ul>
+ * <li>the magic number "RTSC" and the format version</li>
+ * <li>the scene settings: name, recursion level, anti aliasing and pruning</li>
+ * <li>the camera fields, ambient and background colors</li>
+ * <li>the lights, each a type tag and its fields</li>
+ * <li>a table of the distinct materials</li>
+ * <li>the shapes, one section per shape type. A section holds the number of shapes, their surface indices
+ * (the order of the surfaces in the scene), their material indices and their parameters packed in one
+ * array of doubles.</li>
+ * </ul>
+ * Files are written from the Gson form of a scene, so they hold exactly the values a JSON file would.
+ */
+public class BinaryScene {
+	static final int MAGIC = 'R' | 'T' << 8 | 'S' << 16 | 'C' << 24;
+	//change when the layout changes, and keep reading the older versions
+	static final int VERSION = 1;
+
+	private static final byte DIRECTIONAL_LIGHT = 0;
+	private static final byte POINT_LIGHT = 1;
+	private static final byte SPOTLIGHT = 2;
+
+	private static final int SPHERE_DOUBLES = 4; //center, radius
+	private static final int BOX_DOUBLES = 6; //min point, max point
+	private static final int PLAIN_DOUBLES = 4; //a, b, c, d
+
+	private static final int REFLECTIONS = 1;
+	private static final int REFRACTIONS = 2;
+	private static final int ADAPTIVE_ANTI_ALIASING = 4;
+	private static final int RUSSIAN_ROULETTE = 8;
+
+	//MARK: reading
+	/**
+	 * Reads a binary scene file.
+	 * @throws IOException if the file can't be read or isn't a valid binary scene file.
+	 */
+	public static Scene read(Path path) throws IOException {
+		try(FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+			long size = channel.size();
+			if(size > Integer.MAX_VALUE)
+				throw new IOException("Scene file " + path + " is larger than 2 GB");
+			ByteBuffer buffer = channel.map(MapMode.READ_ONLY, 0, size).order(ByteOrder.LITTLE_ENDIAN);
+			return read(buffer);
+		} catch(BufferUnderflowException e) {
+			throw new IOException("Scene file " + path + " is truncated", e);
+		}
+	}
+
+	static Scene read(ByteBuffer buffer) throws IOException {
+		if(buffer.getInt() != MAGIC)
+			throw new IOException("Not a binary scene file");
+		int version = buffer.getInt();
+		if(version < 1 || version > VERSION)
+			throw new IOException("Unsupported binary scene version " + version);
+
+		Scene scene = new Scene()
+				.initName(readString(buffer))
+				.initMaxRecursionLevel(buffer.getInt())
+				.initAntiAliasingFactor(buffer.getInt());
+		int flags = buffer.getInt();
+		scene.initRenderReflections((flags & REFLECTIONS) != 0)
+			.initRenderRefarctions((flags & REFRACTIONS) != 0)
+			.initAdaptiveAntiAliasing((flags & ADAPTIVE_ANTI_ALIASING) != 0)
+			.initRussianRoulette((flags & RUSSIAN_ROULETTE) != 0)
+			.initAntiAliasingThreshold(buffer.getDouble())
+			.initContributionThreshold(buffer.getDouble())
+			.initCheapShadingDepth(buffer.getInt());
+
+		scene.initCamera(readCamera(buffer))
+			.initAmbient(readVec(buffer))
+			.initBackgroundColor(readVec(buffer));
+
+		int nLights = buffer.getInt();
+		for(int i = 0; i < nLights; ++i)
+			scene.addLightSource(readLight(buffer));
+
+		Material[] materials = new Material[buffer.getInt()];
+		for(int i = 0; i < materials.length; ++i)
+			materials[i] = readMaterial(buffer);
+
+		Surface[] surfaces = new Surface[buffer.getInt()];
+		readSpheres(buffer, surfaces, materials);
+		readBoxes(buffer, surfaces, materials);
+		readPlains(buffer, surfaces, materials);
+		for(Surface surface : surfaces) {
+			if(surface == null)
+				throw new IOException("Binary scene file is missing surfaces");
+			scene.addSurface(surface);
+		}
+		return scene;
+	}
+
+	private static String readString(ByteBuffer buffer) {
+		byte[] bytes = new byte[buffer.getInt()];
+		buffer.get(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	private static Vec readVec(ByteBuffer buffer) {
+		return new Vec(buffer.getDouble(), buffer.getDouble(), buffer.getDouble());
+	}
+
+	private static Point readPoint(ByteBuffer buffer) {
+		return new Point(buffer.getDouble(), buffer.getDouble(), buffer.getDouble());
+	}
+
+	private static PinholeCamera readCamera(ByteBuffer buffer) {
+		Point position = readPoint(buffer);
+		Vec towards = readVec(buffer);
+		Vec up = readVec(buffer);
+		Vec right = readVec(buffer);
+		Point imageMiddle = readPoint(buffer);
+		PinholeCamera camera = new PinholeCamera(position, towards, up, buffer.getDouble());
+		//the stored vectors are already normalized, normalizing them again may change their last bits
+		camera.towardsVec = towards;
+		camera.upVec = up;
+		camera.rightVec = right;
+		camera.imageMiddle = imageMiddle;
+		camera.resolutionX = buffer.getDouble();
+		camera.resolutionY = buffer.getDouble();
+		camera.viewPlainWidth = buffer.getDouble();
+		return camera;
+	}
+
+	private static Light readLight(ByteBuffer buffer) throws IOException {
+		byte type = buffer.get();
+		Vec intensity = readVec(buffer);
+		switch(type) {
+		case DIRECTIONAL_LIGHT:
+			return new DirectionalLight().initIntensity(intensity).initDirection(readVec(buffer));
+		case POINT_LIGHT:
+			return new PointLight().initIntensity(intensity).initPosition(readPoint(buffer))
+					.initDecayFactors(buffer.getDouble(), buffer.getDouble(), buffer.getDouble());
+		case SPOTLIGHT:
+			return new Spotlight().initIntensity(intensity).initPosition(readPoint(buffer))
+					.initDecayFactors(buffer.getDouble(), buffer.getDouble(), buffer.getDouble())
+					.initDirection(readVec(buffer));
+		default:
+			throw new IOException("Unknown light type " + type + " in binary scene file");
+		}
+	}
+
+	private static Material readMaterial(ByteBuffer buffer) {
+		return new Material()
+				.initKa(readVec(buffer))
+				.initKd(readVec(buffer))
+				.initKs(readVec(buffer))
+				.initReflectionIntensity(buffer.getDouble())
+				.initShininess(buffer.getInt())
+				.initIsTransparent(buffer.get() != 0)
+				.initRefractionIntensity(buffer.getDouble())
+				.initRefractionIndex(buffer.getDouble());
+	}
+
+	private static int[] readInts(ByteBuffer buffer, int count) {
+		int[] values = new int[count];
+		buffer.asIntBuffer().get(values);
+		buffer.position(buffer.position() + count * Integer.BYTES);
+		return values;
+	}
+
+	private static double[] readDoubles(ByteBuffer buffer, int count) {
+		double[] values = new double[count];
+		buffer.asDoubleBuffer().get(values);
+		buffer.position(buffer.position() + count * Double.BYTES);
+		return values;
+	}
+
+	/**
+	 * Reads the header of a shape section and checks the indices.
+	 * @return the surface indices followed by the material indices.
+	 */
+	private static int[][] readSection(ByteBuffer buffer, Surface[] surfaces, Material[] materials) throws IOException {
+		int count = buffer.getInt();
+		int[] order = readInts(buffer, count);
+		int[] material = readInts(buffer, count);
+		for(int i = 0; i < count; ++i) {
+			if(order[i] < 0 || order[i] >= surfaces.length || surfaces[order[i]] != null)
+				throw new IOException("Bad surface index " + order[i] + " in binary scene file");
+			if(material[i] < 0 || material[i] >= materials.length)
+				throw new IOException("Bad material index " + material[i] + " in binary scene file");
+		}
+		return new int[][] { order, material };
+	}
+
+	private static void readSpheres(ByteBuffer buffer, Surface[] surfaces, Material[] materials) throws IOException {
+		int[][] section = readSection(buffer, surfaces, materials);
+		int[] order = section[0], material = section[1];
+		double[] p = readDoubles(buffer, order.length * SPHERE_DOUBLES);
+		for(int i = 0, j = 0; i < order.length; ++i, j += SPHERE_DOUBLES) {
+			Sphere sphere = new Sphere(new Point(p[j], p[j + 1], p[j + 2]), p[j + 3]);
+			surfaces[order[i]] = new Surface(sphere, materials[material[i]]);
+		}
+	}
+
+	private static void readBoxes(ByteBuffer buffer, Surface[] surfaces, Material[] materials) throws IOException {
+		int[][] section = readSection(buffer, surfaces, materials);
+		int[] order = section[0], material = section[1];
+		double[] p = readDoubles(buffer, order.length * BOX_DOUBLES);
+		for(int i = 0, j = 0; i < order.length; ++i, j += BOX_DOUBLES) {
+			AxisAlignedBox box = new AxisAlignedBox(new Point(p[j], p[j + 1], p[j + 2]),
+					new Point(p[j + 3], p[j + 4], p[j + 5]));
+			surfaces[order[i]] = new Surface(box, materials[material[i]]);
+		}
+	}
+
+	private static void readPlains(ByteBuffer buffer, Surface[] surfaces, Material[] materials) throws IOException {
+		int[][] section = readSection(buffer, surfaces, materials);
+		int[] order = section[0], material = section[1];
+		double[] p = readDoubles(buffer, order.length * PLAIN_DOUBLES);
+		for(int i = 0, j = 0; i < order.length; ++i, j += PLAIN_DOUBLES) {
+			Plain plain = new Plain(p[j], p[j + 1], p[j + 2], p[j + 3]);
+			surfaces[order[i]] = new Surface(plain, materials[material[i]]);
+		}
+	}
+
+	//MARK: writing
+	/**
+	 * Writes a scene as a binary scene file.
+	 * @throws IllegalArgumentException if the scene has a light or a shape the format can't store.
+	 */
+	public static void write(Scene scene, Path path) throws IOException {
+		ByteBuffer buffer = write(GsonMaker.getInstance().toJsonTree(scene).getAsJsonObject());
+		try(FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+				StandardOpenOption.TRUNCATE_EXISTING)) {
+			while(buffer.hasRemaining())
+				channel.write(buffer);
+		}
+	}
+
+	/**
+	 * Encodes the Gson form of a scene.
+	 * @return a buffer holding the file's bytes, from its position to its limit.
+	 */
+	static ByteBuffer write(JsonObject scene) {
+		Output out = new Output();
+		out.putInt(MAGIC).putInt(VERSION);
+		out.putString(scene.has("name") ? scene.get("name").getAsString() : "");
+		out.putInt(scene.get("maxRecursionLevel").getAsInt()).putInt(scene.get("antiAliasingFactor").getAsInt());
+		int flags = (bool(scene, "renderReflections") ? REFLECTIONS : 0) |
+				(bool(scene, "renderRefarctions") ? REFRACTIONS : 0) |
+				(bool(scene, "adaptiveAntiAliasing") ? ADAPTIVE_ANTI_ALIASING : 0) |
+				(bool(scene, "russianRoulette") ? RUSSIAN_ROULETTE : 0);
+		out.putInt(flags)
+			.putDouble(number(scene, "antiAliasingThreshold"))
+			.putDouble(number(scene, "contributionThreshold"))
+			.putInt(scene.get("cheapShadingDepth").getAsInt());
+
+		JsonObject camera = object(scene, "camera");
+		out.putVec(camera, "cameraPosition").putVec(camera, "towardsVec").putVec(camera, "upVec")
+			.putVec(camera, "rightVec").putVec(camera, "imageMiddle")
+			.putDouble(number(camera, "distanceToPlain"))
+			.putDouble(number(camera, "resolutionX"))
+			.putDouble(number(camera, "resolutionY"))
+			.putDouble(number(camera, "viewPlainWidth"));
+		out.putVec(scene, "ambient").putVec(scene, "backgroundColor");
+
+		JsonObject prototypes = scene.getAsJsonObject("prototypes");
+		if(prototypes != null && prototypes.size() > 0)
+			throw new IllegalArgumentException("Prototypes and instances can't be stored in a binary scene file");
+
+		JsonArray lights = array(scene, "lightSources");
+		out.putInt(lights.size());
+		for(JsonElement light : lights)
+			writeLight(out, light.getAsJsonObject());
+
+		//the materials are stored once each, and the surfaces refer to them by index
+		JsonArray surfaces = array(scene, "surfaces");
+		Map<JsonElement, Integer> materials = new LinkedHashMap<>();
+		List<Integer> spheres = new ArrayList<>(), boxes = new ArrayList<>(), plains = new ArrayList<>();
+		for(int i = 0; i < surfaces.size(); ++i) {
+			JsonObject surface = surfaces.get(i).getAsJsonObject();
+			materials.putIfAbsent(object(surface, "material"), materials.size());
+			String className = object(surface, "shape").get("CLASSNAME").getAsString();
+			if(className.equals(Sphere.class.getName()))
+				spheres.add(i);
+			else if(className.equals(AxisAlignedBox.class.getName()))
+				boxes.add(i);
+			else if(className.equals(Plain.class.getName()))
+				plains.add(i);
+			else
+				throw new IllegalArgumentException(className + " can't be stored in a binary scene file");
+		}
+		out.putInt(materials.size());
+		for(JsonElement material : materials.keySet())
+			writeMaterial(out, material.getAsJsonObject());
+
+		out.putInt(surfaces.size());
+		writeSection(out, surfaces, materials, spheres);
+		for(int i : spheres) {
+			JsonObject sphere = shape(surfaces, i);
+			out.putVec(sphere, "center").putDouble(number(sphere, "radius"));
+		}
+		writeSection(out, surfaces, materials, boxes);
+		for(int i : boxes) {
+			JsonObject box = shape(surfaces, i);
+			out.putVec(box, "minPoint").putVec(box, "maxPoint");
+		}
+		writeSection(out, surfaces, materials, plains);
+		for(int i : plains) {
+			JsonObject plain = shape(surfaces, i);
+			out.putDouble(number(plain, "a")).putDouble(number(plain, "b"))
+				.putDouble(number(plain, "c")).putDouble(number(plain, "d"));
+		}
+		return out.buffer.flip();
+	}
+
+	private static void writeLight(Output out, JsonObject light) {
+		String className = light.get("CLASSNAME").getAsString();
+		JsonObject data = object(light, "DATA");
+		if(className.equals(DirectionalLight.class.getName())) {
+			out.putByte(DIRECTIONAL_LIGHT).putVec(data, "intensity").putVec(data, "direction");
+			return;
+		}
+		boolean spotlight = className.equals(Spotlight.class.getName());
+		if(!spotlight && !className.equals(PointLight.class.getName()))
+			throw new IllegalArgumentException(className + " can't be stored in a binary scene file");
+		out.putByte(spotlight ? SPOTLIGHT : POINT_LIGHT).putVec(data, "intensity").putVec(data, "position")
+			.putDouble(number(data, "kq")).putDouble(number(data, "kl")).putDouble(number(data, "kc"));
+		if(spotlight)
+			out.putVec(data, "direction");
+	}
+
+	private static void writeMaterial(Output out, JsonObject material) {
+		out.putVec(material, "Ka").putVec(material, "Kd").putVec(material, "Ks")
+			.putDouble(number(material, "reflectionIntensity"))
+			.putInt(material.get("shininess").getAsInt())
+			.putByte((byte)(bool(material, "isTransparent") ? 1 : 0))
+			.putDouble(number(material, "refractionIntensity"))
+			.putDouble(number(material, "refractionIndex"));
+	}
+
+	private static void writeSection(Output out, JsonArray surfaces, Map<JsonElement, Integer> materials,
+			List<Integer> indices) {
+		out.putInt(indices.size());
+		for(int i : indices)
+			out.putInt(i);
+		for(int i : indices)
+			out.putInt(materials.get(object(surfaces.get(i).getAsJsonObject(), "material")));
+	}
+
+	private static JsonObject shape(JsonArray surfaces, int i) {
+		return object(object(surfaces.get(i).getAsJsonObject(), "shape"), "DATA");
+	}
+
+	private static JsonElement field(JsonObject object, String name) {
+		JsonElement value = object.get(name);
+		if(value == null || value.isJsonNull())
+			throw new IllegalArgumentException("The scene has no " + name);
+		return value;
+	}
+
+	private static JsonObject object(JsonObject object, String name) {
+		return field(object, name).getAsJsonObject();
+	}
+
+	private static JsonArray array(JsonObject object, String name) {
+		return field(object, name).getAsJsonArray();
+	}
+
+	private static double number(JsonObject object, String name) {
+		return field(object, name).getAsDouble();
+	}
+
+	private static boolean bool(JsonObject object, String name) {
+		return field(object, name).getAsBoolean();
+	}
+
+	/**
+	 * A little endian buffer that grows as values are added.
+	 */
+	private static class Output {
+		ByteBuffer buffer = ByteBuffer.allocate(1 << 16).order(ByteOrder.LITTLE_ENDIAN);
+
+		private void ensure(int bytes) {
+			if(buffer.remaining() >= bytes)
+				return;
+			ByteBuffer larger = ByteBuffer.allocate(Math.max(2 * buffer.capacity(), buffer.position() + bytes))
+					.order(ByteOrder.LITTLE_ENDIAN);
+			buffer.flip();
+			larger.put(buffer);
+			buffer = larger;
+		}
+
+		Output putByte(byte value) {
+			ensure(1);
+			buffer.put(value);
+			return this;
+		}
+
+		Output putInt(int value) {
+			ensure(Integer.BYTES);
+			buffer.putInt(value);
+			return this;
+		}
+
+		Output putDouble(double value) {
+			ensure(Double.BYTES);
+			buffer.putDouble(value);
+			return this;
+		}
+
+		Output putString(String value) {
+			byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+			putInt(bytes.length);
+			ensure(bytes.length);
+			buffer.put(bytes);
+			return this;
+		}
+
+		//a Vec or a Point field
+		Output putVec(JsonObject object, String name) {
+			JsonObject vec = object(object, name);
+			return putDouble(number(vec, "x")).putDouble(number(vec, "y")).putDouble(number(vec, "z"));
+		}
+	}
+}
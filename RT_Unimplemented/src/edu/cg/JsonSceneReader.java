@@ -0,0 +1,516 @@
+package edu.cg;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.HashMap;
+import java.util.Map;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonParser;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+
+import edu.cg.algebra.Point;
+import edu.cg.algebra.Vec;
+import edu.cg.menu.GsonMaker;
+import edu.cg.scene.Scene;
+import edu.cg.scene.camera.PinholeCamera;
+import edu.cg.scene.lightSources.DirectionalLight;
+import edu.cg.scene.lightSources.Light;
+import edu.cg.scene.lightSources.PointLight;
+import edu.cg.scene.lightSources.Spotlight;
+import edu.cg.scene.objects.AxisAlignedBox;
+import edu.cg.scene.objects.Group;
+import edu.cg.scene.objects.Instance;
+import edu.cg.scene.objects.Material;
+import edu.cg.scene.objects.Plain;
+import edu.cg.scene.objects.Shape;
+import edu.cg.scene.objects.Sphere;
+import edu.cg.scene.objects.Surface;
+import edu.cg.scene.objects.TriangleMesh;
+
+/**
+ * Reads JSON scene files as a stream of tokens, building the scene as it goes, so the file is never held
+ * in memory as a whole. The scene, the camera, vectors, materials, surfaces and the built-in shapes and
+ * lights are read by the hand-written adapters below instead of Gson's reflection. Shapes and lights of
+ * other classes fall back to Gson, with their class resolved once per name.
+ *
+ * The camera's right vector is skipped and computed from its towards and up vectors. Its image middle
+ * (stored as centerPoint in older files) is read, and computed from its position, towards vector and distance
+ * only when missing, since the towards vector given to the camera's constructor may not have been normalized.
+ * Unknown fields are skipped, and missing ones keep the defaults of the objects.
+ */
+public class JsonSceneReader {
+	private static final String CLASSNAME = "CLASSNAME";
+	private static final String DATA = "DATA";
+
+	private interface Adapter<T> {
+		T read(JsonReader in) throws IOException;
+	}
+
+	private static final Map<String, Adapter<? extends Shape>> SHAPES = new HashMap<>();
+	private static final Map<String, Adapter<? extends Light>> LIGHTS = new HashMap<>();
+
+	//the reader of a confined scene, whose shapes and lights must have adapters
+	private static class ConfinedJsonReader extends JsonReader {
+		ConfinedJsonReader(Reader reader) {
+			super(reader);
+		}
+	}
+	static {
+		SHAPES.put(Sphere.class.getName(), JsonSceneReader::readSphere);
+		SHAPES.put(AxisAlignedBox.class.getName(), JsonSceneReader::readBox);
+		SHAPES.put(Plain.class.getName(), JsonSceneReader::readPlain);
+		SHAPES.put(Group.class.getName(), JsonSceneReader::readGroup);
+		SHAPES.put(Instance.class.getName(), JsonSceneReader::readInstance);
+		SHAPES.put(TriangleMesh.class.getName(), JsonSceneReader::readMesh);
+		LIGHTS.put(DirectionalLight.class.getName(), JsonSceneReader::readDirectionalLight);
+		LIGHTS.put(PointLight.class.getName(), JsonSceneReader::readPointLight);
+		LIGHTS.put(Spotlight.class.getName(), JsonSceneReader::readSpotlight);
+	}
+
+	/**
+	 * Reads a scene file. The paths of its meshes are relative to the file's directory.
+	 */
+	public static Scene read(Path path) throws IOException {
+		return read(Files.newBufferedReader(path), path.toString(), path.toAbsolutePath().getParent());
+	}
+
+	/**
+	 * Reads a scene from the given reader, and closes it. The paths of its meshes are relative to the working directory.
+	 * @param source - the origin of the JSON for error messages, such as its file.
+	 */
+	public static Scene read(Reader reader, String source) throws IOException {
+		return read(reader, source, Paths.get(""));
+	}
+
+	/**
+	 * Reads a scene from the given reader, and closes it.
+	 * @param source - the origin of the JSON for error messages, such as its file.
+	 * @param meshDirectory - the directory the paths of the meshes are relative to, null if meshes may not read files.
+	 */
+	public static Scene read(Reader reader, String source, Path meshDirectory) throws IOException {
+		return read(reader, source, meshDirectory, false);
+	}
+
+	/**
+	 * Same as read(reader, source, meshDirectory), but if confined, for a scene sent by someone else, the meshes'
+	 * files must be in the directory or one of its subdirectories, and only the built-in shapes and lights are read,
+	 * so the scene can't make the reader load any other class.
+	 */
+	public static Scene read(Reader reader, String source, Path meshDirectory, boolean confined) throws IOException {
+		try(JsonReader in = confined ? new ConfinedJsonReader(reader) : new JsonReader(reader)) {
+			//Gson reads scene files leniently too
+			in.setLenient(true);
+			Scene scene = readScene(in);
+			if(in.peek() != JsonToken.END_DOCUMENT)
+				throw new IOException("Unexpected content after the scene in " + source);
+			return scene.readMeshFiles(meshDirectory, confined);
+		} catch(IllegalStateException | NumberFormatException e) {
+			throw new IOException("Malformed scene file " + source + ": " + e.getMessage(), e);
+		}
+	}
+
+	//MARK: scene
+	private static Scene readScene(JsonReader in) throws IOException {
+		Scene scene = new Scene();
+		in.beginObject();
+		while(in.hasNext()) {
+			String field = in.nextName();
+			if(skipNull(in))
+				continue;
+			switch(field) {
+			case "name": scene.initName(in.nextString()); break;
+			case "maxRecursionLevel": scene.initMaxRecursionLevel(in.nextInt()); break;
+			case "antiAliasingFactor": scene.initAntiAliasingFactor(in.nextInt()); break;
+			case "renderRefarctions": scene.initRenderRefarctions(readBoolean(in)); break;
+			case "renderReflections": scene.initRenderReflections(readBoolean(in)); break;
+			case "adaptiveAntiAliasing": scene.initAdaptiveAntiAliasing(readBoolean(in)); break;
+			case "antiAliasingThreshold": scene.initAntiAliasingThreshold(in.nextDouble()); break;
+			case "contributionThreshold": scene.initContributionThreshold(in.nextDouble()); break;
+			case "russianRoulette": scene.initRussianRoulette(readBoolean(in)); break;
+			case "cheapShadingDepth": scene.initCheapShadingDepth(in.nextInt()); break;
+			case "camera": readCamera(in, scene); break;
+			case "ambient": scene.initAmbient(readVec(in)); break;
+			case "backgroundColor": scene.initBackgroundColor(readVec(in)); break;
+			case "lightSources":
+				in.beginArray();
+				while(in.hasNext())
+					scene.addLightSource(readWrapped(in, LIGHTS, Light.class));
+				in.endArray();
+				break;
+			case "surfaces":
+				in.beginArray();
+				while(in.hasNext())
+					scene.addSurface(readSurface(in));
+				in.endArray();
+				break;
+			case "prototypes":
+				in.beginObject();
+				while(in.hasNext()) {
+					String name = in.nextName();
+					scene.addPrototype(name, readWrapped(in, SHAPES, Shape.class));
+				}
+				in.endObject();
+				break;
+			default: in.skipValue();
+			}
+		}
+		in.endObject();
+		return scene;
+	}
+
+	private static void readCamera(JsonReader in, Scene scene) throws IOException {
+		Point position = null, imageMiddle = null;
+		Vec towards = null, up = null;
+		double distance = 1, resolutionX = 200, resolutionY = 200, viewPlainWidth = 2;
+		in.beginObject();
+		while(in.hasNext()) {
+			String field = in.nextName();
+			if(skipNull(in))
+				continue;
+			switch(field) {
+			case "cameraPosition": position = readPoint(in); break;
+			case "towardsVec": towards = readVec(in); break;
+			case "upVec": up = readVec(in); break;
+			case "distanceToPlain": distance = in.nextDouble(); break;
+			case "resolutionX": resolutionX = in.nextDouble(); break;
+			case "resolutionY": resolutionY = in.nextDouble(); break;
+			case "viewPlainWidth": viewPlainWidth = in.nextDouble(); break;
+			case "imageMiddle":
+			case "centerPoint": imageMiddle = readPoint(in); break;
+			//rightVec is derived from the towards and up vectors
+			default: in.skipValue();
+			}
+		}
+		in.endObject();
+		if(position == null || towards == null || up == null)
+			throw new IOException("The camera needs cameraPosition, towardsVec and upVec");
+		PinholeCamera camera = new PinholeCamera(position, towards, up, distance);
+		//the stored vectors are already normalized, normalizing them again may change their last bits
+		camera.towardsVec = towards;
+		camera.upVec = up;
+		camera.rightVec = towards.cross(up).normalize();
+		//the image middle is along the towards vector the camera was created with, which may not have been
+		//normalized, so it can't be derived from the stored one
+		if(imageMiddle != null)
+			camera.imageMiddle = imageMiddle;
+		//render sets the resolution, but keep the file's values until then
+		camera.resolutionX = resolutionX;
+		camera.resolutionY = resolutionY;
+		camera.viewPlainWidth = viewPlainWidth;
+		scene.initCamera(camera);
+	}
+
+	private static Surface readSurface(JsonReader in) throws IOException {
+		Shape shape = null;
+		Material material = null;
+		in.beginObject();
+		while(in.hasNext()) {
+			String field = in.nextName();
+			if(skipNull(in))
+				continue;
+			switch(field) {
+			case "shape": shape = readWrapped(in, SHAPES, Shape.class); break;
+			case "material": material = readMaterial(in); break;
+			default: in.skipValue();
+			}
+		}
+		in.endObject();
+		return new Surface(shape, material);
+	}
+
+	/**
+	 * Reads an object written by GsonMaker: the name of its class and its fields.
+	 */
+	private static <T> T readWrapped(JsonReader in, Map<String, Adapter<? extends T>> adapters, Class<T> base)
+			throws IOException {
+		String className = null;
+		JsonElement early = null;
+		T value = null;
+		boolean confined = in instanceof ConfinedJsonReader;
+		in.beginObject();
+		while(in.hasNext()) {
+			String field = in.nextName();
+			if(field.equals(CLASSNAME))
+				className = in.nextString();
+			else if(field.equals(DATA) && className == null)
+				early = new JsonParser().parse(in); //rare: the fields come before the class name
+			else if(field.equals(DATA))
+				value = adapter(className, adapters, base, confined).read(in);
+			else
+				in.skipValue();
+		}
+		in.endObject();
+		if(className == null)
+			throw new IOException("Missing " + CLASSNAME + " of a " + base.getSimpleName());
+		if(early != null) {
+			StringReader earlyReader = new StringReader(early.toString());
+			try(JsonReader data = confined ? new ConfinedJsonReader(earlyReader) : new JsonReader(earlyReader)) {
+				data.setLenient(true);
+				value = adapter(className, adapters, base, confined).read(data);
+			}
+		}
+		if(value == null)
+			throw new IOException("Missing " + DATA + " of " + className);
+		return value;
+	}
+
+	private static <T> Adapter<? extends T> adapter(String className, Map<String, Adapter<? extends T>> adapters,
+			Class<T> base, boolean confined) throws IOException {
+		Adapter<? extends T> adapter = adapters.get(className);
+		if(adapter != null)
+			return adapter;
+		if(confined)
+			throw new IOException("Unknown " + base.getSimpleName() + " class " + className);
+		Class<?> klass;
+		try {
+			klass = GsonMaker.classForName(className);
+		} catch(ClassNotFoundException e) {
+			throw new IOException("Unknown " + base.getSimpleName() + " class " + className, e);
+		}
+		if(!base.isAssignableFrom(klass))
+			throw new IOException(className + " is not a " + base.getSimpleName());
+		return in -> base.cast(GsonMaker.getInstance().getAdapter(klass).read(in));
+	}
+
+	//MARK: values
+	private static boolean skipNull(JsonReader in) throws IOException {
+		if(in.peek() != JsonToken.NULL)
+			return false;
+		in.nextNull();
+		return true;
+	}
+
+	private static boolean readBoolean(JsonReader in) throws IOException {
+		if(in.peek() == JsonToken.STRING)
+			return Boolean.parseBoolean(in.nextString());
+		return in.nextBoolean();
+	}
+
+	private static double[] readXYZ(JsonReader in) throws IOException {
+		double[] xyz = new double[3];
+		in.beginObject();
+		while(in.hasNext()) {
+			String field = in.nextName();
+			switch(field) {
+			case "x": xyz[0] = in.nextDouble(); break;
+			case "y": xyz[1] = in.nextDouble(); break;
+			case "z": xyz[2] = in.nextDouble(); break;
+			default: in.skipValue();
+			}
+		}
+		in.endObject();
+		return xyz;
+	}
+
+	private static Vec readVec(JsonReader in) throws IOException {
+		double[] xyz = readXYZ(in);
+		return new Vec(xyz[0], xyz[1], xyz[2]);
+	}
+
+	private static Point readPoint(JsonReader in) throws IOException {
+		double[] xyz = readXYZ(in);
+		return new Point(xyz[0], xyz[1], xyz[2]);
+	}
+
+	private static Material readMaterial(JsonReader in) throws IOException {
+		Material material = new Material();
+		in.beginObject();
+		while(in.hasNext()) {
+			String field = in.nextName();
+			if(skipNull(in))
+				continue;
+			switch(field) {
+			case "Ka": material.initKa(readVec(in)); break;
+			case "Kd": material.initKd(readVec(in)); break;
+			case "Ks": material.initKs(readVec(in)); break;
+			case "reflectionIntensity": material.initReflectionIntensity(in.nextDouble()); break;
+			case "shininess": material.initShininess(in.nextInt()); break;
+			case "isTransparent": material.initIsTransparent(readBoolean(in)); break;
+			case "refractionIntensity": material.initRefractionIntensity(in.nextDouble()); break;
+			case "refractionIndex": material.initRefractionIndex(in.nextDouble()); break;
+			default: in.skipValue();
+			}
+		}
+		in.endObject();
+		return material;
+	}
+
+	//MARK: shapes
+	private static Sphere readSphere(JsonReader in) throws IOException {
+		Sphere sphere = new Sphere();
+		in.beginObject();
+		while(in.hasNext()) {
+			String field = in.nextName();
+			if(skipNull(in))
+				continue;
+			switch(field) {
+			case "center": sphere.initCenter(readPoint(in)); break;
+			case "radius": sphere.initRadius(in.nextDouble()); break;
+			default: in.skipValue();
+			}
+		}
+		in.endObject();
+		return sphere;
+	}
+
+	private static AxisAlignedBox readBox(JsonReader in) throws IOException {
+		Point min = new Point(-1.0, -1.0, -1.0), max = new Point(1.0, 1.0, 1.0);
+		in.beginObject();
+		while(in.hasNext()) {
+			String field = in.nextName();
+			if(skipNull(in))
+				continue;
+			switch(field) {
+			case "minPoint": min = readPoint(in); break;
+			case "maxPoint": max = readPoint(in); break;
+			//the name is given by the box's constructor
+			default: in.skipValue();
+			}
+		}
+		in.endObject();
+		return new AxisAlignedBox(min, max);
+	}
+
+	private static Plain readPlain(JsonReader in) throws IOException {
+		Plain defaults = new Plain();
+		double a = defaults.getA(), b = defaults.getB(), c = defaults.getC(), d = defaults.getD();
+		in.beginObject();
+		while(in.hasNext()) {
+			String field = in.nextName();
+			if(skipNull(in))
+				continue;
+			switch(field) {
+			case "a": a = in.nextDouble(); break;
+			case "b": b = in.nextDouble(); break;
+			case "c": c = in.nextDouble(); break;
+			case "d": d = in.nextDouble(); break;
+			default: in.skipValue();
+			}
+		}
+		in.endObject();
+		return new Plain(a, b, c, d);
+	}
+
+	private static Group readGroup(JsonReader in) throws IOException {
+		Group group = new Group();
+		in.beginObject();
+		while(in.hasNext()) {
+			String field = in.nextName();
+			if(skipNull(in))
+				continue;
+			switch(field) {
+			case "shapes":
+				in.beginArray();
+				while(in.hasNext())
+					group.addShape(readWrapped(in, SHAPES, Shape.class));
+				in.endArray();
+				break;
+			default: in.skipValue();
+			}
+		}
+		in.endObject();
+		return group;
+	}
+
+	private static Instance readInstance(JsonReader in) throws IOException {
+		Instance instance = new Instance();
+		in.beginObject();
+		while(in.hasNext()) {
+			String field = in.nextName();
+			if(skipNull(in))
+				continue;
+			switch(field) {
+			case "prototype": instance.initPrototype(in.nextString()); break;
+			case "translation": instance.initTranslation(readVec(in)); break;
+			case "scale": instance.initScale(in.nextDouble()); break;
+			default: in.skipValue();
+			}
+		}
+		in.endObject();
+		return instance;
+	}
+
+	private static TriangleMesh readMesh(JsonReader in) throws IOException {
+		String file = null;
+		in.beginObject();
+		while(in.hasNext()) {
+			String field = in.nextName();
+			if(skipNull(in))
+				continue;
+			switch(field) {
+			case "file": file = in.nextString(); break;
+			//the checksum is computed again from the file as it is now
+			default: in.skipValue();
+			}
+		}
+		in.endObject();
+		if(file == null)
+			throw new IOException("A triangle mesh has no file");
+		//read with the other meshes once the scene is complete (see Scene.readMeshFiles)
+		return new TriangleMesh(file);
+	}
+
+	//MARK: lights
+	private static DirectionalLight readDirectionalLight(JsonReader in) throws IOException {
+		DirectionalLight light = new DirectionalLight();
+		in.beginObject();
+		while(in.hasNext()) {
+			String field = in.nextName();
+			if(skipNull(in))
+				continue;
+			switch(field) {
+			case "intensity": light.initIntensity(readVec(in)); break;
+			case "direction": light.initDirection(readVec(in)); break;
+			default: in.skipValue();
+			}
+		}
+		in.endObject();
+		return light;
+	}
+
+	private static PointLight readPointLight(JsonReader in) throws IOException {
+		return readPointLight(in, new PointLight(), null);
+	}
+
+	private static Spotlight readSpotlight(JsonReader in) throws IOException {
+		Spotlight light = new Spotlight();
+		readPointLight(in, light, light);
+		return light;
+	}
+
+	/**
+	 * Reads the fields of a point light, and the direction of a spotlight if spotlight isn't null.
+	 */
+	private static PointLight readPointLight(JsonReader in, PointLight light, Spotlight spotlight) throws IOException {
+		double[] decay = light.getDecayFactors();
+		in.beginObject();
+		while(in.hasNext()) {
+			String field = in.nextName();
+			if(skipNull(in))
+				continue;
+			switch(field) {
+			case "intensity": light.initIntensity(readVec(in)); break;
+			case "position": light.initPosition(readPoint(in)); break;
+			case "kq": decay[0] = in.nextDouble(); break;
+			case "kl": decay[1] = in.nextDouble(); break;
+			case "kc": decay[2] = in.nextDouble(); break;
+			case "direction":
+				if(spotlight == null)
+					in.skipValue();
+				else
+					spotlight.initDirection(readVec(in));
+				break;
+			default: in.skipValue();
+			}
+		}
+		in.endObject();
+		light.initDecayFactors(decay[0], decay[1], decay[2]);
+		return light;
+	}
+}
@@ -0,0 +1,115 @@
+package edu.cg;
+
+import java.awt.image.BufferedImage;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+
+import edu.cg.scene.Scene;
+
+/**
+ * The difference between a render of a scene in double precision and in single precision
+ * (Scene.initSinglePrecision), to decide per scene whether the faster single precision render is good enough.
+ * Scripts can read the getters or serialize the object with Gson.
+ */
+public class PrecisionReport {
+	private final String sceneName;
+	private final int width, height;
+	private final long differingPixels;
+	private final int maxChannelDifference;
+	private final double meanChannelDifference;
+	private final double psnr; //peak signal to noise ratio in dB, infinite for identical images
+	private final double doubleSeconds, floatSeconds;
+
+	private PrecisionReport(String sceneName, int width, int height, long differingPixels, int maxChannelDifference,
+			double meanChannelDifference, double psnr, double doubleSeconds, double floatSeconds) {
+		this.sceneName = sceneName;
+		this.width = width;
+		this.height = height;
+		this.differingPixels = differingPixels;
+		this.maxChannelDifference = maxChannelDifference;
+		this.meanChannelDifference = meanChannelDifference;
+		this.psnr = psnr;
+		this.doubleSeconds = doubleSeconds;
+		this.floatSeconds = floatSeconds;
+	}
+
+	/**
+	 * Renders the scene in double and in single precision and compares the pixels.
+	 * The scene is left with the precision it had.
+	 */
+	public static PrecisionReport compare(Scene scene, int imgWidth, int imgHeight, double viewPlainWidth,
+			Logger logger, ForkJoinPool executor) throws InterruptedException, ExecutionException {
+		boolean singlePrecision = scene.getSinglePrecision();
+		int[][] pixels = new int[2][];
+		double[] seconds = new double[2];
+		try {
+			for(int i = 0; i < 2; ++i) {
+				scene.initSinglePrecision(i == 1);
+				long start = System.nanoTime();
+				BufferedImage img = scene.render(imgWidth, imgHeight, viewPlainWidth, logger, executor);
+				seconds[i] = (System.nanoTime() - start) / 1e9;
+				pixels[i] = img.getRGB(0, 0, imgWidth, imgHeight, null, 0, imgWidth);
+			}
+		} finally {
+			scene.initSinglePrecision(singlePrecision);
+		}
+
+		long differing = 0, sum = 0;
+		double squares = 0;
+		int max = 0;
+		for(int i = 0; i < pixels[0].length; ++i) {
+			int a = pixels[0][i], b = pixels[1][i];
+			if(a == b)
+				continue;
+			++differing;
+			for(int shift = 0; shift < 24; shift += 8) {
+				int difference = Math.abs(((a >>> shift) & 0xff) - ((b >>> shift) & 0xff));
+				max = Math.max(max, difference);
+				sum += difference;
+				squares += (double)difference * difference;
+			}
+		}
+		long channels = 3L * pixels[0].length;
+		double psnr = squares == 0 ? Double.POSITIVE_INFINITY : 10 * Math.log10(255.0 * 255.0 * channels / squares);
+		return new PrecisionReport(scene.getName(), imgWidth, imgHeight, differing, max, (double)sum / channels, psnr,
+				seconds[0], seconds[1]);
+	}
+
+	//MARK: getters
+	public String getSceneName() {
+		return sceneName;
+	}
+
+	public long getDifferingPixels() {
+		return differingPixels;
+	}
+
+	public int getMaxChannelDifference() {
+		return maxChannelDifference;
+	}
+
+	public double getMeanChannelDifference() {
+		return meanChannelDifference;
+	}
+
+	public double getPsnr() {
+		return psnr;
+	}
+
+	public double getDoubleSeconds() {
+		return doubleSeconds;
+	}
+
+	public double getFloatSeconds() {
+		return floatSeconds;
+	}
+
+	@Override
+	public String toString() {
+		long pixels = (long)width * height;
+		return String.format("Single precision: %d of %d pixels differ (%.3f%%), by at most %d and on average %.4f per channel, " +
+				"PSNR %.1f dB; rendered in %.3f s instead of %.3f s",
+				differingPixels, pixels, 100.0 * differingPixels / pixels, maxChannelDifference, meanChannelDifference,
+				psnr, floatSeconds, doubleSeconds);
+	}
+}
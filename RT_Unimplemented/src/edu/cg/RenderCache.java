@@ -0,0 +1,220 @@
+package edu.cg;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.Stream;
+
+import javax.imageio.ImageIO;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+
+import edu.cg.image.PngWriter;
+import edu.cg.image.RowSource;
+import edu.cg.menu.GsonMaker;
+import edu.cg.scene.Scene;
+import edu.cg.scene.objects.AxisAlignedBox;
+
+/**
+ * An on-disk cache of rendered images, keyed by the content of the scene and the render parameters.
+ * The images are stored as PNG files in the cache folder, and the least recently used ones are deleted
+ * once the files take more than the maximal size. Rendering is deterministic, so an image found in the cache
+ * is exactly the image that rendering the scene again would give (see checkDeterminism).
+ * A cache may be shared by several threads.
+ */
+public class RenderCache {
+	//change when the renderer changes in a way that changes the rendered pixels
+	private static final String RENDERER_VERSION = "1";
+	private static final String EXTENSION = ".png";
+
+	private final Path folder;
+	private final long maxBytes;
+
+	/**
+	 * @param folder - the cache folder, created if it doesn't exist.
+	 * @param maxBytes - the maximal total size of the cached images.
+	 */
+	public RenderCache(Path folder, long maxBytes) throws IOException {
+		if(maxBytes <= 0)
+			throw new IllegalArgumentException("Cache size must be positive");
+		this.folder = Files.createDirectories(folder);
+		this.maxBytes = maxBytes;
+	}
+
+	/**
+	 * Computes the key of a render: a SHA-256 hash of the scene's Gson serialization and the render parameters.
+	 * The names of the scene and its shapes and the resolution stored in its camera are left out, since they
+	 * don't change the image (render sets the resolution from its parameters).
+	 */
+	public static String key(Scene scene, int imgWidth, int imgHeight, double viewPlainWidth) {
+		JsonObject json = GsonMaker.getInstance().toJsonTree(scene).getAsJsonObject();
+		json.remove("name");
+		JsonObject camera = json.getAsJsonObject("camera");
+		if(camera != null) {
+			camera.remove("resolutionX");
+			camera.remove("resolutionY");
+			camera.remove("viewPlainWidth");
+		}
+		//boxes are named by a counter that differs between loads of a scene
+		removeBoxNames(json.get("surfaces"));
+		removeBoxNames(json.get("prototypes"));
+		String canonical = RENDERER_VERSION + "|" + imgWidth + "x" + imgHeight + "|" +
+				Double.doubleToLongBits(viewPlainWidth) + (scene.getSinglePrecision() ? "|float" : "") + "|" + json;
+		try {
+			byte[] hash = MessageDigest.getInstance("SHA-256").digest(canonical.getBytes(StandardCharsets.UTF_8));
+			StringBuilder key = new StringBuilder();
+			for(byte b : hash)
+				key.append(String.format("%02x", b));
+			return key.toString();
+		} catch(NoSuchAlgorithmException e) {
+			throw new IllegalStateException("SHA-256 is not available", e);
+		}
+	}
+
+	//removes the name field of the boxes only, so other "name" keys, such as a prototype called name, stay in the key
+	private static void removeBoxNames(JsonElement element) {
+		if(element == null)
+			return;
+		if(element.isJsonArray()) {
+			for(JsonElement child : element.getAsJsonArray())
+				removeBoxNames(child);
+		} else if(element.isJsonObject()) {
+			JsonObject object = element.getAsJsonObject();
+			JsonElement className = object.get(GsonMaker.CLASSNAME);
+			if(className != null && className.isJsonPrimitive() && className.getAsString().equals(AxisAlignedBox.class.getName())
+					&& object.get(GsonMaker.DATA) instanceof JsonObject)
+				object.getAsJsonObject(GsonMaker.DATA).remove("name");
+			for(Map.Entry<String, JsonElement> child : object.entrySet())
+				removeBoxNames(child.getValue());
+		}
+	}
+
+	/**
+	 * Returns the cached image of the key and marks it as recently used, or null if it isn't cached.
+	 */
+	public synchronized BufferedImage get(String key) throws IOException {
+		Path file = file(key);
+		if(!Files.exists(file))
+			return null;
+		BufferedImage img = ImageIO.read(file.toFile());
+		if(img == null)
+			return null;
+		Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis()));
+		return img;
+	}
+
+	/**
+	 * Stores the image of the key, and deletes the least recently used images while the cache is too big.
+	 */
+	public void put(String key, BufferedImage img) throws IOException {
+		put(key, img, ForkJoinPool.commonPool());
+	}
+
+	/**
+	 * Stores the image of the key like put(String, BufferedImage), compressing it on the given pool.
+	 */
+	public synchronized void put(String key, BufferedImage img, ForkJoinPool pool) throws IOException {
+		Path file = file(key);
+		Path temp = Files.createTempFile(folder, key, ".tmp");
+		try {
+			PngWriter.write(RowSource.of(img), temp, pool);
+			Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} finally {
+			Files.deleteIfExists(temp);
+		}
+		evict();
+	}
+
+	/**
+	 * Returns the total size of the cached images.
+	 */
+	public synchronized long size() throws IOException {
+		long size = 0;
+		for(Path file : cachedFiles())
+			size += Files.size(file);
+		return size;
+	}
+
+	private Path file(String key) {
+		return folder.resolve(key + EXTENSION);
+	}
+
+	private List<Path> cachedFiles() throws IOException {
+		try(Stream<Path> files = Files.list(folder)) {
+			List<Path> cached = new ArrayList<>();
+			files.filter(f -> f.getFileName().toString().endsWith(EXTENSION)).forEach(cached::add);
+			return cached;
+		}
+	}
+
+	private void evict() throws IOException {
+		List<Path> files = cachedFiles();
+		long size = 0;
+		for(Path file : files)
+			size += Files.size(file);
+		if(size <= maxBytes)
+			return;
+
+		Map<Path, FileTime> lastUsed = new HashMap<>();
+		for(Path file : files)
+			lastUsed.put(file, Files.getLastModifiedTime(file));
+		files.sort(Comparator.comparing(lastUsed::get));
+		for(int i = 0; i < files.size() && size > maxBytes; ++i) {
+			size -= Files.size(files.get(i));
+			Files.delete(files.get(i));
+		}
+	}
+
+	/**
+	 * Renders the scene with each of the given numbers of threads and compares the pixels.
+	 * The cache relies on a key always giving the same pixels, so this should always succeed.
+	 * @return null if all the renders are identical, otherwise a description of the first difference.
+	 */
+	public static String checkDeterminism(Scene scene, int imgWidth, int imgHeight, double viewPlainWidth,
+			Logger logger, int... threadCounts) throws InterruptedException, ExecutionException {
+		int[] reference = null;
+		int referenceThreads = 0;
+		for(int nThreads : threadCounts) {
+			ForkJoinPool executor = new ForkJoinPool(nThreads);
+			BufferedImage img;
+			try {
+				img = scene.render(imgWidth, imgHeight, viewPlainWidth, logger, executor);
+			} finally {
+				executor.shutdown();
+			}
+			int[] pixels = img.getRGB(0, 0, imgWidth, imgHeight, null, 0, imgWidth);
+			if(reference == null) {
+				reference = pixels;
+				referenceThreads = nThreads;
+				continue;
+			}
+			for(int i = 0; i < pixels.length; ++i) {
+				if(pixels[i] != reference[i])
+					return String.format("pixel (%d, %d) is %06x with %d threads and %06x with %d threads",
+							i % imgWidth, i / imgWidth, reference[i] & 0xffffff, referenceThreads,
+							pixels[i] & 0xffffff, nThreads);
+			}
+		}
+		return null;
+	}
+
+	@Override
+	public String toString() {
+		return folder + File.separator + " (up to " + maxBytes / (1024 * 1024) + " MB)";
+	}
+}
@@ -0,0 +1,213 @@
+package edu.cg;
+
+import edu.cg.algebra.Ops;
+import edu.cg.scene.Scene;
+
+/**
+ * The rendering parameters that RenderingParametersSelector lets the user choose, for tools without a GUI.
+ * The anti aliasing factor, the recursion level and the reflection/refraction flags are optional:
+ * if they are not set, the values stored in the scene are used.
+ */
+public class RenderParameters {
+	private int width = 400;
+	private int height = 400;
+	private double viewPlainWidth = 4.0;
+	private Integer antiAliasingFactor = null;
+	private Integer maxRecursionLevel = null;
+	private Boolean renderReflections = null;
+	private Boolean renderRefarctions = null;
+	private Boolean adaptiveAntiAliasing = null;
+	private Double antiAliasingThreshold = null;
+	private Double contributionThreshold = null;
+	private Boolean russianRoulette = null;
+	private Integer cheapShadingDepth = null;
+	
+	public RenderParameters initWidth(int width) {
+		if(width <= 0)
+			throw new IllegalArgumentException("Width argument must be positive");
+		this.width = width;
+		return this;
+	}
+	
+	public RenderParameters initHeight(int height) {
+		if(height <= 0)
+			throw new IllegalArgumentException("Height argument must be positive");
+		this.height = height;
+		return this;
+	}
+	
+	public RenderParameters initViewPlainWidth(double viewPlainWidth) {
+		if(viewPlainWidth <= Ops.epsilon)
+			throw new IllegalArgumentException("View plain width argument must be positive");
+		this.viewPlainWidth = viewPlainWidth;
+		return this;
+	}
+	
+	public RenderParameters initAntiAliasingFactor(int antiAliasingFactor) {
+		if(antiAliasingFactor < 1 | antiAliasingFactor > 3)
+			throw new IllegalArgumentException("Anti aliasing factor must be 1, 2 or 3.");
+		this.antiAliasingFactor = antiAliasingFactor;
+		return this;
+	}
+	
+	public RenderParameters initMaxRecursionLevel(int maxRecursionLevel) {
+		if(maxRecursionLevel < 1 | maxRecursionLevel > Scene.MAX_RECURSION_LEVEL)
+			throw new IllegalArgumentException("Recursion level must be an Integer between 1 to " + Scene.MAX_RECURSION_LEVEL + ".");
+		this.maxRecursionLevel = maxRecursionLevel;
+		return this;
+	}
+	
+	public RenderParameters initRenderReflections(boolean renderReflections) {
+		this.renderReflections = renderReflections;
+		return this;
+	}
+	
+	public RenderParameters initRenderRefarctions(boolean renderRefarctions) {
+		this.renderRefarctions = renderRefarctions;
+		return this;
+	}
+	
+	public RenderParameters initAdaptiveAntiAliasing(boolean adaptiveAntiAliasing) {
+		this.adaptiveAntiAliasing = adaptiveAntiAliasing;
+		return this;
+	}
+	
+	public RenderParameters initAntiAliasingThreshold(double antiAliasingThreshold) {
+		if(antiAliasingThreshold < 0.0 | antiAliasingThreshold > 1.0)
+			throw new IllegalArgumentException("Anti aliasing threshold must be between 0 and 1.");
+		this.antiAliasingThreshold = antiAliasingThreshold;
+		return this;
+	}
+	
+	public RenderParameters initContributionThreshold(double contributionThreshold) {
+		if(contributionThreshold < 0.0 | contributionThreshold > 1.0)
+			throw new IllegalArgumentException("Contribution threshold must be between 0 and 1.");
+		this.contributionThreshold = contributionThreshold;
+		return this;
+	}
+	
+	public RenderParameters initRussianRoulette(boolean russianRoulette) {
+		this.russianRoulette = russianRoulette;
+		return this;
+	}
+	
+	public RenderParameters initCheapShadingDepth(int cheapShadingDepth) {
+		if(cheapShadingDepth < 0)
+			throw new IllegalArgumentException("Cheap shading depth must not be negative.");
+		this.cheapShadingDepth = cheapShadingDepth;
+		return this;
+	}
+	
+	/**
+	 * Sets a parameter by the name of its BatchRenderer option without the leading dashes ("aa" for --aa),
+	 * so the tools that take the parameters as text name them the same way.
+	 * @return false if the name is not a rendering parameter.
+	 * @throws NumberFormatException if a number is malformed.
+	 */
+	public boolean initOption(String name, String value) {
+		switch(name) {
+		case "width":
+			initWidth(Integer.parseInt(value));
+			return true;
+		case "height":
+			initHeight(Integer.parseInt(value));
+			return true;
+		case "view-width":
+			initViewPlainWidth(Double.parseDouble(value));
+			return true;
+		case "aa":
+			initAntiAliasingFactor(Integer.parseInt(value));
+			return true;
+		case "adaptive-aa":
+			initAdaptiveAntiAliasing(parseSwitch(name, value));
+			return true;
+		case "aa-threshold":
+			initAntiAliasingThreshold(Double.parseDouble(value));
+			return true;
+		case "recursion":
+			initMaxRecursionLevel(Integer.parseInt(value));
+			return true;
+		case "min-contribution":
+			initContributionThreshold(Double.parseDouble(value));
+			return true;
+		case "roulette":
+			initRussianRoulette(parseSwitch(name, value));
+			return true;
+		case "cheap-shading":
+			initCheapShadingDepth(Integer.parseInt(value));
+			return true;
+		case "reflections":
+			initRenderReflections(parseSwitch(name, value));
+			return true;
+		case "refractions":
+			initRenderRefarctions(parseSwitch(name, value));
+			return true;
+		default:
+			return false;
+		}
+	}
+	
+	/**
+	 * Parses the value of an on|off option.
+	 */
+	public static boolean parseSwitch(String name, String value) {
+		switch(value) {
+		case "on":
+			return true;
+		case "off":
+			return false;
+		default:
+			throw new IllegalArgumentException(name + " must be on or off");
+		}
+	}
+	
+	public int width() {
+		return width;
+	}
+	
+	public int height() {
+		return height;
+	}
+	
+	public double viewPlainWidth() {
+		return viewPlainWidth;
+	}
+	
+	/**
+	 * Overrides the scene's parameters with the ones that were set.
+	 */
+	public void applyTo(Scene scene) {
+		if(antiAliasingFactor != null)
+			scene.initAntiAliasingFactor(antiAliasingFactor);
+		if(maxRecursionLevel != null)
+			scene.initMaxRecursionLevel(maxRecursionLevel);
+		if(renderReflections != null)
+			scene.initRenderReflections(renderReflections);
+		if(renderRefarctions != null)
+			scene.initRenderRefarctions(renderRefarctions);
+		if(adaptiveAntiAliasing != null)
+			scene.initAdaptiveAntiAliasing(adaptiveAntiAliasing);
+		if(antiAliasingThreshold != null)
+			scene.initAntiAliasingThreshold(antiAliasingThreshold);
+		if(contributionThreshold != null)
+			scene.initContributionThreshold(contributionThreshold);
+		if(russianRoulette != null)
+			scene.initRussianRoulette(russianRoulette);
+		if(cheapShadingDepth != null)
+			scene.initCheapShadingDepth(cheapShadingDepth);
+	}
+	
+	@Override
+	public String toString() {
+		return width + "x" + height + ", view plain width " + viewPlainWidth +
+				(antiAliasingFactor != null ? ", anti aliasing x" + antiAliasingFactor : "") +
+				(maxRecursionLevel != null ? ", max recursion level " + maxRecursionLevel : "") +
+				(renderReflections != null ? ", reflections " + (renderReflections ? "on" : "off") : "") +
+				(renderRefarctions != null ? ", refractions " + (renderRefarctions ? "on" : "off") : "") +
+				(adaptiveAntiAliasing != null ? ", adaptive anti aliasing " + (adaptiveAntiAliasing ? "on" : "off") : "") +
+				(antiAliasingThreshold != null ? ", anti aliasing threshold " + antiAliasingThreshold : "") +
+				(contributionThreshold != null ? ", contribution threshold " + contributionThreshold : "") +
+				(russianRoulette != null ? ", Russian roulette " + (russianRoulette ? "on" : "off") : "") +
+				(cheapShadingDepth != null ? ", cheap shading depth " + cheapShadingDepth : "");
+	}
+}
@@ -0,0 +1,36 @@
+package edu.cg;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+import edu.cg.scene.Scene;
+
+/**
+ * A command line tool that converts scene files between the JSON and the binary format.
+ * The format of each file is chosen by its extension (see SceneIO).
+ *
+ * Usage: SceneConverter in.json out.rtscene
+ */
+public class SceneConverter {
+	
+	public static void main(String[] args) {
+		if(args.length != 2) {
+			System.err.println("Usage: SceneConverter <input scene> <output scene>" + System.lineSeparator() +
+					"Files ending with " + SceneIO.BINARY_EXTENSION + " are binary scene files, all others are JSON.");
+			System.exit(2);
+		}
+		Path input = Paths.get(args[0]);
+		Path output = Paths.get(args[1]);
+		try {
+			long start = System.nanoTime();
+			Scene scene = SceneIO.load(input);
+			long loaded = System.nanoTime();
+			SceneIO.save(scene, output);
+			System.out.printf("Converted %s to %s (loaded in %.1f ms, written in %.1f ms)%n", input, output,
+					(loaded - start) / 1e6, (System.nanoTime() - loaded) / 1e6);
+		} catch(Exception e) {
+			System.err.println("Can't convert " + input + ": " + e);
+			System.exit(1);
+		}
+	}
+}
@@ -0,0 +1,55 @@
+package edu.cg;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+import com.google.gson.Gson;
+
+import edu.cg.menu.GsonMaker;
+import edu.cg.scene.Scene;
+
+/**
+ * Reads and writes scene files. This class doesn't depend on Swing, so it can be used by headless tools.
+ * Files with the binary extension are binary scene files (see BinaryScene), all others are JSON files,
+ * read by JsonSceneReader.
+ */
+public class SceneIO {
+	public static final String BINARY_EXTENSION = ".rtscene";
+	
+	public static boolean isBinary(Path path) {
+		return path.getFileName().toString().toLowerCase().endsWith(BINARY_EXTENSION);
+	}
+	
+	public static Scene load(String filename) throws IOException {
+		return load(Paths.get(filename));
+	}
+	
+	public static Scene load(Path path) throws IOException {
+		if(isBinary(path))
+			return BinaryScene.read(path);
+		return JsonSceneReader.read(path);
+	}
+	
+	/**
+	 * Loads a JSON scene with Gson's reflection from a string of the whole file.
+	 * This was the only loader before JsonSceneReader, and is kept to compare against it. The meshes are read
+	 * as JsonSceneReader reads them, so their checksums are the ones of their files as they are.
+	 */
+	public static Scene loadWithGson(Path path) throws IOException {
+		Gson gson = GsonMaker.getInstance();
+		String json = new String(Files.readAllBytes(path));
+		return gson.fromJson(json, Scene.class).readMeshFiles(path.toAbsolutePath().getParent());
+	}
+	
+	public static void save(Scene scene, Path path) throws IOException {
+		if(isBinary(path)) {
+			BinaryScene.write(scene, path);
+			return;
+		}
+		Gson gson = GsonMaker.getInstance();
+		Files.write(path, gson.toJson(scene).getBytes(StandardCharsets.UTF_8));
+	}
+}
@@ -8,6 +8,8 @@ import edu.cg.scene.lightSources.Light;
 import edu.cg.scene.lightSources.PointLight;
 import edu.cg.scene.lightSources.Spotlight;
 import edu.cg.scene.objects.AxisAlignedBox;
+import edu.cg.scene.objects.Group;
+import edu.cg.scene.objects.Instance;
 import edu.cg.scene.objects.Material;
 import edu.cg.scene.objects.Plain;
 import edu.cg.scene.objects.Shape;
@@ -182,4 +184,44 @@ public class Scenes {
 				.initRenderRefarctions(true).initRenderReflections(true).initMaxRecursionLevel(6);
 	}
 
+	/**
+	 * A field of the pyramid of scene 4, placed 49 times at different sizes by instances of one group.
+	 */
+	public static Scene scene7() {
+		int pyramidHeight = 4, grid = 7;
+		Group pyramid = new Group();
+		for (int currentHeight = 0; currentHeight < pyramidHeight; currentHeight++) {
+			int numOfBoxes = (int)Math.pow(2, pyramidHeight - 1) - 2 * currentHeight;
+			for (int i = 0; i < numOfBoxes; i++) {
+				for (int j = 0; j < numOfBoxes; j++) {
+					pyramid.addShape(new AxisAlignedBox(new Point(currentHeight + i, currentHeight + j, currentHeight),
+							new Point(currentHeight + i + 1, currentHeight + j + 1, currentHeight + 1)));
+				}
+			}
+		}
+		Scene scene = new Scene().initName("scene7").initAmbient(new Vec(0.33))
+				.initRenderReflections(true).initMaxRecursionLevel(3)
+				.addPrototype("pyramid", pyramid);
+		Point cameraPosition = new Point(-30.0, -30.0, 25.0);
+		scene.initCamera(cameraPosition, new Vec(1.0, 1.0, -0.6), new Vec(0.0, 0.0, 1.0), 1.5);
+		scene.addLightSource(new DirectionalLight().initDirection(new Vec(-0.5, -0.3, -1.0)).initIntensity(new Vec(0.6)));
+		scene.addLightSource(new PointLight().initPosition(new Point(20.0, -10.0, 30.0)).initIntensity(new Vec(0.8)));
+
+		Material[] materials = {
+				new Material().initKd(new Vec(0.8, 0.3, 0.2)).initReflectionIntensity(0.1),
+				new Material().initKd(new Vec(0.2, 0.6, 0.3)).initReflectionIntensity(0.1),
+				new Material().initKd(new Vec(0.3, 0.4, 0.9)).initReflectionIntensity(0.1),
+				Material.getMetalMaterial() };
+		for (int i = 0; i < grid; i++) {
+			for (int j = 0; j < grid; j++) {
+				double scale = 0.5 + 0.25 * ((i + 2 * j) % 4);
+				Instance instance = new Instance("pyramid", new Vec(12.0 * (i - grid / 2), 12.0 * (j - grid / 2), 0.0), scale);
+				scene.addSurface(new Surface(instance, materials[(i + j) % materials.length]));
+			}
+		}
+		Plain floor = new Plain(new Vec(0.0, 0.0, 1.0), new Point(0.0, 0.0, 0.0));
+		scene.addSurface(new Surface(floor, Material.getGlassMaterial(false).initShininess(10).initReflectionIntensity(0.3)));
+		return scene;
+	}
+
 }
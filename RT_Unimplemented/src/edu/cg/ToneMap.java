@@ -0,0 +1,93 @@
+package edu.cg;
+
+import java.awt.image.BufferedImage;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.ForkJoinPool;
+
+import edu.cg.image.HdrFramebuffer;
+import edu.cg.image.PngWriter;
+import edu.cg.image.RowSource;
+import edu.cg.image.TiffWriter;
+import edu.cg.image.ToneMapper;
+
+/**
+ * A command line tool that tone maps a PFM image written by BatchRenderer --hdr on into a PNG or TIFF image,
+ * so the exposure and the gamma of a render can be changed without tracing the scene again.
+ *
+ * Usage: ToneMap [--exposure E] [--gamma G] in.pfm out.png
+ */
+public class ToneMap {
+	private static final String USAGE = String.join(System.lineSeparator(),
+			"Usage: ToneMap [options] <input.pfm> <output.png|output.tiff>",
+			"Options:",
+			"  --exposure E    multiply the colors by 2^E (default 0)",
+			"  --gamma G       raise the colors to 1/G (default 1)",
+			"  --threads N     number of threads (default: number of cores)");
+
+	public static void main(String[] args) {
+		System.setProperty("java.awt.headless", "true");
+
+		ToneMapper toneMapper = new ToneMapper();
+		int nThreads = Runtime.getRuntime().availableProcessors();
+		String[] files = new String[2];
+		int fileCount = 0;
+		try {
+			for(int i = 0; i < args.length; ++i) {
+				String arg = args[i];
+				if(!arg.startsWith("--")) {
+					if(fileCount == files.length)
+						throw new IllegalArgumentException("Too many files");
+					files[fileCount++] = arg;
+					continue;
+				}
+				if(i + 1 >= args.length)
+					throw new IllegalArgumentException("Missing value for " + arg);
+				String value = args[++i];
+				switch(arg) {
+				case "--exposure":
+					toneMapper.initExposure(Double.parseDouble(value));
+					break;
+				case "--gamma":
+					toneMapper.initGamma(Double.parseDouble(value));
+					break;
+				case "--threads":
+					nThreads = Integer.parseInt(value);
+					if(nThreads <= 0)
+						throw new IllegalArgumentException("--threads must be positive");
+					break;
+				default:
+					throw new IllegalArgumentException("Unknown option " + arg);
+				}
+			}
+			if(fileCount != files.length)
+				throw new IllegalArgumentException("An input and an output file are needed");
+		} catch(IllegalArgumentException e) {
+			System.err.println(e.getMessage());
+			System.err.println(USAGE);
+			System.exit(2);
+		}
+
+		Path input = Paths.get(files[0]);
+		Path output = Paths.get(files[1]);
+		ForkJoinPool pool = new ForkJoinPool(nThreads);
+		try {
+			long start = System.nanoTime();
+			HdrFramebuffer hdr = HdrFramebuffer.readPfm(input);
+			long loaded = System.nanoTime();
+			BufferedImage img = toneMapper.map(hdr, pool);
+			long mapped = System.nanoTime();
+			if(output.toString().endsWith(".tiff") || output.toString().endsWith(".tif"))
+				TiffWriter.write(RowSource.of(img), output);
+			else
+				PngWriter.write(RowSource.of(img), output, pool);
+			System.out.printf("Tone mapped %s to %s with %s (read in %.1f ms, mapped in %.1f ms, written in %.1f ms)%n",
+					input, output, toneMapper, (loaded - start) / 1e6, (mapped - loaded) / 1e6, (System.nanoTime() - mapped) / 1e6);
+		} catch(Exception e) {
+			System.err.println("Can't tone map " + input + ": " + e);
+			System.exit(1);
+		} finally {
+			pool.shutdown();
+		}
+	}
+}
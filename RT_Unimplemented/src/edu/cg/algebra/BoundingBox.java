@@ -0,0 +1,61 @@
+package edu.cg.algebra;
+
+public class BoundingBox {
+	public final double minX, minY, minZ;
+	public final double maxX, maxY, maxZ;
+	
+	public BoundingBox(double minX, double minY, double minZ, double maxX, double maxY, double maxZ) {
+		this.minX = minX;
+		this.minY = minY;
+		this.minZ = minZ;
+		this.maxX = maxX;
+		this.maxY = maxY;
+		this.maxZ = maxZ;
+	}
+	
+	/**
+	 * Creates the box spanned by the two given corners (in any order).
+	 */
+	public BoundingBox(Point p1, Point p2) {
+		this(Math.min(p1.x, p2.x), Math.min(p1.y, p2.y), Math.min(p1.z, p2.z),
+				Math.max(p1.x, p2.x), Math.max(p1.y, p2.y), Math.max(p1.z, p2.z));
+	}
+	
+	/**
+	 * Returns the smallest box containing both this box and the other box.
+	 */
+	public BoundingBox union(BoundingBox other) {
+		return new BoundingBox(Math.min(minX, other.minX), Math.min(minY, other.minY), Math.min(minZ, other.minZ),
+				Math.max(maxX, other.maxX), Math.max(maxY, other.maxY), Math.max(maxZ, other.maxZ));
+	}
+	
+	/**
+	 * Returns a copy of this box grown by the given margin in every direction.
+	 */
+	public BoundingBox expand(double margin) {
+		return new BoundingBox(minX - margin, minY - margin, minZ - margin,
+				maxX + margin, maxY + margin, maxZ + margin);
+	}
+	
+	public double surfaceArea() {
+		double dx = maxX - minX, dy = maxY - minY, dz = maxZ - minZ;
+		return 2.0 * (dx * dy + dy * dz + dz * dx);
+	}
+	
+	public Point center() {
+		return new Point((minX + maxX) / 2.0, (minY + maxY) / 2.0, (minZ + maxZ) / 2.0);
+	}
+	
+	public double min(int axis) {
+		return axis == 0 ? minX : (axis == 1 ? minY : minZ);
+	}
+	
+	public double max(int axis) {
+		return axis == 0 ? maxX : (axis == 1 ? maxY : maxZ);
+	}
+	
+	@Override
+	public String toString() {
+		return "[(" + minX + ", " + minY + ", " + minZ + "), (" + maxX + ", " + maxY + ", " + maxZ + ")]";
+	}
+}
@@ -3,7 +3,7 @@ package edu.cg.algebra;
 import edu.cg.scene.objects.Surface;
 
 public class Hit implements Comparable<Hit> {
-	private final double t;
+	private double t;
 	private final Vec normalToSurface;
 	
 	private boolean isWithin = false;
@@ -11,7 +11,36 @@ public class Hit implements Comparable<Hit> {
 	
 	public Hit(double t, Vec normalToSurface) {
 		this.t = t;
-		this.normalToSurface = normalToSurface;
+		this.normalToSurface = normalToSurface == null ? new Vec() : new Vec(normalToSurface);
+	}
+	
+	/**
+	 * Creates an empty hit to be filled by Intersectable.intersect(ray, hit) in the rendering loop.
+	 */
+	public Hit() {
+		this(0, null);
+	}
+	
+	/**
+	 * Resets the distance and the normal of the hit. The within flag and the surface are left unchanged.
+	 * @return this hit
+	 */
+	public Hit set(double t, double normalX, double normalY, double normalZ) {
+		this.t = t;
+		this.normalToSurface.set(normalX, normalY, normalZ);
+		return this;
+	}
+	
+	/**
+	 * Copies all the fields of the other hit into this one.
+	 * @return this hit
+	 */
+	public Hit set(Hit other) {
+		this.t = other.t;
+		this.normalToSurface.set(other.normalToSurface);
+		this.isWithin = other.isWithin;
+		this.surface = other.surface;
+		return this;
 	}
 
 	public Vec getNormalToSurface() {
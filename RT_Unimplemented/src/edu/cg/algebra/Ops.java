@@ -3,6 +3,21 @@ package edu.cg.algebra;
 public class Ops {
 	public static final double epsilon = 1e-5;
 	public static final double infinity = 1e8;
+	/*
+	 * In single precision (see FloatBVH) the rounding errors grow with the magnitude of the coordinates, so the
+	 * margins are relative to it: hits closer than floatEpsilon times the largest coordinate of the ray's source
+	 * (at least 1) are ignored, and secondary rays start floatEscalation times the largest coordinate of the hit
+	 * point after it. A float has 24 bits, so these are about 100 and 10 units in the last place.
+	 */
+	public static final double floatEpsilon = 1e-5;
+	public static final double floatEscalation = 1e-6;
+	
+	/**
+	 * The magnitude that the single precision margins are relative to.
+	 */
+	public static double floatScale(Point p) {
+		return Math.max(1.0, Math.max(Math.abs(p.x), Math.max(Math.abs(p.y), Math.abs(p.z))));
+	}
 	
 	public static double dot(Vec u, Vec v) {
 		return u.x*v.x + u.y*v.y + u.z*v.z;
@@ -13,7 +28,7 @@ public class Ops {
 	}
 	
 	public static Vec mult(double a, Vec v) {
-		return mult(new Vec(a), v);
+		return new Vec(a*v.x, a*v.y, a*v.z);
 	}
 	
 	public static Vec mult(Vec u, Vec v) {
@@ -21,7 +36,7 @@ public class Ops {
 	}
 	
 	public static Point mult(double a, Point p) {
-		return mult(new Point(a), p);
+		return new Point(a*p.x, a*p.y, a*p.z);
 	}
 	
 	public static Point mult(Point p1, Point p2) {
@@ -53,10 +68,11 @@ public class Ops {
 	}
 	
 	public static Vec normalize(Vec v) {
-		if(norm(v) == 0){
+		double norm = norm(v);
+		if(norm == 0){
 			return v;
 		}
-		return mult(1.0/norm(v), v);
+		return mult(1.0/norm, v);
 	}
 	
 	public static Vec neg(Vec v) {
@@ -96,6 +112,15 @@ public class Ops {
 		return add(u, mult(-2*dot(u, normal), normal));
 	}
 	
+	/**
+	 * Reflects u about the normal and stores the result in the given vector.
+	 * @return result
+	 */
+	public static Vec reflect(Vec u, Vec normal, Vec result) {
+		double a = -2*dot(u, normal);
+		return result.set(u.x + a*normal.x, u.y + a*normal.y, u.z + a*normal.z);
+	}
+	
 	public static Vec refract(Vec u, Vec normal, double n1, double n2) {
 		if(n1 == n2)
 			return u;
@@ -117,4 +142,38 @@ public class Ops {
 		double cosTheta2 = Math.sqrt(cos2Theta2);
 		return add(mult(-cosTheta2, normal), mult(sinTheta2, b));
 	}
+	
+	/**
+	 * Same as refract(u, normal, n1, n2), but stores the result in the given vector.
+	 * @return result
+	 */
+	public static Vec refract(Vec u, Vec normal, double n1, double n2, Vec result) {
+		if(n1 == n2)
+			return result.set(u);
+		
+		double cosTheta1 = -u.x*normal.x - u.y*normal.y - u.z*normal.z;
+		double dot = cosTheta1 * cosTheta1;
+		if(n1 > n2) {
+			double criticalAngle = n2 / n1;
+			criticalAngle *= criticalAngle;
+			if(1 - dot >= criticalAngle)
+				return reflect(u, normal, result);
+		}
+		
+		double bx = u.x + cosTheta1*normal.x, by = u.y + cosTheta1*normal.y, bz = u.z + cosTheta1*normal.z;
+		double bNorm = Math.sqrt(bx*bx + by*by + bz*bz);
+		if(bNorm != 0) {
+			double inv = 1.0/bNorm;
+			bx = inv*bx;
+			by = inv*by;
+			bz = inv*bz;
+		}
+		double sin2Theta2 = (n1 * n1 * (1-dot)) / (n2*n2);
+		double cos2Theta2 = 1 - sin2Theta2;
+		double sinTheta2 = Math.sqrt(sin2Theta2);
+		double cosTheta2 = Math.sqrt(cos2Theta2);
+		return result.set(-cosTheta2*normal.x + sinTheta2*bx,
+				-cosTheta2*normal.y + sinTheta2*by,
+				-cosTheta2*normal.z + sinTheta2*bz);
+	}
 }
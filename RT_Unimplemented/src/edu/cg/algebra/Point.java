@@ -17,6 +17,10 @@ public class Point {
 		this(0);
 	}
 	
+	public Point(Point other) {
+		this(other.x, other.y, other.z);
+	}
+	
 	public Point add(double t, Vec v) {
 		return Ops.add(this, t, v);
 	}
@@ -57,6 +61,23 @@ public class Point {
 		return Ops.isFinite(this);
 	}
 	
+	//MARK: in place operations
+	public Point set(double x, double y, double z) {
+		this.x = x;
+		this.y = y;
+		this.z = z;
+		return this;
+	}
+	
+	public Point set(Point p) {
+		return set(p.x, p.y, p.z);
+	}
+	
+	//sets this point to p + tv
+	public Point setAdd(Point p, double t, Vec v) {
+		return set(p.x + t*v.x, p.y + t*v.y, p.z + t*v.z);
+	}
+	
 	public double[] asArray() {
 		double ret[] = new double[3];
 		ret[0] = x;
@@ -4,13 +4,43 @@ public class Ray {
 	private final Point source;
 	private final Vec direction;
 	
+	/**
+	 * Creates a ray to be reset with set(...) and setThrough(...) in the rendering loop.
+	 */
+	public Ray() {
+		this.source = new Point();
+		this.direction = new Vec(0, 0, 1);
+	}
+	
 	public Ray(Point source, Vec direction) {
-		this.source = source;
-		this.direction = direction.normalize();
+		this.source = new Point(source);
+		this.direction = new Vec(direction).normalizeInPlace();
 	}
 	
 	public Ray(Point p0, Point p1) {
-		this(p0, p1.sub(p0).normalize());
+		this.source = new Point(p0);
+		this.direction = p1.sub(p0).normalizeInPlace();
+	}
+	
+	/**
+	 * Resets the ray to start at the given source in the given direction.
+	 * The ray keeps its own copies, so the arguments may be reused afterwards.
+	 * @return this ray
+	 */
+	public Ray set(Point source, Vec direction) {
+		this.source.set(source);
+		this.direction.set(direction).normalizeInPlace();
+		return this;
+	}
+	
+	/**
+	 * Resets the ray to start at p0 and pass through p1.
+	 * @return this ray
+	 */
+	public Ray setThrough(Point p0, Point p1) {
+		this.source.set(p0);
+		this.direction.setSub(p1, p0).normalizeInPlace();
+		return this;
 	}
 	
 	public Point source() {
@@ -30,6 +60,14 @@ public class Ray {
 		return add(hit.t());
 	}
 	
+	/**
+	 * Same as getHittingPoint(hit), but stores the result in the given point.
+	 * @return result
+	 */
+	public Point getHittingPoint(Hit hit, Point result) {
+		return result.setAdd(source, hit.t(), direction);
+	}
+	
 	public Ray inverse() {
 		return new Ray(source, direction.neg());
 	}
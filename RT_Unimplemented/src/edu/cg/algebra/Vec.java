@@ -71,10 +71,67 @@ public class Vec {
 		return Ops.isFinite(this);
 	}
 	
+	//MARK: in place operations
+	// The following methods change this vector and return it, so they can be chained
+	// and used on preallocated vectors in the rendering loop without allocating new ones.
+	public Vec set(double x, double y, double z) {
+		this.x = x;
+		this.y = y;
+		this.z = z;
+		return this;
+	}
+	
+	public Vec set(Vec v) {
+		return set(v.x, v.y, v.z);
+	}
+	
+	//sets this vector to p1 - p2
+	public Vec setSub(Point p1, Point p2) {
+		return set(p1.x-p2.x, p1.y-p2.y, p1.z-p2.z);
+	}
+	
+	public Vec addInPlace(Vec v) {
+		return set(x+v.x, y+v.y, z+v.z);
+	}
+	
+	//adds a*v to this vector
+	public Vec addScaledInPlace(double a, Vec v) {
+		return set(x + a*v.x, y + a*v.y, z + a*v.z);
+	}
+	
+	public Vec multInPlace(double a) {
+		return set(a*x, a*y, a*z);
+	}
+	
+	public Vec multInPlace(Vec v) {
+		return set(x*v.x, y*v.y, z*v.z);
+	}
+	
+	public Vec negInPlace() {
+		return set(-x, -y, -z);
+	}
+	
+	public Vec normalizeInPlace() {
+		double norm = norm();
+		if(norm == 0)
+			return this;
+		return multInPlace(1.0/norm);
+	}
+	
 	public Color toColor() {
 		return new Color(clip(x), clip(y), clip(z));
 	}
 	
+	/**
+	 * Returns the same color as toColor() packed as 0xRRGGBB, without creating a Color object.
+	 */
+	public int toRGB() {
+		int r = (int)(clip(x)*255 + 0.5);
+		int g = (int)(clip(y)*255 + 0.5);
+		int b = (int)(clip(z)*255 + 0.5);
+		return (r << 16) | (g << 8) | b;
+	}
+	
 	private static float clip(double val) {
 		return (float)Math.min(1, Math.max(0, val));
 	}
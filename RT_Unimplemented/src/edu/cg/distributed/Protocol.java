@@ -0,0 +1,55 @@
+package edu.cg.distributed;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * The messages between a RenderCoordinator and its workers, over a TCP connection in big endian.
+ *
+ * A worker starts with MAGIC, VERSION and its number of threads. For every render the coordinator sends
+ * JOB (job id, width, height, view plain width, tile size, single precision flag, and the scene's JSON in UTF-8),
+ * then any number of TILE (job id, tile index) messages, and END_JOB (job id) when the image is complete. The worker answers
+ * every tile with RESULT (job id, tile index, the tile's pixels row by row) or FAILED (job id, message), and
+ * END_JOB with JOB_DONE (job id) after its last result, so the next job starts on a clean stream.
+ * The tile index is row * columns + column in the grid of tiles of TileScheduler.
+ */
+final class Protocol {
+	static final int MAGIC = 0x52545744;
+	static final int VERSION = 2;
+
+	//from the coordinator
+	static final byte JOB = 1;
+	static final byte TILE = 2;
+	static final byte END_JOB = 3;
+
+	//from a worker
+	static final byte RESULT = 1;
+	static final byte FAILED = 2;
+	static final byte JOB_DONE = 3;
+
+	private Protocol() {
+	}
+
+	static void writePixels(DataOutputStream out, int[] pixels, int count) throws IOException {
+		ByteBuffer bytes = ByteBuffer.allocate(Integer.BYTES * count);
+		bytes.asIntBuffer().put(pixels, 0, count);
+		out.write(bytes.array());
+	}
+
+	static void readPixels(DataInputStream in, int[] pixels, int count) throws IOException {
+		byte[] bytes = new byte[Integer.BYTES * count];
+		in.readFully(bytes);
+		ByteBuffer.wrap(bytes).asIntBuffer().get(pixels, 0, count);
+	}
+
+	static byte[] readBytes(DataInputStream in) throws IOException {
+		int length = in.readInt();
+		if(length < 0)
+			throw new IOException("Bad message length " + length);
+		byte[] bytes = new byte[length];
+		in.readFully(bytes);
+		return bytes;
+	}
+}
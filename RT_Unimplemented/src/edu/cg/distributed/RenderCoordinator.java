@@ -0,0 +1,279 @@
+package edu.cg.distributed;
+
+import java.awt.image.BufferedImage;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import edu.cg.Logger;
+import edu.cg.menu.GsonMaker;
+import edu.cg.scene.Scene;
+import edu.cg.scene.render.Tile;
+
+/**
+ * Renders scenes on worker processes (RenderWorker) that connect to it over TCP, possibly on other machines.
+ *
+ * For every render the scene's JSON and the render parameters are sent once to every connected worker, and the
+ * tiles are handed out to the workers as they ask for them, a few at a time so they never wait for the network.
+ * Workers can connect and leave at any time: the tiles of a worker whose connection is lost are handed out
+ * again, and the tiles of a slow worker are duplicated on another one at the end of the render (see TileJob).
+ * Every tile is rendered with Scene.renderTile, so the image is the same as the one of Scene.render.
+ *
+ * Renders are done one at a time, and a render waits for workers if none are connected.
+ */
+public class RenderCoordinator implements Closeable {
+	public static final int DEFAULT_TILE_SIZE = 32;
+	//how often a worker without tiles checks for stragglers to duplicate
+	private static final long IDLE_POLL_MILLIS = 50;
+
+	private final ServerSocket server;
+	private final Logger logger;
+	private final Object renderLock = new Object();
+	private final Set<Socket> connections = new HashSet<>();
+	private int tileSize = DEFAULT_TILE_SIZE;
+	private TileJob currentJob = null;
+	private int jobCount = 0;
+	//the tiles handed out again and duplicated over all the renders
+	private int reassigned = 0, duplicated = 0;
+	private boolean closed = false;
+
+	/**
+	 * Starts to accept workers on the given address and port.
+	 * @param address - the address to listen on, or null for all the addresses of this machine.
+	 * @param port - the port, or 0 for any free port (see getPort).
+	 * @param logger - logs the workers that connect and leave.
+	 */
+	public RenderCoordinator(InetAddress address, int port, Logger logger) throws IOException {
+		this.server = new ServerSocket();
+		this.server.bind(new InetSocketAddress(address, port));
+		this.logger = logger;
+		Thread acceptor = new Thread(this::acceptWorkers, "RenderCoordinator acceptor");
+		acceptor.setDaemon(true);
+		acceptor.start();
+	}
+
+	public RenderCoordinator initTileSize(int tileSize) {
+		if(tileSize <= 0)
+			throw new IllegalArgumentException("Tile size must be positive");
+		this.tileSize = tileSize;
+		return this;
+	}
+
+	public int getPort() {
+		return server.getLocalPort();
+	}
+
+	public synchronized int workerCount() {
+		return connections.size();
+	}
+
+	/**
+	 * The number of tiles handed out again after their worker was lost, over all the renders.
+	 */
+	public synchronized int reassigned() {
+		return reassigned;
+	}
+
+	/**
+	 * The number of tiles of slow workers handed out to another worker as well, over all the renders.
+	 */
+	public synchronized int duplicated() {
+		return duplicated;
+	}
+
+	/**
+	 * Renders the scene on the workers, with its current render parameters.
+	 * @throws IOException if a worker couldn't read or render the scene.
+	 */
+	public BufferedImage render(Scene scene, int imgWidth, int imgHeight, double viewPlainWidth, Logger logger)
+			throws IOException, InterruptedException {
+		byte[] json = GsonMaker.getInstance().toJson(scene).getBytes(StandardCharsets.UTF_8);
+		synchronized(renderLock) {
+			long start = System.nanoTime();
+			TileJob job;
+			synchronized(this) {
+				if(closed)
+					throw new IOException("The coordinator is closed");
+				job = new TileJob(++jobCount, json, imgWidth, imgHeight, viewPlainWidth, tileSize, scene.getSinglePrecision());
+				currentJob = job;
+				notifyAll();
+				logger.log("Rendering " + scene.getName() + " in " + job.tileCount() + " tiles of " + tileSize + "x" + tileSize +
+						" pixels on " + connections.size() + " workers" + (connections.isEmpty() ? ", waiting for workers on port " + getPort() : ""));
+			}
+			try {
+				job.await();
+			} catch(InterruptedException e) {
+				job.fail("The render was interrupted");
+				throw e;
+			} finally {
+				synchronized(this) {
+					currentJob = null;
+					reassigned += job.reassigned();
+					duplicated += job.duplicated();
+				}
+			}
+			logger.log(String.format("Rendered %s in %.3f s, %d tiles were handed out again after a worker was lost and %d were duplicated",
+					scene.getName(), (System.nanoTime() - start) / 1e9, job.reassigned(), job.duplicated()));
+			return job.image;
+		}
+	}
+
+	/**
+	 * Stops accepting workers and disconnects the connected ones, which makes them exit.
+	 */
+	@Override
+	public void close() throws IOException {
+		synchronized(this) {
+			closed = true;
+			notifyAll();
+			for(Socket socket : connections)
+				socket.close();
+		}
+		server.close();
+	}
+
+	private void acceptWorkers() {
+		while(true) {
+			Socket socket;
+			try {
+				socket = server.accept();
+			} catch(IOException e) {
+				return;
+			}
+			synchronized(this) {
+				if(closed) {
+					closeQuietly(socket);
+					return;
+				}
+				connections.add(socket);
+			}
+			Thread thread = new Thread(() -> serve(socket), "RenderCoordinator " + socket.getRemoteSocketAddress());
+			thread.setDaemon(true);
+			thread.start();
+		}
+	}
+
+	private void serve(Socket socket) {
+		String worker = String.valueOf(socket.getRemoteSocketAddress());
+		try {
+			socket.setTcpNoDelay(true);
+			DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+			if(in.readInt() != Protocol.MAGIC || in.readInt() != Protocol.VERSION) {
+				logger.log("Rejected " + worker + ", which is not a render worker of this version");
+				return;
+			}
+			int threads = in.readInt();
+			worker += " (" + threads + " threads)";
+			logger.log("Worker " + worker + " connected");
+			TileJob job = null;
+			while((job = nextJob(job)) != null)
+				serveJob(job, in, out, Math.max(2 * threads, 2), worker);
+		} catch(IOException e) {
+			synchronized(this) {
+				if(!closed)
+					logger.log("Lost worker " + worker + ": " + (e instanceof EOFException ? "the connection was closed" : e.getMessage()));
+			}
+		} catch(InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} finally {
+			synchronized(this) {
+				connections.remove(socket);
+			}
+			closeQuietly(socket);
+		}
+	}
+
+	//waits for a job other than the given one, returns null when the coordinator is closed
+	private synchronized TileJob nextJob(TileJob previous) throws InterruptedException {
+		while(!closed && (currentJob == null || currentJob == previous))
+			wait();
+		return closed ? null : currentJob;
+	}
+
+	/**
+	 * Sends the job to the worker and keeps up to window tiles on it until the job is finished.
+	 */
+	private void serveJob(TileJob job, DataInputStream in, DataOutputStream out, int window, String worker)
+			throws IOException, InterruptedException {
+		//the tiles on the worker, and when they were sent
+		Map<Integer, Long> held = new HashMap<>();
+		try {
+			job.writeJob(out);
+			while(!job.isFinished()) {
+				int index;
+				while(held.size() < window && (index = job.take(held)) >= 0) {
+					out.writeByte(Protocol.TILE);
+					out.writeInt(job.id);
+					out.writeInt(index);
+					held.put(index, System.nanoTime());
+				}
+				out.flush();
+				if(held.isEmpty()) {
+					job.awaitChange(IDLE_POLL_MILLIS);
+					continue;
+				}
+				readResult(job, in, held, worker);
+			}
+			out.writeByte(Protocol.END_JOB);
+			out.writeInt(job.id);
+			out.flush();
+			//the results of tiles that were duplicated are dropped
+			while(!readResult(job, in, held, worker));
+		} catch(IOException e) {
+			job.release(held.keySet());
+			throw e;
+		}
+	}
+
+	/**
+	 * Reads a message of the worker.
+	 * @return true if it was the end of the job.
+	 */
+	private boolean readResult(TileJob job, DataInputStream in, Map<Integer, Long> held, String worker) throws IOException {
+		byte type = in.readByte();
+		int id = in.readInt();
+		if(id != job.id)
+			throw new IOException("Unexpected message for job " + id + " during job " + job.id);
+		switch(type) {
+		case Protocol.RESULT:
+			int index = in.readInt();
+			Long sent = held.remove(index);
+			if(sent == null || index >= job.tileCount())
+				throw new IOException("Unexpected tile " + index);
+			Tile tile = job.tile(index);
+			int[] pixels = new int[tile.pixelCount()];
+			Protocol.readPixels(in, pixels, pixels.length);
+			job.complete(index, pixels, System.nanoTime() - sent);
+			return false;
+		case Protocol.FAILED:
+			job.fail("Worker " + worker + " couldn't render the scene: " + in.readUTF());
+			return false;
+		case Protocol.JOB_DONE:
+			return true;
+		default:
+			throw new IOException("Unknown message " + type);
+		}
+	}
+
+	private static void closeQuietly(Socket socket) {
+		try {
+			socket.close();
+		} catch(IOException e) {
+			//nothing to do
+		}
+	}
+}
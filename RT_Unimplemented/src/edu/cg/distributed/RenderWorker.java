@@ -0,0 +1,263 @@
+package edu.cg.distributed;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.ConnectException;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Phaser;
+
+import edu.cg.JsonSceneReader;
+import edu.cg.Logger;
+import edu.cg.scene.Scene;
+import edu.cg.scene.render.Tile;
+import edu.cg.scene.render.TileScheduler;
+
+/**
+ * A process that renders tiles for a RenderCoordinator, until the coordinator closes the connection.
+ * The tiles of a job are rendered on a pool of threads as they arrive, and their pixels are sent back
+ * as soon as they are done.
+ *
+ * Usage: RenderWorker [options] host:port
+ */
+public class RenderWorker {
+	private static final String USAGE = String.join(System.lineSeparator(),
+			"Usage: RenderWorker [options] host:port",
+			"Renders tiles for the coordinator at host:port (BatchRenderer --distribute) until it is closed.",
+			"Options:",
+			"  --threads N            number of rendering threads (default: number of cores)",
+			"  --connect-timeout S    seconds to keep trying to connect to the coordinator (default 30)",
+			"  --verbose              print the renderer's log",
+			"  --help                 print this message");
+	private static final long RETRY_MILLIS = 200;
+
+	private final ForkJoinPool pool;
+	private final Logger logger;
+	private volatile Socket connection = null;
+	private DataOutputStream out;
+	//the job being rendered, null if its scene couldn't be read
+	private Scene scene = null;
+	private int jobId;
+	private TileScheduler tiles;
+	private int tilesX;
+	//the tiles being rendered
+	private Phaser tasks;
+
+	public RenderWorker(int nThreads, Logger logger) {
+		this.pool = new ForkJoinPool(nThreads);
+		this.logger = logger;
+	}
+
+	public static void main(String[] args) {
+		System.setProperty("java.awt.headless", "true");
+
+		int nThreads = Runtime.getRuntime().availableProcessors();
+		int connectTimeout = 30;
+		boolean verbose = false;
+		String coordinator = null;
+		try {
+			for(int i = 0; i < args.length; ++i) {
+				String arg = args[i];
+				if(arg.equals("--help")) {
+					System.out.println(USAGE);
+					return;
+				} else if(arg.equals("--verbose")) {
+					verbose = true;
+				} else if(arg.equals("--threads") && i + 1 < args.length) {
+					nThreads = Integer.parseInt(args[++i]);
+				} else if(arg.equals("--connect-timeout") && i + 1 < args.length) {
+					connectTimeout = Integer.parseInt(args[++i]);
+				} else if(!arg.startsWith("--") && coordinator == null) {
+					coordinator = arg;
+				} else {
+					throw new IllegalArgumentException("Unknown option " + arg);
+				}
+			}
+			if(coordinator == null || coordinator.lastIndexOf(':') < 0)
+				throw new IllegalArgumentException("The coordinator must be given as host:port");
+			if(nThreads <= 0 || connectTimeout < 0)
+				throw new IllegalArgumentException("--threads must be positive and --connect-timeout not negative");
+		} catch(NumberFormatException e) {
+			System.err.println("Bad number: " + e.getMessage());
+			System.err.println(USAGE);
+			System.exit(2);
+		} catch(IllegalArgumentException e) {
+			System.err.println(e.getMessage());
+			System.err.println(USAGE);
+			System.exit(2);
+		}
+
+		boolean log = verbose;
+		RenderWorker worker = new RenderWorker(nThreads, s -> {
+			if(log)
+				System.out.println(s);
+		});
+		int colon = coordinator.lastIndexOf(':');
+		try {
+			worker.run(coordinator.substring(0, colon), Integer.parseInt(coordinator.substring(colon + 1)), connectTimeout * 1000L);
+		} catch(Exception e) {
+			System.err.println("The worker stopped: " + e);
+			System.exit(1);
+		}
+		System.exit(0);
+	}
+
+	/**
+	 * Connects to the coordinator, trying again until the timeout if it is not listening yet,
+	 * and renders its tiles until it closes the connection.
+	 */
+	public void run(String host, int port, long connectTimeoutMillis) throws IOException, InterruptedException {
+		long deadline = System.currentTimeMillis() + connectTimeoutMillis;
+		Socket socket;
+		while(true) {
+			try {
+				socket = new Socket(host, port);
+				break;
+			} catch(ConnectException e) {
+				if(System.currentTimeMillis() >= deadline)
+					throw e;
+				Thread.sleep(RETRY_MILLIS);
+			}
+		}
+
+		connection = socket;
+		try(Socket connection = socket) {
+			connection.setTcpNoDelay(true);
+			DataInputStream in = new DataInputStream(new BufferedInputStream(connection.getInputStream()));
+			out = new DataOutputStream(new BufferedOutputStream(connection.getOutputStream()));
+			out.writeInt(Protocol.MAGIC);
+			out.writeInt(Protocol.VERSION);
+			out.writeInt(pool.getParallelism());
+			out.flush();
+			logger.log("Connected to " + connection.getRemoteSocketAddress());
+			serve(in);
+		} finally {
+			pool.shutdownNow();
+		}
+	}
+
+	/**
+	 * Drops the connection to the coordinator, which hands out the tiles of this worker to the others,
+	 * and makes run stop with an IOException.
+	 */
+	public void close() throws IOException {
+		Socket socket = connection;
+		if(socket != null)
+			socket.close();
+	}
+
+	private void serve(DataInputStream in) throws IOException {
+		while(true) {
+			byte type;
+			try {
+				type = in.readByte();
+			} catch(EOFException e) {
+				logger.log("The coordinator closed the connection");
+				return;
+			}
+			switch(type) {
+			case Protocol.JOB:
+				startJob(in);
+				break;
+			case Protocol.TILE:
+				int id = in.readInt();
+				int index = in.readInt();
+				if(id != jobId)
+					throw new IOException("Unexpected tile of job " + id + " during job " + jobId);
+				if(scene != null)
+					renderTile(index);
+				break;
+			case Protocol.END_JOB:
+				in.readInt();
+				endJob();
+				break;
+			default:
+				throw new IOException("Unknown message " + type);
+			}
+		}
+	}
+
+	private void startJob(DataInputStream in) throws IOException {
+		jobId = in.readInt();
+		int imgWidth = in.readInt();
+		int imgHeight = in.readInt();
+		double viewPlainWidth = in.readDouble();
+		int tileSize = in.readInt();
+		boolean singlePrecision = in.readBoolean();
+		byte[] json = Protocol.readBytes(in);
+		tasks = new Phaser(1);
+		scene = null;
+		try {
+			Scene jobScene = JsonSceneReader.read(new InputStreamReader(new ByteArrayInputStream(json), StandardCharsets.UTF_8),
+					"job " + jobId);
+			jobScene.initSinglePrecision(singlePrecision);
+			jobScene.prepareTiles(imgWidth, imgHeight, viewPlainWidth, logger);
+			scene = jobScene;
+			tiles = new TileScheduler(imgWidth, imgHeight, tileSize);
+			tilesX = (imgWidth + tileSize - 1) / tileSize;
+			logger.log("Started job " + jobId + ": " + jobScene.getName() + " at " + imgWidth + "x" + imgHeight);
+		} catch(IOException | RuntimeException e) {
+			fail(jobId, e);
+		}
+	}
+
+	private void renderTile(int index) {
+		Scene jobScene = scene;
+		int id = jobId;
+		Tile tile = tiles.tile(index % tilesX, index / tilesX);
+		tasks.register();
+		pool.execute(() -> {
+			try {
+				int[] pixels = new int[tile.pixelCount()];
+				jobScene.renderTile(tile, pixels);
+				synchronized(out) {
+					out.writeByte(Protocol.RESULT);
+					out.writeInt(id);
+					out.writeInt(index);
+					Protocol.writePixels(out, pixels, pixels.length);
+					out.flush();
+				}
+			} catch(IOException e) {
+				//the connection is lost, which the reading thread notices as well
+			} catch(RuntimeException e) {
+				try {
+					fail(id, e);
+				} catch(IOException lost) {
+					//as above
+				}
+			} finally {
+				tasks.arriveAndDeregister();
+			}
+		});
+	}
+
+	private void fail(int id, Exception e) throws IOException {
+		logger.log("Job " + id + " failed: " + e);
+		synchronized(out) {
+			out.writeByte(Protocol.FAILED);
+			out.writeInt(id);
+			out.writeUTF(String.valueOf(e.getMessage()));
+			out.flush();
+		}
+	}
+
+	//waits for the tiles of the job, and tells the coordinator that no more results will come
+	private void endJob() throws IOException {
+		tasks.arriveAndAwaitAdvance();
+		if(scene != null)
+			scene.finishTiles();
+		scene = null;
+		synchronized(out) {
+			out.writeByte(Protocol.JOB_DONE);
+			out.writeInt(jobId);
+			out.flush();
+		}
+	}
+}
@@ -0,0 +1,185 @@
+package edu.cg.distributed;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.BitSet;
+import java.util.Map;
+
+import edu.cg.scene.render.Tile;
+import edu.cg.scene.render.TileScheduler;
+
+/**
+ * The tiles of a distributed render: the ones waiting to be handed out (in Morton order), the ones workers
+ * are rendering and the ones done, and the image they are copied into.
+ *
+ * A tile whose worker is lost goes back to the queue. When the queue is empty, a tile that has been out for
+ * STRAGGLER_FACTOR times the average round trip of a tile is handed out once more to another worker, so a slow
+ * worker doesn't hold up the end of the render; the first result of a tile is kept. All the methods are
+ * synchronized on the job.
+ */
+class TileJob {
+	static final int STRAGGLER_FACTOR = 4;
+	static final long MIN_STRAGGLER_NANOS = 250_000_000L;
+
+	final int id;
+	final byte[] sceneJson;
+	final int imgWidth, imgHeight;
+	final double viewPlainWidth;
+	final int tileSize;
+	final boolean singlePrecision;
+	final BufferedImage image;
+
+	private final TileScheduler tiles;
+	private final int tilesX, tileCount;
+	private final int[] raster;
+	private final ArrayDeque<Integer> queue = new ArrayDeque<>();
+	private final BitSet done;
+	private int doneCount = 0;
+	//the workers rendering every tile, and the time it was first handed out
+	private final int[] copies;
+	private final long[] sentAt;
+	private long roundTripNanos = 0;
+	private int roundTrips = 0;
+	private int reassigned = 0, duplicated = 0;
+	private String failure = null;
+
+	TileJob(int id, byte[] sceneJson, int imgWidth, int imgHeight, double viewPlainWidth, int tileSize, boolean singlePrecision) {
+		this.id = id;
+		this.sceneJson = sceneJson;
+		this.imgWidth = imgWidth;
+		this.imgHeight = imgHeight;
+		this.viewPlainWidth = viewPlainWidth;
+		this.tileSize = tileSize;
+		this.singlePrecision = singlePrecision;
+		this.image = new BufferedImage(imgWidth, imgHeight, BufferedImage.TYPE_INT_RGB);
+		this.raster = ((DataBufferInt)image.getRaster().getDataBuffer()).getData();
+		this.tiles = new TileScheduler(imgWidth, imgHeight, tileSize);
+		this.tilesX = (imgWidth + tileSize - 1) / tileSize;
+		this.tileCount = tiles.tileCount();
+		this.done = new BitSet(tileCount);
+		this.copies = new int[tileCount];
+		this.sentAt = new long[tileCount];
+		Tile tile;
+		while((tile = tiles.nextTile()) != null)
+			queue.add(tile.y / tileSize * tilesX + tile.x / tileSize);
+	}
+
+	Tile tile(int index) {
+		return tiles.tile(index % tilesX, index / tilesX);
+	}
+
+	int tileCount() {
+		return tileCount;
+	}
+
+	void writeJob(DataOutputStream out) throws IOException {
+		out.writeByte(Protocol.JOB);
+		out.writeInt(id);
+		out.writeInt(imgWidth);
+		out.writeInt(imgHeight);
+		out.writeDouble(viewPlainWidth);
+		out.writeInt(tileSize);
+		out.writeBoolean(singlePrecision);
+		out.writeInt(sceneJson.length);
+		out.write(sceneJson);
+	}
+
+	/**
+	 * Hands out the next tile to a worker.
+	 * @param held - the tiles the worker is rendering, which are not handed to it again.
+	 * @return the index of the tile, or -1 if there is none to render now.
+	 */
+	synchronized int take(Map<Integer, Long> held) {
+		long now = System.nanoTime();
+		Integer next;
+		while((next = queue.poll()) != null) {
+			if(done.get(next))
+				continue;
+			if(copies[next]++ == 0)
+				sentAt[next] = now;
+			return next;
+		}
+
+		if(roundTrips == 0 || failure != null)
+			return -1;
+		long limit = Math.max(STRAGGLER_FACTOR * (roundTripNanos / roundTrips), MIN_STRAGGLER_NANOS);
+		for(int index = done.nextClearBit(0); index < tileCount; index = done.nextClearBit(index + 1)) {
+			if(copies[index] == 1 && now - sentAt[index] > limit && !held.containsKey(index)) {
+				copies[index]++;
+				duplicated++;
+				return index;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Copies the pixels of a rendered tile into the image, unless another worker has rendered it already.
+	 */
+	synchronized void complete(int index, int[] pixels, long roundTrip) {
+		copies[index]--;
+		roundTripNanos += roundTrip;
+		roundTrips++;
+		if(done.get(index))
+			return;
+		Tile tile = tile(index);
+		for(int y = 0; y < tile.height; ++y)
+			System.arraycopy(pixels, y * tile.width, raster, (tile.y + y) * imgWidth + tile.x, tile.width);
+		done.set(index);
+		if(++doneCount == tileCount)
+			notifyAll();
+	}
+
+	/**
+	 * Puts back the tiles of a lost worker that no other worker is rendering.
+	 */
+	synchronized void release(Iterable<Integer> held) {
+		for(int index : held) {
+			if(--copies[index] == 0 && !done.get(index)) {
+				queue.addFirst(index);
+				reassigned++;
+			}
+		}
+		notifyAll();
+	}
+
+	synchronized void fail(String message) {
+		if(failure == null)
+			failure = message;
+		notifyAll();
+	}
+
+	synchronized boolean isFinished() {
+		return doneCount == tileCount || failure != null;
+	}
+
+	/**
+	 * Waits until the job is finished, tiles are put back, or the given time has passed.
+	 */
+	synchronized void awaitChange(long millis) throws InterruptedException {
+		if(!isFinished())
+			wait(millis);
+	}
+
+	/**
+	 * Waits until all the tiles are done.
+	 * @throws IOException if a worker couldn't render the scene.
+	 */
+	synchronized void await() throws InterruptedException, IOException {
+		while(doneCount < tileCount && failure == null)
+			wait();
+		if(failure != null)
+			throw new IOException(failure);
+	}
+
+	synchronized int reassigned() {
+		return reassigned;
+	}
+
+	synchronized int duplicated() {
+		return duplicated;
+	}
+}
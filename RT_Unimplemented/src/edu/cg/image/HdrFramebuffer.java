@@ -0,0 +1,125 @@
+package edu.cg.image;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import edu.cg.scene.render.Tile;
+
+/**
+ * A framebuffer of float RGB pixels, with the colors the rays gave before they are clipped to [0, 1] and
+ * quantized, so an image can be tone mapped again (see ToneMapper) with another exposure or gamma without
+ * tracing the scene again. It takes 12 bytes per pixel, three times a BufferedImage.
+ *
+ * It is written and read as a PFM image: a short text header ("PF", the size, and a negative scale for little
+ * endian), then the rows from the bottom up, three 32 bit floats per pixel.
+ */
+public class HdrFramebuffer {
+	private final int width, height;
+	//red, green and blue of every pixel, row by row from the top
+	private final float[] rgb;
+
+	public HdrFramebuffer(int width, int height) {
+		if(width <= 0 || height <= 0 || (long)width * height > Integer.MAX_VALUE / 3)
+			throw new IllegalArgumentException("Bad framebuffer size " + width + "x" + height);
+		this.width = width;
+		this.height = height;
+		this.rgb = new float[3 * width * height];
+	}
+
+	public int width() {
+		return width;
+	}
+
+	public int height() {
+		return height;
+	}
+
+	/**
+	 * The pixels, red, green and blue of pixel (x, y) at 3 * (y * width + x).
+	 */
+	public float[] pixels() {
+		return rgb;
+	}
+
+	/**
+	 * Sets the pixels of a tile, given row by row as three floats each.
+	 */
+	public void writeTile(Tile tile, float[] pixels) {
+		for(int y = 0; y < tile.height; ++y)
+			System.arraycopy(pixels, 3 * y * tile.width, rgb, 3 * ((tile.y + y) * width + tile.x), 3 * tile.width);
+	}
+
+	public void writePfm(Path file) throws IOException {
+		try(OutputStream out = new BufferedOutputStream(Files.newOutputStream(file), 1 << 16)) {
+			writePfm(out);
+		}
+	}
+
+	/**
+	 * Writes the framebuffer to the stream as a PFM image. The stream is not closed.
+	 */
+	public void writePfm(OutputStream out) throws IOException {
+		out.write(("PF\n" + width + " " + height + "\n-1.0\n").getBytes(StandardCharsets.US_ASCII));
+		ByteBuffer row = ByteBuffer.allocate(12 * width).order(ByteOrder.LITTLE_ENDIAN);
+		for(int y = height - 1; y >= 0; --y) {
+			row.clear();
+			row.asFloatBuffer().put(rgb, 3 * y * width, 3 * width);
+			out.write(row.array());
+		}
+		out.flush();
+	}
+
+	public static HdrFramebuffer readPfm(Path file) throws IOException {
+		try(InputStream in = new BufferedInputStream(Files.newInputStream(file), 1 << 16)) {
+			return readPfm(in);
+		}
+	}
+
+	/**
+	 * Reads a color PFM image, in either byte order. The scale's magnitude is ignored.
+	 */
+	public static HdrFramebuffer readPfm(InputStream in) throws IOException {
+		DataInputStream data = new DataInputStream(in);
+		if(!headerToken(data).equals("PF"))
+			throw new IOException("Not a color PFM image");
+		HdrFramebuffer framebuffer;
+		ByteOrder order;
+		try {
+			int width = Integer.parseInt(headerToken(data));
+			int height = Integer.parseInt(headerToken(data));
+			framebuffer = new HdrFramebuffer(width, height);
+			order = Double.parseDouble(headerToken(data)) < 0 ? ByteOrder.LITTLE_ENDIAN : ByteOrder.BIG_ENDIAN;
+		} catch(IllegalArgumentException e) {
+			throw new IOException("Bad PFM header: " + e.getMessage());
+		}
+		int width = framebuffer.width;
+		ByteBuffer row = ByteBuffer.allocate(12 * width).order(order);
+		for(int y = framebuffer.height - 1; y >= 0; --y) {
+			data.readFully(row.array());
+			row.asFloatBuffer().get(framebuffer.rgb, 3 * y * width, 3 * width);
+		}
+		return framebuffer;
+	}
+
+	//reads a token of the header and the single white space character after it, where the pixels may start
+	private static String headerToken(DataInputStream in) throws IOException {
+		StringBuilder token = new StringBuilder();
+		int c = in.read();
+		while(c != -1 && Character.isWhitespace(c))
+			c = in.read();
+		for(; c != -1 && !Character.isWhitespace(c); c = in.read())
+			token.append((char)c);
+		if(c == -1)
+			throw new IOException("Truncated PFM header");
+		return token.toString();
+	}
+}
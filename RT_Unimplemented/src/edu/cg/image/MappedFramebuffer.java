@@ -0,0 +1,111 @@
+package edu.cg.image;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import edu.cg.scene.render.Tile;
+
+/**
+ * An 8 bit RGB framebuffer in a memory mapped file instead of the heap, for images too large for a BufferedImage
+ * (see Scene.render(MappedFramebuffer, ...)). The file is a binary PPM image (P6): a short text header followed
+ * by the rows, three bytes per pixel, so it can be opened as it is, or written as PNG or TIFF by the image writers,
+ * which read it row by row.
+ *
+ * The file is mapped in chunks of whole rows of up to CHUNK_BYTES each, since a single mapping is limited to 2 GB.
+ * Tiles and rows can be written and read by several threads at the same time, as long as they don't overlap.
+ */
+public class MappedFramebuffer implements RowSource, Closeable {
+	static final int CHUNK_BYTES = 1 << 30;
+
+	private final Path path;
+	private final FileChannel channel;
+	private final int width, height;
+	private final int rowBytes;
+	private final int rowsPerChunk;
+	private final MappedByteBuffer[] chunks;
+
+	private MappedFramebuffer(Path path, FileChannel channel, int width, int height, long headerBytes) throws IOException {
+		this.path = path;
+		this.channel = channel;
+		this.width = width;
+		this.height = height;
+		this.rowBytes = 3 * width;
+		this.rowsPerChunk = Math.max(1, CHUNK_BYTES / rowBytes);
+		this.chunks = new MappedByteBuffer[(height + rowsPerChunk - 1) / rowsPerChunk];
+		for(int i = 0; i < chunks.length; ++i) {
+			int rows = Math.min(rowsPerChunk, height - i * rowsPerChunk);
+			chunks[i] = channel.map(MapMode.READ_WRITE, headerBytes + (long)i * rowsPerChunk * rowBytes, (long)rows * rowBytes);
+		}
+	}
+
+	/**
+	 * Creates the file, replacing an existing one, and maps it. The pixels start black.
+	 */
+	public static MappedFramebuffer create(Path path, int width, int height) throws IOException {
+		if(width <= 0 || height <= 0 || width > Integer.MAX_VALUE / 3)
+			throw new IllegalArgumentException("Bad framebuffer size " + width + "x" + height);
+		byte[] header = ("P6\n" + width + " " + height + "\n255\n").getBytes(StandardCharsets.US_ASCII);
+		FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+				StandardOpenOption.READ, StandardOpenOption.WRITE);
+		try {
+			channel.write(ByteBuffer.wrap(header));
+			return new MappedFramebuffer(path, channel, width, height, header.length);
+		} catch(IOException | RuntimeException e) {
+			channel.close();
+			throw e;
+		}
+	}
+
+	public Path path() {
+		return path;
+	}
+
+	@Override
+	public int width() {
+		return width;
+	}
+
+	@Override
+	public int height() {
+		return height;
+	}
+
+	/**
+	 * Writes the pixels of a tile, given row by row as 0xRRGGBB like the ones of a BufferedImage.
+	 */
+	public void writeTile(Tile tile, int[] pixels) {
+		byte[] rgb = new byte[3 * tile.width];
+		for(int y = 0; y < tile.height; ++y) {
+			for(int x = 0, i = 0; x < tile.width; ++x, i += 3) {
+				int pixel = pixels[y * tile.width + x];
+				rgb[i] = (byte)(pixel >>> 16);
+				rgb[i + 1] = (byte)(pixel >>> 8);
+				rgb[i + 2] = (byte)pixel;
+			}
+			int row = tile.y + y;
+			chunks[row / rowsPerChunk].put((row % rowsPerChunk) * rowBytes + 3 * tile.x, rgb, 0, rgb.length);
+		}
+	}
+
+	@Override
+	public void readRow(int y, byte[] rgb) {
+		chunks[y / rowsPerChunk].get((y % rowsPerChunk) * rowBytes, rgb, 0, rowBytes);
+	}
+
+	/**
+	 * Writes the pixels to the file and closes it. The mapping itself is released when the framebuffer is collected.
+	 */
+	@Override
+	public void close() throws IOException {
+		for(MappedByteBuffer chunk : chunks)
+			chunk.force();
+		channel.close();
+	}
+}
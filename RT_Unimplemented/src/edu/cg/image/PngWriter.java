@@ -0,0 +1,333 @@
+package edu.cg.image;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.zip.Adler32;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Writes 8 bit RGB PNG images row by row from a RowSource, so only a few rows are in memory at a time.
+ * Every row is filtered with the PNG filter that gives the smallest sum of absolute differences, as ImageIO does.
+ *
+ * The rows are compressed in groups of about GROUP_BYTES, each group by a deflater of its own, which can run on
+ * the threads of a pool. The compressed groups are written in order as one zlib stream: every group but the last
+ * ends with a sync flush, which ends it on a byte boundary, and the checksums of the groups are combined.
+ * Groups don't share their history, which makes the file slightly larger than a single deflater would.
+ */
+public class PngWriter {
+	private static final byte[] SIGNATURE = {(byte)0x89, 'P', 'N', 'G', '\r', '\n', 0x1a, '\n'};
+	//the compression level of ImageIO's PNG writer
+	static final int COMPRESSION_LEVEL = 4;
+	//the most bytes of compressed data in one IDAT chunk
+	static final int CHUNK_BYTES = 1 << 16;
+	//the filtered bytes of the rows compressed together
+	static final int GROUP_BYTES = 1 << 20;
+	//the groups being compressed at the same time, per thread of the pool, which bounds the memory used
+	static final int GROUPS_PER_THREAD = 2;
+	private static final int ADLER_BASE = 65521;
+
+	static final byte NONE = 0, SUB = 1, UP = 2, AVERAGE = 3, PAETH = 4;
+
+	/**
+	 * Writes the image on the calling thread.
+	 */
+	public static void write(RowSource image, Path file) throws IOException {
+		write(image, file, null);
+	}
+
+	/**
+	 * Writes the image, compressing its rows on the threads of the given pool, or on the calling thread if it is null.
+	 */
+	public static void write(RowSource image, Path file, ForkJoinPool pool) throws IOException {
+		try(OutputStream out = new BufferedOutputStream(Files.newOutputStream(file), CHUNK_BYTES)) {
+			write(image, out, pool);
+		}
+	}
+
+	/**
+	 * Writes the image to the stream, which is not closed, compressing its rows on the threads of the given pool,
+	 * or on the calling thread if it is null.
+	 */
+	public static void write(RowSource image, OutputStream out, ForkJoinPool pool) throws IOException {
+		int width = image.width(), height = image.height();
+		DataOutputStream data = new DataOutputStream(out);
+		writeHeader(data, width, height);
+
+		IdatOutputStream idat = new IdatOutputStream(data);
+		//a zlib header for a 32 KB window and a fast compression level
+		idat.write(0x78);
+		idat.write(0x5e);
+		int groupRows = Math.max(1, GROUP_BYTES / (3 * width + 1));
+		int groupCount = (height + groupRows - 1) / groupRows;
+		int window = pool == null ? 1 : GROUPS_PER_THREAD * pool.getParallelism();
+		ArrayDeque<ForkJoinTask<CompressedGroup>> pending = new ArrayDeque<>();
+		long adler = 1;
+		int next = 0;
+		try {
+			for(int written = 0; written < groupCount; ++written) {
+				while(next < groupCount && pending.size() < window) {
+					int firstRow = next * groupRows;
+					int rows = Math.min(groupRows, height - firstRow);
+					Callable<CompressedGroup> task = () -> compress(image, firstRow, rows, firstRow + rows == height);
+					pending.add(pool == null ? ForkJoinTask.adapt(task) : pool.submit(task));
+					++next;
+				}
+				ForkJoinTask<CompressedGroup> task = pending.poll();
+				CompressedGroup compressed = pool == null ? task.invoke() : task.join();
+				idat.write(compressed.data, 0, compressed.length);
+				adler = combineAdler32(adler, compressed.adler, compressed.rawLength);
+			}
+		} catch(RuntimeException e) {
+			for(ForkJoinTask<CompressedGroup> task : pending)
+				task.cancel(false);
+			throw e;
+		}
+		idat.write((int)(adler >>> 24));
+		idat.write((int)(adler >>> 16));
+		idat.write((int)(adler >>> 8));
+		idat.write((int)adler);
+		idat.flushChunk();
+
+		writeChunk(data, "IEND", new byte[0], 0);
+		data.flush();
+	}
+
+	//the raw deflate data of a group of rows, and the checksum of the filtered rows
+	private static class CompressedGroup {
+		byte[] data;
+		int length;
+		long adler;
+		long rawLength;
+	}
+
+	/**
+	 * Filters and compresses rows [firstRow, firstRow + rows) of the image. The row before the group is read
+	 * as well, since the filters of the first row refer to it.
+	 */
+	private static CompressedGroup compress(RowSource image, int firstRow, int rows, boolean last) {
+		int rowBytes = 3 * image.width();
+		byte[] previous = new byte[rowBytes], row = new byte[rowBytes];
+		byte[] filtered = new byte[rowBytes + 1], scratch = new byte[rowBytes + 1];
+		if(firstRow > 0)
+			image.readRow(firstRow - 1, previous);
+		Deflater deflater = new Deflater(COMPRESSION_LEVEL, true);
+		Adler32 adler = new Adler32();
+		CompressedGroup group = new CompressedGroup();
+		group.data = new byte[Math.max(1024, rows * (rowBytes + 1) / 4)];
+		try {
+			for(int y = firstRow; y < firstRow + rows; ++y) {
+				image.readRow(y, row);
+				filter(row, y > 0 ? previous : null, filtered, scratch);
+				adler.update(filtered);
+				deflater.setInput(filtered);
+				while(!deflater.needsInput())
+					deflate(deflater, group, Deflater.NO_FLUSH);
+				byte[] swap = previous;
+				previous = row;
+				row = swap;
+			}
+			if(last) {
+				deflater.finish();
+				while(!deflater.finished())
+					deflate(deflater, group, Deflater.NO_FLUSH);
+			} else {
+				//a sync flush ends the group's data on a byte boundary, without ending the stream
+				int count;
+				do {
+					count = deflate(deflater, group, Deflater.SYNC_FLUSH);
+				} while(count > 0 && group.length == group.data.length);
+			}
+		} finally {
+			deflater.end();
+		}
+		group.adler = adler.getValue();
+		group.rawLength = (long)rows * (rowBytes + 1);
+		return group;
+	}
+
+	private static int deflate(Deflater deflater, CompressedGroup group, int flush) {
+		if(group.length == group.data.length)
+			group.data = Arrays.copyOf(group.data, 2 * group.data.length);
+		int count = deflater.deflate(group.data, group.length, group.data.length - group.length, flush);
+		group.length += count;
+		return count;
+	}
+
+	/**
+	 * The Adler-32 checksum of two sequences of bytes one after the other, from their checksums (as zlib's adler32_combine).
+	 */
+	static long combineAdler32(long adler1, long adler2, long length2) {
+		long remainder = length2 % ADLER_BASE;
+		long sum1 = adler1 & 0xffff;
+		long sum2 = remainder * sum1 % ADLER_BASE;
+		sum1 += (adler2 & 0xffff) + ADLER_BASE - 1;
+		sum2 += ((adler1 >>> 16) & 0xffff) + ((adler2 >>> 16) & 0xffff) + ADLER_BASE - remainder;
+		if(sum1 >= ADLER_BASE)
+			sum1 -= ADLER_BASE;
+		if(sum1 >= ADLER_BASE)
+			sum1 -= ADLER_BASE;
+		if(sum2 >= 2L * ADLER_BASE)
+			sum2 -= 2L * ADLER_BASE;
+		if(sum2 >= ADLER_BASE)
+			sum2 -= ADLER_BASE;
+		return sum1 | (sum2 << 16);
+	}
+
+	static void writeHeader(DataOutputStream out, int width, int height) throws IOException {
+		out.write(SIGNATURE);
+		byte[] header = new byte[13];
+		putInt(header, 0, width);
+		putInt(header, 4, height);
+		header[8] = 8; //bits per channel
+		header[9] = 2; //truecolor
+		//compression, filter and interlace methods are 0
+		writeChunk(out, "IHDR", header, header.length);
+	}
+
+	static void writeChunk(DataOutputStream out, String type, byte[] data, int length) throws IOException {
+		byte[] typeBytes = type.getBytes(StandardCharsets.US_ASCII);
+		CRC32 crc = new CRC32();
+		crc.update(typeBytes);
+		crc.update(data, 0, length);
+		out.writeInt(length);
+		out.write(typeBytes);
+		out.write(data, 0, length);
+		out.writeInt((int)crc.getValue());
+	}
+
+	private static void putInt(byte[] bytes, int offset, int value) {
+		bytes[offset] = (byte)(value >>> 24);
+		bytes[offset + 1] = (byte)(value >>> 16);
+		bytes[offset + 2] = (byte)(value >>> 8);
+		bytes[offset + 3] = (byte)value;
+	}
+
+	/**
+	 * Filters a row of RGB pixels into filtered: the filter type, then the filtered bytes.
+	 * @param previous - the row above, or null for the first row.
+	 * @param scratch - a row of the length of filtered, for the filters tried.
+	 */
+	static void filter(byte[] row, byte[] previous, byte[] filtered, byte[] scratch) {
+		//the filter with the smallest sum of the filtered bytes as signed values is usually the one that deflates best.
+		//Every filter is tried into scratch, and the best so far is swapped into filtered
+		byte[] best = filtered, candidate = scratch;
+		long bestSum = Long.MAX_VALUE;
+		for(byte type = NONE; type <= PAETH; ++type) {
+			if(previous == null && (type == UP || type == PAETH))
+				continue;
+			long sum = filter(type, row, previous, candidate);
+			if(sum < bestSum) {
+				bestSum = sum;
+				byte[] swap = best;
+				best = candidate;
+				candidate = swap;
+			}
+		}
+		if(best != filtered)
+			System.arraycopy(best, 0, filtered, 0, filtered.length);
+	}
+
+	//filters the row with one filter into filtered, and returns the sum of the absolute values of the filtered bytes.
+	//The first pixel has no left neighbour, so it is filtered before the loops, which then need no checks
+	private static long filter(byte type, byte[] row, byte[] previous, byte[] filtered) {
+		filtered[0] = type;
+		long sum = 0;
+		int length = row.length;
+		int first = Math.min(3, length);
+		switch(type) {
+		case SUB:
+			for(int i = 0; i < first; ++i)
+				sum += Math.abs(filtered[i + 1] = row[i]);
+			for(int i = 3; i < length; ++i)
+				sum += Math.abs(filtered[i + 1] = (byte)(row[i] - row[i - 3]));
+			break;
+		case UP:
+			for(int i = 0; i < length; ++i)
+				sum += Math.abs(filtered[i + 1] = (byte)(row[i] - previous[i]));
+			break;
+		case AVERAGE:
+			if(previous == null) {
+				for(int i = 0; i < first; ++i)
+					sum += Math.abs(filtered[i + 1] = row[i]);
+				for(int i = 3; i < length; ++i)
+					sum += Math.abs(filtered[i + 1] = (byte)((row[i] & 0xff) - (row[i - 3] & 0xff) / 2));
+			} else {
+				for(int i = 0; i < first; ++i)
+					sum += Math.abs(filtered[i + 1] = (byte)((row[i] & 0xff) - (previous[i] & 0xff) / 2));
+				for(int i = 3; i < length; ++i)
+					sum += Math.abs(filtered[i + 1] = (byte)((row[i] & 0xff) - ((row[i - 3] & 0xff) + (previous[i] & 0xff)) / 2));
+			}
+			break;
+		case PAETH:
+			//without a left neighbour, Paeth predicts the byte above
+			for(int i = 0; i < first; ++i)
+				sum += Math.abs(filtered[i + 1] = (byte)(row[i] - previous[i]));
+			for(int i = 3; i < length; ++i)
+				sum += Math.abs(filtered[i + 1] = (byte)((row[i] & 0xff) - paeth(row[i - 3] & 0xff, previous[i] & 0xff, previous[i - 3] & 0xff)));
+			break;
+		default:
+			for(int i = 0; i < length; ++i)
+				sum += Math.abs(filtered[i + 1] = row[i]);
+			break;
+		}
+		return sum;
+	}
+
+	private static int paeth(int a, int b, int c) {
+		int p = a + b - c;
+		int pa = Math.abs(p - a), pb = Math.abs(p - b), pc = Math.abs(p - c);
+		if(pa <= pb && pa <= pc)
+			return a;
+		return pb <= pc ? b : c;
+	}
+
+	/**
+	 * Splits the compressed data into IDAT chunks of CHUNK_BYTES.
+	 */
+	static class IdatOutputStream extends OutputStream {
+		private final DataOutputStream out;
+		private final byte[] chunk = new byte[CHUNK_BYTES];
+		private int length = 0;
+
+		IdatOutputStream(DataOutputStream out) {
+			this.out = out;
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			if(length == chunk.length)
+				flushChunk();
+			chunk[length++] = (byte)b;
+		}
+
+		@Override
+		public void write(byte[] b, int offset, int count) throws IOException {
+			while(count > 0) {
+				if(length == chunk.length)
+					flushChunk();
+				int n = Math.min(count, chunk.length - length);
+				System.arraycopy(b, offset, chunk, length, n);
+				length += n;
+				offset += n;
+				count -= n;
+			}
+		}
+
+		void flushChunk() throws IOException {
+			if(length > 0)
+				writeChunk(out, "IDAT", chunk, length);
+			length = 0;
+		}
+	}
+}
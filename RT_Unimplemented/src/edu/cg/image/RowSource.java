@@ -0,0 +1,60 @@
+package edu.cg.image;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.awt.image.WritableRaster;
+
+/**
+ * The rows of an 8 bit RGB image, read one at a time by the image writers (PngWriter, TiffWriter),
+ * so an image can be written without being held in a BufferedImage.
+ */
+public interface RowSource {
+	int width();
+
+	int height();
+
+	/**
+	 * Copies row y into rgb, three bytes (red, green, blue) per pixel. This method must be thread safe.
+	 */
+	void readRow(int y, byte[] rgb);
+
+	/**
+	 * The rows of an image in memory.
+	 */
+	static RowSource of(BufferedImage img) {
+		int width = img.getWidth(), height = img.getHeight();
+		WritableRaster imageRaster = img.getRaster();
+		//the raster of a TYPE_INT_RGB image is read directly, unless it is a part of a larger one
+		int[] raster = img.getType() == BufferedImage.TYPE_INT_RGB && imageRaster.getParent() == null &&
+				((SinglePixelPackedSampleModel)imageRaster.getSampleModel()).getScanlineStride() == width ?
+				((DataBufferInt)imageRaster.getDataBuffer()).getData() : null;
+		return new RowSource() {
+			@Override
+			public int width() {
+				return width;
+			}
+
+			@Override
+			public int height() {
+				return height;
+			}
+
+			@Override
+			public void readRow(int y, byte[] rgb) {
+				int[] row = raster;
+				int start = y * width;
+				if(row == null) {
+					row = img.getRGB(0, y, width, 1, null, 0, width);
+					start = 0;
+				}
+				for(int x = 0, i = 0; x < width; ++x, i += 3) {
+					int pixel = row[start + x];
+					rgb[i] = (byte)(pixel >>> 16);
+					rgb[i + 1] = (byte)(pixel >>> 8);
+					rgb[i + 2] = (byte)pixel;
+				}
+			}
+		};
+	}
+}
@@ -0,0 +1,93 @@
+package edu.cg.image;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Writes uncompressed 8 bit RGB baseline TIFF images row by row from a RowSource. Nothing is compressed, so
+ * writing is as fast as the disk, and the whole layout is known before the first row: the header and the
+ * image file directory come first, then the rows in strips of about STRIP_BYTES.
+ * Classic TIFF files are limited to 4 GB, about 37000x37000 pixels.
+ */
+public class TiffWriter {
+	static final int STRIP_BYTES = 1 << 16;
+	private static final short SHORT = 3, LONG = 4, RATIONAL = 5;
+	private static final int ENTRIES = 13;
+
+	public static void write(RowSource image, Path file) throws IOException {
+		try(OutputStream out = new BufferedOutputStream(Files.newOutputStream(file), STRIP_BYTES)) {
+			write(image, out);
+		}
+	}
+
+	/**
+	 * Writes the image to the stream, which is not closed.
+	 * @throws IOException if the image doesn't fit in 4 GB.
+	 */
+	public static void write(RowSource image, OutputStream out) throws IOException {
+		int width = image.width(), height = image.height();
+		int rowBytes = 3 * width;
+		int rowsPerStrip = Math.max(1, Math.min(height, STRIP_BYTES / rowBytes));
+		int strips = (height + rowsPerStrip - 1) / rowsPerStrip;
+
+		//the header, the directory, then the values that don't fit in the directory's entries
+		long directory = 8;
+		long bitsPerSample = directory + 2 + 12 * ENTRIES + 4;
+		long resolution = bitsPerSample + 8;
+		long stripOffsets = resolution + 8;
+		long stripByteCounts = stripOffsets + 4L * strips;
+		long pixels = stripByteCounts + 4L * strips;
+		if(pixels + (long)rowBytes * height > 0xffffffffL)
+			throw new IOException("An image of " + width + "x" + height + " pixels is too large for a TIFF file");
+
+		ByteBuffer header = ByteBuffer.allocate((int)pixels).order(ByteOrder.LITTLE_ENDIAN);
+		header.put((byte)'I').put((byte)'I').putShort((short)42).putInt((int)directory);
+		header.putShort((short)ENTRIES);
+		entry(header, 256, LONG, 1, width); //image width
+		entry(header, 257, LONG, 1, height); //image length
+		entry(header, 258, SHORT, 3, (int)bitsPerSample);
+		entry(header, 259, SHORT, 1, 1); //no compression
+		entry(header, 262, SHORT, 1, 2); //RGB
+		entry(header, 273, LONG, strips, strips == 1 ? (int)pixels : (int)stripOffsets);
+		entry(header, 277, SHORT, 1, 3); //samples per pixel
+		entry(header, 278, LONG, 1, rowsPerStrip);
+		entry(header, 279, LONG, strips, strips == 1 ? rowBytes * height : (int)stripByteCounts);
+		entry(header, 282, RATIONAL, 1, (int)resolution); //x resolution
+		entry(header, 283, RATIONAL, 1, (int)resolution); //y resolution
+		entry(header, 284, SHORT, 1, 1); //chunky planar configuration
+		entry(header, 296, SHORT, 1, 2); //resolution in inches
+		header.putInt(0); //no more directories
+		header.putShort((short)8).putShort((short)8).putShort((short)8).putShort((short)0);
+		header.putInt(72).putInt(1);
+		if(strips > 1) {
+			for(int i = 0; i < strips; ++i)
+				header.putInt((int)(pixels + (long)i * rowsPerStrip * rowBytes));
+			for(int i = 0; i < strips; ++i)
+				header.putInt(Math.min(rowsPerStrip, height - i * rowsPerStrip) * rowBytes);
+		}
+		out.write(header.array(), 0, header.position());
+		//the two arrays of a single strip are in the directory, so their space stays empty
+		out.write(new byte[(int)pixels - header.position()]);
+
+		byte[] row = new byte[rowBytes];
+		for(int y = 0; y < height; ++y) {
+			image.readRow(y, row);
+			out.write(row);
+		}
+		out.flush();
+	}
+
+	//a single SHORT is stored in the lower bytes of the value, which are the first bytes in little endian
+	private static void entry(ByteBuffer header, int tag, short type, int count, int value) {
+		header.putShort((short)tag).putShort(type).putInt(count);
+		if(type == SHORT && count == 1)
+			header.putShort((short)value).putShort((short)0);
+		else
+			header.putInt(value);
+	}
+}
@@ -0,0 +1,148 @@
+package edu.cg.image;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+
+import edu.cg.scene.render.TileScheduler;
+
+/**
+ * Converts the float pixels of an HdrFramebuffer to 8 bit RGB: every channel is scaled by 2 to the power of the
+ * exposure, clipped to [0, 1], raised to 1 / gamma and rounded to a byte. With the defaults (exposure 0, gamma 1)
+ * the bytes are exactly the ones Vec.toRGB gives the same colors, so an HDR render tone mapped with the defaults
+ * is identical to an 8 bit render.
+ *
+ * Gamma is applied through a table of the 256 thresholds between the bytes, so a channel costs a table lookup and
+ * usually a comparison or two instead of a Math.pow, and gives the byte Math.pow would.
+ */
+public class ToneMapper {
+	//the tiles the pixels are mapped in on a pool
+	static final int TILE_SIZE = 128;
+	//the number of buckets of clipped channels whose lowest byte is looked up before the thresholds are compared
+	static final int BUCKETS = 4096;
+
+	private double exposure = 0.0;
+	private double gamma = 1.0;
+
+	/**
+	 * @param exposure - in stops: every channel is multiplied by 2^exposure.
+	 */
+	public ToneMapper initExposure(double exposure) {
+		if(!Double.isFinite(exposure))
+			throw new IllegalArgumentException("Bad exposure " + exposure);
+		this.exposure = exposure;
+		return this;
+	}
+
+	public ToneMapper initGamma(double gamma) {
+		if(!(gamma > 0 && Double.isFinite(gamma)))
+			throw new IllegalArgumentException("Gamma must be positive");
+		this.gamma = gamma;
+		return this;
+	}
+
+	public double getExposure() {
+		return exposure;
+	}
+
+	public double getGamma() {
+		return gamma;
+	}
+
+	/**
+	 * Maps the framebuffer into a new TYPE_INT_RGB image, in tiles on the threads of the pool.
+	 */
+	public BufferedImage map(HdrFramebuffer hdr, ForkJoinPool pool) throws InterruptedException, ExecutionException {
+		int width = hdr.width();
+		BufferedImage img = new BufferedImage(width, hdr.height(), BufferedImage.TYPE_INT_RGB);
+		int[] raster = ((DataBufferInt)img.getRaster().getDataBuffer()).getData();
+		float[] pixels = hdr.pixels();
+		Quantizer quantizer = new Quantizer();
+		new TileScheduler(width, hdr.height(), TILE_SIZE).run(pool, pool.getParallelism(), tile -> {
+			for(int y = tile.y; y < tile.y + tile.height; ++y) {
+				for(int x = tile.x, i = y * width + x; x < tile.x + tile.width; ++x, ++i)
+					raster[i] = quantizer.rgb(pixels, 3 * i);
+			}
+		});
+		return img;
+	}
+
+	/**
+	 * The mapped rows of the framebuffer, mapped as they are read, so an image writer that reads rows on several
+	 * threads (PngWriter on a pool) maps them in parallel as well, without an 8 bit copy of the image.
+	 */
+	public RowSource rows(HdrFramebuffer hdr) {
+		int width = hdr.width(), height = hdr.height();
+		float[] pixels = hdr.pixels();
+		Quantizer quantizer = new Quantizer();
+		return new RowSource() {
+			@Override
+			public int width() {
+				return width;
+			}
+
+			@Override
+			public int height() {
+				return height;
+			}
+
+			@Override
+			public void readRow(int y, byte[] rgb) {
+				int start = 3 * y * width;
+				for(int i = 0; i < 3 * width; ++i)
+					rgb[i] = (byte)quantizer.channel(pixels[start + i]);
+			}
+		};
+	}
+
+	@Override
+	public String toString() {
+		return "exposure " + exposure + ", gamma " + gamma;
+	}
+
+	//the exposure's scale and the gamma thresholds, computed once per image
+	private class Quantizer {
+		final float scale = (float)Math.pow(2.0, exposure);
+		//thresholds[k] is the smallest clipped channel that becomes byte k or more, with a last one above 1 as a
+		//sentinel; null for gamma 1
+		final double[] thresholds;
+		//the byte of the lowest clipped channel of every bucket
+		final byte[] bucketBytes;
+
+		Quantizer() {
+			if(gamma == 1.0) {
+				thresholds = null;
+				bucketBytes = null;
+				return;
+			}
+			thresholds = new double[257];
+			for(int k = 1; k < 256; ++k)
+				thresholds[k] = Math.pow((k - 0.5) / 255, gamma);
+			thresholds[256] = Double.POSITIVE_INFINITY;
+			bucketBytes = new byte[BUCKETS + 1];
+			for(int bucket = 0, k = 0; bucket <= BUCKETS; ++bucket) {
+				while(thresholds[k + 1] <= (float)bucket / BUCKETS)
+					++k;
+				bucketBytes[bucket] = (byte)k;
+			}
+		}
+
+		int rgb(float[] pixels, int i) {
+			return (channel(pixels[i]) << 16) | (channel(pixels[i + 1]) << 8) | channel(pixels[i + 2]);
+		}
+
+		int channel(float value) {
+			//as Vec.toRGB, which clips in float and rounds the float product; NaN becomes 0
+			float clipped = Math.min(1f, Math.max(0f, value * scale));
+			if(thresholds == null)
+				return (int)(clipped * 255 + 0.5);
+			if(clipped != clipped)
+				return 0;
+			int k = bucketBytes[(int)(clipped * BUCKETS)] & 0xff;
+			while(thresholds[k + 1] <= clipped)
+				++k;
+			return k;
+		}
+	}
+}
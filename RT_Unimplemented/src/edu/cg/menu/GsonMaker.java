@@ -1,5 +1,7 @@
 package edu.cg.menu;
 import java.lang.reflect.Type;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
@@ -17,8 +19,10 @@ import edu.cg.scene.objects.Shape;
 
 public class GsonMaker<T>  implements JsonSerializer<T>, JsonDeserializer<T> {
 
-	private static final String CLASSNAME = "CLASSNAME";
-	private static final String DATA = "DATA";
+	//the fields of a serialized shape or light: the name of its class and its own fields
+	public static final String CLASSNAME = "CLASSNAME";
+	public static final String DATA = "DATA";
+	private static final Map<String, Class<?>> CLASSES = new ConcurrentHashMap<>();
 
 	public T deserialize(JsonElement jsonElement, Type type,
 			JsonDeserializationContext jsonDeserializationContext) throws JsonParseException {
@@ -27,6 +31,9 @@ public class GsonMaker<T>  implements JsonSerializer<T>, JsonDeserializer<T> {
 		JsonPrimitive prim = (JsonPrimitive) jsonObject.get(CLASSNAME);
 		String className = prim.getAsString();
 		Class<T> klass = getObjectClass(className);
+		//type is Light or Shape, as registered below
+		if(type instanceof Class && !((Class<?>)type).isAssignableFrom(klass))
+			throw new JsonParseException(className + " is not a " + ((Class<?>)type).getSimpleName());
 		return jsonDeserializationContext.deserialize(jsonObject.get(DATA), klass);
 	}
 	
@@ -41,13 +48,27 @@ public class GsonMaker<T>  implements JsonSerializer<T>, JsonDeserializer<T> {
 	@SuppressWarnings("unchecked")
 	public Class<T> getObjectClass(String className) {
 		try {
-			return (Class<T>) Class.forName(className);
+			return (Class<T>) classForName(className);
 		} catch (ClassNotFoundException e) {
 			//e.printStackTrace();
 			throw new JsonParseException(e.getMessage());
 		}
 	}
 	
+	/**
+	 * Same as Class.forName, but every name is looked up only once, since a scene names the same few classes
+	 * for all of its shapes and lights. The class isn't initialized, so a name in a scene file doesn't run the
+	 * static initializer of a class that is neither a shape nor a light.
+	 */
+	public static Class<?> classForName(String className) throws ClassNotFoundException {
+		Class<?> klass = CLASSES.get(className);
+		if(klass == null) {
+			klass = Class.forName(className, false, GsonMaker.class.getClassLoader());
+			CLASSES.putIfAbsent(className, klass);
+		}
+		return klass;
+	}
+	
 	
 	private static class GsonHolder {
 		public static Gson gson;
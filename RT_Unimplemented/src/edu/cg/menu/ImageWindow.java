@@ -10,19 +10,25 @@ import java.awt.Graphics;
 import java.awt.image.BufferedImage;
 import java.io.File;
 import java.io.IOException;
+import java.util.concurrent.ForkJoinPool;
 
-import javax.imageio.ImageIO;
 import javax.swing.JButton;
 import javax.swing.JFileChooser;
 import javax.swing.JFrame;
 import javax.swing.JOptionPane;
 import javax.swing.JPanel;
+import javax.swing.SwingUtilities;
 import javax.swing.border.EmptyBorder;
 
+import edu.cg.image.PngWriter;
+import edu.cg.image.RowSource;
+
 @SuppressWarnings("serial")
 public class ImageWindow extends JFrame {
 	private MenuWindow menuWindow;
 	private BufferedImage img;
+	private String title;
+	private JPanel panelImage;
 
 	/**
 	 * Create the window.
@@ -31,6 +37,7 @@ public class ImageWindow extends JFrame {
 		super();
 		
 		this.img = img;
+		this.title = title;
 		this.menuWindow = menuWindow;
 		
 		setTitle(title);
@@ -49,7 +56,7 @@ public class ImageWindow extends JFrame {
 		});
 		contentPane.add(btnSaveAs, BorderLayout.NORTH);
 		
-		JPanel panelImage = new ImagePanel();
+		panelImage = new ImagePanel();
 		contentPane.add(panelImage, BorderLayout.CENTER);
 		
 		pack();
@@ -66,9 +73,24 @@ public class ImageWindow extends JFrame {
 		}
 	}
 	
+	/**
+	 * Repaints the image after some of its pixels have changed. May be called from any thread.
+	 */
+	public void imageUpdated() {
+		panelImage.repaint();
+	}
+	
+	/**
+	 * Shows the progress of the image's rendering in the title. May be called from any thread.
+	 */
+	public void showProgress(String progress) {
+		SwingUtilities.invokeLater(() -> setTitle(progress == null ? title : title + " (" + progress + ")"));
+	}
+	
 	private void save(File file) {
 		try {
-			ImageIO.write(img, "png", file);
+			//the image is compressed on the common pool, since the renders' pools are gone by now
+			PngWriter.write(RowSource.of(img), file.toPath(), ForkJoinPool.commonPool());
 			menuWindow.log("File: " + file.getName() + ".png has been saved.");
 		} catch (IOException e) {
 			menuWindow.log("Failed to save image: " + getTitle()); 
@@ -3,24 +3,38 @@ package edu.cg.menu;
 import java.awt.BorderLayout;
 import java.awt.GridLayout;
 import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.file.Paths;
 
 import javax.swing.JButton;
 import javax.swing.JFrame;
 import javax.swing.JOptionPane;
 import javax.swing.JPanel;
+import javax.swing.SwingUtilities;
 import javax.swing.border.EmptyBorder;
 
 import edu.cg.Logger;
+import edu.cg.RenderCache;
 import edu.cg.menu.components.ScenesCreator;
 import edu.cg.menu.components.ScenesPicker;
+import edu.cg.scene.GeometryBuffer;
 import edu.cg.scene.Scene;
+import edu.cg.scene.render.RenderListener;
+import edu.cg.scene.render.Tile;
 import edu.cg.menu.components.LogField;
 import edu.cg.menu.components.RenderingParametersSelector;
 
 @SuppressWarnings("serial")
 public class MenuWindow extends JFrame implements Logger {
 	//MARK: fields
+	private static final String CACHE_FOLDER = "render-cache";
+	private static final long CACHE_BYTES = 512L * 1024 * 1024;
+	private static final long GEOMETRY_BUFFER_BYTES = 512L * 1024 * 1024;
+	
 	private Scene scene = null;
+	private RenderCache cache = null;
+	//kept across scenes, so a scene that is opened again after editing its materials reuses the primary hits
+	private final GeometryBuffer geometryBuffer = new GeometryBuffer(GEOMETRY_BUFFER_BYTES);
 	
 	//MARK: GUI fields
 	private ScenesPicker scenesPicker;
@@ -57,15 +71,32 @@ public class MenuWindow extends JFrame implements Logger {
 			
 			if(!renderingParametersSelector.readParameters(scene, MenuWindow.this))
 				return;
+			if(renderingParametersSelector.keepGeometry()) {
+				scene.initGeometryBuffer(geometryBuffer);
+			} else {
+				scene.initGeometryBuffer(null);
+				geometryBuffer.clear();
+			}
+			
+			String cacheKey = renderingParametersSelector.cache() ? RenderCache.key(scene, width, height, viewPlainWidth) : null;
+			BufferedImage cached = cachedImage(cacheKey);
+			if(cached != null) {
+				log("Found " + scene.getName() + " in the render cache.");
+				present(cached);
+				return;
+			}
+			
+			if(renderingParametersSelector.progressive()) {
+				renderProgressive(scene, width, height, viewPlainWidth, cacheKey);
+				return;
+			}
 			
 			try {
 				BufferedImage img = scene.render(width, height, viewPlainWidth,MenuWindow.this);
+				cacheImage(cacheKey, img);
 				present(img);
 			} catch(Exception ex) {
-				String msg = "Couldn't render " + scene.getName() + System.lineSeparator() + 
-						"Exception message: " + ex.getMessage();
-				log(msg);
-				JOptionPane.showMessageDialog(MenuWindow.this, msg, "Error", JOptionPane.ERROR_MESSAGE);
+				renderFailed(scene, ex);
 			}
 		});
 		
@@ -100,6 +131,78 @@ public class MenuWindow extends JFrame implements Logger {
 		new ImageWindow(img, scene.getName(), this).setVisible(true);
 	}
 	
+	/**
+	 * Opens the image window right away and renders the scene into it on a background thread,
+	 * repainting the window as tiles are finished.
+	 */
+	private void renderProgressive(Scene scene, int width, int height, double viewPlainWidth, String cacheKey) {
+		BufferedImage img = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+		ImageWindow imageWindow = new ImageWindow(img, scene.getName(), this);
+		imageWindow.setVisible(true);
+		btnRender.setEnabled(false);
+		
+		Logger logger = s -> SwingUtilities.invokeLater(() -> log(s));
+		RenderListener listener = new RenderListener() {
+			@Override
+			public void tileRendered(Tile tile) {
+				imageWindow.imageUpdated();
+			}
+			
+			@Override
+			public void passCompleted(int pass, int passCount) {
+				imageWindow.imageUpdated();
+				imageWindow.showProgress(pass < passCount ? "pass " + pass + " of " + passCount : null);
+			}
+		};
+		
+		Thread renderThread = new Thread(() -> {
+			try {
+				scene.renderProgressive(img, viewPlainWidth, logger, listener);
+				cacheImage(cacheKey, img);
+			} catch(Exception ex) {
+				SwingUtilities.invokeLater(() -> renderFailed(scene, ex));
+			} finally {
+				SwingUtilities.invokeLater(() -> btnRender.setEnabled(true));
+			}
+		}, "Progressive render of " + scene.getName());
+		renderThread.setDaemon(true);
+		renderThread.start();
+	}
+	
+	/**
+	 * Returns the cached image of the key, or null if the key is null or the image isn't cached.
+	 */
+	private BufferedImage cachedImage(String cacheKey) {
+		if(cacheKey == null)
+			return null;
+		try {
+			if(cache == null)
+				cache = new RenderCache(Paths.get(CACHE_FOLDER), CACHE_BYTES);
+			return cache.get(cacheKey);
+		} catch(IOException e) {
+			log("Couldn't read the render cache: " + e.getMessage());
+			return null;
+		}
+	}
+	
+	//may be called from the progressive render thread, the cache is thread safe
+	private void cacheImage(String cacheKey, BufferedImage img) {
+		if(cacheKey == null || cache == null)
+			return;
+		try {
+			cache.put(cacheKey, img);
+		} catch(IOException e) {
+			SwingUtilities.invokeLater(() -> log("Couldn't write to the render cache: " + e.getMessage()));
+		}
+	}
+	
+	private void renderFailed(Scene scene, Exception ex) {
+		String msg = "Couldn't render " + scene.getName() + System.lineSeparator() + 
+				"Exception message: " + ex.getMessage();
+		log(msg);
+		JOptionPane.showMessageDialog(MenuWindow.this, msg, "Error", JOptionPane.ERROR_MESSAGE);
+	}
+	
 	//MARK: Logger
 	@Override
 	public void log(String s) {
@@ -23,13 +23,21 @@ public class RenderingParametersSelector extends JPanel {
 	private JFormattedTextField height;
 	private JFormattedTextField viewPlainWidth;
 	private JFormattedTextField recursionLevel;
+	private JFormattedTextField contributionThreshold;
 	
 	private Checkbox x1;
 	private Checkbox x2;
 	private Checkbox x3;
+	private Checkbox adaptive;
+	private Checkbox roulette;
 	
 	private Checkbox reflection;
 	private Checkbox refraction;
+	private Checkbox progressive;
+	private Checkbox statistics;
+	private Checkbox cache;
+	private Checkbox keepGeometry;
+	private Checkbox singlePrecision;
 	
 	public RenderingParametersSelector() {
 		super();
@@ -63,6 +71,9 @@ public class RenderingParametersSelector extends JPanel {
 		panel1.add(x1);
 		panel1.add(x2);
 		panel1.add(x3);
+		adaptive = new Checkbox(" adaptive");
+		adaptive.setFont(myFont);
+		panel1.add(adaptive);
 		
 		
 		JPanel panel2 = new JPanel();
@@ -73,6 +84,11 @@ public class RenderingParametersSelector extends JPanel {
 		recursionLevel = addAndGetTextField(" Max recursion level:", 1, panel2);
 		recursionLevel.setColumns(2);
 		
+		contributionThreshold = addAndGetTextField(" Min contribution:", 0.0, panel2);
+		roulette = new Checkbox("roulette");
+		roulette.setFont(myFont);
+		panel2.add(roulette);
+		
 		
 		panel2.add(new JLabel("   "));
 		
@@ -87,6 +103,26 @@ public class RenderingParametersSelector extends JPanel {
 		panel2.add(reflection);
 		
 		panel2.add(refraction);
+		
+		progressive = new Checkbox("  Progressive preview");
+		progressive.setFont(myFont);
+		panel2.add(progressive);
+		
+		statistics = new Checkbox("  Statistics");
+		statistics.setFont(myFont);
+		panel2.add(statistics);
+		
+		cache = new Checkbox("  Cache");
+		cache.setFont(myFont);
+		panel2.add(cache);
+		
+		keepGeometry = new Checkbox("  Keep geometry");
+		keepGeometry.setFont(myFont);
+		panel2.add(keepGeometry);
+		
+		singlePrecision = new Checkbox("  Single precision");
+		singlePrecision.setFont(myFont);
+		panel2.add(singlePrecision);
 	}
 	
 	private JFormattedTextField addAndGetTextField(String label, int value, JPanel panel) {
@@ -136,6 +172,18 @@ public class RenderingParametersSelector extends JPanel {
 		return ans;
 	}
 
+	public boolean progressive() {
+		return progressive.getState();
+	}
+	
+	public boolean cache() {
+		return cache.getState();
+	}
+	
+	public boolean keepGeometry() {
+		return keepGeometry.getState();
+	}
+	
 	public void setWidth(int width) {
 		this.width.setValue(width);
 	}
@@ -151,12 +199,25 @@ public class RenderingParametersSelector extends JPanel {
 	public boolean readParameters(Scene scene, MenuWindow menuWindow) {
 		try {
 			int recursionLevel = (Integer)this.recursionLevel.getValue();
-			if(recursionLevel < 1 | recursionLevel > 10)
+			if(recursionLevel < 1 | recursionLevel > Scene.MAX_RECURSION_LEVEL)
 				throw new RuntimeException();
 
 			scene.initMaxRecursionLevel(recursionLevel);
 		} catch (Exception ex) {
-			String msg = "Recursion level must be an Integer between 1 to 10.";
+			String msg = "Recursion level must be an Integer between 1 to " + Scene.MAX_RECURSION_LEVEL + ".";
+			menuWindow.log(msg);
+			JOptionPane.showMessageDialog(menuWindow, msg, "Error", JOptionPane.ERROR_MESSAGE);
+			return false;
+		}
+		
+		try {
+			double contributionThreshold = ((Number)this.contributionThreshold.getValue()).doubleValue();
+			if(contributionThreshold < 0.0 | contributionThreshold > 1.0)
+				throw new RuntimeException();
+			
+			scene.initContributionThreshold(contributionThreshold);
+		} catch (Exception ex) {
+			String msg = "Min contribution must be a number between 0 and 1.";
 			menuWindow.log(msg);
 			JOptionPane.showMessageDialog(menuWindow, msg, "Error", JOptionPane.ERROR_MESSAGE);
 			return false;
@@ -170,7 +231,11 @@ public class RenderingParametersSelector extends JPanel {
 			scene.initAntiAliasingFactor(3);
 
 		scene.initRenderRefarctions(refraction.getState())
-		.initRenderReflections(reflection.getState());
+		.initRenderReflections(reflection.getState())
+		.initAdaptiveAntiAliasing(adaptive.getState())
+		.initRussianRoulette(roulette.getState())
+		.initCollectStatistics(statistics.getState())
+		.initSinglePrecision(singlePrecision.getState());
 		
 		return true;
 	}
@@ -191,5 +256,9 @@ public class RenderingParametersSelector extends JPanel {
 		recursionLevel.setValue(scene.getMaxRecursionLevel());
 		refraction.setState(scene.getRenderRefarctions());
 		reflection.setState(scene.getRenderReflections());
+		adaptive.setState(scene.getAdaptiveAntiAliasing());
+		contributionThreshold.setValue(scene.getContributionThreshold());
+		roulette.setState(scene.getRussianRoulette());
+		statistics.setState(scene.getCollectStatistics());
 	}
 }
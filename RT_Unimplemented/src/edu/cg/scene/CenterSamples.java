@@ -0,0 +1,107 @@
+package edu.cg.scene;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import edu.cg.algebra.Vec;
+import edu.cg.scene.objects.Surface;
+
+/**
+ * The colors of the center rays of all the pixels of an image, kept between the pass that traces them
+ * and the anti aliasing pass, which uses them as the first sample of every pixel.
+ * When the surfaces are kept as well, the anti aliasing pass can be adaptive: a pixel gets more samples
+ * only if its center differs from the center of one of its neighbors.
+ * The centers can be kept for a rectangular region of the image only, such as a tile and the pixels around it.
+ */
+class CenterSamples {
+	private final int imgWidth, imgHeight;
+	private final int regionX, regionY, regionWidth, regionHeight;
+	private final double[] colors;
+	private final Surface[] surfaces;
+	private final AtomicLong supersampledPixels = new AtomicLong(0);
+	
+	/**
+	 * @param keepSurfaces - whether to keep the surface hit by every center ray (null for the background).
+	 */
+	CenterSamples(int imgWidth, int imgHeight, boolean keepSurfaces) {
+		this(0, 0, imgWidth, imgHeight, imgWidth, imgHeight, keepSurfaces);
+	}
+	
+	/**
+	 * Keeps the centers of the pixels of a region of the image. needsSupersampling compares a pixel with its
+	 * neighbors in the image, so they must be in the region as well.
+	 */
+	CenterSamples(int regionX, int regionY, int regionWidth, int regionHeight, int imgWidth, int imgHeight, boolean keepSurfaces) {
+		this.imgWidth = imgWidth;
+		this.imgHeight = imgHeight;
+		this.regionX = regionX;
+		this.regionY = regionY;
+		this.regionWidth = regionWidth;
+		this.regionHeight = regionHeight;
+		this.colors = new double[3 * regionWidth * regionHeight];
+		this.surfaces = keepSurfaces ? new Surface[regionWidth * regionHeight] : null;
+	}
+	
+	private int pixel(int x, int y) {
+		return (y - regionY) * regionWidth + x - regionX;
+	}
+	
+	boolean isAdaptive() {
+		return surfaces != null;
+	}
+	
+	void store(int x, int y, Vec color, Surface surface) {
+		int pixel = pixel(x, y);
+		colors[3 * pixel] = color.x;
+		colors[3 * pixel + 1] = color.y;
+		colors[3 * pixel + 2] = color.z;
+		if(surfaces != null)
+			surfaces[pixel] = surface;
+	}
+	
+	Vec load(int x, int y, Vec result) {
+		int index = 3 * pixel(x, y);
+		return result.set(colors[index], colors[index + 1], colors[index + 2]);
+	}
+	
+	/**
+	 * Checks whether the center of the pixel hit another surface than the center of one of its four neighbors,
+	 * or differs from it by more than the threshold in one of the color channels (clamped to [0, 1]).
+	 * Always true if the surfaces are not kept or the threshold is not positive: centers that agree can still have
+	 * samples that don't, so only supersampling every pixel gives the image of the fixed grid.
+	 */
+	boolean needsSupersampling(int x, int y, double threshold) {
+		if(surfaces == null || threshold <= 0.0)
+			return true;
+		
+		int pixel = pixel(x, y);
+		return (x > 0 && differ(pixel, pixel - 1, threshold)) ||
+				(x + 1 < imgWidth && differ(pixel, pixel + 1, threshold)) ||
+				(y > 0 && differ(pixel, pixel - regionWidth, threshold)) ||
+				(y + 1 < imgHeight && differ(pixel, pixel + regionWidth, threshold));
+	}
+	
+	private boolean differ(int pixel, int neighbor, double threshold) {
+		if(surfaces[pixel] != surfaces[neighbor])
+			return true;
+		for(int i = 0; i < 3; ++i)
+			if(Math.abs(clamp(colors[3 * pixel + i]) - clamp(colors[3 * neighbor + i])) > threshold)
+				return true;
+		return false;
+	}
+	
+	private static double clamp(double channel) {
+		return channel < 0.0 ? 0.0 : (channel > 1.0 ? 1.0 : channel);
+	}
+	
+	void countSupersampled(long pixels) {
+		supersampledPixels.addAndGet(pixels);
+	}
+	
+	long supersampledPixels() {
+		return supersampledPixels.get();
+	}
+	
+	long pixelCount() {
+		return (long)regionWidth * regionHeight;
+	}
+}
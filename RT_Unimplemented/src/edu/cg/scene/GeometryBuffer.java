@@ -0,0 +1,186 @@
+package edu.cg.scene;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.google.gson.ExclusionStrategy;
+import com.google.gson.FieldAttributes;
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+
+import edu.cg.algebra.Hit;
+import edu.cg.scene.camera.PinholeCamera;
+import edu.cg.scene.objects.Shape;
+import edu.cg.scene.objects.Surface;
+
+/**
+ * The primary hits of a render (the surface, distance, normal and within flag of every anti aliasing sample),
+ * kept so that a later render of the same geometry can shade them again without intersecting primary rays.
+ * This pays off when only materials or lights change between renders.
+ *
+ * The buffer belongs to the caller, who passes it to every render with Scene.initGeometryBuffer, so it
+ * outlives the scene and can be reused by a scene that was loaded again from a file.
+ * A render reuses the hits only if the camera, the resolution, the anti aliasing factor, the shapes of
+ * the surfaces (in order) and the prototypes are the same as in the render that captured them. Otherwise it
+ * captures new hits, unless they need more memory than the buffer's limit.
+ */
+public class GeometryBuffer {
+	//surface id, t, normal and within flag
+	static final long BYTES_PER_SAMPLE = Integer.BYTES + 4 * Double.BYTES + 1;
+	private static final int MISS = -1;
+	//names don't change the geometry, and boxes are named by a counter that differs between loads of a scene
+	private static final Gson GSON = new GsonBuilder().setExclusionStrategies(new ExclusionStrategy() {
+		@Override
+		public boolean shouldSkipField(FieldAttributes field) {
+			return field.getName().equals("name");
+		}
+		
+		@Override
+		public boolean shouldSkipClass(Class<?> klass) {
+			return false;
+		}
+	}).create();
+
+	private final long maxBytes;
+	private byte[] key = null;
+	private int imgWidth, factor;
+	private int[] surfaceIds = new int[0];
+	private double[] distances = new double[0];
+	private double[] normals = new double[0];
+	private boolean[] within = new boolean[0];
+	private Map<Surface, Integer> ids = null;
+	private boolean complete = false;
+
+	/**
+	 * @param maxBytes - the largest amount of memory the hits may take.
+	 */
+	public GeometryBuffer(long maxBytes) {
+		if(maxBytes <= 0)
+			throw new IllegalArgumentException("Geometry buffer size must be positive");
+		this.maxBytes = maxBytes;
+	}
+
+	/**
+	 * Returns the memory taken by the captured hits.
+	 */
+	public synchronized long bytes() {
+		return surfaceIds.length * BYTES_PER_SAMPLE;
+	}
+
+	public long maxBytes() {
+		return maxBytes;
+	}
+
+	/**
+	 * Drops the captured hits.
+	 */
+	public synchronized void clear() {
+		key = null;
+		complete = false;
+		ids = null;
+		surfaceIds = new int[0];
+		distances = new double[0];
+		normals = new double[0];
+		within = new boolean[0];
+	}
+
+	static long bytesNeeded(int imgWidth, int imgHeight, int factor) {
+		return (long)imgWidth * imgHeight * factor * factor * BYTES_PER_SAMPLE;
+	}
+
+	/**
+	 * Computes the key of the geometry of a render. The camera must already have the render's resolution.
+	 */
+	static byte[] key(PinholeCamera camera, int factor, boolean singlePrecision, List<Surface> surfaces, Map<String, Shape> prototypes) {
+		try {
+			MessageDigest digest = MessageDigest.getInstance("SHA-256");
+			digest.update((GSON.toJson(camera) + "|" + factor + (singlePrecision ? "|float" : "")).getBytes(StandardCharsets.UTF_8));
+			for(Map.Entry<String, Shape> prototype : prototypes.entrySet())
+				digest.update(("|" + prototype.getKey() + "=" + prototype.getValue().getClass().getName() +
+						GSON.toJson(prototype.getValue())).getBytes(StandardCharsets.UTF_8));
+			for(Surface surface : surfaces)
+				digest.update(("|" + surface.shape().getClass().getName() + GSON.toJson(surface.shape()))
+						.getBytes(StandardCharsets.UTF_8));
+			return digest.digest();
+		} catch(NoSuchAlgorithmException e) {
+			throw new IllegalStateException("SHA-256 is not available", e);
+		}
+	}
+
+	/**
+	 * Checks whether the buffer holds all the hits of a render with the given key.
+	 */
+	synchronized boolean holds(byte[] key) {
+		return complete && Arrays.equals(this.key, key);
+	}
+
+	/**
+	 * Prepares the buffer to capture the hits of a render.
+	 * @return false if the hits need more memory than the limit. The buffer is left empty then.
+	 */
+	synchronized boolean startCapture(byte[] key, int imgWidth, int imgHeight, int factor, List<Surface> surfaces) {
+		clear();
+		if(bytesNeeded(imgWidth, imgHeight, factor) > maxBytes)
+			return false;
+
+		int samples = imgWidth * imgHeight * factor * factor;
+		this.key = key;
+		this.imgWidth = imgWidth;
+		this.factor = factor;
+		this.surfaceIds = new int[samples];
+		this.distances = new double[samples];
+		this.normals = new double[3 * samples];
+		this.within = new boolean[samples];
+		this.ids = new IdentityHashMap<>();
+		int id = 0;
+		for(Surface surface : surfaces)
+			ids.put(surface, id++);
+		return true;
+	}
+
+	synchronized void completeCapture() {
+		complete = true;
+		ids = null;
+	}
+
+	int sample(int x, int y, int i, int j) {
+		return ((y * imgWidth + x) * factor + i) * factor + j;
+	}
+
+	//called by the rendering threads, each for its own samples
+	void store(int sample, Hit hit) {
+		Surface surface = hit.getSurface();
+		if(surface == null) {
+			surfaceIds[sample] = MISS;
+			return;
+		}
+		surfaceIds[sample] = ids.get(surface);
+		distances[sample] = hit.t();
+		normals[3 * sample] = hit.getNormalToSurface().x;
+		normals[3 * sample + 1] = hit.getNormalToSurface().y;
+		normals[3 * sample + 2] = hit.getNormalToSurface().z;
+		within[sample] = hit.isWithinTheSurface();
+	}
+
+	/**
+	 * Restores the hit of the sample.
+	 * @param surfaces - the surfaces of the scene being rendered, in order.
+	 * @return false if the sample hit nothing.
+	 */
+	boolean load(int sample, Hit hit, Surface[] surfaces) {
+		int id = surfaceIds[sample];
+		if(id == MISS) {
+			hit.setSurface(null);
+			return false;
+		}
+		hit.set(distances[sample], normals[3 * sample], normals[3 * sample + 1], normals[3 * sample + 2])
+			.setIsWithin(within[sample])
+			.setSurface(surfaces[id]);
+		return true;
+	}
+}
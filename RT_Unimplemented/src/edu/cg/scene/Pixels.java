@@ -0,0 +1,33 @@
+package edu.cg.scene;
+
+import edu.cg.algebra.Vec;
+
+/**
+ * Where the methods of Scene that render a tile write the colors of its pixels: an array of pixels packed as
+ * 0xRRGGBB, such as the raster of a BufferedImage, or the floats of an HdrFramebuffer.
+ */
+@FunctionalInterface
+interface Pixels {
+	/**
+	 * Writes the color of the pixel at the given index. Indices are pixels, not array elements.
+	 */
+	void set(int index, Vec color);
+
+	/**
+	 * Pixels packed as 0xRRGGBB, clipped and rounded by Vec.toRGB.
+	 */
+	static Pixels packed(int[] raster) {
+		return (index, color) -> raster[index] = color.toRGB();
+	}
+
+	/**
+	 * Pixels of three floats each, without clipping.
+	 */
+	static Pixels floats(float[] rgb) {
+		return (index, color) -> {
+			rgb[3 * index] = (float)color.x;
+			rgb[3 * index + 1] = (float)color.y;
+			rgb[3 * index + 2] = (float)color.z;
+		};
+	}
+}
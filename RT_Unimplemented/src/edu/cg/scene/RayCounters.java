@@ -0,0 +1,53 @@
+package edu.cg.scene;
+
+import java.util.Arrays;
+
+/**
+ * The statistics counters of a single rendering thread. Every tile counts into the thread's instance
+ * without any synchronization, adds it to the totals of the render when it is done, and clears it.
+ * All the times are in nanoseconds.
+ */
+class RayCounters {
+	long primaryRays, shadowRays, occludedShadowRays, reflectionRays, refractionRays;
+	long rayHits, rayMisses;
+	long depthSum, maxDepth;
+	long rayGenerationNanos, traceNanos, intersectionNanos, tileNanos;
+	//the tests and the hits of every shape type, as counted by BVH
+	final long[] shapeCounters;
+	
+	//the deepest recursion level reached by the current primary ray
+	int pathDepth;
+	//when the current tile was started
+	long tileStart;
+	
+	RayCounters(int shapeTypeCount) {
+		this.shapeCounters = new long[2 * shapeTypeCount];
+	}
+	
+	synchronized void addAll(RayCounters other) {
+		primaryRays += other.primaryRays;
+		shadowRays += other.shadowRays;
+		occludedShadowRays += other.occludedShadowRays;
+		reflectionRays += other.reflectionRays;
+		refractionRays += other.refractionRays;
+		rayHits += other.rayHits;
+		rayMisses += other.rayMisses;
+		depthSum += other.depthSum;
+		maxDepth = Math.max(maxDepth, other.maxDepth);
+		rayGenerationNanos += other.rayGenerationNanos;
+		traceNanos += other.traceNanos;
+		intersectionNanos += other.intersectionNanos;
+		tileNanos += other.tileNanos;
+		for(int i = 0; i < shapeCounters.length; ++i)
+			shapeCounters[i] += other.shapeCounters[i];
+	}
+	
+	void clear() {
+		primaryRays = shadowRays = occludedShadowRays = reflectionRays = refractionRays = 0;
+		rayHits = rayMisses = 0;
+		depthSum = maxDepth = 0;
+		rayGenerationNanos = traceNanos = intersectionNanos = tileNanos = 0;
+		Arrays.fill(shapeCounters, 0);
+		pathDepth = 0;
+	}
+}
@@ -0,0 +1,805 @@
+package edu.cg.scene;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+import edu.cg.Logger;
+import edu.cg.algebra.Hit;
+import edu.cg.algebra.Ops;
+import edu.cg.algebra.Point;
+import edu.cg.algebra.Ray;
+import edu.cg.algebra.Vec;
+import edu.cg.image.MappedFramebuffer;
+import edu.cg.scene.acceleration.BVH;
+import edu.cg.scene.acceleration.FloatBVH;
+import edu.cg.scene.acceleration.PackedBVH;
+import edu.cg.scene.acceleration.PacketTraversal;
+import edu.cg.scene.camera.PinholeCamera;
+import edu.cg.scene.lightSources.Light;
+import edu.cg.scene.objects.Instance;
+import edu.cg.scene.objects.Material;
+import edu.cg.scene.objects.Shape;
+import edu.cg.scene.objects.Surface;
+import edu.cg.scene.render.RenderListener;
+import edu.cg.scene.render.Tile;
+import edu.cg.scene.render.TileScheduler;
+
+/**
+ * A scene compiled for one render: copies of its settings, its camera (with the render's resolution), its lights,
+ * its surfaces and its prototypes, taken when the render starts, and the BVH over the copies of the surfaces.
+ * The render reads only the snapshot, so changes to the scene while it runs don't reach it, and several renders
+ * of the same scene can run at the same time.
+ *
+ * The shapes' parameters are packed by shape type into the arrays of a PackedBVH (a FloatBVH in single precision),
+ * the distinct materials are copied once into a table that the copies of the surfaces share, and the lights'
+ * copies compute the values they derive from their parameters once (see Light.snapshot). Groups and meshes are
+ * shared with the scene instead of copied, and must not change while they are rendered; their BVHs are built
+ * with the snapshot's, so the rendering threads take no locks.
+ *
+ * Only the counters of the render (pruned rays and statistics) change after the snapshot is built.
+ */
+final class RenderSnapshot {
+	private final String name;
+	private final int maxRecursionLevel;
+	private final int antiAliasingFactor;
+	private final boolean renderRefarctions;
+	private final boolean renderReflections;
+	private final boolean adaptiveAntiAliasing;
+	private final double antiAliasingThreshold;
+	private final double contributionThreshold;
+	private final boolean russianRoulette;
+	private final int cheapShadingDepth;
+	private final double hitPointEscalationIndex;
+	private final int tileSize;
+	private final boolean singlePrecision;
+	private final GeometryBuffer geometryBuffer;
+
+	private final PinholeCamera camera;
+	private final Vec ambient;
+	private final Vec backgroundColor;
+	private final Light[] lights;
+	//the copies of the surfaces, in the scene's order
+	private final Surface[] surfaces;
+	//the copies of the distinct materials of the surfaces, in the order of their first surfaces
+	private final Material[] materials;
+	private final Map<String, Shape> prototypes;
+	private final int imgWidth, imgHeight;
+
+	private final Logger logger;
+	private final BVH bvh;
+	private final PacketTraversal packets;
+	private final boolean iterative;
+	private final long renderStart;
+	private final LongAdder prunedRays = new LongAdder();
+	private final LongAdder rouletteSurvivors = new LongAdder();
+	//the context of every rendering thread, made for its first tile
+	private final ThreadLocal<TraceContext> contexts = ThreadLocal.withInitial(this::newContext);
+	private final RayCounters totals;
+	private final String[] shapeTypes;
+
+	/**
+	 * Compiles the scene for a render of the given resolution.
+	 * @throws IllegalArgumentException if an instance of the scene has no prototype.
+	 */
+	RenderSnapshot(Scene scene, int imgWidth, int imgHeight, double viewPlainWidth, Logger logger) {
+		this.logger = logger;
+		this.renderStart = System.nanoTime();
+		this.name = scene.getName();
+		this.maxRecursionLevel = scene.getMaxRecursionLevel();
+		this.antiAliasingFactor = scene.getFactor();
+		this.renderRefarctions = scene.getRenderRefarctions();
+		this.renderReflections = scene.getRenderReflections();
+		this.adaptiveAntiAliasing = scene.getAdaptiveAntiAliasing();
+		this.antiAliasingThreshold = scene.getAntiAliasingThreshold();
+		this.contributionThreshold = scene.getContributionThreshold();
+		this.russianRoulette = scene.getRussianRoulette();
+		this.cheapShadingDepth = scene.getCheapShadingDepth();
+		this.hitPointEscalationIndex = scene.getHitPointEscalationIndex();
+		this.tileSize = scene.getTileSize();
+		this.singlePrecision = scene.getSinglePrecision();
+		this.geometryBuffer = scene.getGeometryBuffer();
+		this.imgWidth = imgWidth;
+		this.imgHeight = imgHeight;
+
+		this.camera = new PinholeCamera(scene.getCamera());
+		camera.initResolution(imgHeight, imgWidth, viewPlainWidth);
+		this.ambient = new Vec(scene.getAmbient());
+		this.backgroundColor = new Vec(scene.getBackgroundColor());
+		this.lights = scene.getLightSources().stream().map(Light::snapshot).toArray(Light[]::new);
+		this.prototypes = new LinkedHashMap<>();
+		for(Map.Entry<String, Shape> prototype : scene.getPrototypes().entrySet())
+			prototypes.put(prototype.getKey(), prototype.getValue().snapshot());
+		//materials have no equals, so the map keeps one copy per material object
+		Map<Material, Material> materialCopies = new LinkedHashMap<>();
+		this.surfaces = scene.getSurfaces().stream().map(surface -> surface.snapshot(materialCopies)).toArray(Surface[]::new);
+		this.materials = materialCopies.values().toArray(new Material[materialCopies.size()]);
+		for(Surface surface : surfaces)
+			if(surface.shape() instanceof Instance)
+				((Instance)surface.shape()).resolve(prototypes);
+		
+		this.bvh = singlePrecision ? new FloatBVH(Arrays.asList(surfaces)) : new PackedBVH(Arrays.asList(surfaces));
+		this.logger.log("Built a BVH of " + bvh.nodeCount() + " nodes (depth " + bvh.depth() + ") over " +
+				bvh.boundedCount() + " bounded surfaces, " + bvh.unboundedCount() + " unbounded surfaces are tested separately.");
+		if(singlePrecision)
+			this.logger.log("Intersecting in single precision, the BVH and shapes take " + megabytes(((FloatBVH)bvh).bytes()));
+		else
+			this.logger.log("Packed the shapes in " + megabytes(((PackedBVH)bvh).bytes()) + ", " + materials.length +
+					" materials and " + lights.length + " lights copied");
+		
+		PacketTraversal packets = null;
+		if(scene.getPacketTracing() && antiAliasingFactor == 1 && !scene.getCollectStatistics() && !singlePrecision) {
+			packets = PacketTraversal.create(bvh);
+			if(packets != null)
+				this.logger.log("Tracing primary rays in packets of " + packets.packetSize());
+		}
+		this.packets = packets;
+		
+		this.iterative = scene.getIterativeTracing() || maxRecursionLevel > Scene.RECURSIVE_LEVEL_LIMIT;
+		if(scene.getCollectStatistics()) {
+			this.totals = new RayCounters(bvh.shapeTypeCount());
+			this.shapeTypes = new String[bvh.shapeTypeCount()];
+			for(int type = 0; type < shapeTypes.length; ++type)
+				shapeTypes[type] = bvh.shapeTypeName(type);
+		} else {
+			this.totals = null;
+			this.shapeTypes = null;
+		}
+	}
+	
+	/**
+	 * Logs the end of the render.
+	 * @return the render's statistics, or null if it didn't collect statistics.
+	 */
+	RenderStatistics complete() {
+		if(contributionThreshold > 0.0)
+			logger.log("Pruned " + prunedRays.sum() + " secondary rays with a weight below " + contributionThreshold +
+					(russianRoulette ? ", " + rouletteSurvivors.sum() + " more were kept by Russian roulette" : ""));
+		RenderStatistics statistics = null;
+		if(totals != null) {
+			statistics = new RenderStatistics(name, imgWidth, imgHeight, totals, prunedRays.sum(), rouletteSurvivors.sum(),
+					shapeTypes, System.nanoTime() - renderStart);
+			logger.log(statistics);
+		}
+		logger.log("Ray tracing of " + name + " has been completed.");
+		return statistics;
+	}
+	
+	private TraceContext newContext() {
+		RayCounters counters = totals != null ? new RayCounters(bvh.shapeTypeCount()) : null;
+		TraceContext context = new TraceContext(bvh.newStack(), counters);
+		//all the frames are allocated before tracing, so no frame is allocated in the middle of a ray tree
+		context.frame(maxRecursionLevel - 1);
+		if(packets != null)
+			context.initPackets(packets.packetSize(), packets.newScratch());
+		return context;
+	}
+	
+	//the context of the current thread, to render a tile with
+	private TraceContext context() {
+		TraceContext context = contexts.get();
+		if(context.counters != null)
+			context.counters.tileStart = System.nanoTime();
+		return context;
+	}
+	
+	//adds the counters of a finished tile to the totals of the render, and clears them for the thread's next tile
+	private void tileDone(TraceContext context) {
+		prunedRays.add(context.prunedRays);
+		rouletteSurvivors.add(context.rouletteSurvivors);
+		context.prunedRays = context.rouletteSurvivors = 0;
+		RayCounters counters = context.counters;
+		if(counters != null) {
+			counters.tileNanos = System.nanoTime() - counters.tileStart;
+			totals.addAll(counters);
+			counters.clear();
+		}
+	}
+
+	/**
+	 * Renders all the pixels of the image, in tiles on the threads of the pool, in one pass (two with adaptive
+	 * anti aliasing: the centers of the pixels, then the supersampling), and tells the listener about every tile.
+	 */
+	void render(Pixels raster, ForkJoinPool executor, RenderListener listener) throws InterruptedException, ExecutionException {
+		TileScheduler scheduler = new TileScheduler(imgWidth, imgHeight, tileSize);
+		
+		this.logger.log("Starting to shoot " +
+			(imgHeight*imgWidth*antiAliasingFactor*antiAliasingFactor) +
+			" rays over " + name + " in " + scheduler.tileCount() + " tiles of " + tileSize + "x" + tileSize + " pixels");
+		
+		if(antiAliasingFactor > 1 && adaptiveAntiAliasing) {
+			CenterSamples centers = new CenterSamples(imgWidth, imgHeight, true);
+			runPass(scheduler, executor, listener, 1, 2, tile -> renderBlocks(tile, raster, imgWidth, 0, 1, true, centers));
+			runPass(new TileScheduler(imgWidth, imgHeight, tileSize), executor, listener, 2, 2,
+					tile -> renderAntiAliased(tile, raster, imgWidth, 0, centers));
+			logAntiAliasingStatistics(centers);
+		} else if(geometryBuffer != null) {
+			renderWithGeometryBuffer(scheduler, executor, listener, raster, imgWidth, imgHeight);
+		} else {
+			runPass(scheduler, executor, listener, 1, 1, tile -> renderTile(tile, raster, imgWidth, 0));
+		}
+	}
+	
+	//renders the tiles of the scheduler on the pool as a pass of a render, with the listener's calls around them
+	private static void runPass(TileScheduler scheduler, ForkJoinPool executor, RenderListener listener, int pass, int passCount,
+			Consumer<Tile> renderer) throws InterruptedException, ExecutionException {
+		listener.passStarted(pass, passCount, scheduler.tileCount());
+		scheduler.run(executor, executor.getParallelism(), tile -> {
+			renderer.accept(tile);
+			listener.tileRendered(tile);
+		});
+		listener.passCompleted(pass, passCount);
+	}
+	
+	/**
+	 * Renders the image into a framebuffer outside the heap, tile by tile (see Scene.render(MappedFramebuffer, ...)).
+	 */
+	void render(MappedFramebuffer framebuffer, ForkJoinPool executor) throws InterruptedException, ExecutionException {
+		TileScheduler scheduler = new TileScheduler(imgWidth, imgHeight, tileSize);
+
+		this.logger.log("Starting to shoot " + ((long)imgHeight*imgWidth*antiAliasingFactor*antiAliasingFactor) +
+				" rays over " + name + " into " + framebuffer.path() + " in " + scheduler.tileCount() + " tiles of " +
+				tileSize + "x" + tileSize + " pixels");
+
+		scheduler.run(executor, executor.getParallelism(), tile -> {
+			int[] pixels = new int[tile.pixelCount()];
+			renderTile(tile, pixels);
+			framebuffer.writeTile(tile, pixels);
+		});
+	}
+	
+	/**
+	 * Renders the image in passes of growing resolution (see Scene.renderProgressive).
+	 */
+	void renderProgressive(Pixels raster, ForkJoinPool executor, RenderListener listener)
+			throws InterruptedException, ExecutionException {
+		CenterSamples centers = antiAliasingFactor > 1 ? new CenterSamples(imgWidth, imgHeight, adaptiveAntiAliasing) : null;
+		//the tiles are aligned to the blocks of the first pass, so no block is shared by two tiles
+		int passTileSize = (tileSize + Scene.PREVIEW_BLOCK_SIZE - 1) / Scene.PREVIEW_BLOCK_SIZE * Scene.PREVIEW_BLOCK_SIZE;
+		int passCount = Integer.numberOfTrailingZeros(Scene.PREVIEW_BLOCK_SIZE) + 1 + (centers != null ? 1 : 0);
+		
+		this.logger.log("Starting to render " + name + " progressively in " + passCount + " passes");
+		
+		int pass = 0;
+		for(int blockSize = Scene.PREVIEW_BLOCK_SIZE; blockSize >= 1; blockSize /= 2) {
+			int passBlockSize = blockSize;
+			runPass(new TileScheduler(imgWidth, imgHeight, passTileSize), executor, listener, ++pass, passCount,
+					tile -> renderBlocks(tile, raster, imgWidth, 0, passBlockSize, passBlockSize == Scene.PREVIEW_BLOCK_SIZE, centers));
+		}
+		
+		if(centers != null) {
+			runPass(new TileScheduler(imgWidth, imgHeight, passTileSize), executor, listener, ++pass, passCount,
+					tile -> renderAntiAliased(tile, raster, imgWidth, 0, centers));
+			if(centers.isAdaptive())
+				logAntiAliasingStatistics(centers);
+		}
+	}
+
+	/**
+	 * Renders a tile of the image into an array of its own pixels (see Scene.renderTile). This method is thread safe.
+	 */
+	void renderTile(Tile tile, int[] pixels) {
+		if(antiAliasingFactor == 1 || !adaptiveAntiAliasing) {
+			renderTile(tile, Pixels.packed(pixels), tile.width, tile.y * tile.width + tile.x);
+			return;
+		}
+
+		int startX = Math.max(tile.x - 1, 0);
+		int startY = Math.max(tile.y - 1, 0);
+		Tile region = new Tile(startX, startY, Math.min(tile.x + tile.width + 1, imgWidth) - startX,
+				Math.min(tile.y + tile.height + 1, imgHeight) - startY);
+		CenterSamples centers = new CenterSamples(region.x, region.y, region.width, region.height,
+				imgWidth, imgHeight, true);
+		int[] regionPixels = new int[region.pixelCount()];
+		int offset = region.y * region.width + region.x;
+		Pixels target = Pixels.packed(regionPixels);
+		renderBlocks(region, target, region.width, offset, 1, true, centers);
+		renderAntiAliased(tile, target, region.width, offset, centers);
+		for(int y = tile.y; y < tile.y + tile.height; ++y)
+			System.arraycopy(regionPixels, (y - region.y) * region.width + tile.x - region.x,
+					pixels, (y - tile.y) * tile.width, tile.width);
+	}
+
+	/*
+	 * The methods that render a tile write pixel (x, y) to index y * imgWidth + x - offset of raster, so a tile can be
+	 * rendered into the image's raster (offset 0) or into an array of its own pixels (imgWidth is then its width).
+	 */
+	
+	//traces the corner of every block in the tile that the previous passes haven't traced, and fills the block with its color
+	private void renderBlocks(Tile tile, Pixels raster, int imgWidth, int offset, int blockSize, boolean firstPass, CenterSamples centers) {
+		TraceContext context = context();
+		Vec color = context.pixelColor;
+		int tileEndX = tile.x + tile.width;
+		int tileEndY = tile.y + tile.height;
+		int previousBlockSize = 2 * blockSize;
+		for(int y = tile.y; y < tileEndY; y += blockSize) {
+			for(int x = tile.x; x < tileEndX; x += blockSize) {
+				if(!firstPass && x % previousBlockSize == 0 && y % previousBlockSize == 0)
+					continue;
+				
+				traceCenter(x, y, color, context);
+				if(centers != null)
+					centers.store(x, y, color, context.frame(0).hit.getSurface());
+				
+				int blockEndX = Math.min(x + blockSize, tileEndX);
+				int blockEndY = Math.min(y + blockSize, tileEndY);
+				for(int blockY = y; blockY < blockEndY; ++blockY)
+					for(int blockX = x; blockX < blockEndX; ++blockX)
+						raster.set(blockY * imgWidth + blockX - offset, color);
+			}
+		}
+		tileDone(context);
+	}
+	
+	//adds the rest of the anti aliasing samples to the pixels of the tile that need them
+	private void renderAntiAliased(Tile tile, Pixels raster, int imgWidth, int offset, CenterSamples centers) {
+		TraceContext context = context();
+		Vec pixelColor = context.pixelColor;
+		long supersampled = 0;
+		for(int y = tile.y; y < tile.y + tile.height; ++y) {
+			for(int x = tile.x; x < tile.x + tile.width; ++x) {
+				if(!centers.needsSupersampling(x, y, antiAliasingThreshold))
+					continue;
+				centers.load(x, y, pixelColor);
+				raster.set(y * imgWidth + x - offset, averageSamples(x, y, 1, pixelColor, context));
+				++supersampled;
+			}
+		}
+		centers.countSupersampled(supersampled);
+		tileDone(context);
+	}
+	
+	private void logAntiAliasingStatistics(CenterSamples centers) {
+		long samplesPerPixel = antiAliasingFactor * antiAliasingFactor;
+		long fixedGridRays = centers.pixelCount() * samplesPerPixel;
+		long rays = centers.pixelCount() + centers.supersampledPixels() * (samplesPerPixel - 1);
+		logger.log(String.format("Adaptive anti aliasing supersampled %d of %d pixels: %d primary rays instead of %d (%.1f%% saved)",
+				centers.supersampledPixels(), centers.pixelCount(), rays, fixedGridRays,
+				100.0 * (fixedGridRays - rays) / fixedGridRays));
+	}
+	
+	private void renderTile(Tile tile, Pixels raster, int imgWidth, int offset) {
+		TraceContext context = context();
+		if(context.packetRays != null && antiAliasingFactor == 1)
+			renderPackets(tile, raster, imgWidth, offset, context);
+		else
+			for(int y = tile.y; y < tile.y + tile.height; ++y)
+				for(int x = tile.x; x < tile.x + tile.width; ++x)
+					raster.set(y * imgWidth + x - offset, calcColor(x, y, context));
+		tileDone(context);
+	}
+	
+	//finds the closest hits of the center rays of consecutive pixels in a row at once, and shades them one by one
+	private void renderPackets(Tile tile, Pixels raster, int imgWidth, int offset, TraceContext context) {
+		Ray[] rays = context.packetRays;
+		Surface[] closest = context.packetSurfaces;
+		Vec color = context.pixelColor;
+		int tileEndX = tile.x + tile.width;
+		for(int y = tile.y; y < tile.y + tile.height; ++y) {
+			for(int x = tile.x; x < tileEndX; x += rays.length) {
+				int count = Math.min(rays.length, tileEndX - x);
+				for(int i = 0; i < count; ++i)
+					rays[i].setThrough(camera.cameraPosition, camera.transform(x + i, y, context.pixelPoint));
+				boolean traced = packets.closestSurfaces(rays, count, closest, context.packetScratch, context.bvhStack);
+				for(int i = 0; i < count; ++i) {
+					if(traced)
+						shadePrimary(rays[i], closest[i], color, context);
+					else
+						tracePath(rays[i], false, color, context);
+					raster.set(y * imgWidth + x + i - offset, color);
+				}
+			}
+		}
+	}
+	
+	/*
+	 * Shades the hits kept in the geometry buffer if they belong to the same geometry, otherwise traces
+	 * the primary rays and keeps their hits. Both give the same colors as renderTile.
+	 */
+	private void renderWithGeometryBuffer(TileScheduler scheduler, ForkJoinPool executor, RenderListener listener, Pixels raster,
+			int imgWidth, int imgHeight) throws InterruptedException, ExecutionException {
+		GeometryBuffer buffer = geometryBuffer;
+		byte[] key = GeometryBuffer.key(camera, antiAliasingFactor, singlePrecision, Arrays.asList(surfaces), prototypes);
+		if(buffer.holds(key)) {
+			logger.log("Shading the primary hits kept in the geometry buffer (" + megabytes(buffer.bytes()) + ")");
+			runPass(scheduler, executor, listener, 1, 1, tile -> renderSamples(tile, raster, imgWidth, buffer, surfaces));
+			return;
+		}
+		
+		if(!buffer.startCapture(key, imgWidth, imgHeight, antiAliasingFactor, Arrays.asList(surfaces))) {
+			logger.log("The primary hits need " + megabytes(GeometryBuffer.bytesNeeded(imgWidth, imgHeight, antiAliasingFactor)) +
+					", more than the geometry buffer's limit of " + megabytes(buffer.maxBytes()) + ", so they are not kept");
+			runPass(scheduler, executor, listener, 1, 1, tile -> renderTile(tile, raster, imgWidth, 0));
+			return;
+		}
+		runPass(scheduler, executor, listener, 1, 1, tile -> renderSamples(tile, raster, imgWidth, buffer, null));
+		buffer.completeCapture();
+		logger.log("Kept the primary hits in the geometry buffer (" + megabytes(buffer.bytes()) + ")");
+	}
+	
+	private static String megabytes(long bytes) {
+		return String.format("%.1f MB", bytes / (1024.0 * 1024.0));
+	}
+	
+	/*
+	 * Renders the samples of the tile one by one, either tracing them and storing their hits in the buffer,
+	 * or, if the surfaces are given, shading the hits stored in it.
+	 */
+	private void renderSamples(Tile tile, Pixels raster, int imgWidth, GeometryBuffer buffer, Surface[] surfaceTable) {
+		TraceContext context = context();
+		Vec pixelColor = context.pixelColor;
+		Ray ray = context.primaryRay;
+		Hit hit = context.frame(0).hit;
+		for(int y = tile.y; y < tile.y + tile.height; ++y) {
+			for(int x = tile.x; x < tile.x + tile.width; ++x) {
+				pixelColor.set(0.0, 0.0, 0.0);
+				for(int i = 0; i < antiAliasingFactor; i++){
+					for(int j = 0; j < antiAliasingFactor; j++){
+						long generationStart = context.counters != null ? System.nanoTime() : 0L;
+						Point pixelPortion = antiAliasingFactor > 1 ? anti_aliasing_transform(x, y, i, j, context.pixelPoint) :
+							camera.transform(x, y, context.pixelPoint);
+						ray.setThrough(camera.cameraPosition, pixelPortion);
+						int sample = buffer.sample(x, y, i, j);
+						Vec sampleColor = context.sampleColor;
+						if(surfaceTable == null) {
+							tracePrimary(ray, sampleColor, context, generationStart);
+							buffer.store(sample, hit);
+						} else if(buffer.load(sample, hit, surfaceTable)) {
+							tracePath(ray, true, sampleColor, context);
+						} else {
+							sampleColor.set(this.backgroundColor);
+						}
+						pixelColor.addInPlace(sampleColor);
+					}
+				}
+				if(antiAliasingFactor > 1)
+					pixelColor.multInPlace(1.0/Math.pow(antiAliasingFactor,2));
+				raster.set(y * imgWidth + x, pixelColor);
+			}
+		}
+		tileDone(context);
+	}
+	
+	//completes the hit of a primary ray with the closest surface found by its packet
+	private Vec shadePrimary(Ray ray, Surface closest, Vec color, TraceContext context) {
+		Hit hit = context.frame(0).hit;
+		if(closest == null) {
+			hit.setSurface(null);
+			return color.set(this.backgroundColor);
+		}
+		if(!closest.intersect(ray, hit))
+			return tracePath(ray, false, color, context);
+		return tracePath(ray, true, color, context);
+	}
+	
+	private Vec calcColor(int x, int y, TraceContext context) {
+		Vec pixelColor = context.pixelColor;
+		if(antiAliasingFactor > 1){
+			pixelColor.set(0.0, 0.0, 0.0);
+			averageSamples(x, y, 0, pixelColor, context);
+		}
+		else{
+			traceCenter(x, y, pixelColor, context);
+		}
+		return pixelColor;
+	}
+	
+	private Vec traceCenter(int x, int y, Vec color, TraceContext context) {
+		long generationStart = context.counters != null ? System.nanoTime() : 0L;
+		Point centerPoint = camera.transform(x, y, context.pixelPoint);
+		Ray ray = context.primaryRay.setThrough(camera.cameraPosition, centerPoint);
+		return tracePrimary(ray, color, context, generationStart);
+	}
+	
+	private Vec tracePrimary(Ray ray, Vec color, TraceContext context, long generationStart) {
+		RayCounters counters = context.counters;
+		if(counters == null)
+			return tracePath(ray, false, color, context);
+		
+		long traceStart = System.nanoTime();
+		counters.rayGenerationNanos += traceStart - generationStart;
+		counters.primaryRays++;
+		counters.pathDepth = 0;
+		tracePath(ray, false, color, context);
+		counters.traceNanos += System.nanoTime() - traceStart;
+		counters.depthSum += counters.pathDepth + 1;
+		counters.maxDepth = Math.max(counters.maxDepth, counters.pathDepth + 1);
+		return color;
+	}
+	
+	/**
+	 * Adds the anti aliasing samples of the pixel to the given color, starting from the given sample,
+	 * and divides the sum by the number of samples. Sample 0 is the center ray of the pixel.
+	 * @return pixelColor
+	 */
+	private Vec averageSamples(int x, int y, int firstSample, Vec pixelColor, TraceContext context) {
+		Ray ray = context.primaryRay;
+		for(int i = 0; i < antiAliasingFactor; i++){
+			for(int j = 0; j < antiAliasingFactor; j++){
+				if(i * antiAliasingFactor + j < firstSample)
+					continue;
+				long generationStart = context.counters != null ? System.nanoTime() : 0L;
+				Point pixelPortion = anti_aliasing_transform(x, y, i, j, context.pixelPoint);
+				ray.setThrough(camera.cameraPosition, pixelPortion);
+				pixelColor.addInPlace(tracePrimary(ray, context.sampleColor, context, generationStart));
+			}
+		}
+		return pixelColor.multInPlace(1.0/Math.pow(antiAliasingFactor,2));
+	}
+
+	private Point anti_aliasing_transform(int x, int y, int i, int j, Point result){
+		double right = x - (int)(camera.resolutionX/2.0) + (double)i/antiAliasingFactor;
+		double down = y - (int)(camera.resolutionY/2.0) + (double)j/antiAliasingFactor;
+		return camera.planePoint(right, down, result);
+	}
+
+	/*
+	 * Traces a primary ray, whose hit is already in the first frame of the context if hitFound is true,
+	 * recursively or with an explicit stack.
+	 */
+	private Vec tracePath(Ray ray, boolean hitFound, Vec color, TraceContext context) {
+		if(iterative)
+			return traceIterative(ray, hitFound, color, context);
+		return hitFound ? shade(ray, 0, 1.0, color, context) : calcColor(ray, 0, 1.0, color, context);
+	}
+	
+	/**
+	 * Traces the ray and stores its color in the given vector.
+	 * All the intermediate values are kept in the context, so no objects are allocated.
+	 * @param weight - the weight of the ray's color in the color of its primary ray (1 for a primary ray).
+	 * @return color
+	 */
+	private Vec calcColor(Ray ray, int recursionLevel, double weight, Vec color, TraceContext context) {
+		TraceContext.Frame frame = context.frame(recursionLevel);
+		Hit closest_hit = frame.hit;
+		if(context.counters != null && recursionLevel > context.counters.pathDepth)
+			context.counters.pathDepth = recursionLevel;
+		if(!closestHit(ray, closest_hit, context)){
+			closest_hit.setSurface(null);
+			return color.set(this.backgroundColor);
+		}
+		return shade(ray, recursionLevel, weight, color, context);
+	}
+
+	/**
+	 * Computes the color of the hit that is stored in the frame of the recursion level.
+	 * @return color
+	 */
+	private Vec shade(Ray ray, int recursionLevel, double weight, Vec color, TraceContext context) {
+		TraceContext.Frame frame = context.frame(recursionLevel);
+		shadeLocal(ray, recursionLevel, color, context);
+		recursionLevel++;
+		if (recursionLevel >= maxRecursionLevel) {
+			return color;
+		}
+		Surface surface_hit = frame.hit.getSurface();
+		if(renderReflections){
+			double Kr = surface_hit.reflectionIntensity();
+			Ray reflectionRay = reflectionRay(ray, frame);
+			double survival = survival(weight * Kr, reflectionRay, context);
+			if(survival > 0.0) {
+				if(context.counters != null)
+					context.counters.reflectionRays++;
+				color.addScaledInPlace(Kr * survival,
+						calcColor(reflectionRay, recursionLevel, weight * Kr * survival, frame.secondaryColor, context));
+			}
+		}
+		if(renderRefarctions && surface_hit.isTransparent()){
+			double Kt = surface_hit.refractionIntensity();
+			Ray refractedRay = refractionRay(ray, frame);
+			double survival = survival(weight * Kt, refractedRay, context);
+			if(survival > 0.0) {
+				if(context.counters != null)
+					context.counters.refractionRays++;
+				color.addScaledInPlace(Kt * survival,
+						calcColor(refractedRay, recursionLevel, weight * Kt * survival, frame.secondaryColor, context));
+			}
+		}
+		return color;
+	}
+	
+	//the ambient and direct light terms of the hit in the frame of the recursion level, which also keeps the hit point
+	private Vec shadeLocal(Ray ray, int recursionLevel, Vec color, TraceContext context) {
+		TraceContext.Frame frame = context.frame(recursionLevel);
+		Hit closest_hit = frame.hit;
+		Surface surface_hit = closest_hit.getSurface();
+		Point hitPoint = ray.getHittingPoint(closest_hit, frame.hitPoint);
+		color.set(surface_hit.Ka()).multInPlace(this.ambient);
+		if(cheapShadingDepth > 0 && recursionLevel >= cheapShadingDepth)
+			return shadeDiffuse(surface_hit, closest_hit, hitPoint, color, frame);
+		for (Light lightSource : this.lights){
+			Ray rayToLight = lightSource.rayToLight(hitPoint, frame.rayToLight);
+			if(!lightIsOccluded(rayToLight, lightSource, context)){
+				Vec intensity = lightSource.intensity(hitPoint, rayToLight, frame.intensity);
+				color.addInPlace(getDiffuse(surface_hit.Kd(), closest_hit, rayToLight, intensity, frame));
+				color.addInPlace(getSpecular(surface_hit.Ks(), closest_hit, rayToLight, intensity, ray, surface_hit.shininess(), frame));
+			}
+		}
+		return color;
+	}
+	
+	private Ray reflectionRay(Ray ray, TraceContext.Frame frame) {
+		Vec reflected = Ops.reflect(ray.direction(), frame.hit.getNormalToSurface(), frame.secondaryDirection);
+		return secondaryRay(frame.hitPoint, ray, reflected, frame);
+	}
+	
+	private Ray refractionRay(Ray ray, TraceContext.Frame frame) {
+		Hit closest_hit = frame.hit;
+		Surface surface_hit = closest_hit.getSurface();
+		double n1 = surface_hit.n1(closest_hit);
+		double n2 = surface_hit.n2(closest_hit);
+		Vec refracted = Ops.refract(ray.direction(), closest_hit.getNormalToSurface(), n1, n2, frame.secondaryDirection);
+		return secondaryRay(frame.hitPoint, ray, refracted, frame);
+	}
+	
+	/*
+	 * The same as calcColor(ray, 0, 1.0, color, context), or as shade(ray, 0, 1.0, color, context) if the hit
+	 * of the ray is already in the first frame, but without recursion: the frames of the context serve as an
+	 * explicit stack, one frame per recursion level, so any recursion level can be traced with a fixed amount of memory.
+	 * Every frame goes through the same steps as a call of calcColor, in the same order, so the colors are identical.
+	 */
+	private Vec traceIterative(Ray ray, boolean hitFound, Vec color, TraceContext context) {
+		RayCounters counters = context.counters;
+		TraceContext.Frame frame = context.frame(0).enter(ray, 1.0, color);
+		int level = 0;
+		while(true) {
+			switch(frame.stage) {
+			case TraceContext.Frame.INTERSECT:
+				if(counters != null && level > counters.pathDepth)
+					counters.pathDepth = level;
+				if(level > 0 || !hitFound) {
+					if(!closestHit(frame.ray, frame.hit, context)) {
+						frame.hit.setSurface(null);
+						frame.color.set(this.backgroundColor);
+						frame.stage = TraceContext.Frame.DONE;
+						break;
+					}
+				}
+				shadeLocal(frame.ray, level, frame.color, context);
+				frame.stage = level + 1 < maxRecursionLevel ? TraceContext.Frame.REFLECT : TraceContext.Frame.DONE;
+				break;
+			case TraceContext.Frame.REFLECT:
+				frame.stage = TraceContext.Frame.REFRACT;
+				if(renderReflections) {
+					double Kr = frame.hit.getSurface().reflectionIntensity();
+					Ray reflectionRay = reflectionRay(frame.ray, frame);
+					double survival = survival(frame.weight * Kr, reflectionRay, context);
+					if(survival > 0.0) {
+						if(counters != null)
+							counters.reflectionRays++;
+						frame.childScale = Kr * survival;
+						frame = context.frame(++level).enter(reflectionRay, frame.weight * Kr * survival, frame.secondaryColor);
+					}
+				}
+				break;
+			case TraceContext.Frame.REFRACT:
+				frame.stage = TraceContext.Frame.DONE;
+				Surface surface_hit = frame.hit.getSurface();
+				if(renderRefarctions && surface_hit.isTransparent()) {
+					double Kt = surface_hit.refractionIntensity();
+					Ray refractedRay = refractionRay(frame.ray, frame);
+					double survival = survival(frame.weight * Kt, refractedRay, context);
+					if(survival > 0.0) {
+						if(counters != null)
+							counters.refractionRays++;
+						frame.childScale = Kt * survival;
+						frame = context.frame(++level).enter(refractedRay, frame.weight * Kt * survival, frame.secondaryColor);
+					}
+				}
+				break;
+			default:
+				if(level == 0)
+					return color;
+				Vec childColor = frame.color;
+				frame = context.frame(--level);
+				frame.color.addScaledInPlace(frame.childScale, childColor);
+				break;
+			}
+		}
+	}
+	
+	//the shading of hits at or beyond cheapShadingDepth: diffuse terms only, without shadow rays
+	private Vec shadeDiffuse(Surface surface_hit, Hit closest_hit, Point hitPoint, Vec color, TraceContext.Frame frame) {
+		for (Light lightSource : this.lights){
+			Ray rayToLight = lightSource.rayToLight(hitPoint, frame.rayToLight);
+			if(lightSource.reaches(rayToLight)){
+				Vec intensity = lightSource.intensity(hitPoint, rayToLight, frame.intensity);
+				color.addInPlace(getDiffuse(surface_hit.Kd(), closest_hit, rayToLight, intensity, frame));
+			}
+		}
+		return color;
+	}
+	
+	/*
+	 * Decides whether to trace a secondary ray whose color has the given weight in the color of its primary ray.
+	 * Rays with a weight below the contribution threshold are pruned, or with Russian roulette they survive
+	 * with probability weight / threshold and are scaled up by its inverse, so that the expected color is unchanged.
+	 * Returns the factor to scale the ray's color by, or 0 if it is pruned.
+	 */
+	private double survival(double weight, Ray secondaryRay, TraceContext context) {
+		if(weight >= contributionThreshold)
+			return 1.0;
+		if(russianRoulette) {
+			double probability = weight / contributionThreshold;
+			if(rouletteSample(secondaryRay) < probability) {
+				context.rouletteSurvivors++;
+				return 1.0 / probability;
+			}
+		}
+		context.prunedRays++;
+		return 0.0;
+	}
+	
+	/*
+	 * A uniform number in [0, 1) that depends only on the ray, so the roulette doesn't depend on
+	 * the order in which threads trace the rays and renders stay deterministic.
+	 */
+	private static double rouletteSample(Ray ray) {
+		long h = Double.doubleToLongBits(ray.source().x);
+		h = 31 * h + Double.doubleToLongBits(ray.source().y);
+		h = 31 * h + Double.doubleToLongBits(ray.source().z);
+		h = 31 * h + Double.doubleToLongBits(ray.direction().x);
+		h = 31 * h + Double.doubleToLongBits(ray.direction().y);
+		h = 31 * h + Double.doubleToLongBits(ray.direction().z);
+		//the finalizer of SplitMix64
+		h = (h ^ (h >>> 30)) * 0xbf58476d1ce4e5b9L;
+		h = (h ^ (h >>> 27)) * 0x94d049bb133111ebL;
+		h = h ^ (h >>> 31);
+		return (h >>> 11) * 0x1.0p-53;
+	}
+
+	//the secondary ray starts slightly after the hit point, so it doesn't hit the same surface again.
+	//in single precision the distance grows with the coordinates, for the shapes that are intersected in floats
+	private Ray secondaryRay(Point hitPoint, Ray ray, Vec direction, TraceContext.Frame frame){
+		double escalation = singlePrecision && FloatBVH.intersectsInFloat(frame.hit.getSurface().shape()) ?
+				Ops.floatEscalation * Ops.floatScale(hitPoint) : hitPointEscalationIndex;
+		Point source = frame.secondarySource.setAdd(hitPoint, escalation, ray.direction());
+		return frame.secondaryRay.set(source, direction);
+	}
+
+	private Vec getDiffuse(Vec Kd, Hit hit, Ray rayToLight, Vec intensity, TraceContext.Frame frame){
+		Vec normalToSurface = hit.getNormalToSurface();
+		return frame.term.set(Kd).multInPlace(intensity).multInPlace(normalToSurface.dot(rayToLight.direction()));
+	}
+
+	private Vec getSpecular(Vec Ks, Hit hit, Ray rayToLight, Vec intensity, Ray ray, int n, TraceContext.Frame frame){
+		Vec V = frame.viewDirection.set(ray.direction()).negInPlace().normalizeInPlace();
+		Vec R_hat = Ops.reflect(rayToLight.direction(), hit.getNormalToSurface(), frame.lightReflection).normalizeInPlace();
+		double cosine_alpha = V.dot(R_hat);
+		return frame.term.set(Ks).multInPlace(intensity).multInPlace(Math.pow(cosine_alpha, n));
+	}
+
+	private boolean closestHit(Ray ray, Hit hit, TraceContext context){
+		RayCounters counters = context.counters;
+		if(counters == null){
+			return bvh.closestHit(ray, hit, context.candidate, context.bvhStack);
+		}
+		long start = System.nanoTime();
+		boolean found = bvh.closestHit(ray, hit, context.candidate, context.bvhStack, counters.shapeCounters);
+		counters.intersectionNanos += System.nanoTime() - start;
+		if(found) counters.rayHits++; else counters.rayMisses++;
+		return found;
+	}
+
+	private boolean lightIsOccluded(Ray rayToLight, Light light, TraceContext context){
+		if(!light.reaches(rayToLight)){
+			return true;
+		}
+		double maxDistance = light.maxShadowDistance(rayToLight.source());
+		RayCounters counters = context.counters;
+		if(counters == null){
+			return bvh.occludes(rayToLight, maxDistance, context.bvhStack);
+		}
+		long start = System.nanoTime();
+		boolean occluded = bvh.occludes(rayToLight, maxDistance, context.bvhStack, counters.shapeCounters);
+		counters.intersectionNanos += System.nanoTime() - start;
+		counters.shadowRays++;
+		if(occluded) counters.occludedShadowRays++;
+		return occluded;
+	}
+
+}
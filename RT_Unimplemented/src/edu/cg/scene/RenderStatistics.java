@@ -0,0 +1,180 @@
+package edu.cg.scene;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The ray and intersection counts and the time breakdown of a single render, collected when
+ * Scene.initCollectStatistics(true) was set. Scripts can read the getters or serialize the object with Gson.
+ *
+ * The times of the stages are summed over all the rendering threads, so together they may exceed the
+ * wall clock time of the render. Shading is the tracing time not spent in intersection queries, and image
+ * assembly is the rest of the tiles' time (averaging samples, converting and writing pixels).
+ */
+public class RenderStatistics {
+	private final String sceneName;
+	private final int width, height;
+	private final long primaryRays, shadowRays, occludedShadowRays, reflectionRays, refractionRays;
+	private final long prunedRays, rouletteSurvivors;
+	private final long rayHits, rayMisses;
+	private final long maxDepth;
+	private final double averageDepth;
+	private final Map<String, Long> intersectionTests = new LinkedHashMap<>();
+	private final Map<String, Long> intersectionHits = new LinkedHashMap<>();
+	private final double rayGenerationMillis, intersectionMillis, shadingMillis, imageAssemblyMillis;
+	private final double renderMillis;
+	
+	RenderStatistics(String sceneName, int width, int height, RayCounters totals, long prunedRays, long rouletteSurvivors,
+			String[] shapeTypes, long renderNanos) {
+		this.sceneName = sceneName;
+		this.width = width;
+		this.height = height;
+		this.primaryRays = totals.primaryRays;
+		this.shadowRays = totals.shadowRays;
+		this.occludedShadowRays = totals.occludedShadowRays;
+		this.reflectionRays = totals.reflectionRays;
+		this.refractionRays = totals.refractionRays;
+		this.prunedRays = prunedRays;
+		this.rouletteSurvivors = rouletteSurvivors;
+		this.rayHits = totals.rayHits;
+		this.rayMisses = totals.rayMisses;
+		this.maxDepth = totals.maxDepth;
+		this.averageDepth = totals.primaryRays == 0 ? 0.0 : (double)totals.depthSum / totals.primaryRays;
+		for(int type = 0; type < shapeTypes.length; ++type) {
+			intersectionTests.put(shapeTypes[type], totals.shapeCounters[2 * type]);
+			intersectionHits.put(shapeTypes[type], totals.shapeCounters[2 * type + 1]);
+		}
+		this.rayGenerationMillis = totals.rayGenerationNanos / 1e6;
+		this.intersectionMillis = totals.intersectionNanos / 1e6;
+		this.shadingMillis = (totals.traceNanos - totals.intersectionNanos) / 1e6;
+		this.imageAssemblyMillis = (totals.tileNanos - totals.traceNanos - totals.rayGenerationNanos) / 1e6;
+		this.renderMillis = renderNanos / 1e6;
+	}
+	
+	//MARK: getters
+	public String getSceneName() {
+		return sceneName;
+	}
+	
+	public int getWidth() {
+		return width;
+	}
+	
+	public int getHeight() {
+		return height;
+	}
+	
+	public long getPrimaryRays() {
+		return primaryRays;
+	}
+	
+	public long getShadowRays() {
+		return shadowRays;
+	}
+	
+	public long getOccludedShadowRays() {
+		return occludedShadowRays;
+	}
+	
+	public long getReflectionRays() {
+		return reflectionRays;
+	}
+	
+	public long getRefractionRays() {
+		return refractionRays;
+	}
+	
+	/**
+	 * The number of reflection and refraction rays that were not traced because of their small contribution.
+	 */
+	public long getPrunedRays() {
+		return prunedRays;
+	}
+	
+	/**
+	 * The number of rays below the contribution threshold that were traced anyway by Russian roulette.
+	 */
+	public long getRouletteSurvivors() {
+		return rouletteSurvivors;
+	}
+	
+	/**
+	 * The number of primary, reflection and refraction rays that hit some surface.
+	 */
+	public long getRayHits() {
+		return rayHits;
+	}
+	
+	/**
+	 * The number of primary, reflection and refraction rays that got the background color.
+	 */
+	public long getRayMisses() {
+		return rayMisses;
+	}
+	
+	/**
+	 * The deepest recursion level reached by a primary ray, where 1 means the primary ray alone.
+	 */
+	public long getMaxDepth() {
+		return maxDepth;
+	}
+	
+	public double getAverageDepth() {
+		return averageDepth;
+	}
+	
+	/**
+	 * The number of ray-shape intersection tests by the simple name of the shape's class.
+	 */
+	public Map<String, Long> getIntersectionTests() {
+		return Collections.unmodifiableMap(intersectionTests);
+	}
+	
+	/**
+	 * The number of intersection tests that found a hit, by the simple name of the shape's class.
+	 */
+	public Map<String, Long> getIntersectionHits() {
+		return Collections.unmodifiableMap(intersectionHits);
+	}
+	
+	public double getRayGenerationMillis() {
+		return rayGenerationMillis;
+	}
+	
+	public double getIntersectionMillis() {
+		return intersectionMillis;
+	}
+	
+	public double getShadingMillis() {
+		return shadingMillis;
+	}
+	
+	public double getImageAssemblyMillis() {
+		return imageAssemblyMillis;
+	}
+	
+	public double getRenderMillis() {
+		return renderMillis;
+	}
+	
+	@Override
+	public String toString() {
+		String endl = System.lineSeparator();
+		StringBuilder shapes = new StringBuilder();
+		for(Map.Entry<String, Long> entry : intersectionTests.entrySet())
+			shapes.append(String.format("%n  %s: %d tests, %d hits", entry.getKey(), entry.getValue(),
+					intersectionHits.get(entry.getKey())));
+		
+		return "Statistics of " + sceneName + " (" + width + "x" + height + "):" + endl +
+				String.format("Rays: %d primary, %d shadow (%d occluded), %d reflection, %d refraction",
+						primaryRays, shadowRays, occludedShadowRays, reflectionRays, refractionRays) + endl +
+				String.format("Pruned rays: %d, kept by Russian roulette: %d", prunedRays, rouletteSurvivors) + endl +
+				String.format("Hits: %d, misses: %d, max depth %d, average depth %.3f",
+						rayHits, rayMisses, maxDepth, averageDepth) + endl +
+				"Intersection tests:" + shapes + endl +
+				String.format("Thread time: ray generation %.1f ms, intersection %.1f ms, shading %.1f ms, image assembly %.1f ms",
+						rayGenerationMillis, intersectionMillis, shadingMillis, imageAssemblyMillis) + endl +
+				String.format("Render time: %.1f ms", renderMillis);
+	}
+}
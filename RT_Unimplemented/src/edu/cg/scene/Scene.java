@@ -1,38 +1,66 @@
 package edu.cg.scene;
 
-import java.awt.Color;
 import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.ExecutionException;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.Future;
+import java.util.concurrent.ForkJoinPool;
 
 import edu.cg.Logger;
-import edu.cg.algebra.Ops;
 import edu.cg.algebra.Point;
-import edu.cg.algebra.Ray;
-import edu.cg.algebra.Hit;
 import edu.cg.algebra.Vec;
+import edu.cg.image.HdrFramebuffer;
+import edu.cg.image.MappedFramebuffer;
 import edu.cg.scene.camera.PinholeCamera;
 import edu.cg.scene.lightSources.Light;
+import edu.cg.scene.objects.Group;
+import edu.cg.scene.objects.Instance;
+import edu.cg.scene.objects.Shape;
 import edu.cg.scene.objects.Surface;
-import edu.cg.scene.objects.Intersectable;
+import edu.cg.scene.objects.TriangleMesh;
+import edu.cg.scene.render.RenderListener;
+import edu.cg.scene.render.Tile;
+import edu.cg.scene.render.TileScheduler;
 
 public class Scene {
+	//the block size of the first pass of a progressive render, a power of two
+	public static final int PREVIEW_BLOCK_SIZE = 8;
+	public static final int MAX_RECURSION_LEVEL = 1000;
+	//deeper recursion levels are traced with an explicit stack
+	public static final int RECURSIVE_LEVEL_LIMIT = 16;
+	//for the renders nobody follows
+	private static final RenderListener NO_LISTENER = new RenderListener() {};
+	
 	private String name = "scene";
 	private int maxRecursionLevel = 1;
 	private int antiAliasingFactor = 1; //gets the values of 1, 2 and 3
 	private boolean renderRefarctions = false;
 	private boolean renderReflections = false;
+	private boolean adaptiveAntiAliasing = false;
+	private double antiAliasingThreshold = 0.05; //the largest color difference between neighbors that doesn't need anti aliasing
+	private double contributionThreshold = 0.0; //secondary rays with a smaller weight in the pixel's color are not traced
+	private boolean russianRoulette = false;
+	private int cheapShadingDepth = 0; //hits from this recursion level on get diffuse shading only, 0 for never
 	
 	private PinholeCamera camera;
 	private Vec ambient = new Vec(1, 1, 1); //white
 	private Vec backgroundColor = new Vec(0, 0.5, 1); //blue sky
 	private List<Light> lightSources = new LinkedList<>();
 	private List<Surface> surfaces = new LinkedList<>();
+	private Map<String, Shape> prototypes = new LinkedHashMap<>(); //shapes placed by instances, by name
 	private transient double hitPointEscalationIndex = 0.000001;
+	private transient int tileSize = TileScheduler.DEFAULT_TILE_SIZE;
+	private transient boolean collectStatistics = false;
+	private transient boolean packetTracing = true;
+	private transient boolean iterativeTracing = false;
+	private transient boolean singlePrecision = false;
+	private transient RenderStatistics statistics = null;
+	private transient GeometryBuffer geometryBuffer = null;
 	
 	
 	//MARK: initializers
@@ -41,6 +69,11 @@ public class Scene {
 		return this;
 	}
 	
+	public Scene initCamera(PinholeCamera camera) {
+		this.camera = camera;
+		return this;
+	}
+	
 	public Scene initAmbient(Vec ambient) {
 		this.ambient = ambient;
 		return this;
@@ -61,6 +94,52 @@ public class Scene {
 		return this;
 	}
 	
+	/**
+	 * Adds a shape, usually a Group, that surfaces of the scene place with Instance shapes of the given name.
+	 * The prototype itself is not rendered.
+	 */
+	public Scene addPrototype(String name, Shape prototype) {
+		if(prototype instanceof Instance)
+			throw new IllegalArgumentException("A prototype can't be an instance");
+		prototypes.put(name, prototype);
+		return this;
+	}
+	
+	/**
+	 * Reads the OBJ files of the triangle meshes of the surfaces, groups and prototypes of the scene now, relative
+	 * paths resolved against the given directory, usually the one of the scene file (see TriangleMesh.readFile).
+	 * @param directory - null if the scene may not read files: a mesh with a file is then an error.
+	 */
+	public Scene readMeshFiles(Path directory) throws IOException {
+		return readMeshFiles(directory, false);
+	}
+	
+	/**
+	 * Same as readMeshFiles(directory), but if confined, every file must be in the directory or one of its
+	 * subdirectories, for a scene that comes from elsewhere.
+	 */
+	public Scene readMeshFiles(Path directory, boolean confined) throws IOException {
+		for(Surface surface : surfaces)
+			readMeshFiles(surface.shape(), directory, confined);
+		for(Shape prototype : prototypes.values())
+			readMeshFiles(prototype, directory, confined);
+		return this;
+	}
+	
+	private static void readMeshFiles(Shape shape, Path directory, boolean confined) throws IOException {
+		if(shape instanceof Group) {
+			for(Shape member : ((Group)shape).getShapes())
+				readMeshFiles(member, directory, confined);
+		} else if(shape instanceof TriangleMesh) {
+			TriangleMesh mesh = (TriangleMesh)shape;
+			if(mesh.getFile() == null)
+				return;
+			if(directory == null)
+				throw new IOException("The mesh file " + mesh.getFile() + " can't be read here");
+			mesh.readFile(directory, confined);
+		}
+	}
+	
 	public Scene initMaxRecursionLevel(int maxRecursionLevel) {
 		this.maxRecursionLevel = maxRecursionLevel;
 		return this;
@@ -86,6 +165,110 @@ public class Scene {
 		return this;
 	}
 	
+	/**
+	 * Sets whether anti aliasing supersamples only the pixels whose center ray hit another surface than the center
+	 * of one of their four neighbors, or differs from it by more than the anti aliasing threshold. This is a single
+	 * refinement step, not a recursive subdivision: a pixel gets either its center sample or the full grid of the
+	 * anti aliasing factor, and pixels whose centers agree with their neighbors' are never refined, even if their
+	 * other samples would differ.
+	 */
+	public Scene initAdaptiveAntiAliasing(boolean adaptiveAntiAliasing) {
+		this.adaptiveAntiAliasing = adaptiveAntiAliasing;
+		return this;
+	}
+	
+	/**
+	 * Sets the largest difference, in a color channel clamped to [0, 1], between the centers of neighboring pixels
+	 * that doesn't need supersampling with adaptive anti aliasing. 0 or less supersamples every pixel, which gives
+	 * the image of the fixed grid.
+	 */
+	public Scene initAntiAliasingThreshold(double antiAliasingThreshold) {
+		this.antiAliasingThreshold = antiAliasingThreshold;
+		return this;
+	}
+	
+	/**
+	 * Sets the smallest weight that a reflection or refraction ray may have in the color of its primary ray,
+	 * the product of the reflection and refraction intensities along its path. Lighter rays are pruned,
+	 * so the recursion stops early where it can't change the image much. 0 traces every ray up to the max recursion level.
+	 */
+	public Scene initContributionThreshold(double contributionThreshold) {
+		this.contributionThreshold = contributionThreshold;
+		return this;
+	}
+	
+	/**
+	 * Sets whether rays below the contribution threshold are traced with a probability proportional to their weight
+	 * (and scaled up accordingly) instead of always being pruned. This keeps the expected color of every pixel unchanged.
+	 */
+	public Scene initRussianRoulette(boolean russianRoulette) {
+		this.russianRoulette = russianRoulette;
+		return this;
+	}
+	
+	/**
+	 * Sets the recursion level from which hits get only ambient and diffuse terms, without specular terms
+	 * and without shadow rays. 0 shades every hit fully.
+	 */
+	public Scene initCheapShadingDepth(int cheapShadingDepth) {
+		this.cheapShadingDepth = cheapShadingDepth;
+		return this;
+	}
+	
+	/**
+	 * Sets whether to count rays and intersection tests and to time the rendering stages.
+	 * The statistics are logged at the end of every render and kept for getStatistics().
+	 */
+	public Scene initCollectStatistics(boolean collectStatistics) {
+		this.collectStatistics = collectStatistics;
+		return this;
+	}
+	
+	/**
+	 * Sets whether to trace primary rays in SIMD packets when the JVM supports the vector API
+	 * (see PacketTraversal). Packets are used without anti aliasing and statistics, and give the same image.
+	 */
+	public Scene initPacketTracing(boolean packetTracing) {
+		this.packetTracing = packetTracing;
+		return this;
+	}
+	
+	/**
+	 * Sets a buffer to keep the primary hits of a render in, or null to trace every render from scratch.
+	 * A render of the same geometry shades the kept hits again instead of intersecting primary rays
+	 * (see GeometryBuffer). The buffer is used by render(...) without adaptive anti aliasing.
+	 */
+	public Scene initGeometryBuffer(GeometryBuffer geometryBuffer) {
+		this.geometryBuffer = geometryBuffer;
+		return this;
+	}
+	
+	/**
+	 * Sets whether to trace reflections and refractions with an explicit stack instead of recursion.
+	 * Both give the same image. Recursion levels above RECURSIVE_LEVEL_LIMIT are always traced with the stack,
+	 * which takes a fixed amount of memory per thread and can't overflow the thread's stack.
+	 */
+	public Scene initIterativeTracing(boolean iterativeTracing) {
+		this.iterativeTracing = iterativeTracing;
+		return this;
+	}
+	
+	/**
+	 * Sets whether to intersect rays with the scene's shapes in single precision (see FloatBVH).
+	 * Shading stays in double precision. The image differs slightly from the double precision one
+	 * (see PrecisionReport), and secondary rays start at a distance relative to the scene's coordinates
+	 * (Ops.floatEscalation) instead of hitPointEscalationIndex.
+	 */
+	public Scene initSinglePrecision(boolean singlePrecision) {
+		this.singlePrecision = singlePrecision;
+		return this;
+	}
+	
+	public Scene initTileSize(int tileSize) {
+		this.tileSize = tileSize;
+		return this;
+	}
+	
 	//MARK: getters
 	public String getName() {
 		return name;
@@ -107,6 +290,86 @@ public class Scene {
 		return renderReflections;
 	}
 	
+	public boolean getAdaptiveAntiAliasing() {
+		return adaptiveAntiAliasing;
+	}
+	
+	public double getAntiAliasingThreshold() {
+		return antiAliasingThreshold;
+	}
+	
+	public double getContributionThreshold() {
+		return contributionThreshold;
+	}
+	
+	public boolean getRussianRoulette() {
+		return russianRoulette;
+	}
+	
+	public int getCheapShadingDepth() {
+		return cheapShadingDepth;
+	}
+	
+	public boolean getCollectStatistics() {
+		return collectStatistics;
+	}
+	
+	/**
+	 * Returns the statistics of the last completed render, or null if it didn't collect statistics.
+	 */
+	public RenderStatistics getStatistics() {
+		return statistics;
+	}
+	
+	public boolean getIterativeTracing() {
+		return iterativeTracing;
+	}
+	
+	public boolean getPacketTracing() {
+		return packetTracing;
+	}
+	
+	public boolean getSinglePrecision() {
+		return singlePrecision;
+	}
+	
+	public int getTileSize() {
+		return tileSize;
+	}
+	
+	//the rest of the scene, copied by RenderSnapshot
+	PinholeCamera getCamera() {
+		return camera;
+	}
+	
+	Vec getAmbient() {
+		return ambient;
+	}
+	
+	Vec getBackgroundColor() {
+		return backgroundColor;
+	}
+	
+	List<Light> getLightSources() {
+		return lightSources;
+	}
+	
+	List<Surface> getSurfaces() {
+		return surfaces;
+	}
+	
+	Map<String, Shape> getPrototypes() {
+		return prototypes;
+	}
+	
+	double getHitPointEscalationIndex() {
+		return hitPointEscalationIndex;
+	}
+	
+	GeometryBuffer getGeometryBuffer() {
+		return geometryBuffer;
+	}
+	
 	@Override
 	public String toString() {
 		String endl = System.lineSeparator(); 
@@ -114,176 +377,153 @@ public class Scene {
 				"Ambient: " + ambient + endl +
 				"Background Color: " + backgroundColor + endl +
 				"Max recursion level: " + maxRecursionLevel + endl +
-				"Anti aliasing factor: " + antiAliasingFactor + endl +
+				"Anti aliasing factor: " + antiAliasingFactor + (adaptiveAntiAliasing ? " (adaptive, threshold " + antiAliasingThreshold + ")" : "") + endl +
+				(contributionThreshold > 0.0 ? "Contribution threshold: " + contributionThreshold + (russianRoulette ? " (Russian roulette)" : "") + endl : "") +
+				(cheapShadingDepth > 0 ? "Cheap shading depth: " + cheapShadingDepth + endl : "") +
 				"Light sources:" + endl + lightSources + endl +
+				(prototypes.isEmpty() ? "" : "Prototypes:" + endl + prototypes + endl) +
 				"Surfaces:" + endl + surfaces;
 	}
 	
-	private transient ExecutorService executor = null;
-	private transient Logger logger = null;
-	
-	private void initSomeFields(int imgWidth, int imgHeight, Logger logger) {
-		this.logger = logger;
-		//TODO: initialize your additional field here.
-		//      You can also change the method signature if needed.
-	}
-
 	public BufferedImage render(int imgWidth, int imgHeight, double viewPlainWidth,Logger logger)
 			throws InterruptedException, ExecutionException {
 		// TODO: Please notice the following comment.
 		// This method is invoked each time Render Scene button is invoked.
 		// Use it to initialize additional fields you need.
-		initSomeFields(imgWidth, imgHeight, logger);
-		
-		BufferedImage img = new BufferedImage(imgWidth, imgHeight, BufferedImage.TYPE_INT_RGB);
-		camera.initResolution(imgHeight, imgWidth, viewPlainWidth);
+		ForkJoinPool executor = newExecutor(logger);
+		try {
+			return render(imgWidth, imgHeight, viewPlainWidth, logger, executor);
+		} finally {
+			executor.shutdown();
+		}
+	}
+	
+	private ForkJoinPool newExecutor(Logger logger) {
 		int nThreads = Runtime.getRuntime().availableProcessors();
 		nThreads = nThreads < 2 ? 2 : nThreads;
-		this.logger.log("Intitialize executor. Using " + nThreads + " threads to render " + name);
-		executor = Executors.newFixedThreadPool(nThreads);
-		
-		@SuppressWarnings("unchecked")
-		Future<Color>[][] futures = (Future<Color>[][])(new Future[imgHeight][imgWidth]);
-		
-		this.logger.log("Starting to shoot " +
-			(imgHeight*imgWidth*antiAliasingFactor*antiAliasingFactor) +
-			" rays over " + name);
+		logger.log("Intitialize executor. Using " + nThreads + " threads to render " + name);
+		return new ForkJoinPool(nThreads);
+	}
 
-		for(int y = 0; y < imgHeight; ++y)
-			for(int x = 0; x < imgWidth; ++x)
-				futures[y][x] = calcColor(x, y);
-		
-		this.logger.log("Done shooting rays.");
-		this.logger.log("Wating for results...");
-		
-		for(int y = 0; y < imgHeight; ++y)
-			for(int x = 0; x < imgWidth; ++x) {
-				Color color = futures[y][x].get();
-				img.setRGB(x, y, color.getRGB());
-			}
-		
-		executor.shutdown();
-		
-		this.logger.log("Ray tracing of " + name + " has been completed.");
-		
-		executor = null;
-		this.logger = null;
+	/**
+	 * Renders the scene on the given pool. The pool is not shut down, so several scenes
+	 * can be rendered on it one after the other or at the same time.
+	 * The scene is compiled into a RenderSnapshot first, which is all the render reads, so the scene can be
+	 * changed, or rendered again, while the render runs.
+	 */
+	public BufferedImage render(int imgWidth, int imgHeight, double viewPlainWidth, Logger logger, ForkJoinPool executor)
+			throws InterruptedException, ExecutionException {
+		return render(imgWidth, imgHeight, viewPlainWidth, logger, executor, NO_LISTENER);
+	}
+	
+	/**
+	 * Renders the scene on the given pool as render(...) does, and tells the listener about every tile as it is
+	 * rendered, so the progress of the render can be followed. The pixels are only complete at the end.
+	 */
+	public BufferedImage render(int imgWidth, int imgHeight, double viewPlainWidth, Logger logger, ForkJoinPool executor,
+			RenderListener listener) throws InterruptedException, ExecutionException {
+		RenderSnapshot snapshot = new RenderSnapshot(this, imgWidth, imgHeight, viewPlainWidth, logger);
 		
+		BufferedImage img = new BufferedImage(imgWidth, imgHeight, BufferedImage.TYPE_INT_RGB);
+		int[] raster = ((DataBufferInt)img.getRaster().getDataBuffer()).getData();
+		snapshot.render(Pixels.packed(raster), executor, listener);
+		statistics = snapshot.complete();
 		return img;
 	}
 	
-	private Future<Color> calcColor(int x, int y) {
-		return executor.submit(() -> {
-			if(antiAliasingFactor > 1){
-				Vec totalColor = new Vec(0.0);
-				for(int i = 0; i < antiAliasingFactor; i++){
-					for(int j = 0; j < antiAliasingFactor; j++){
-						Point pixelPortion = anti_aliasing_transform(x,y,i,j);
-						Ray ray = new Ray(camera.getCameraPosition(), pixelPortion);
-						totalColor = totalColor.add(calcColor(ray, 0));
-					}
-				}
-				Vec averagedColor = totalColor.mult(1.0/Math.pow(antiAliasingFactor,2));
-				return averagedColor.toColor();
-			}
-			else{
-				Point centerPoint = camera.transform(x, y);
-				Ray ray = new Ray(camera.getCameraPosition(), centerPoint);
-				Vec color = calcColor(ray, 0);
-				return color.toColor();
-			}
-		});
+	/**
+	 * Renders the scene into a framebuffer of float pixels, with the colors of render(...) before they are
+	 * clipped and quantized, so the image can be tone mapped later (see ToneMapper) without tracing it again.
+	 */
+	public HdrFramebuffer renderHdr(int imgWidth, int imgHeight, double viewPlainWidth, Logger logger, ForkJoinPool executor)
+			throws InterruptedException, ExecutionException {
+		RenderSnapshot snapshot = new RenderSnapshot(this, imgWidth, imgHeight, viewPlainWidth, logger);
+		
+		HdrFramebuffer framebuffer = new HdrFramebuffer(imgWidth, imgHeight);
+		snapshot.render(Pixels.floats(framebuffer.pixels()), executor, NO_LISTENER);
+		statistics = snapshot.complete();
+		return framebuffer;
 	}
-
-	private Point anti_aliasing_transform(int x, int y, int i, int j){
-		double pixelWidth = camera.viewPlainWidth / camera.resolutionX;
-		double pixelHeight = camera.viewPlainWidth / camera.resolutionY;
-		Vec right = camera.rightVec.mult((x - (int)(camera.resolutionX/2.0) + (double)i/antiAliasingFactor) * pixelWidth);
-		Vec up = camera.upVec.mult(-1.0 * (y - (int)(camera.resolutionY/2.0) + (double)j/antiAliasingFactor) * pixelHeight);
-		return camera.imageMiddle.add(right).add(up);
+	
+	/**
+	 * Renders the scene into a framebuffer outside the heap, for images too large for a BufferedImage.
+	 * Every tile is rendered into an array of its own and written to the framebuffer when it is done, like the
+	 * tiles of renderTile(Tile, int[]), so the memory the render needs doesn't grow with the resolution.
+	 * The pixels are the same as the ones of render(...). The geometry buffer is not used.
+	 */
+	public void render(MappedFramebuffer framebuffer, double viewPlainWidth, Logger logger, ForkJoinPool executor)
+			throws InterruptedException, ExecutionException {
+		RenderSnapshot snapshot = new RenderSnapshot(this, framebuffer.width(), framebuffer.height(), viewPlainWidth, logger);
+		snapshot.render(framebuffer, executor);
+		statistics = snapshot.complete();
 	}
 
-	private Vec calcColor(Ray ray, int recursionLevel) {
-		Hit closest_hit = closestHit(ray);
-		if(closest_hit != null){
-			Surface surface_hit = closest_hit.getSurface();
-			Vec Ka = surface_hit.Ka();
-			Vec Kd = surface_hit.Kd();
-			Vec Ks = surface_hit.Ks();
-			Vec colorVector = Ka.mult(this.ambient);
-			for (Light lightSource : this.lightSources){
-				if(!lightIsOccluded(lightSource.rayToLight(ray.getHittingPoint(closest_hit)), lightSource)){
-					Vec diffuse = getDiffuse(Kd, closest_hit, lightSource, ray);
-					Vec specular = getSpecular(Ks, closest_hit, lightSource, ray, surface_hit.shininess());
-					colorVector = colorVector.add(diffuse).add(specular);
-				}
-			}
-			recursionLevel++;
-			if (recursionLevel >= maxRecursionLevel) {
-				return colorVector;
-			}
-			if(renderReflections){
-				double Kr = surface_hit.reflectionIntensity();
-				Vec reflected = Ops.reflect(ray.direction(), closest_hit.getNormalToSurface());
-				Ray reflectionRay = new Ray(ray.getHittingPoint(closest_hit).add(ray.direction().mult(hitPointEscalationIndex)), reflected.normalize());
-				colorVector = colorVector.add(calcColor(reflectionRay, recursionLevel).mult(Kr));
-			}
-			// TODO: add refraction index
-			if(renderRefarctions && surface_hit.isTransparent()){
-				double Kt = surface_hit.refractionIntensity();
-				double n1 = surface_hit.n1(closest_hit);
-				double n2 = surface_hit.n2(closest_hit);
-				Vec refracted = Ops.refract(ray.direction(), closest_hit.getNormalToSurface(), n1, n2);
-				Ray refractedRay = new Ray(ray.getHittingPoint(closest_hit).add(ray.direction().mult(hitPointEscalationIndex)), refracted.normalize());
-				colorVector = colorVector.add(calcColor(refractedRay, recursionLevel).mult(Kt));
-			}
-			return colorVector;
+	public void renderProgressive(BufferedImage img, double viewPlainWidth, Logger logger, RenderListener listener)
+			throws InterruptedException, ExecutionException {
+		ForkJoinPool executor = newExecutor(logger);
+		try {
+			renderProgressive(img, viewPlainWidth, logger, executor, listener);
+		} finally {
+			executor.shutdown();
 		}
-		return this.backgroundColor;
 	}
-
-	private Vec getDiffuse(Vec Kd, Hit hit, Light lightSource, Ray ray){
-		Point hitPoint = ray.getHittingPoint(hit);
-		Ray rayToLight = lightSource.rayToLight(hitPoint);
-		Vec intensity = lightSource.intensity(hitPoint, rayToLight);
-		Vec normalToSurface = hit.getNormalToSurface();
-		Vec diffuse = Kd.mult(intensity).mult(normalToSurface.dot(rayToLight.direction()));
-		return diffuse;
+	
+	/**
+	 * Renders the scene into the given image in passes of growing resolution, so the image can be presented
+	 * while it is rendered. The first pass traces one ray per PREVIEW_BLOCK_SIZE x PREVIEW_BLOCK_SIZE block of pixels
+	 * and fills the block with its color, every following pass halves the block size, and a last pass adds
+	 * the anti aliasing samples. No ray is traced twice: a pass skips the pixels of the previous passes, and the
+	 * anti aliasing pass starts from the color of the pixel's center ray, which is its first sample.
+	 * So the final image is identical to the one of render(...), at the cost of keeping the center colors
+	 * (three doubles per pixel) when anti aliasing is on. With adaptive anti aliasing the last pass only
+	 * supersamples the pixels whose centers differ from their neighbors' centers.
+	 * @param img - the image to render into, of type BufferedImage.TYPE_INT_RGB.
+	 */
+	public void renderProgressive(BufferedImage img, double viewPlainWidth, Logger logger, ForkJoinPool executor,
+			RenderListener listener) throws InterruptedException, ExecutionException {
+		if(img.getType() != BufferedImage.TYPE_INT_RGB)
+			throw new IllegalArgumentException("Progressive rendering needs an image of type TYPE_INT_RGB");
+		
+		RenderSnapshot snapshot = new RenderSnapshot(this, img.getWidth(), img.getHeight(), viewPlainWidth, logger);
+		Pixels raster = Pixels.packed(((DataBufferInt)img.getRaster().getDataBuffer()).getData());
+		snapshot.renderProgressive(raster, executor, listener);
+		statistics = snapshot.complete();
 	}
 
-	private Vec getSpecular(Vec Ks, Hit hit, Light lightSource, Ray ray, int n){
-		Point hitPoint = ray.getHittingPoint(hit);
-		Ray rayToLight = lightSource.rayToLight(hitPoint);
-		Vec intensity = lightSource.intensity(hitPoint, rayToLight);
-		Vec V = ray.direction().neg().normalize();
-		Vec R_hat = Ops.reflect(rayToLight.direction(), hit.getNormalToSurface()).normalize();
-		double cosine_alpha = V.dot(R_hat);
-		Vec specular = Ks.mult(intensity).mult(Math.pow(cosine_alpha, n));
-		return specular;
+	//the snapshot of the render of tiles started by prepareTiles
+	private transient volatile RenderSnapshot tiles = null;
+
+	/**
+	 * Prepares the scene to render the tiles of an image one by one with renderTile(Tile, int[]), for renders
+	 * whose tiles are spread over several processes (see edu.cg.distributed). Call finishTiles when all the tiles
+	 * are done. The geometry buffer is not used.
+	 */
+	public void prepareTiles(int imgWidth, int imgHeight, double viewPlainWidth, Logger logger) {
+		tiles = new RenderSnapshot(this, imgWidth, imgHeight, viewPlainWidth, logger);
 	}
 
-	private Hit closestHit(Ray ray){
-		double closestT = Ops.infinity;
-		Hit closestHit = null;
-		for (Intersectable surface : surfaces){
-			Hit hit = surface.intersect(ray);
-			if (hit != null) {
-				if (hit.t() < closestT ){
-					closestHit = hit;
-					closestT = closestHit.t();
-				}
-			}
-		}
-		return closestHit;
+	/**
+	 * Renders a tile of the image prepared by prepareTiles, with the same pixels as render(...) gives it.
+	 * With adaptive anti aliasing the centers of the pixels around the tile are traced as well, since they decide
+	 * which pixels of the tile are supersampled. This method is thread safe.
+	 * @param pixels - receives the tile's pixels row by row, at least tile.pixelCount() of them.
+	 */
+	public void renderTile(Tile tile, int[] pixels) {
+		tilesSnapshot().renderTile(tile, pixels);
 	}
 
-	private boolean lightIsOccluded(Ray rayToLight, Light light){
-		for(Surface surface : surfaces){
-			if (light.isOccludedBy(surface, rayToLight)){
-				return true;
-			}
-		}
-		return false;
+	/**
+	 * Completes a render of tiles started by prepareTiles.
+	 */
+	public void finishTiles() {
+		statistics = tilesSnapshot().complete();
+		tiles = null;
 	}
 
+	private RenderSnapshot tilesSnapshot() {
+		RenderSnapshot snapshot = tiles;
+		if(snapshot == null)
+			throw new IllegalStateException("The tiles of " + name + " weren't prepared");
+		return snapshot;
+	}
 }
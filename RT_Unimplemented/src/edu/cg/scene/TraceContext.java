@@ -0,0 +1,90 @@
+package edu.cg.scene;
+
+import edu.cg.algebra.Hit;
+import edu.cg.algebra.Point;
+import edu.cg.algebra.Ray;
+import edu.cg.algebra.Vec;
+import edu.cg.scene.objects.Surface;
+
+/**
+ * Preallocated scratch objects of a single rendering thread, so that tracing a ray allocates nothing. A thread keeps
+ * its context for all the tiles it renders of a render (see RenderSnapshot.context), so the memory of the contexts
+ * doesn't grow with the number of tiles.
+ * Every recursion level gets its own frame, since a level's values are still needed after
+ * the secondary rays it spawns have been traced.
+ */
+class TraceContext {
+	final int[] bvhStack;
+	//null if no statistics are collected
+	final RayCounters counters;
+	final Hit candidate = new Hit();
+	//secondary rays pruned by their contribution in the current tile, and the ones kept by Russian roulette
+	long prunedRays, rouletteSurvivors;
+
+	final Ray primaryRay = new Ray();
+	final Point pixelPoint = new Point();
+	final Vec pixelColor = new Vec();
+	final Vec sampleColor = new Vec();
+
+	//primary ray packets, null if the rays are traced one by one
+	Ray[] packetRays = null;
+	Surface[] packetSurfaces = null;
+	double[] packetScratch = null;
+
+	private Frame[] frames = new Frame[0];
+
+	TraceContext(int[] bvhStack, RayCounters counters) {
+		this.bvhStack = bvhStack;
+		this.counters = counters;
+	}
+
+	void initPackets(int packetSize, double[] scratch) {
+		packetRays = new Ray[packetSize];
+		for(int i = 0; i < packetSize; ++i)
+			packetRays[i] = new Ray();
+		packetSurfaces = new Surface[packetSize];
+		packetScratch = scratch;
+	}
+
+	Frame frame(int recursionLevel) {
+		if(recursionLevel >= frames.length) {
+			Frame[] grown = new Frame[recursionLevel + 1];
+			System.arraycopy(frames, 0, grown, 0, frames.length);
+			for(int i = frames.length; i < grown.length; ++i)
+				grown[i] = new Frame();
+			frames = grown;
+		}
+		return frames[recursionLevel];
+	}
+
+	static class Frame {
+		//the steps of a ray in the iterative evaluation, see Scene.traceIterative
+		static final int INTERSECT = 0, REFLECT = 1, REFRACT = 2, DONE = 3;
+		
+		Ray ray;
+		Vec color;
+		double weight, childScale;
+		int stage;
+		
+		final Hit hit = new Hit();
+		final Point hitPoint = new Point();
+		final Ray rayToLight = new Ray();
+		final Vec intensity = new Vec();
+		final Vec term = new Vec();
+		final Vec viewDirection = new Vec();
+		final Vec lightReflection = new Vec();
+
+		final Point secondarySource = new Point();
+		final Vec secondaryDirection = new Vec();
+		final Ray secondaryRay = new Ray();
+		final Vec secondaryColor = new Vec();
+		
+		Frame enter(Ray ray, double weight, Vec color) {
+			this.ray = ray;
+			this.weight = weight;
+			this.color = color;
+			this.stage = INTERSECT;
+			return this;
+		}
+	}
+}
@@ -0,0 +1,515 @@
+package edu.cg.scene.acceleration;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import edu.cg.algebra.BoundingBox;
+import edu.cg.algebra.Hit;
+import edu.cg.algebra.Ops;
+import edu.cg.algebra.Point;
+import edu.cg.algebra.Ray;
+import edu.cg.algebra.Vec;
+import edu.cg.scene.objects.Shape;
+import edu.cg.scene.objects.Surface;
+
+/**
+ * A bounding volume hierarchy over the bounded surfaces of a scene, built with a binned
+ * surface area heuristic. Unbounded surfaces (plains) are kept in a side list and tested separately.
+ *
+ * The nodes are stored in flat arrays: an inner node keeps the index of its left child in
+ * nodeFirst (the right child follows it) and a zero nodeCount, a leaf keeps the range of its
+ * surfaces in nodeFirst and nodeCount.
+ *
+ * Ties between hits at the same distance are broken by the surface's position in the original
+ * list, so the result is identical to testing the surfaces one after the other.
+ *
+ * The traversal methods optionally count the intersection tests and hits by shape type
+ * into an array of 2 * shapeTypeCount() longs: the tests of type i at 2i and its hits at 2i + 1.
+ *
+ * Subclasses keep this traversal and change how the surfaces of a leaf are tested, by overriding
+ * intersect and occludes, which get the ray's source and direction unpacked.
+ */
+public class BVH {
+	private static final int BINS = 16;
+	private static final int MAX_LEAF_SIZE = 2;
+	private static final double TRAVERSAL_COST = 1.0;
+	private static final double INTERSECTION_COST = 1.0;
+	//bounds are grown a little so that hits reported on the boundary of a shape are never culled
+	private static final double BOUNDS_MARGIN = Ops.epsilon;
+
+	//the arrays are shared with PacketTraversal
+	final Surface[] surfaces;
+	final int[] surfaceOrder;
+	final Surface[] unbounded;
+	final int[] unboundedOrder;
+	private final List<Class<? extends Shape>> shapeTypes = new ArrayList<>();
+	final int[] surfaceTypes;
+	final int[] unboundedTypes;
+
+	//null in a FloatBVH, which keeps the bounds in floats; shared with PackedBVH and PacketTraversal
+	double[] nodeBounds;
+	final int[] nodeFirst;
+	final int[] nodeCount;
+	int nodesUsed = 0;
+	private int depth = 0;
+
+	//build time data
+	private BoundingBox[] primitiveBounds;
+	private double[] centroids;
+
+	public BVH(List<Surface> sceneSurfaces) {
+		List<Surface> bounded = new ArrayList<>();
+		List<Integer> boundedOrder = new ArrayList<>();
+		List<Surface> others = new ArrayList<>();
+		List<Integer> othersOrder = new ArrayList<>();
+		int idx = 0;
+		for(Surface surface : sceneSurfaces) {
+			if(surface.boundingBox() != null) {
+				bounded.add(surface);
+				boundedOrder.add(idx);
+			} else {
+				others.add(surface);
+				othersOrder.add(idx);
+			}
+			++idx;
+		}
+
+		int n = bounded.size();
+		surfaces = bounded.toArray(new Surface[n]);
+		surfaceOrder = toArray(boundedOrder);
+		unbounded = others.toArray(new Surface[others.size()]);
+		unboundedOrder = toArray(othersOrder);
+		surfaceTypes = new int[n];
+		for(int i = 0; i < n; ++i)
+			surfaceTypes[i] = shapeType(surfaces[i]);
+		unboundedTypes = new int[unbounded.length];
+		for(int i = 0; i < unbounded.length; ++i)
+			unboundedTypes[i] = shapeType(unbounded[i]);
+
+		int maxNodes = Math.max(1, 2 * n - 1);
+		nodeBounds = new double[6 * maxNodes];
+		nodeFirst = new int[maxNodes];
+		nodeCount = new int[maxNodes];
+
+		if(n > 0) {
+			primitiveBounds = new BoundingBox[n];
+			centroids = new double[3 * n];
+			for(int i = 0; i < n; ++i) {
+				BoundingBox box = surfaces[i].boundingBox().expand(BOUNDS_MARGIN);
+				primitiveBounds[i] = box;
+				centroids[3*i] = (box.minX + box.maxX) / 2.0;
+				centroids[3*i + 1] = (box.minY + box.maxY) / 2.0;
+				centroids[3*i + 2] = (box.minZ + box.maxZ) / 2.0;
+			}
+			build(allocateNode(), 0, n, 1);
+			primitiveBounds = null;
+			centroids = null;
+		}
+	}
+
+	private static int[] toArray(List<Integer> list) {
+		int[] arr = new int[list.size()];
+		for(int i = 0; i < arr.length; ++i)
+			arr[i] = list.get(i);
+		return arr;
+	}
+
+	private int shapeType(Surface surface) {
+		Class<? extends Shape> type = surface.shape().getClass();
+		int index = shapeTypes.indexOf(type);
+		if(index < 0) {
+			index = shapeTypes.size();
+			shapeTypes.add(type);
+		}
+		return index;
+	}
+	
+	public int shapeTypeCount() {
+		return shapeTypes.size();
+	}
+	
+	public String shapeTypeName(int type) {
+		return shapeTypes.get(type).getSimpleName();
+	}
+	
+	public int boundedCount() {
+		return surfaces.length;
+	}
+
+	public int unboundedCount() {
+		return unbounded.length;
+	}
+
+	public int nodeCount() {
+		return nodesUsed;
+	}
+
+	public int depth() {
+		return depth;
+	}
+
+	//MARK: construction
+	private int allocateNode() {
+		return nodesUsed++;
+	}
+
+	private void build(int node, int start, int end, int level) {
+		depth = Math.max(depth, level);
+		BoundingBox bounds = primitiveBounds[start];
+		double cMinX = centroids[3*start], cMinY = centroids[3*start + 1], cMinZ = centroids[3*start + 2];
+		double cMaxX = cMinX, cMaxY = cMinY, cMaxZ = cMinZ;
+		for(int i = start + 1; i < end; ++i) {
+			bounds = bounds.union(primitiveBounds[i]);
+			cMinX = Math.min(cMinX, centroids[3*i]);
+			cMinY = Math.min(cMinY, centroids[3*i + 1]);
+			cMinZ = Math.min(cMinZ, centroids[3*i + 2]);
+			cMaxX = Math.max(cMaxX, centroids[3*i]);
+			cMaxY = Math.max(cMaxY, centroids[3*i + 1]);
+			cMaxZ = Math.max(cMaxZ, centroids[3*i + 2]);
+		}
+		setBounds(node, bounds);
+
+		int count = end - start;
+		if(count <= MAX_LEAF_SIZE) {
+			makeLeaf(node, start, count);
+			return;
+		}
+
+		//find the cheapest binned split over all three axes
+		double[] cMin = {cMinX, cMinY, cMinZ};
+		double[] cMax = {cMaxX, cMaxY, cMaxZ};
+		int bestAxis = -1, bestSplit = -1;
+		double bestCost = INTERSECTION_COST * count;
+		double parentArea = bounds.surfaceArea();
+		for(int axis = 0; axis < 3; ++axis) {
+			double extent = cMax[axis] - cMin[axis];
+			if(extent <= 0)
+				continue;
+			int[] binCount = new int[BINS];
+			BoundingBox[] binBounds = new BoundingBox[BINS];
+			for(int i = start; i < end; ++i) {
+				int b = bin(centroids[3*i + axis], cMin[axis], extent);
+				binCount[b]++;
+				binBounds[b] = binBounds[b] == null ? primitiveBounds[i] : binBounds[b].union(primitiveBounds[i]);
+			}
+
+			//sweep from the right to get the area and count of every right side
+			double[] rightArea = new double[BINS];
+			int[] rightCount = new int[BINS];
+			BoundingBox acc = null;
+			int accCount = 0;
+			for(int b = BINS - 1; b > 0; --b) {
+				if(binBounds[b] != null)
+					acc = acc == null ? binBounds[b] : acc.union(binBounds[b]);
+				accCount += binCount[b];
+				rightArea[b] = acc == null ? 0 : acc.surfaceArea();
+				rightCount[b] = accCount;
+			}
+
+			acc = null;
+			accCount = 0;
+			for(int b = 0; b < BINS - 1; ++b) {
+				if(binBounds[b] != null)
+					acc = acc == null ? binBounds[b] : acc.union(binBounds[b]);
+				accCount += binCount[b];
+				if(accCount == 0 || rightCount[b + 1] == 0)
+					continue;
+				double cost = TRAVERSAL_COST + INTERSECTION_COST *
+						(acc.surfaceArea() * accCount + rightArea[b + 1] * rightCount[b + 1]) / parentArea;
+				if(cost < bestCost) {
+					bestCost = cost;
+					bestAxis = axis;
+					bestSplit = b;
+				}
+			}
+		}
+
+		if(bestAxis < 0) {
+			makeLeaf(node, start, count);
+			return;
+		}
+
+		//partition the range in place by the chosen bin
+		double extent = cMax[bestAxis] - cMin[bestAxis];
+		int i = start, j = end - 1;
+		while(i <= j) {
+			if(bin(centroids[3*i + bestAxis], cMin[bestAxis], extent) <= bestSplit)
+				++i;
+			else
+				swap(i, j--);
+		}
+
+		int left = allocateNode();
+		allocateNode();
+		nodeFirst[node] = left;
+		nodeCount[node] = 0;
+		build(left, start, i, level + 1);
+		build(left + 1, i, end, level + 1);
+	}
+
+	private static int bin(double centroid, double min, double extent) {
+		int b = (int)(BINS * (centroid - min) / extent);
+		return b < 0 ? 0 : (b >= BINS ? BINS - 1 : b);
+	}
+
+	private void swap(int i, int j) {
+		Surface surface = surfaces[i];
+		surfaces[i] = surfaces[j];
+		surfaces[j] = surface;
+		int order = surfaceOrder[i];
+		surfaceOrder[i] = surfaceOrder[j];
+		surfaceOrder[j] = order;
+		int type = surfaceTypes[i];
+		surfaceTypes[i] = surfaceTypes[j];
+		surfaceTypes[j] = type;
+		BoundingBox box = primitiveBounds[i];
+		primitiveBounds[i] = primitiveBounds[j];
+		primitiveBounds[j] = box;
+		for(int k = 0; k < 3; ++k) {
+			double c = centroids[3*i + k];
+			centroids[3*i + k] = centroids[3*j + k];
+			centroids[3*j + k] = c;
+		}
+	}
+
+	private void makeLeaf(int node, int start, int count) {
+		nodeFirst[node] = start;
+		nodeCount[node] = count;
+	}
+
+	private void setBounds(int node, BoundingBox box) {
+		int b = 6 * node;
+		nodeBounds[b] = box.minX;
+		nodeBounds[b + 1] = box.minY;
+		nodeBounds[b + 2] = box.minZ;
+		nodeBounds[b + 3] = box.maxX;
+		nodeBounds[b + 4] = box.maxY;
+		nodeBounds[b + 5] = box.maxZ;
+	}
+
+	//MARK: traversal
+	/**
+	 * Returns a traversal stack deep enough for this hierarchy. Each rendering thread should keep its own.
+	 */
+	public int[] newStack() {
+		return new int[depth + 1];
+	}
+
+	/**
+	 * Finds the closest surface hit by the ray.
+	 * @param ray the specified ray
+	 * @return the closest hit, or null if the ray hits nothing.
+	 */
+	public Hit closestHit(Ray ray) {
+		Hit hit = new Hit();
+		return closestHit(ray, hit, new Hit(), newStack()) ? hit : null;
+	}
+
+	/**
+	 * Finds the closest surface hit by the ray without allocating.
+	 * @param ray the specified ray
+	 * @param result the hit to fill with the closest hit
+	 * @param candidate a scratch hit used while testing the surfaces
+	 * @param stack a traversal stack from newStack()
+	 * @return true if the ray hits some surface.
+	 */
+	public boolean closestHit(Ray ray, Hit result, Hit candidate, int[] stack) {
+		return closestHit(ray, result, candidate, stack, null);
+	}
+
+	/**
+	 * Same as closestHit(ray, result, candidate, stack), counting the intersection tests and hits
+	 * by shape type into the given counters, if they are not null.
+	 */
+	public boolean closestHit(Ray ray, Hit result, Hit candidate, int[] stack, long[] shapeCounters) {
+		Point source = ray.source();
+		Vec direction = ray.direction();
+		double ox = source.x, oy = source.y, oz = source.z;
+		double dx = direction.x, dy = direction.y, dz = direction.z;
+		boolean found = false;
+		double closestT = Ops.infinity;
+		int closestOrder = Integer.MAX_VALUE;
+
+		for(int i = 0; i < unbounded.length; ++i) {
+			boolean hit = intersect(false, i, ray, ox, oy, oz, dx, dy, dz, candidate);
+			if(shapeCounters != null)
+				count(shapeCounters, unboundedTypes[i], hit);
+			if(hit && isCloser(candidate.t(), unboundedOrder[i], closestT, closestOrder)) {
+				result.set(candidate);
+				found = true;
+				closestT = candidate.t();
+				closestOrder = unboundedOrder[i];
+			}
+		}
+
+		if(nodesUsed == 0)
+			return found;
+
+		if(entryDistance(0, ox, oy, oz, dx, dy, dz, closestT) == Double.POSITIVE_INFINITY)
+			return found;
+
+		int top = 0;
+		stack[top++] = 0;
+		while(top > 0) {
+			int node = stack[--top];
+			int count = nodeCount[node];
+			if(count > 0) {
+				int first = nodeFirst[node];
+				for(int i = first; i < first + count; ++i) {
+					boolean hit = intersect(true, i, ray, ox, oy, oz, dx, dy, dz, candidate);
+					if(shapeCounters != null)
+						count(shapeCounters, surfaceTypes[i], hit);
+					if(hit && isCloser(candidate.t(), surfaceOrder[i], closestT, closestOrder)) {
+						result.set(candidate);
+						found = true;
+						closestT = candidate.t();
+						closestOrder = surfaceOrder[i];
+					}
+				}
+				continue;
+			}
+
+			int left = nodeFirst[node], right = left + 1;
+			double tLeft = entryDistance(left, ox, oy, oz, dx, dy, dz, closestT);
+			double tRight = entryDistance(right, ox, oy, oz, dx, dy, dz, closestT);
+			//push the farther child first so that the nearer one is visited first
+			int near = tLeft <= tRight ? left : right;
+			int far = tLeft <= tRight ? right : left;
+			if(Math.max(tLeft, tRight) != Double.POSITIVE_INFINITY)
+				stack[top++] = far;
+			if(Math.min(tLeft, tRight) != Double.POSITIVE_INFINITY)
+				stack[top++] = near;
+		}
+		return found;
+	}
+
+	/**
+	 * Checks if any surface is hit by the ray closer than the given distance.
+	 * Returns as soon as the first blocker is found, without constructing a hit.
+	 * @param ray the specified ray
+	 * @param maxT the distance along the ray beyond which hits are ignored
+	 * @return true if some surface occludes the ray before maxT.
+	 */
+	public boolean occludes(Ray ray, double maxT) {
+		return occludes(ray, maxT, newStack());
+	}
+
+	/**
+	 * Same as occludes(ray, maxT), using the given traversal stack from newStack().
+	 */
+	public boolean occludes(Ray ray, double maxT, int[] stack) {
+		return occludes(ray, maxT, stack, null);
+	}
+
+	/**
+	 * Same as occludes(ray, maxT, stack), counting the occlusion tests and hits
+	 * by shape type into the given counters, if they are not null.
+	 */
+	public boolean occludes(Ray ray, double maxT, int[] stack, long[] shapeCounters) {
+		Point source = ray.source();
+		Vec direction = ray.direction();
+		double ox = source.x, oy = source.y, oz = source.z;
+		double dx = direction.x, dy = direction.y, dz = direction.z;
+
+		for(int i = 0; i < unbounded.length; ++i) {
+			boolean hit = occludes(false, i, ray, maxT, ox, oy, oz, dx, dy, dz);
+			if(shapeCounters != null)
+				count(shapeCounters, unboundedTypes[i], hit);
+			if(hit)
+				return true;
+		}
+
+		if(nodesUsed == 0)
+			return false;
+
+		int top = 0;
+		stack[top++] = 0;
+		while(top > 0) {
+			int node = stack[--top];
+			if(entryDistance(node, ox, oy, oz, dx, dy, dz, maxT) == Double.POSITIVE_INFINITY)
+				continue;
+			int count = nodeCount[node];
+			if(count > 0) {
+				int first = nodeFirst[node];
+				for(int i = first; i < first + count; ++i) {
+					boolean hit = occludes(true, i, ray, maxT, ox, oy, oz, dx, dy, dz);
+					if(shapeCounters != null)
+						count(shapeCounters, surfaceTypes[i], hit);
+					if(hit)
+						return true;
+				}
+				continue;
+			}
+			stack[top++] = nodeFirst[node] + 1;
+			stack[top++] = nodeFirst[node];
+		}
+		return false;
+	}
+
+	/**
+	 * Intersects the ray with a surface of a leaf, or with an unbounded surface.
+	 * @param bounded - whether the surface is surfaces[i], or unbounded[i].
+	 * @param ox, oy, oz, dx, dy, dz - the ray's source and direction.
+	 * @return true if the ray hits the surface, whose hit is then in the given one.
+	 */
+	protected boolean intersect(boolean bounded, int i, Ray ray, double ox, double oy, double oz,
+			double dx, double dy, double dz, Hit hit) {
+		return (bounded ? surfaces[i] : unbounded[i]).intersect(ray, hit);
+	}
+
+	/**
+	 * Checks if a surface of a leaf, or an unbounded surface, is hit by the ray closer than maxT.
+	 * @param bounded - whether the surface is surfaces[i], or unbounded[i].
+	 */
+	protected boolean occludes(boolean bounded, int i, Ray ray, double maxT, double ox, double oy, double oz,
+			double dx, double dy, double dz) {
+		return (bounded ? surfaces[i] : unbounded[i]).occludes(ray, maxT);
+	}
+
+	static void count(long[] shapeCounters, int type, boolean hit) {
+		shapeCounters[2 * type]++;
+		if(hit)
+			shapeCounters[2 * type + 1]++;
+	}
+
+	static boolean isCloser(double t, int order, double closestT, int closestOrder) {
+		return t < closestT || (t == closestT && order < closestOrder);
+	}
+
+	/**
+	 * Returns the distance along the ray at which it enters the node's bounds, or positive
+	 * infinity if the ray misses the node or enters it after maxT.
+	 */
+	double entryDistance(int node, double ox, double oy, double oz,
+			double dx, double dy, double dz, double maxT) {
+		int b = 6 * node;
+		double tNear = Double.NEGATIVE_INFINITY;
+		double tFar = Double.POSITIVE_INFINITY;
+
+		//x slab
+		if(Math.abs(dx) > Ops.epsilon || ox < nodeBounds[b] || ox > nodeBounds[b + 3]) {
+			double t0 = (nodeBounds[b] - ox) / dx, t1 = (nodeBounds[b + 3] - ox) / dx;
+			if(t0 > t1) { double tmp = t0; t0 = t1; t1 = tmp; }
+			if(t0 > tNear) tNear = t0;
+			if(t1 < tFar) tFar = t1;
+		}
+		//y slab
+		if(Math.abs(dy) > Ops.epsilon || oy < nodeBounds[b + 1] || oy > nodeBounds[b + 4]) {
+			double t0 = (nodeBounds[b + 1] - oy) / dy, t1 = (nodeBounds[b + 4] - oy) / dy;
+			if(t0 > t1) { double tmp = t0; t0 = t1; t1 = tmp; }
+			if(t0 > tNear) tNear = t0;
+			if(t1 < tFar) tFar = t1;
+		}
+		//z slab
+		if(Math.abs(dz) > Ops.epsilon || oz < nodeBounds[b + 2] || oz > nodeBounds[b + 5]) {
+			double t0 = (nodeBounds[b + 2] - oz) / dz, t1 = (nodeBounds[b + 5] - oz) / dz;
+			if(t0 > t1) { double tmp = t0; t0 = t1; t1 = tmp; }
+			if(t0 > tNear) tNear = t0;
+			if(t1 < tFar) tFar = t1;
+		}
+
+		if(tNear > tFar || tFar < 0 || tNear > maxT)
+			return Double.POSITIVE_INFINITY;
+		return tNear;
+	}
+}
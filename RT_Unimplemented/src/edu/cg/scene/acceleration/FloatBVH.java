@@ -0,0 +1,324 @@
+package edu.cg.scene.acceleration;
+
+import java.util.List;
+
+import edu.cg.algebra.Hit;
+import edu.cg.algebra.Ops;
+import edu.cg.algebra.Point;
+import edu.cg.algebra.Ray;
+import edu.cg.algebra.Vec;
+import edu.cg.scene.objects.AxisAlignedBox;
+import edu.cg.scene.objects.Plain;
+import edu.cg.scene.objects.Shape;
+import edu.cg.scene.objects.Sphere;
+import edu.cg.scene.objects.Surface;
+
+/**
+ * A BVH that is traversed in single precision. The node bounds are kept in floats, rounded outwards, and the
+ * spheres, boxes and plains are packed in a float array in the order of the leaves, so a traversal reads 24 bytes
+ * per node and 16 to 28 bytes per shape instead of following the shapes' objects. Those three shapes are intersected
+ * with float kernels; other shapes (groups, instances and meshes) are intersected by their own double precision code.
+ * The traversal is BVH's: only the entry distance of a node and the tests of the surfaces of a leaf are in floats.
+ *
+ * Single precision needs margins relative to the magnitude of the coordinates instead of Ops.epsilon
+ * (see Ops.floatEpsilon): hits closer than that to the ray's source are ignored by the float kernels.
+ * The hits are the ones of the double precision shapes up to rounding, except on the edges of boxes,
+ * whose normal is the one of the nearest face instead of a fixed order of the faces.
+ */
+public class FloatBVH extends BVH {
+	private static final byte OTHER = 0;
+	private static final byte SPHERE = 1;
+	private static final byte BOX = 2;
+	private static final byte PLAIN = 3;
+	private static final float INFINITY = (float)Ops.infinity;
+	private static final float DIRECTION_EPSILON = (float)Ops.epsilon;
+
+	private final float[] bounds;
+	//the kind of every bounded and unbounded surface, and the offset of its parameters in shapeData
+	private final byte[] kinds;
+	private final int[] offsets;
+	private final byte[] unboundedKinds;
+	private final int[] unboundedOffsets;
+	private final float[] shapeData;
+
+	public FloatBVH(List<Surface> sceneSurfaces) {
+		super(sceneSurfaces);
+		bounds = new float[6 * nodesUsed];
+		for(int i = 0; i < bounds.length; i += 6) {
+			for(int axis = 0; axis < 3; ++axis) {
+				bounds[i + axis] = roundDown(nodeBounds[i + axis]);
+				bounds[i + 3 + axis] = roundUp(nodeBounds[i + 3 + axis]);
+			}
+		}
+		nodeBounds = null;
+
+		kinds = new byte[surfaces.length];
+		offsets = new int[surfaces.length];
+		unboundedKinds = new byte[unbounded.length];
+		unboundedOffsets = new int[unbounded.length];
+		int size = 0;
+		for(Surface surface : surfaces)
+			size += parameterCount(surface.shape());
+		for(Surface surface : unbounded)
+			size += parameterCount(surface.shape());
+		shapeData = new float[size];
+		int offset = 0;
+		for(int i = 0; i < surfaces.length; ++i) {
+			offsets[i] = offset;
+			kinds[i] = pack(surfaces[i].shape(), offset);
+			offset += parameterCount(surfaces[i].shape());
+		}
+		for(int i = 0; i < unbounded.length; ++i) {
+			unboundedOffsets[i] = offset;
+			unboundedKinds[i] = pack(unbounded[i].shape(), offset);
+			offset += parameterCount(unbounded[i].shape());
+		}
+	}
+
+	/**
+	 * Checks whether the shape is intersected with the float kernels, and so with the margins of Ops.floatEpsilon.
+	 * Other shapes keep the margins of double precision.
+	 */
+	public static boolean intersectsInFloat(Shape shape) {
+		return parameterCount(shape) > 0;
+	}
+
+	private static int parameterCount(Shape shape) {
+		if(shape instanceof Sphere)
+			return 4;
+		if(shape instanceof AxisAlignedBox)
+			return 6;
+		if(shape instanceof Plain)
+			return 4;
+		return 0;
+	}
+
+	private byte pack(Shape shape, int offset) {
+		if(shape instanceof Sphere) {
+			Sphere sphere = (Sphere)shape;
+			Point center = sphere.getCenter();
+			put(offset, center.x, center.y, center.z, sphere.getRadius());
+			return SPHERE;
+		}
+		if(shape instanceof AxisAlignedBox) {
+			Point min = ((AxisAlignedBox)shape).getMinPoint(), max = ((AxisAlignedBox)shape).getMaxPoint();
+			put(offset, min.x, min.y, min.z, max.x, max.y, max.z);
+			return BOX;
+		}
+		if(shape instanceof Plain) {
+			//the unit normal and the signed distance of the origin, so the plain's equation gives distances
+			Plain plain = (Plain)shape;
+			double length = Math.sqrt(plain.getA() * plain.getA() + plain.getB() * plain.getB() + plain.getC() * plain.getC());
+			put(offset, plain.getA() / length, plain.getB() / length, plain.getC() / length, plain.getD() / length);
+			return PLAIN;
+		}
+		return OTHER;
+	}
+
+	private void put(int offset, double... values) {
+		for(int i = 0; i < values.length; ++i)
+			shapeData[offset + i] = (float)values[i];
+	}
+
+	private static float roundDown(double value) {
+		float f = (float)value;
+		return f > value ? Math.nextDown(f) : f;
+	}
+
+	private static float roundUp(double value) {
+		float f = (float)value;
+		return f < value ? Math.nextUp(f) : f;
+	}
+
+	/**
+	 * The bytes of the float node bounds and packed shapes.
+	 */
+	public long bytes() {
+		return 4L * (bounds.length + shapeData.length + offsets.length + unboundedOffsets.length) +
+				kinds.length + unboundedKinds.length;
+	}
+
+	//MARK: traversal
+	@Override
+	double entryDistance(int node, double ox, double oy, double oz, double dx, double dy, double dz, double maxT) {
+		return entryDistance(node, (float)ox, (float)oy, (float)oz, inverse((float)dx), inverse((float)dy), inverse((float)dz),
+				(float)Math.min(maxT, Float.MAX_VALUE));
+	}
+
+	private static float inverse(float d) {
+		return d == 0 ? Float.MAX_VALUE : 1.0f / d;
+	}
+
+	/**
+	 * Returns the distance along the ray at which it enters the node's bounds, or positive
+	 * infinity if the ray misses the node or enters it after maxT.
+	 */
+	private float entryDistance(int node, float ox, float oy, float oz, float ix, float iy, float iz, float maxT) {
+		int b = 6 * node;
+		float tx0 = (bounds[b] - ox) * ix, tx1 = (bounds[b + 3] - ox) * ix;
+		float ty0 = (bounds[b + 1] - oy) * iy, ty1 = (bounds[b + 4] - oy) * iy;
+		float tz0 = (bounds[b + 2] - oz) * iz, tz1 = (bounds[b + 5] - oz) * iz;
+		float tNear = Math.max(Math.max(Math.min(tx0, tx1), Math.min(ty0, ty1)), Math.min(tz0, tz1));
+		float tFar = Math.min(Math.min(Math.max(tx0, tx1), Math.max(ty0, ty1)), Math.max(tz0, tz1));
+		if(tNear > tFar || tFar < 0 || tNear > maxT)
+			return Float.POSITIVE_INFINITY;
+		return tNear;
+	}
+
+	//MARK: shapes
+	@Override
+	protected boolean intersect(boolean bounded, int i, Ray ray, double rayOx, double rayOy, double rayOz,
+			double rayDx, double rayDy, double rayDz, Hit hit) {
+		Surface surface = bounded ? surfaces[i] : unbounded[i];
+		int k = bounded ? offsets[i] : unboundedOffsets[i];
+		float ox = (float)rayOx, oy = (float)rayOy, oz = (float)rayOz;
+		float dx = (float)rayDx, dy = (float)rayDy, dz = (float)rayDz;
+		float tMin = (float)(Ops.floatEpsilon * Ops.floatScale(ray.source()));
+		switch(bounded ? kinds[i] : unboundedKinds[i]) {
+		case SPHERE: {
+			float t = sphereDistance(k, ox, oy, oz, dx, dy, dz, tMin);
+			if(Float.isNaN(t))
+				return false;
+			hit.set(t, ox + t * dx - shapeData[k], oy + t * dy - shapeData[k + 1], oz + t * dz - shapeData[k + 2]);
+			hit.getNormalToSurface().normalizeInPlace();
+			hit.setOutside();
+			break;
+		}
+		case BOX: {
+			float t = boxDistance(k, ox, oy, oz, dx, dy, dz, tMin);
+			if(Float.isNaN(t))
+				return false;
+			boolean isWithin = t < 0;
+			t = Math.abs(t);
+			boxNormal(k, ox + t * dx, oy + t * dy, oz + t * dz, hit.set(t, 0.0, 0.0, 0.0).getNormalToSurface());
+			if(isWithin)
+				hit.getNormalToSurface().negInPlace();
+			hit.setIsWithin(isWithin);
+			break;
+		}
+		case PLAIN: {
+			float t = plainDistance(k, ox, oy, oz, dx, dy, dz);
+			if(!(t > tMin & t < INFINITY))
+				return false;
+			float sign = dx * shapeData[k] + dy * shapeData[k + 1] + dz * shapeData[k + 2] < 0 ? 1 : -1;
+			hit.set(t, sign * shapeData[k], sign * shapeData[k + 1], sign * shapeData[k + 2]);
+			hit.setOutside();
+			break;
+		}
+		default:
+			//the double precision shapes keep their own margin: rejecting their closest hit for a float margin
+			//would lose the farther hits of a group or an instance as well
+			return surface.intersect(ray, hit);
+		}
+		hit.setSurface(surface);
+		return true;
+	}
+
+	@Override
+	protected boolean occludes(boolean bounded, int i, Ray ray, double maxT, double rayOx, double rayOy, double rayOz,
+			double rayDx, double rayDy, double rayDz) {
+		int k = bounded ? offsets[i] : unboundedOffsets[i];
+		float ox = (float)rayOx, oy = (float)rayOy, oz = (float)rayOz;
+		float dx = (float)rayDx, dy = (float)rayDy, dz = (float)rayDz;
+		float tMin = (float)(Ops.floatEpsilon * Ops.floatScale(ray.source()));
+		float tMax = (float)Math.min(maxT, Float.MAX_VALUE);
+		switch(bounded ? kinds[i] : unboundedKinds[i]) {
+		case SPHERE: {
+			float t = sphereDistance(k, ox, oy, oz, dx, dy, dz, tMin);
+			return !Float.isNaN(t) && t < tMax;
+		}
+		case BOX: {
+			float t = boxDistance(k, ox, oy, oz, dx, dy, dz, tMin);
+			return !Float.isNaN(t) && Math.abs(t) < tMax;
+		}
+		case PLAIN: {
+			float t = plainDistance(k, ox, oy, oz, dx, dy, dz);
+			return t > tMin & t < INFINITY & t < tMax;
+		}
+		default:
+			return (bounded ? surfaces[i] : unbounded[i]).occludes(ray, maxT);
+		}
+	}
+
+	/**
+	 * The distance to the far root, if the ray hits the sphere from the outside, like Sphere's.
+	 * The discriminant is computed from the distance between the center and the ray, and the near root from
+	 * the product of the roots, so neither cancels in single precision (Hearn and Baker).
+	 * @return the distance, or NaN if the ray misses the sphere.
+	 */
+	private float sphereDistance(int k, float ox, float oy, float oz, float dx, float dy, float dz, float tMin) {
+		float cx = ox - shapeData[k], cy = oy - shapeData[k + 1], cz = oz - shapeData[k + 2];
+		float r = shapeData[k + 3];
+		float b = dx * cx + dy * cy + dz * cz;
+		float fx = cx - b * dx, fy = cy - b * dy, fz = cz - b * dz;
+		float discriminant = r * r - (fx * fx + fy * fy + fz * fz);
+		if(discriminant < 0)
+			return Float.NaN;
+		float q = -(b + Math.copySign((float)Math.sqrt(discriminant), b));
+		float c = cx * cx + cy * cy + cz * cz - r * r;
+		float t0 = c / q, t1 = q;
+		float near = Math.min(t0, t1), far = Math.max(t0, t1);
+		return near > tMin && far < INFINITY ? far : Float.NaN;
+	}
+
+	/**
+	 * Clips the ray against the slabs of the box, like AxisAlignedBox.
+	 * @return the distance to the entry point if the ray starts outside the box, minus the distance
+	 * to the exit point if it starts within the box, and NaN if the ray misses the box.
+	 */
+	private float boxDistance(int k, float ox, float oy, float oz, float dx, float dy, float dz, float tMin) {
+		float near = 0.0f, far = INFINITY;
+		if(Math.abs(dx) > DIRECTION_EPSILON) {
+			float t0 = (shapeData[k] - ox) / dx, t1 = (shapeData[k + 3] - ox) / dx;
+			near = Math.max(near, Math.min(t0, t1));
+			far = Math.min(far, Math.max(t0, t1));
+		} else if(ox < shapeData[k] || ox > shapeData[k + 3]) {
+			return Float.NaN;
+		}
+		if(Math.abs(dy) > DIRECTION_EPSILON) {
+			float t0 = (shapeData[k + 1] - oy) / dy, t1 = (shapeData[k + 4] - oy) / dy;
+			near = Math.max(near, Math.min(t0, t1));
+			far = Math.min(far, Math.max(t0, t1));
+		} else if(oy < shapeData[k + 1] || oy > shapeData[k + 4]) {
+			return Float.NaN;
+		}
+		if(Math.abs(dz) > DIRECTION_EPSILON) {
+			float t0 = (shapeData[k + 2] - oz) / dz, t1 = (shapeData[k + 5] - oz) / dz;
+			near = Math.max(near, Math.min(t0, t1));
+			far = Math.min(far, Math.max(t0, t1));
+		} else if(oz < shapeData[k + 2] || oz > shapeData[k + 5]) {
+			return Float.NaN;
+		}
+		if(near > far || far < tMin)
+			return Float.NaN;
+		return near < tMin ? -far : near;
+	}
+
+	//the outward normal of the face nearest to the point, relative to the size of the box
+	private void boxNormal(int k, float x, float y, float z, Vec normal) {
+		float nearest = nearestFace(k, 0, x, Float.POSITIVE_INFINITY, normal);
+		nearest = nearestFace(k, 1, y, nearest, normal);
+		nearestFace(k, 2, z, nearest, normal);
+	}
+
+	//sets the normal to the face of the axis if one is nearer than the given distance, and returns the nearest distance
+	private float nearestFace(int k, int axis, float coordinate, float nearest, Vec normal) {
+		float min = shapeData[k + axis], max = shapeData[k + 3 + axis];
+		float size = Math.max(max - min, Float.MIN_NORMAL);
+		float toMin = Math.abs(coordinate - min) / size, toMax = Math.abs(coordinate - max) / size;
+		if(toMin <= nearest) {
+			nearest = toMin;
+			normal.set(axis == 0 ? -1.0 : 0.0, axis == 1 ? -1.0 : 0.0, axis == 2 ? -1.0 : 0.0);
+		}
+		if(toMax <= nearest) {
+			nearest = toMax;
+			normal.set(axis == 0 ? 1.0 : 0.0, axis == 1 ? 1.0 : 0.0, axis == 2 ? 1.0 : 0.0);
+		}
+		return nearest;
+	}
+
+	private float plainDistance(int k, float ox, float oy, float oz, float dx, float dy, float dz) {
+		return -(shapeData[k] * ox + shapeData[k + 1] * oy + shapeData[k + 2] * oz + shapeData[k + 3]) /
+				(shapeData[k] * dx + shapeData[k + 1] * dy + shapeData[k + 2] * dz);
+	}
+}
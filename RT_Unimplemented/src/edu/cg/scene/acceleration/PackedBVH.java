@@ -0,0 +1,266 @@
+package edu.cg.scene.acceleration;
+
+import java.util.List;
+
+import edu.cg.algebra.Hit;
+import edu.cg.algebra.Ops;
+import edu.cg.algebra.Point;
+import edu.cg.algebra.Ray;
+import edu.cg.algebra.Vec;
+import edu.cg.scene.objects.AxisAlignedBox;
+import edu.cg.scene.objects.Plain;
+import edu.cg.scene.objects.Shape;
+import edu.cg.scene.objects.Sphere;
+import edu.cg.scene.objects.Surface;
+
+/**
+ * A BVH whose spheres, boxes and plains are packed into an array of doubles per shape type, in the order of the
+ * leaves, with the constants their intersections derive from their parameters computed once: the squared radius
+ * of every sphere and the unit normal of every plain. A traversal reads the shapes of a leaf from these arrays
+ * instead of following every surface to its shape and its points. Other shapes (groups, instances and meshes)
+ * are intersected by their own code. The traversal is BVH's, only the tests of the surfaces of a leaf differ.
+ *
+ * The kernels do the arithmetic of Sphere, AxisAlignedBox and Plain in the same order, so the hits are identical
+ * to the ones of a BVH. Nothing changes once the BVH is built, so any number of threads traverse it without locks.
+ */
+public class PackedBVH extends BVH {
+	private static final byte OTHER = 0;
+	private static final byte SPHERE = 1;
+	private static final byte BOX = 2;
+	private static final byte PLAIN = 3;
+	//the center and the squared radius
+	private static final int SPHERE_SIZE = 4;
+	//the min and the max point
+	private static final int BOX_SIZE = 6;
+	//a, b, c and d of the plain's equation, and its unit normal
+	private static final int PLAIN_SIZE = 7;
+
+	//the kind of every bounded and unbounded surface, and the offset of its parameters in the array of its kind
+	private final byte[] kinds;
+	private final int[] offsets;
+	private final byte[] unboundedKinds;
+	private final int[] unboundedOffsets;
+	private final double[] spheres;
+	private final double[] boxes;
+	private final double[] plains;
+	private int sphereCount = 0, boxCount = 0, plainCount = 0;
+
+	public PackedBVH(List<Surface> sceneSurfaces) {
+		super(sceneSurfaces);
+		for(Surface surface : surfaces)
+			countKind(surface.shape());
+		for(Surface surface : unbounded)
+			countKind(surface.shape());
+		spheres = new double[SPHERE_SIZE * sphereCount];
+		boxes = new double[BOX_SIZE * boxCount];
+		plains = new double[PLAIN_SIZE * plainCount];
+		sphereCount = boxCount = plainCount = 0;
+
+		kinds = new byte[surfaces.length];
+		offsets = new int[surfaces.length];
+		for(int i = 0; i < surfaces.length; ++i)
+			kinds[i] = pack(surfaces[i].shape(), offsets, i);
+		unboundedKinds = new byte[unbounded.length];
+		unboundedOffsets = new int[unbounded.length];
+		for(int i = 0; i < unbounded.length; ++i)
+			unboundedKinds[i] = pack(unbounded[i].shape(), unboundedOffsets, i);
+	}
+
+	private void countKind(Shape shape) {
+		if(shape instanceof Sphere)
+			++sphereCount;
+		else if(shape instanceof AxisAlignedBox)
+			++boxCount;
+		else if(shape instanceof Plain)
+			++plainCount;
+	}
+
+	private byte pack(Shape shape, int[] offsets, int i) {
+		if(shape instanceof Sphere) {
+			Sphere sphere = (Sphere)shape;
+			Point center = sphere.getCenter();
+			int k = offsets[i] = SPHERE_SIZE * sphereCount++;
+			spheres[k] = center.x;
+			spheres[k + 1] = center.y;
+			spheres[k + 2] = center.z;
+			spheres[k + 3] = sphere.getRadius() * sphere.getRadius();
+			return SPHERE;
+		}
+		if(shape instanceof AxisAlignedBox) {
+			Point min = ((AxisAlignedBox)shape).getMinPoint(), max = ((AxisAlignedBox)shape).getMaxPoint();
+			int k = offsets[i] = BOX_SIZE * boxCount++;
+			boxes[k] = min.x;
+			boxes[k + 1] = min.y;
+			boxes[k + 2] = min.z;
+			boxes[k + 3] = max.x;
+			boxes[k + 4] = max.y;
+			boxes[k + 5] = max.z;
+			return BOX;
+		}
+		if(shape instanceof Plain) {
+			Plain plain = (Plain)shape;
+			Vec normal = plain.normal();
+			int k = offsets[i] = PLAIN_SIZE * plainCount++;
+			plains[k] = plain.getA();
+			plains[k + 1] = plain.getB();
+			plains[k + 2] = plain.getC();
+			plains[k + 3] = plain.getD();
+			plains[k + 4] = normal.x;
+			plains[k + 5] = normal.y;
+			plains[k + 6] = normal.z;
+			return PLAIN;
+		}
+		return OTHER;
+	}
+
+	/**
+	 * The bytes of the packed shapes and of the arrays that find them.
+	 */
+	public long bytes() {
+		return 8L * (spheres.length + boxes.length + plains.length) +
+				5L * (kinds.length + unboundedKinds.length);
+	}
+
+	//MARK: shapes
+	@Override
+	protected boolean intersect(boolean bounded, int i, Ray ray, double ox, double oy, double oz,
+			double dx, double dy, double dz, Hit hit) {
+		Surface surface = bounded ? surfaces[i] : unbounded[i];
+		int k = bounded ? offsets[i] : unboundedOffsets[i];
+		switch(bounded ? kinds[i] : unboundedKinds[i]) {
+		case SPHERE: {
+			double t = sphereDistance(k, ox, oy, oz, dx, dy, dz);
+			if(Double.isNaN(t))
+				return false;
+			hit.set(t, ox + t * dx - spheres[k], oy + t * dy - spheres[k + 1], oz + t * dz - spheres[k + 2]);
+			hit.getNormalToSurface().normalizeInPlace();
+			hit.setOutside();
+			break;
+		}
+		case BOX: {
+			double t = boxDistance(k, ox, oy, oz, dx, dy, dz);
+			if(Double.isNaN(t))
+				return false;
+			boolean isWithin = t < 0;
+			t = Math.abs(t);
+			Vec normal = hit.set(t, 0.0, 0.0, 0.0).getNormalToSurface();
+			boxNormal(k, ox + t * dx, oy + t * dy, oz + t * dz, normal);
+			if(isWithin)
+				normal.negInPlace();
+			hit.setIsWithin(isWithin);
+			break;
+		}
+		case PLAIN: {
+			double t = plainDistance(k, ox, oy, oz, dx, dy, dz);
+			if(!(t > Ops.epsilon & t < Ops.infinity))
+				return false;
+			double nx = plains[k + 4], ny = plains[k + 5], nz = plains[k + 6];
+			if(dx * nx + dy * ny + dz * nz < 0)
+				hit.set(t, nx, ny, nz);
+			else
+				hit.set(t, -nx, -ny, -nz);
+			hit.setOutside();
+			break;
+		}
+		default:
+			return surface.intersect(ray, hit);
+		}
+		hit.setSurface(surface);
+		return true;
+	}
+
+	@Override
+	protected boolean occludes(boolean bounded, int i, Ray ray, double maxT, double ox, double oy, double oz,
+			double dx, double dy, double dz) {
+		int k = bounded ? offsets[i] : unboundedOffsets[i];
+		switch(bounded ? kinds[i] : unboundedKinds[i]) {
+		case SPHERE: {
+			double t = sphereDistance(k, ox, oy, oz, dx, dy, dz);
+			return !Double.isNaN(t) && t < maxT;
+		}
+		case BOX: {
+			double t = boxDistance(k, ox, oy, oz, dx, dy, dz);
+			return !Double.isNaN(t) && Math.abs(t) < maxT;
+		}
+		case PLAIN: {
+			double t = plainDistance(k, ox, oy, oz, dx, dy, dz);
+			return t > Ops.epsilon & t < Ops.infinity & t < maxT;
+		}
+		default:
+			return (bounded ? surfaces[i] : unbounded[i]).occludes(ray, maxT);
+		}
+	}
+
+	/**
+	 * The distance to the far root, if the ray hits the sphere from the outside, as Sphere computes it.
+	 * @return the distance, or NaN if the ray misses the sphere.
+	 */
+	private double sphereDistance(int k, double ox, double oy, double oz, double dx, double dy, double dz) {
+		double cx = ox - spheres[k], cy = oy - spheres[k + 1], cz = oz - spheres[k + 2];
+		double b = 2.0 * dx * cx + 2.0 * dy * cy + 2.0 * dz * cz;
+		double c = cx * cx + cy * cy + cz * cz - spheres[k + 3];
+		double determinant = b * b - 4.0 * c;
+		if(determinant < 0)
+			return Double.NaN;
+		double sqrtDeterminant = Math.sqrt(determinant);
+		double near = (-b - sqrtDeterminant) / 2.0;
+		double far = (-b + sqrtDeterminant) / 2.0;
+		return near > Ops.epsilon && far < Ops.infinity ? far : Double.NaN;
+	}
+
+	/**
+	 * Clips the ray against the slabs of the box, as AxisAlignedBox does.
+	 * @return the distance to the entry point if the ray starts outside the box, minus the distance
+	 * to the exit point if it starts within the box, and NaN if the ray misses the box.
+	 */
+	private double boxDistance(int k, double ox, double oy, double oz, double dx, double dy, double dz) {
+		double tMin = 0.0;
+		double tMax = Ops.infinity;
+		for(int axis = 0; axis < 3; ++axis) {
+			double o = axis == 0 ? ox : axis == 1 ? oy : oz;
+			double d = axis == 0 ? dx : axis == 1 ? dy : dz;
+			double min = boxes[k + axis], max = boxes[k + 3 + axis];
+			if(Math.abs(d) > Ops.epsilon) {
+				double t0 = (min - o) / d;
+				if(Double.isNaN(t0))
+					return Double.NaN;
+				double t1 = (max - o) / d;
+				if(Double.isNaN(t1))
+					return Double.NaN;
+				if(t1 < t0) {
+					double tmp = t1;
+					t1 = t0;
+					t0 = tmp;
+				}
+				tMax = (t1 < tMax) ? t1 : tMax;
+				tMin = (t0 > tMin) ? t0 : tMin;
+				if(tMin > tMax || tMax < Ops.epsilon)
+					return Double.NaN;
+			} else if(o < min || o > max) {
+				return Double.NaN;
+			}
+		}
+		return tMin < Ops.epsilon ? -tMax : tMin;
+	}
+
+	//the normal of the face the point is on, the last one in AxisAlignedBox's order on an edge
+	private void boxNormal(int k, double x, double y, double z, Vec normal) {
+		if(Math.abs(x - boxes[k]) < Ops.epsilon)
+			normal.set(-1.0, 0.0, 0.0);
+		if(Math.abs(x - boxes[k + 3]) < Ops.epsilon)
+			normal.set(1.0, 0.0, 0.0);
+		if(Math.abs(y - boxes[k + 4]) < Ops.epsilon)
+			normal.set(0.0, 1.0, 0.0);
+		if(Math.abs(y - boxes[k + 1]) < Ops.epsilon)
+			normal.set(0.0, -1.0, 0.0);
+		if(Math.abs(z - boxes[k + 5]) < Ops.epsilon)
+			normal.set(0.0, 0.0, 1.0);
+		if(Math.abs(z - boxes[k + 2]) < Ops.epsilon)
+			normal.set(0.0, 0.0, -1.0);
+	}
+
+	private double plainDistance(int k, double ox, double oy, double oz, double dx, double dy, double dz) {
+		double a = plains[k], b = plains[k + 1], c = plains[k + 2];
+		return -(a * ox + b * oy + c * oz + plains[k + 3]) / (dx * a + dy * b + dz * c);
+	}
+}
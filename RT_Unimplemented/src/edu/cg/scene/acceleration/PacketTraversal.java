@@ -0,0 +1,65 @@
+package edu.cg.scene.acceleration;
+
+import edu.cg.algebra.Ray;
+import edu.cg.scene.objects.Surface;
+
+/**
+ * Finds the closest surfaces hit by a packet of rays at once, with one SIMD lane per ray.
+ * The surfaces found are the ones that BVH.closestHit finds for every ray on its own,
+ * so a hit can be completed with Surface.intersect of the surface found.
+ *
+ * The implementation uses the incubating vector API, so it is only available when the JVM runs with
+ * --add-modules jdk.incubator.vector. This class doesn't refer to the vector API itself,
+ * and loads the implementation only after checking that the module is present.
+ */
+public abstract class PacketTraversal {
+	private static final String VECTOR_MODULE = "jdk.incubator.vector";
+	private static final String IMPLEMENTATION = "edu.cg.scene.acceleration.VectorPacketTraversal";
+	
+	/**
+	 * Checks whether the JVM supports the vector API.
+	 */
+	public static boolean isSupported() {
+		return ModuleLayer.boot().findModule(VECTOR_MODULE).isPresent();
+	}
+	
+	/**
+	 * Creates a packet traversal of the given hierarchy.
+	 * @return the traversal, or null if the vector API is not supported, the hardware has no SIMD lanes
+	 * for doubles, some surface has a shape that packets don't support, or the hierarchy is a FloatBVH.
+	 */
+	public static PacketTraversal create(BVH bvh) {
+		if(!isSupported() || bvh.nodeBounds == null)
+			return null;
+		try {
+			PacketTraversal traversal = (PacketTraversal)Class.forName(IMPLEMENTATION)
+					.getDeclaredConstructor(BVH.class).newInstance(bvh);
+			return traversal.packetSize() > 1 ? traversal : null;
+		} catch(ReflectiveOperationException | LinkageError | UnsupportedOperationException e) {
+			return null;
+		}
+	}
+	
+	/**
+	 * The number of rays in a packet: 4 with AVX2, 8 with AVX-512.
+	 */
+	public abstract int packetSize();
+	
+	/**
+	 * Returns scratch space for closestSurfaces. Each rendering thread should keep its own.
+	 */
+	public abstract double[] newScratch();
+	
+	/**
+	 * Finds the closest surface hit by every ray of the packet.
+	 * If the rays go in different directions along some axis the packet is not traced,
+	 * and every ray should be traced on its own.
+	 * @param rays - the rays of the packet. Only the first count rays are traced.
+	 * @param count - the number of rays, at most packetSize().
+	 * @param result - the surface hit by every ray, or null if the ray hits nothing.
+	 * @param scratch - scratch space from newScratch().
+	 * @param stack - a traversal stack from BVH.newStack().
+	 * @return false if the packet diverges and hasn't been traced.
+	 */
+	public abstract boolean closestSurfaces(Ray[] rays, int count, Surface[] result, double[] scratch, int[] stack);
+}
@@ -0,0 +1,496 @@
+package edu.cg.scene.acceleration;
+
+import java.util.Arrays;
+
+import edu.cg.algebra.Hit;
+import edu.cg.algebra.Ops;
+import edu.cg.algebra.Point;
+import edu.cg.algebra.Ray;
+import edu.cg.algebra.Vec;
+
+/**
+ * A bounding volume hierarchy over the triangles of a mesh, built with the same binned surface area
+ * heuristic as BVH and stored like it in flat arrays, with the watertight ray-triangle test of
+ * Woop, Benthin and Wald ("Watertight Ray/Triangle Intersection", 2013): a ray that hits a shared edge
+ * or vertex hits at least one of its triangles, so closed meshes have no cracks.
+ *
+ * The vertices are x, y, z triples and the triangles are triples of vertex indices. The triangles are
+ * reordered in place while the hierarchy is built, so that the triangles of a leaf are consecutive.
+ *
+ * The hit of a triangle has its geometric normal, by the counterclockwise winding of its vertices.
+ * A ray that hits the back of a triangle is within the mesh: the hit is marked so and its normal is flipped
+ * to face the ray, as for the other shapes.
+ */
+public class TriangleBVH {
+	private static final int BINS = 16;
+	private static final int MAX_LEAF_SIZE = 4;
+	//the costs of splitting larger nodes are estimated from an even sample of about this many triangles
+	private static final int BINNING_SAMPLE = 4096;
+	private static final double TRAVERSAL_COST = 1.0;
+	private static final double INTERSECTION_COST = 1.0;
+	//bounds are grown a little so that flat triangles have boxes of some thickness
+	private static final double BOUNDS_MARGIN = Ops.epsilon;
+
+	private final double[] vertices;
+	private final int[] triangles;
+
+	//the bounds are floats rounded outwards, so that the boxes of two sibling nodes take about a cache line,
+	//and every node has its first child or triangle and its count of triangles, zero for inner nodes, side by side
+	private float[] nodeBounds;
+	private int[] nodes;
+	private int nodesUsed = 0;
+	private int depth = 0;
+
+	//build time data: the bounds and centroid of every triangle, and the bins of the three axes
+	//while a node is split, shared by all the nodes
+	private double[] triangleBounds;
+	private double[] centroids;
+	private final int[] binCount = new int[3 * BINS];
+	private final double[] binBounds = new double[6 * 3 * BINS];
+	private final double[] rightArea = new double[BINS];
+	private final int[] rightCount = new int[BINS];
+
+	public TriangleBVH(double[] vertices, int[] triangles) {
+		this.vertices = vertices;
+		this.triangles = triangles;
+		int n = triangles.length / 3;
+		int maxNodes = Math.max(1, 2 * n - 1);
+		nodeBounds = new float[6 * maxNodes];
+		nodes = new int[2 * maxNodes];
+		if(n == 0)
+			return;
+
+		triangleBounds = new double[6 * n];
+		centroids = new double[3 * n];
+		double[] bounds = new double[6], centroidBounds = new double[6];
+		empty(bounds, 0);
+		empty(centroidBounds, 0);
+		for(int i = 0; i < n; ++i) {
+			for(int axis = 0; axis < 3; ++axis) {
+				double a = vertices[3 * triangles[3*i] + axis];
+				double b = vertices[3 * triangles[3*i + 1] + axis];
+				double c = vertices[3 * triangles[3*i + 2] + axis];
+				double min = Math.min(a, Math.min(b, c)) - BOUNDS_MARGIN;
+				double max = Math.max(a, Math.max(b, c)) + BOUNDS_MARGIN;
+				triangleBounds[6*i + axis] = min;
+				triangleBounds[6*i + 3 + axis] = max;
+				centroids[3*i + axis] = (min + max) / 2.0;
+			}
+			growBounds(bounds, 0, triangleBounds, 6 * i);
+			growPoint(centroidBounds, 0, centroids, 3 * i);
+		}
+		build(allocateNode(), 0, n, 1, bounds, centroidBounds);
+		triangleBounds = null;
+		centroids = null;
+		nodeBounds = Arrays.copyOf(nodeBounds, 6 * nodesUsed);
+		nodes = Arrays.copyOf(nodes, 2 * nodesUsed);
+	}
+
+	public int triangleCount() {
+		return triangles.length / 3;
+	}
+
+	public int nodeCount() {
+		return nodesUsed;
+	}
+
+	public int depth() {
+		return depth;
+	}
+
+	/**
+	 * Returns the bounds of all the triangles as min x, y, z and max x, y, z, or null if there are none.
+	 */
+	public double[] bounds() {
+		if(nodesUsed == 0)
+			return null;
+		double[] bounds = new double[6];
+		for(int k = 0; k < 6; ++k)
+			bounds[k] = nodeBounds[k];
+		return bounds;
+	}
+
+	//MARK: construction
+	private int allocateNode() {
+		return nodesUsed++;
+	}
+
+	/**
+	 * Builds the node over the triangles from start to end, whose bounds and bounds of centroids are given.
+	 */
+	private void build(int node, int start, int end, int level, double[] bounds, double[] centroidBounds) {
+		depth = Math.max(depth, level);
+		for(int axis = 0; axis < 3; ++axis) {
+			nodeBounds[6 * node + axis] = roundDown(bounds[axis]);
+			nodeBounds[6 * node + 3 + axis] = roundUp(bounds[3 + axis]);
+		}
+
+		int count = end - start;
+		if(count <= MAX_LEAF_SIZE) {
+			makeLeaf(node, start, count);
+			return;
+		}
+
+		//the triangles are binned by their centroids along all three axes in a single pass,
+		//and large nodes are always split, by the bins of a sample of their triangles
+		//small nodes have fewer bins, as many as their triangles
+		int stride = count > 2 * BINNING_SAMPLE ? count / BINNING_SAMPLE : 1;
+		int bins = Math.min(BINS, count);
+		double[] scale = new double[3];
+		for(int axis = 0; axis < 3; ++axis) {
+			double extent = centroidBounds[3 + axis] - centroidBounds[axis];
+			scale[axis] = extent > 0 ? bins / extent : 0;
+		}
+		Arrays.fill(binCount, 0);
+		for(int b = 0; b < 3 * BINS; ++b)
+			empty(binBounds, 6 * b);
+		for(int i = start; i < end; i += stride) {
+			for(int axis = 0; axis < 3; ++axis) {
+				if(scale[axis] == 0)
+					continue;
+				int b = axis * BINS + bin(centroids[3*i + axis], centroidBounds[axis], scale[axis], bins);
+				binCount[b]++;
+				growBounds(binBounds, 6 * b, triangleBounds, 6 * i);
+			}
+		}
+
+		//find the cheapest split over all three axes
+		int bestAxis = -1, bestSplit = -1;
+		double bestCost = stride == 1 ? INTERSECTION_COST * count : Double.POSITIVE_INFINITY;
+		double parentArea = area(bounds, 0);
+		double[] acc = new double[6];
+		for(int axis = 0; axis < 3; ++axis) {
+			if(scale[axis] == 0)
+				continue;
+			int first = axis * BINS;
+
+			//sweep from the right to get the area and count of every right side
+			empty(acc, 0);
+			int accCount = 0;
+			for(int b = bins - 1; b > 0; --b) {
+				growBounds(acc, 0, binBounds, 6 * (first + b));
+				accCount += binCount[first + b];
+				rightArea[b] = accCount == 0 ? 0 : area(acc, 0);
+				rightCount[b] = accCount;
+			}
+
+			empty(acc, 0);
+			accCount = 0;
+			for(int b = 0; b < bins - 1; ++b) {
+				growBounds(acc, 0, binBounds, 6 * (first + b));
+				accCount += binCount[first + b];
+				if(accCount == 0 || rightCount[b + 1] == 0)
+					continue;
+				double cost = TRAVERSAL_COST + INTERSECTION_COST *
+						(area(acc, 0) * accCount + rightArea[b + 1] * rightCount[b + 1]) / parentArea;
+				if(cost < bestCost) {
+					bestCost = cost;
+					bestAxis = axis;
+					bestSplit = b;
+				}
+			}
+		}
+
+		if(bestAxis < 0) {
+			makeLeaf(node, start, count);
+			return;
+		}
+
+		//partition the range in place by the chosen bin
+		double min = centroidBounds[bestAxis], binScale = scale[bestAxis];
+		int i = start, j = end - 1;
+		while(i <= j) {
+			if(bin(centroids[3*i + bestAxis], min, binScale, bins) <= bestSplit)
+				++i;
+			else
+				swap(i, j--);
+		}
+		//and find the bounds of the children and of their centroids
+		double[] leftBounds = new double[6], leftCentroids = new double[6];
+		double[] rightBounds = new double[6], rightCentroids = new double[6];
+		empty(leftBounds, 0);
+		empty(leftCentroids, 0);
+		empty(rightBounds, 0);
+		empty(rightCentroids, 0);
+		for(int k = start; k < i; ++k) {
+			growBounds(leftBounds, 0, triangleBounds, 6 * k);
+			growPoint(leftCentroids, 0, centroids, 3 * k);
+		}
+		for(int k = i; k < end; ++k) {
+			growBounds(rightBounds, 0, triangleBounds, 6 * k);
+			growPoint(rightCentroids, 0, centroids, 3 * k);
+		}
+
+		int left = allocateNode();
+		allocateNode();
+		nodes[2 * node] = left;
+		nodes[2 * node + 1] = 0;
+		build(left, start, i, level + 1, leftBounds, leftCentroids);
+		build(left + 1, i, end, level + 1, rightBounds, rightCentroids);
+	}
+
+	private static int bin(double centroid, double min, double scale, int bins) {
+		int b = (int)((centroid - min) * scale);
+		return b < 0 ? 0 : (b >= bins ? bins - 1 : b);
+	}
+
+	private static void empty(double[] bounds, int at) {
+		for(int axis = 0; axis < 3; ++axis) {
+			bounds[at + axis] = Double.POSITIVE_INFINITY;
+			bounds[at + 3 + axis] = Double.NEGATIVE_INFINITY;
+		}
+	}
+
+	private static void growBounds(double[] bounds, int at, double[] other, int otherAt) {
+		for(int axis = 0; axis < 3; ++axis) {
+			double min = other[otherAt + axis], max = other[otherAt + 3 + axis];
+			if(min < bounds[at + axis])
+				bounds[at + axis] = min;
+			if(max > bounds[at + 3 + axis])
+				bounds[at + 3 + axis] = max;
+		}
+	}
+
+	private static void growPoint(double[] bounds, int at, double[] points, int pointAt) {
+		for(int axis = 0; axis < 3; ++axis) {
+			double p = points[pointAt + axis];
+			if(p < bounds[at + axis])
+				bounds[at + axis] = p;
+			if(p > bounds[at + 3 + axis])
+				bounds[at + 3 + axis] = p;
+		}
+	}
+
+	private static double area(double[] bounds, int at) {
+		double dx = bounds[at + 3] - bounds[at];
+		double dy = bounds[at + 4] - bounds[at + 1];
+		double dz = bounds[at + 5] - bounds[at + 2];
+		return 2.0 * (dx * dy + dy * dz + dz * dx);
+	}
+
+	private void swap(int i, int j) {
+		for(int k = 0; k < 3; ++k) {
+			int vertex = triangles[3*i + k];
+			triangles[3*i + k] = triangles[3*j + k];
+			triangles[3*j + k] = vertex;
+			double c = centroids[3*i + k];
+			centroids[3*i + k] = centroids[3*j + k];
+			centroids[3*j + k] = c;
+		}
+		for(int k = 0; k < 6; ++k) {
+			double b = triangleBounds[6*i + k];
+			triangleBounds[6*i + k] = triangleBounds[6*j + k];
+			triangleBounds[6*j + k] = b;
+		}
+	}
+
+	private void makeLeaf(int node, int start, int count) {
+		nodes[2 * node] = start;
+		nodes[2 * node + 1] = count;
+	}
+
+	private static float roundDown(double value) {
+		float f = (float)value;
+		return f > value ? Math.nextDown(f) : f;
+	}
+
+	private static float roundUp(double value) {
+		float f = (float)value;
+		return f < value ? Math.nextUp(f) : f;
+	}
+
+	//MARK: traversal
+	/**
+	 * The traversal stack of a rendering thread: the nodes left to visit, and the distances at which the ray enters them.
+	 */
+	public static class Stack {
+		final int[] nodes;
+		final double[] entries;
+
+		Stack(int size) {
+			nodes = new int[size];
+			entries = new double[size];
+		}
+
+		public int size() {
+			return nodes.length;
+		}
+	}
+
+	/**
+	 * Returns a traversal stack deep enough for this hierarchy. Each rendering thread should keep its own.
+	 */
+	public Stack newStack() {
+		return new Stack(depth + 1);
+	}
+
+	/**
+	 * Finds the closest triangle hit by the ray, farther than Ops.epsilon.
+	 * @param ray the specified ray
+	 * @param hit the hit to fill with the distance, the normal and the within flag of the closest hit
+	 * @param stack a traversal stack from newStack()
+	 * @return true if the ray hits some triangle.
+	 */
+	public boolean closestHit(Ray ray, Hit hit, Stack stack) {
+		int closest = closestTriangle(ray, Ops.infinity, stack, hit);
+		if(closest < 0)
+			return false;
+
+		//the normal is computed for the closest triangle only
+		Vec d = ray.direction();
+		int i0 = 3 * triangles[3 * closest], i1 = 3 * triangles[3 * closest + 1], i2 = 3 * triangles[3 * closest + 2];
+		double e1x = vertices[i1] - vertices[i0], e1y = vertices[i1 + 1] - vertices[i0 + 1], e1z = vertices[i1 + 2] - vertices[i0 + 2];
+		double e2x = vertices[i2] - vertices[i0], e2y = vertices[i2 + 1] - vertices[i0 + 1], e2z = vertices[i2 + 2] - vertices[i0 + 2];
+		double nx = e1y * e2z - e1z * e2y, ny = e1z * e2x - e1x * e2z, nz = e1x * e2y - e1y * e2x;
+		double length = Math.sqrt(nx * nx + ny * ny + nz * nz);
+		nx /= length;
+		ny /= length;
+		nz /= length;
+		double t = hit.t();
+		boolean within = nx * d.x + ny * d.y + nz * d.z > 0;
+		if(within)
+			hit.set(t, -nx, -ny, -nz);
+		else
+			hit.set(t, nx, ny, nz);
+		hit.setIsWithin(within);
+		return true;
+	}
+
+	/**
+	 * Checks if any triangle is hit by the ray closer than the given distance.
+	 */
+	public boolean occludes(Ray ray, double maxT, Stack stack) {
+		return closestTriangle(ray, maxT, stack, null) >= 0;
+	}
+
+	/**
+	 * Finds the closest triangle hit by the ray closer than maxT, and sets its distance in the given hit.
+	 * Without a hit, finds any such triangle.
+	 * @return the index of the triangle, or -1 if there is none.
+	 */
+	private int closestTriangle(Ray ray, double maxT, Stack stack, Hit hit) {
+		if(nodesUsed == 0)
+			return -1;
+		Point source = ray.source();
+		Vec direction = ray.direction();
+		double ox = source.x, oy = source.y, oz = source.z;
+		double dx = direction.x, dy = direction.y, dz = direction.z;
+
+		//the watertight test shears the triangles so that the ray runs along +z from the origin:
+		//kz is the dominant axis of the direction, kx and ky the other two
+		double ax = Math.abs(dx), ay = Math.abs(dy), az = Math.abs(dz);
+		int kz = ax > ay ? (ax > az ? 0 : 2) : (ay > az ? 1 : 2);
+		int kx = kz == 2 ? 0 : kz + 1;
+		int ky = kx == 2 ? 0 : kx + 1;
+		double dkx = kx == 0 ? dx : (kx == 1 ? dy : dz);
+		double dky = ky == 0 ? dx : (ky == 1 ? dy : dz);
+		double dkz = kz == 0 ? dx : (kz == 1 ? dy : dz);
+		double okx = kx == 0 ? ox : (kx == 1 ? oy : oz);
+		double oky = ky == 0 ? ox : (ky == 1 ? oy : oz);
+		double okz = kz == 0 ? ox : (kz == 1 ? oy : oz);
+		double sx = dkx / dkz, sy = dky / dkz, sz = 1.0 / dkz;
+
+		//the inverse direction for the box tests, finite along axes the ray is parallel to
+		double ix = inverse(dx), iy = inverse(dy), iz = inverse(dz);
+
+		int closest = -1;
+		double closestT = maxT;
+		double tRoot = entryDistance(0, ox, oy, oz, ix, iy, iz, closestT);
+		if(tRoot == Double.POSITIVE_INFINITY)
+			return -1;
+		int[] nodeStack = stack.nodes;
+		double[] entryStack = stack.entries;
+		int top = 0;
+		nodeStack[top] = 0;
+		entryStack[top++] = tRoot;
+		while(top > 0) {
+			--top;
+			//a node pushed before a closer hit was found may be behind it now
+			if(entryStack[top] > closestT)
+				continue;
+			int node = nodeStack[top];
+			int count = nodes[2 * node + 1];
+			if(count == 0) {
+				//both children are tested here, and the nearer one is visited first
+				int left = nodes[2 * node];
+				double tLeft = entryDistance(left, ox, oy, oz, ix, iy, iz, closestT);
+				double tRight = entryDistance(left + 1, ox, oy, oz, ix, iy, iz, closestT);
+				if(tLeft <= tRight) {
+					if(tRight != Double.POSITIVE_INFINITY) {
+						nodeStack[top] = left + 1;
+						entryStack[top++] = tRight;
+					}
+					if(tLeft != Double.POSITIVE_INFINITY) {
+						nodeStack[top] = left;
+						entryStack[top++] = tLeft;
+					}
+				} else {
+					if(tLeft != Double.POSITIVE_INFINITY) {
+						nodeStack[top] = left;
+						entryStack[top++] = tLeft;
+					}
+					nodeStack[top] = left + 1;
+					entryStack[top++] = tRight;
+				}
+				continue;
+			}
+			int first = nodes[2 * node];
+			for(int i = first; i < first + count; ++i) {
+				int i0 = 3 * triangles[3*i], i1 = 3 * triangles[3*i + 1], i2 = 3 * triangles[3*i + 2];
+				//the vertices relative to the origin, sheared
+				double az0 = vertices[i0 + kz] - okz, bz0 = vertices[i1 + kz] - okz, cz0 = vertices[i2 + kz] - okz;
+				double aX = vertices[i0 + kx] - okx - sx * az0, aY = vertices[i0 + ky] - oky - sy * az0;
+				double bX = vertices[i1 + kx] - okx - sx * bz0, bY = vertices[i1 + ky] - oky - sy * bz0;
+				double cX = vertices[i2 + kx] - okx - sx * cz0, cY = vertices[i2 + ky] - oky - sy * cz0;
+				//scaled barycentric coordinates, all of one sign inside the triangle and zero on its edges
+				double u = cX * bY - cY * bX;
+				double v = aX * cY - aY * cX;
+				double w = bX * aY - bY * aX;
+				if((u < 0 || v < 0 || w < 0) && (u > 0 || v > 0 || w > 0))
+					continue;
+				double det = u + v + w;
+				if(det == 0)
+					continue;
+				double t = (u * az0 + v * bz0 + w * cz0) * sz / det;
+				if(t > Ops.epsilon && t < closestT) {
+					closest = i;
+					closestT = t;
+					if(hit == null)
+						return closest;
+				}
+			}
+		}
+		if(closest >= 0)
+			hit.set(closestT, 0, 0, 0);
+		return closest;
+	}
+
+	private static double inverse(double d) {
+		return d == 0 ? Double.MAX_VALUE : 1.0 / d;
+	}
+
+	/**
+	 * Returns the distance along the ray at which it enters the node's bounds, or positive
+	 * infinity if the ray misses the node or enters it after maxT.
+	 */
+	private double entryDistance(int node, double ox, double oy, double oz,
+			double ix, double iy, double iz, double maxT) {
+		int b = 6 * node;
+		double t0 = (nodeBounds[b] - ox) * ix, t1 = (nodeBounds[b + 3] - ox) * ix;
+		double tNear = t0 < t1 ? t0 : t1, tFar = t0 < t1 ? t1 : t0;
+		t0 = (nodeBounds[b + 1] - oy) * iy;
+		t1 = (nodeBounds[b + 4] - oy) * iy;
+		if(t0 > t1) { double tmp = t0; t0 = t1; t1 = tmp; }
+		if(t0 > tNear) tNear = t0;
+		if(t1 < tFar) tFar = t1;
+		t0 = (nodeBounds[b + 2] - oz) * iz;
+		t1 = (nodeBounds[b + 5] - oz) * iz;
+		if(t0 > t1) { double tmp = t0; t0 = t1; t1 = tmp; }
+		if(t0 > tNear) tNear = t0;
+		if(t1 < tFar) tFar = t1;
+
+		if(tNear > tFar || tFar < 0 || tNear > maxT)
+			return Double.POSITIVE_INFINITY;
+		return tNear;
+	}
+}
@@ -0,0 +1,331 @@
+package edu.cg.scene.acceleration;
+
+import edu.cg.algebra.Ops;
+import edu.cg.algebra.Point;
+import edu.cg.algebra.Ray;
+import edu.cg.scene.objects.AxisAlignedBox;
+import edu.cg.scene.objects.Plain;
+import edu.cg.scene.objects.Shape;
+import edu.cg.scene.objects.Sphere;
+import edu.cg.scene.objects.Surface;
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * PacketTraversal with the vector API, one ray per lane of the preferred double species.
+ * Every kernel repeats the arithmetic of the scalar code of its shape operation by operation,
+ * in the same order and without fused multiply-adds, so it computes the same distances bit by bit,
+ * and the closest hits are chosen with the same tie-breaking as BVH.closestHit.
+ *
+ * Loaded by PacketTraversal.create only, since it needs the jdk.incubator.vector module.
+ */
+class VectorPacketTraversal extends PacketTraversal {
+	private static final VectorSpecies<Double> SPECIES = DoubleVector.SPECIES_PREFERRED;
+	private static final int LANES = SPECIES.length();
+	private static final int SPHERE = 0, BOX = 1, PLAIN = 2;
+	private static final int PARAMETERS = 6;
+	//the offsets of the lanes of the rays and of their closest hits in the scratch array
+	private static final int OX = 0, OY = LANES, OZ = 2 * LANES, DX = 3 * LANES, DY = 4 * LANES, DZ = 5 * LANES;
+	private static final int CLOSEST_T = 6 * LANES, CLOSEST_ORDER = 7 * LANES;
+	//lane masks are kept as 1 or 0 in the scratch array, for the active rays and for the rays that enter the current node
+	private static final int ACTIVE = 8 * LANES, ENTERS = 9 * LANES;
+	private static final int SCRATCH_ARRAYS = 10;
+	//the order of a lane that hasn't hit anything yet, as in BVH.closestHit
+	private static final double NO_ORDER = Integer.MAX_VALUE;
+
+	private final BVH bvh;
+	private final int[] types;
+	private final double[] parameters;
+	private final int[] unboundedTypes;
+	private final double[] unboundedParameters;
+	private final Surface[] surfacesByOrder;
+
+	VectorPacketTraversal(BVH bvh) {
+		this.bvh = bvh;
+		int n = bvh.surfaces.length;
+		int m = bvh.unbounded.length;
+		types = new int[n];
+		parameters = new double[PARAMETERS * n];
+		unboundedTypes = new int[m];
+		unboundedParameters = new double[PARAMETERS * m];
+		surfacesByOrder = new Surface[n + m];
+		for(int i = 0; i < n; ++i) {
+			types[i] = shapeParameters(bvh.surfaces[i].shape(), parameters, PARAMETERS * i);
+			surfacesByOrder[bvh.surfaceOrder[i]] = bvh.surfaces[i];
+		}
+		for(int i = 0; i < m; ++i) {
+			unboundedTypes[i] = shapeParameters(bvh.unbounded[i].shape(), unboundedParameters, PARAMETERS * i);
+			surfacesByOrder[bvh.unboundedOrder[i]] = bvh.unbounded[i];
+		}
+	}
+
+	private static int shapeParameters(Shape shape, double[] parameters, int offset) {
+		if(shape instanceof Sphere) {
+			Sphere sphere = (Sphere)shape;
+			Point center = sphere.getCenter();
+			parameters[offset] = center.x;
+			parameters[offset + 1] = center.y;
+			parameters[offset + 2] = center.z;
+			parameters[offset + 3] = Math.pow(sphere.getRadius(), 2);
+			return SPHERE;
+		}
+		if(shape instanceof AxisAlignedBox) {
+			Point min = ((AxisAlignedBox)shape).getMinPoint();
+			Point max = ((AxisAlignedBox)shape).getMaxPoint();
+			parameters[offset] = min.x;
+			parameters[offset + 1] = min.y;
+			parameters[offset + 2] = min.z;
+			parameters[offset + 3] = max.x;
+			parameters[offset + 4] = max.y;
+			parameters[offset + 5] = max.z;
+			return BOX;
+		}
+		if(shape instanceof Plain) {
+			Plain plain = (Plain)shape;
+			parameters[offset] = plain.getA();
+			parameters[offset + 1] = plain.getB();
+			parameters[offset + 2] = plain.getC();
+			parameters[offset + 3] = plain.getD();
+			return PLAIN;
+		}
+		throw new UnsupportedOperationException("Packets don't support " + shape.getClass().getSimpleName());
+	}
+
+	@Override
+	public int packetSize() {
+		return LANES;
+	}
+
+	@Override
+	public double[] newScratch() {
+		return new double[SCRATCH_ARRAYS * LANES];
+	}
+
+	@Override
+	public boolean closestSurfaces(Ray[] rays, int count, Surface[] result, double[] scratch, int[] stack) {
+		//the missing lanes repeat the first ray, and are masked out
+		for(int i = 0; i < LANES; ++i) {
+			Ray ray = rays[i < count ? i : 0];
+			scratch[OX + i] = ray.source().x;
+			scratch[OY + i] = ray.source().y;
+			scratch[OZ + i] = ray.source().z;
+			scratch[DX + i] = ray.direction().x;
+			scratch[DY + i] = ray.direction().y;
+			scratch[DZ + i] = ray.direction().z;
+			scratch[CLOSEST_T + i] = Ops.infinity;
+			scratch[CLOSEST_ORDER + i] = NO_ORDER;
+			scratch[ACTIVE + i] = i < count ? 1.0 : 0.0;
+		}
+
+		if(diverges(scratch, DX, count) || diverges(scratch, DY, count) || diverges(scratch, DZ, count))
+			return false;
+
+		for(int i = 0; i < unboundedTypes.length; ++i)
+			intersect(unboundedTypes[i], unboundedParameters, PARAMETERS * i, bvh.unboundedOrder[i], scratch, ACTIVE);
+
+		if(bvh.nodesUsed > 0) {
+			//children are visited in the order of their centers along the direction of the first ray
+			double rx = scratch[DX], ry = scratch[DY], rz = scratch[DZ];
+			double[] nodeBounds = bvh.nodeBounds;
+			int top = 0;
+			stack[top++] = 0;
+			while(top > 0) {
+				int node = stack[--top];
+				if(!enters(nodeBounds, 6 * node, scratch))
+					continue;
+
+				int leafSize = bvh.nodeCount[node];
+				if(leafSize > 0) {
+					int first = bvh.nodeFirst[node];
+					for(int i = first; i < first + leafSize; ++i)
+						intersect(types[i], parameters, PARAMETERS * i, bvh.surfaceOrder[i], scratch, ENTERS);
+					continue;
+				}
+
+				int left = bvh.nodeFirst[node], right = left + 1;
+				int l = 6 * left, r = 6 * right;
+				double towardsRight = rx * (nodeBounds[r] + nodeBounds[r + 3] - nodeBounds[l] - nodeBounds[l + 3]) +
+						ry * (nodeBounds[r + 1] + nodeBounds[r + 4] - nodeBounds[l + 1] - nodeBounds[l + 4]) +
+						rz * (nodeBounds[r + 2] + nodeBounds[r + 5] - nodeBounds[l + 2] - nodeBounds[l + 5]);
+				//push the farther child first so that the nearer one is visited first
+				stack[top++] = towardsRight >= 0 ? right : left;
+				stack[top++] = towardsRight >= 0 ? left : right;
+			}
+		}
+
+		for(int i = 0; i < count; ++i) {
+			double order = scratch[CLOSEST_ORDER + i];
+			result[i] = order == NO_ORDER ? null : surfacesByOrder[(int)order];
+		}
+		return true;
+	}
+
+	//checks whether some of the rays go the other way along an axis
+	private static boolean diverges(double[] scratch, int axis, int count) {
+		boolean negative = scratch[axis] < 0;
+		for(int i = 1; i < count; ++i) {
+			if(scratch[axis + i] < 0 != negative)
+				return true;
+		}
+		return false;
+	}
+
+	private static void intersect(int type, double[] p, int o, int order, double[] scratch, int lanes) {
+		switch(type) {
+		case SPHERE:
+			sphere(p, o, order, scratch, lanes);
+			break;
+		case BOX:
+			box(p, o, order, scratch, lanes);
+			break;
+		default:
+			plain(p, o, order, scratch, lanes);
+			break;
+		}
+	}
+
+	/*
+	 * The kernels below load the rays from the scratch array and store the closest hits back into it,
+	 * so vectors never cross a call or a loop iteration and the JIT can keep them in registers.
+	 * Every kernel computes the distance that its shape's intersect reports, and keeps it in the lanes
+	 * where it is closer than the closest hit so far, with the same tie-breaking as BVH.closestHit.
+	 */
+
+	//Sphere.hitDistance
+	private static void sphere(double[] p, int o, int order, double[] scratch, int lanes) {
+		DoubleVector dx = DoubleVector.fromArray(SPECIES, scratch, DX);
+		DoubleVector dy = DoubleVector.fromArray(SPECIES, scratch, DY);
+		DoubleVector dz = DoubleVector.fromArray(SPECIES, scratch, DZ);
+		DoubleVector x = DoubleVector.fromArray(SPECIES, scratch, OX).sub(p[o]);
+		DoubleVector y = DoubleVector.fromArray(SPECIES, scratch, OY).sub(p[o + 1]);
+		DoubleVector z = DoubleVector.fromArray(SPECIES, scratch, OZ).sub(p[o + 2]);
+		DoubleVector b = dx.mul(2.0).mul(x).add(dy.mul(2.0).mul(y)).add(dz.mul(2.0).mul(z));
+		DoubleVector c = x.mul(x).add(y.mul(y)).add(z.mul(z)).sub(p[o + 3]);
+		DoubleVector determinant = b.mul(b).sub(c.mul(4.0));
+		DoubleVector sqrtDeterminant = determinant.sqrt();
+		DoubleVector near = b.neg().sub(sqrtDeterminant).div(2.0);
+		DoubleVector far = b.neg().add(sqrtDeterminant).div(2.0);
+		VectorMask<Double> hit = determinant.lt(0.0).not()
+				.and(near.compare(VectorOperators.GT, Ops.epsilon))
+				.and(far.lt(Ops.infinity));
+		keepCloser(far, hit, order, scratch, lanes);
+	}
+
+	//AxisAlignedBox.hitDistance, made positive as in AxisAlignedBox.intersect
+	private static void box(double[] p, int o, int order, double[] scratch, int lanes) {
+		DoubleVector ox = DoubleVector.fromArray(SPECIES, scratch, OX);
+		DoubleVector oy = DoubleVector.fromArray(SPECIES, scratch, OY);
+		DoubleVector oz = DoubleVector.fromArray(SPECIES, scratch, OZ);
+		DoubleVector dx = DoubleVector.fromArray(SPECIES, scratch, DX);
+		DoubleVector dy = DoubleVector.fromArray(SPECIES, scratch, DY);
+		DoubleVector dz = DoubleVector.fromArray(SPECIES, scratch, DZ);
+
+		//x slab
+		VectorMask<Double> slab = dx.abs().compare(VectorOperators.GT, Ops.epsilon);
+		DoubleVector t0 = ox.neg().add(p[o]).div(dx), t1 = ox.neg().add(p[o + 3]).div(dx);
+		VectorMask<Double> swap = t1.lt(t0);
+		DoubleVector lo = t0.blend(t1, swap), hi = t1.blend(t0, swap);
+		DoubleVector tMax = DoubleVector.broadcast(SPECIES, Ops.infinity).blend(hi, slab.and(hi.lt(Ops.infinity)));
+		DoubleVector tMin = DoubleVector.zero(SPECIES).blend(lo, slab.and(lo.compare(VectorOperators.GT, 0.0)));
+		VectorMask<Double> miss = slab.not().and(ox.lt(p[o]).or(ox.compare(VectorOperators.GT, p[o + 3])));
+		//y slab
+		slab = dy.abs().compare(VectorOperators.GT, Ops.epsilon);
+		t0 = oy.neg().add(p[o + 1]).div(dy);
+		t1 = oy.neg().add(p[o + 4]).div(dy);
+		swap = t1.lt(t0);
+		lo = t0.blend(t1, swap);
+		hi = t1.blend(t0, swap);
+		tMax = tMax.blend(hi, slab.and(hi.lt(tMax)));
+		tMin = tMin.blend(lo, slab.and(lo.compare(VectorOperators.GT, tMin)));
+		miss = miss.or(slab.not().and(oy.lt(p[o + 1]).or(oy.compare(VectorOperators.GT, p[o + 4]))));
+		//z slab
+		slab = dz.abs().compare(VectorOperators.GT, Ops.epsilon);
+		t0 = oz.neg().add(p[o + 2]).div(dz);
+		t1 = oz.neg().add(p[o + 5]).div(dz);
+		swap = t1.lt(t0);
+		lo = t0.blend(t1, swap);
+		hi = t1.blend(t0, swap);
+		tMax = tMax.blend(hi, slab.and(hi.lt(tMax)));
+		tMin = tMin.blend(lo, slab.and(lo.compare(VectorOperators.GT, tMin)));
+		miss = miss.or(slab.not().and(oz.lt(p[o + 2]).or(oz.compare(VectorOperators.GT, p[o + 5]))));
+
+		//tMin and tMax only get closer to each other, so checking once after all the slabs is the same
+		miss = miss.or(tMin.compare(VectorOperators.GT, tMax)).or(tMax.lt(Ops.epsilon));
+		DoubleVector t = tMin.blend(tMax, tMin.lt(Ops.epsilon));
+		keepCloser(t, miss.not(), order, scratch, lanes);
+	}
+
+	//Plain.hitDistance, with the range check of Plain.intersect
+	private static void plain(double[] p, int o, int order, double[] scratch, int lanes) {
+		double a = p[o], b = p[o + 1], c = p[o + 2], d = p[o + 3];
+		DoubleVector numerator = DoubleVector.fromArray(SPECIES, scratch, OX).mul(a)
+				.add(DoubleVector.fromArray(SPECIES, scratch, OY).mul(b))
+				.add(DoubleVector.fromArray(SPECIES, scratch, OZ).mul(c)).add(d);
+		DoubleVector denominator = DoubleVector.fromArray(SPECIES, scratch, DX).mul(a)
+				.add(DoubleVector.fromArray(SPECIES, scratch, DY).mul(b))
+				.add(DoubleVector.fromArray(SPECIES, scratch, DZ).mul(c));
+		DoubleVector t = numerator.neg().div(denominator);
+		VectorMask<Double> hit = t.compare(VectorOperators.GT, Ops.epsilon).and(t.lt(Ops.infinity));
+		keepCloser(t, hit, order, scratch, lanes);
+	}
+
+	private static void keepCloser(DoubleVector t, VectorMask<Double> hit, int order, double[] scratch, int lanes) {
+		DoubleVector closestT = DoubleVector.fromArray(SPECIES, scratch, CLOSEST_T);
+		DoubleVector closestOrder = DoubleVector.fromArray(SPECIES, scratch, CLOSEST_ORDER);
+		VectorMask<Double> closer = t.lt(closestT).or(t.eq(closestT).and(closestOrder.compare(VectorOperators.GT, order)))
+				.and(hit).and(DoubleVector.fromArray(SPECIES, scratch, lanes).compare(VectorOperators.NE, 0.0));
+		closestT.blend(t, closer).intoArray(scratch, CLOSEST_T);
+		closestOrder.blend(order, closer).intoArray(scratch, CLOSEST_ORDER);
+	}
+
+	/*
+	 * The node test of BVH.entryDistance for every active lane, with the closest hits as the maximal distances.
+	 * Stores the lanes that enter the node, and returns whether any of them does.
+	 */
+	private static boolean enters(double[] nodeBounds, int b, double[] scratch) {
+		DoubleVector ox = DoubleVector.fromArray(SPECIES, scratch, OX);
+		DoubleVector oy = DoubleVector.fromArray(SPECIES, scratch, OY);
+		DoubleVector oz = DoubleVector.fromArray(SPECIES, scratch, OZ);
+		DoubleVector dx = DoubleVector.fromArray(SPECIES, scratch, DX);
+		DoubleVector dy = DoubleVector.fromArray(SPECIES, scratch, DY);
+		DoubleVector dz = DoubleVector.fromArray(SPECIES, scratch, DZ);
+
+		//x slab
+		VectorMask<Double> slab = dx.abs().compare(VectorOperators.GT, Ops.epsilon)
+				.or(ox.lt(nodeBounds[b])).or(ox.compare(VectorOperators.GT, nodeBounds[b + 3]));
+		DoubleVector t0 = ox.neg().add(nodeBounds[b]).div(dx), t1 = ox.neg().add(nodeBounds[b + 3]).div(dx);
+		VectorMask<Double> swap = t0.compare(VectorOperators.GT, t1);
+		DoubleVector lo = t0.blend(t1, swap), hi = t1.blend(t0, swap);
+		DoubleVector tNear = DoubleVector.broadcast(SPECIES, Double.NEGATIVE_INFINITY).blend(lo, slab);
+		DoubleVector tFar = DoubleVector.broadcast(SPECIES, Double.POSITIVE_INFINITY).blend(hi, slab);
+		//y slab
+		slab = dy.abs().compare(VectorOperators.GT, Ops.epsilon)
+				.or(oy.lt(nodeBounds[b + 1])).or(oy.compare(VectorOperators.GT, nodeBounds[b + 4]));
+		t0 = oy.neg().add(nodeBounds[b + 1]).div(dy);
+		t1 = oy.neg().add(nodeBounds[b + 4]).div(dy);
+		swap = t0.compare(VectorOperators.GT, t1);
+		lo = t0.blend(t1, swap);
+		hi = t1.blend(t0, swap);
+		tNear = tNear.blend(lo, slab.and(lo.compare(VectorOperators.GT, tNear)));
+		tFar = tFar.blend(hi, slab.and(hi.lt(tFar)));
+		//z slab
+		slab = dz.abs().compare(VectorOperators.GT, Ops.epsilon)
+				.or(oz.lt(nodeBounds[b + 2])).or(oz.compare(VectorOperators.GT, nodeBounds[b + 5]));
+		t0 = oz.neg().add(nodeBounds[b + 2]).div(dz);
+		t1 = oz.neg().add(nodeBounds[b + 5]).div(dz);
+		swap = t0.compare(VectorOperators.GT, t1);
+		lo = t0.blend(t1, swap);
+		hi = t1.blend(t0, swap);
+		tNear = tNear.blend(lo, slab.and(lo.compare(VectorOperators.GT, tNear)));
+		tFar = tFar.blend(hi, slab.and(hi.lt(tFar)));
+
+		DoubleVector maxT = DoubleVector.fromArray(SPECIES, scratch, CLOSEST_T);
+		VectorMask<Double> enter = tNear.compare(VectorOperators.GT, tFar).or(tFar.lt(0.0))
+				.or(tNear.compare(VectorOperators.GT, maxT)).not()
+				.and(DoubleVector.fromArray(SPECIES, scratch, ACTIVE).compare(VectorOperators.NE, 0.0));
+		DoubleVector.zero(SPECIES).blend(1.0, enter).intoArray(scratch, ENTERS);
+		return enter.anyTrue();
+	}
+}
@@ -1,4 +1,6 @@
 package edu.cg.scene.camera;
+import com.google.gson.annotations.SerializedName;
+
 import edu.cg.algebra.Point;
 import edu.cg.algebra.Vec;
 import edu.cg.algebra.Ray;
@@ -13,6 +15,8 @@ public class PinholeCamera {
 	public double resolutionX;
 	public double resolutionY;
 	public double viewPlainWidth;
+	//the scene files store it as centerPoint
+	@SerializedName(value = "imageMiddle", alternate = "centerPoint")
 	public Point imageMiddle;
 
 
@@ -37,6 +41,21 @@ public class PinholeCamera {
 		this.imageMiddle = new Ray(cameraPosition, towardsVec).add(distanceToPlain);
 	}
 
+	/**
+	 * Copies the given camera, with copies of its points and vectors.
+	 */
+	public PinholeCamera(PinholeCamera other) {
+		this.cameraPosition = new Point(other.cameraPosition);
+		this.rightVec = new Vec(other.rightVec);
+		this.towardsVec = new Vec(other.towardsVec);
+		this.upVec = new Vec(other.upVec);
+		this.distanceToPlain = other.distanceToPlain;
+		this.resolutionX = other.resolutionX;
+		this.resolutionY = other.resolutionY;
+		this.viewPlainWidth = other.viewPlainWidth;
+		this.imageMiddle = new Point(other.imageMiddle);
+	}
+
 	/**
 	 * Initializes the resolution and width of the image.
 	 * @param height - the number of pixels in the y direction.
@@ -64,6 +83,35 @@ public class PinholeCamera {
 		return transformedPoint;
 	}
 
+	/**
+	 * Same as transform(x, y), but stores the point in the given one instead of creating a new point.
+	 * @param x - the index of the x direction of the pixel.
+	 * @param y - the index of the y direction of the pixel.
+	 * @param result - the point to store the result in.
+	 * @return result
+	 */
+	public Point transform(int x, int y, Point result) {
+		return planePoint(x - (int)(this.resolutionX/2.0), y - (int)(this.resolutionY/2.0), result);
+	}
+
+	/**
+	 * Transforms a position on the image plain, given in pixels from the middle of the image
+	 * (fractions allowed), to model coordinates.
+	 * @param right - the number of pixels to the right of the middle of the image.
+	 * @param down - the number of pixels below the middle of the image.
+	 * @param result - the point to store the result in.
+	 * @return result
+	 */
+	public Point planePoint(double right, double down, Point result) {
+		double pixelWidth = this.viewPlainWidth / this.resolutionX;
+		double pixelHeight = this.viewPlainWidth / this.resolutionY;
+		double rightFactor = right * pixelWidth;
+		double upFactor = -1.0 * down * pixelHeight;
+		return result.set(imageMiddle.x + rightFactor * rightVec.x + upFactor * upVec.x,
+				imageMiddle.y + rightFactor * rightVec.y + upFactor * upVec.y,
+				imageMiddle.z + rightFactor * rightVec.z + upFactor * upVec.z);
+	}
+
 	/**
 	 * Returns a copy of the camera position
 	 * @return a "new" point representing the camera position.
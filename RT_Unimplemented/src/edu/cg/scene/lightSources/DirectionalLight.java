@@ -3,7 +3,6 @@ package edu.cg.scene.lightSources;
 import edu.cg.algebra.Point;
 import edu.cg.algebra.Ray;
 import edu.cg.algebra.Vec;
-import edu.cg.scene.objects.Surface;
 
 public class DirectionalLight extends Light {
 	private Vec direction = new Vec(0, -1, -1);
@@ -25,38 +24,41 @@ public class DirectionalLight extends Light {
 		return (DirectionalLight)super.initIntensity(intensity);
 	}
 
+	@Override
+	public DirectionalLight snapshot() {
+		return new DirectionalLight().initDirection(new Vec(direction)).initIntensity(new Vec(intensity));
+	}
+
 	/**
 	 * Constructs a ray originated from the given point to the light.
 	 * @param fromPoint - The initial point of the ray
+	 * @param result - The ray to reset
 	 * @return a ray origniated from 'fromPoint' to the light source.
 	 */
-	public  Ray rayToLight(Point fromPoint){
-		return new Ray(fromPoint, this.direction.mult(-1.0));
+	public Ray rayToLight(Point fromPoint, Ray result){
+		result.set(fromPoint, this.direction);
+		result.direction().negInPlace();
+		return result;
 	}
 
 
 	/**
-	 * Checks if the given surface occludes the light-source. The surface occludes the light source
-	 * if the given ray first intersects the surface before reaching the light source.
-	 * @param surface -The given surface
-	 * @param rayToLight - the ray to the light source
-	 * @return true if the ray is occluded by the surface..
+	 * A directional light is infinitely far, so every surface hit on the way occludes it.
+	 * @param fromPoint - The initial point of the shadow ray
+	 * @return positive infinity.
 	 */
-	public boolean isOccludedBy(Surface surface, Ray rayToLight){
-		boolean isOccluded = false;
-		if (surface.intersect(rayToLight) != null) {
-			isOccluded = true;
-		}
-		return isOccluded;
+	public double maxShadowDistance(Point fromPoint) {
+		return Double.POSITIVE_INFINITY;
 	}
 
 	/**
 	 * Returns the light intensity at the specified point.
 	 * @param hittingPoint - The given point
 	 * @param rayToLight - A ray to the light source (this is relevant for point-light and spotlight)
+	 * @param result - The vector to store the intensity in
 	 * @return A vector representing the light intensity (the r,g and b channels).
 	 */
-	public Vec intensity(Point hittingPoint, Ray rayToLight){
-		return this.intensity;
+	public Vec intensity(Point hittingPoint, Ray rayToLight, Vec result){
+		return result.set(this.intensity);
 	}
 }
@@ -19,12 +19,47 @@ public abstract class Light {
 		return this;
 	}
 	
+	/**
+	 * Returns a copy of the light for a render, so that changes to this light while the render runs don't reach it
+	 * (see RenderSnapshot). The values that the light derives from its parameters on every call are computed
+	 * once in the copy.
+	 */
+	public abstract Light snapshot();
+	
 	/**
 	 * Constructs a ray originated from the given point to the light.
 	 * @param fromPoint - The initial point of the ray
 	 * @return a ray origniated from 'fromPoint' to the light source.
 	 */
-	public abstract Ray rayToLight(Point fromPoint);
+	public Ray rayToLight(Point fromPoint) {
+		return rayToLight(fromPoint, new Ray());
+	}
+	
+	/**
+	 * Same as rayToLight(fromPoint), but resets the given ray instead of creating a new one.
+	 * @param fromPoint - The initial point of the ray
+	 * @param result - The ray to reset
+	 * @return result
+	 */
+	public abstract Ray rayToLight(Point fromPoint, Ray result);
+	
+	/**
+	 * Returns the distance from the given point to the light source. Surfaces hit by a ray to the light
+	 * beyond this distance do not occlude it.
+	 * @param fromPoint - The initial point of the shadow ray
+	 * @return the distance to the light source (positive infinity if the light is infinitely far).
+	 */
+	public abstract double maxShadowDistance(Point fromPoint);
+	
+	/**
+	 * Checks if the light emitted by the source can reach the origin of the given ray at all,
+	 * regardless of the surfaces in the scene.
+	 * @param rayToLight - the ray to the light source
+	 * @return true if the light source can illuminate the origin of the ray.
+	 */
+	public boolean reaches(Ray rayToLight) {
+		return true;
+	}
 	
 	/**
 	 * Checks if the given surface occludes the light-source. The surface occludes the light source
@@ -33,7 +68,9 @@ public abstract class Light {
 	 * @param rayToLight - the ray to the light source
 	 * @return true if the ray is occluded by the surface..
 	 */
-	public abstract boolean isOccludedBy(Surface surface, Ray rayToLight);
+	public boolean isOccludedBy(Surface surface, Ray rayToLight) {
+		return !reaches(rayToLight) || surface.occludes(rayToLight, maxShadowDistance(rayToLight.source()));
+	}
 	
 	/**
 	 * Returns the light intensity at the specified point.
@@ -41,5 +78,16 @@ public abstract class Light {
 	 * @param rayToLight - A ray to the light source (this is relevant for point-light and spotlight)
 	 * @return A vector representing the light intensity (the r,g and b channels). 
 	 */
-	public abstract Vec intensity(Point hittingPoint, Ray rayToLight);
+	public Vec intensity(Point hittingPoint, Ray rayToLight) {
+		return intensity(hittingPoint, rayToLight, new Vec());
+	}
+	
+	/**
+	 * Same as intensity(hittingPoint, rayToLight), but stores the intensity in the given vector.
+	 * @param hittingPoint - The given point
+	 * @param rayToLight - A ray to the light source (this is relevant for point-light and spotlight)
+	 * @param result - The vector to store the intensity in
+	 * @return result
+	 */
+	public abstract Vec intensity(Point hittingPoint, Ray rayToLight, Vec result);
 }
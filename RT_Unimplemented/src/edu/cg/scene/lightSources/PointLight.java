@@ -3,8 +3,6 @@ package edu.cg.scene.lightSources;
 import edu.cg.algebra.Point;
 import edu.cg.algebra.Ray;
 import edu.cg.algebra.Vec;
-import edu.cg.algebra.Hit;
-import edu.cg.scene.objects.Surface;
 
 public class PointLight extends Light {
 	protected Point position;
@@ -43,44 +41,55 @@ public class PointLight extends Light {
 		this.kc = kc;
 		return this;
 	}
+	
+	@Override
+	public PointLight snapshot() {
+		return new PointLight().initPosition(new Point(position)).initIntensity(new Vec(intensity))
+				.initDecayFactors(kq, kl, kc);
+	}
+	
+	/**
+	 * Returns the decay factors kq, kl and kc.
+	 */
+	public double[] getDecayFactors() {
+		return new double[] { kq, kl, kc };
+	}
 
 	/**
 	 * Constructs a ray originated from the given point to the light.
 	 * @param fromPoint - The initial point of the ray
+	 * @param result - The ray to reset
 	 * @return a ray origniated from 'fromPoint' to the light source.
 	 */
-	public Ray rayToLight(Point fromPoint) {
-		return new Ray(fromPoint, this.position);
+	public Ray rayToLight(Point fromPoint, Ray result) {
+		return result.setThrough(fromPoint, this.position);
 	}
 
 	/**
-	 * Checks if the given surface occludes the light-source. The surface occludes the light source
-	 * if the given ray first intersects the surface before reaching the light source.
-	 * @param surface -The given surface
-	 * @param rayToLight - the ray to the light source
-	 * @return true if the ray is occluded by the surface..
+	 * Returns the distance from the given point to the light source. Surfaces hit by a ray to the light
+	 * beyond this distance do not occlude it.
+	 * @param fromPoint - The initial point of the shadow ray
+	 * @return the distance to the light position.
 	 */
-	public boolean isOccludedBy(Surface surface, Ray rayToLight){
-		boolean isOccluded = false;
-		Hit hitToSurface = surface.intersect(rayToLight);
-		if (hitToSurface != null){
-			Point surfaceHitPoint = rayToLight.getHittingPoint(hitToSurface);
-			if(rayToLight.source().distSqr(this.position) > rayToLight.source().distSqr(surfaceHitPoint)){
-				isOccluded = true;
-			}
-		}
-		return isOccluded;
+	public double maxShadowDistance(Point fromPoint) {
+		return distance(fromPoint);
+	}
+	
+	protected double distance(Point p) {
+		double dx = p.x - position.x, dy = p.y - position.y, dz = p.z - position.z;
+		return Math.sqrt(dx*dx + dy*dy + dz*dz);
 	}
 
 	/**
 	 * Returns the light intensity at the specified point.
 	 * @param hittingPoint - The given point
 	 * @param rayToLight - A ray to the light source (this is relevant for point-light and spotlight)
+	 * @param result - The vector to store the intensity in
 	 * @return A vector representing the light intensity (the r,g and b channels).
 	 */
-	public Vec intensity(Point hittingPoint, Ray rayToLight){
-		double distance = hittingPoint.dist(this.position);
+	public Vec intensity(Point hittingPoint, Ray rayToLight, Vec result){
+		double distance = distance(hittingPoint);
 		double denominator = this.kc + this.kl* distance + this.kq * (Math.pow(distance,2));
-		return this.intensity.mult(1.0 / denominator);
+		return result.set(this.intensity).multInPlace(1.0 / denominator);
 	}
 }
@@ -1,14 +1,16 @@
 package edu.cg.scene.lightSources;
 
 import edu.cg.algebra.*;
-import edu.cg.scene.objects.Surface;
 
 
 public class Spotlight extends PointLight {
 	private Vec direction;
+	
+	private transient volatile Vec unitDirection = null;
 
 	public Spotlight initDirection(Vec direction) {
 		this.direction = direction;
+		this.unitDirection = null;
 		return this;
 	}
 	
@@ -34,39 +36,61 @@ public class Spotlight extends PointLight {
 	public Spotlight initDecayFactors(double q, double l, double c) {
 		return (Spotlight)super.initDecayFactors(q, l, c);
 	}
+	
+	@Override
+	public Spotlight snapshot() {
+		Spotlight copy = new Spotlight().initDirection(new Vec(direction)).initPosition(new Point(position))
+				.initIntensity(new Vec(intensity)).initDecayFactors(kq, kl, kc);
+		copy.unitDirection();
+		return copy;
+	}
+	
+	//the direction scaled by the inverse of its norm
+	private Vec unitDirection() {
+		//racy but safe, like Plain.normal(): every thread computes the same vector
+		Vec u = unitDirection;
+		if(u == null) {
+			double k = 1.0 / direction.norm();
+			unitDirection = u = new Vec(k * direction.x, k * direction.y, k * direction.z);
+		}
+		return u;
+	}
 
 	/**
-	 * Checks if the given surface occludes the light-source. The surface occludes the light source
-	 * if the given ray first intersects the surface before reaching the light source.
-	 * @param surface -The given surface
+	 * Checks if the origin of the given ray lies within the cone lit by the spotlight.
 	 * @param rayToLight - the ray to the light source
-	 * @return true if the ray is occluded by the surface..
+	 * @return true if the spotlight faces the origin of the ray.
 	 */
-	public boolean isOccludedBy(Surface surface, Ray rayToLight){
-		boolean isOccluded = false;
-		if (rayToLight.direction().neg().dot(this.direction.normalize()) < Ops.epsilon) {
-			isOccluded = true;
-		}
-		else {
-			isOccluded = super.isOccludedBy(surface, rayToLight);
-		}
-		return isOccluded;
+	@Override
+	public boolean reaches(Ray rayToLight) {
+		Vec L = rayToLight.direction();
+		Vec u = unitDirection();
+		return -L.x * u.x - L.y * u.y - L.z * u.z >= Ops.epsilon;
 	}
 
 	/**
 	 * Returns the light intensity at the specified point.
 	 * @param hittingPoint - The given point
 	 * @param rayToLight - A ray to the light source (this is relevant for point-light and spotlight)
+	 * @param result - The vector to store the intensity in
 	 * @return A vector representing the light intensity (the r,g and b channels).
 	 */
-	public Vec intensity(Point hittingPoint, Ray rayToLight)  {
-		Vec intensity = new Vec(0.0, 0.0, 0.0);
-		Vec pointLightIntensity = super.intensity(hittingPoint, rayToLight);
-		Vec D = this.direction.normalize();
-		Vec V = rayToLight.direction().neg().normalize();
-		if (V.dot(D) >= Ops.epsilon) {
-			intensity = pointLightIntensity.mult(V.dot(D));
+	public Vec intensity(Point hittingPoint, Ray rayToLight, Vec result)  {
+		Vec u = unitDirection();
+		double dx = u.x, dy = u.y, dz = u.z;
+		Vec L = rayToLight.direction();
+		double vx = -L.x, vy = -L.y, vz = -L.z;
+		double vNorm = Math.sqrt(vx*vx + vy*vy + vz*vz);
+		if (vNorm != 0) {
+			double kv = 1.0 / vNorm;
+			vx = kv * vx;
+			vy = kv * vy;
+			vz = kv * vz;
+		}
+		double cosine = vx*dx + vy*dy + vz*dz;
+		if (cosine < Ops.epsilon) {
+			return result.set(0.0, 0.0, 0.0);
 		}
-		return intensity;
+		return super.intensity(hittingPoint, rayToLight, result).multInPlace(cosine);
 	}
 }
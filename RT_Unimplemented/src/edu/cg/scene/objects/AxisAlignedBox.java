@@ -1,4 +1,5 @@
 package edu.cg.scene.objects;
+import edu.cg.algebra.BoundingBox;
 import edu.cg.algebra.Hit;
 import edu.cg.algebra.Ops;
 import edu.cg.algebra.Point;
@@ -61,18 +62,68 @@ public class AxisAlignedBox extends Shape {
 	}
 
 	@Override
-	public Hit intersect(Ray ray) {
+	public AxisAlignedBox snapshot() {
+		AxisAlignedBox copy = new AxisAlignedBox();
+		copy.minPoint = new Point(minPoint);
+		copy.maxPoint = new Point(maxPoint);
+		copy.name = name;
+		return copy;
+	}
+
+	public Point getMinPoint() {
+		return minPoint;
+	}
+
+	public Point getMaxPoint() {
+		return maxPoint;
+	}
+
+	@Override
+	public BoundingBox boundingBox() {
+		return new BoundingBox(minPoint, maxPoint);
+	}
+
+	@Override
+	public boolean intersect(Ray ray, Hit hit) {
+		double t = hitDistance(ray);
+		if (Double.isNaN(t)) {
+			return false;
+		}
+		boolean isWithin = t < 0;
+		t = Math.abs(t);
+		Point p = ray.source();
+		Vec v = ray.direction();
+		Vec normal = hit.set(t, 0.0, 0.0, 0.0).getNormalToSurface();
+		calcNormal(p.x + t * v.x, p.y + t * v.y, p.z + t * v.z, normal);
+		if (isWithin) {
+			normal.negInPlace();
+		}
+		hit.setIsWithin(isWithin);
+		return true;
+	}
+
+	@Override
+	public boolean occludes(Ray ray, double maxT) {
+		double t = hitDistance(ray);
+		return !Double.isNaN(t) && Math.abs(t) < maxT;
+	}
+
+	/**
+	 * Clips the ray against the three slabs of the box.
+	 * @return the distance to the entry point if the ray starts outside the box, minus the distance
+	 * to the exit point if it starts within the box, and NaN if the ray misses the box.
+	 */
+	private double hitDistance(Ray ray) {
 		double tMin = 0.0;
 		double tMax = Ops.infinity;
-		boolean isWithin = false;
 		if (Math.abs(ray.direction().x) > Ops.epsilon) {
 			double txMin = find_t(ray.direction().x, minPoint.x, ray.source().x);
 			if(Double.isNaN(txMin)){
-				return null;
+				return Double.NaN;
 			}
 			double txMax = find_t(ray.direction().x, maxPoint.x, ray.source().x);
 			if(Double.isNaN(txMax)){
-				return null;
+				return Double.NaN;
 			}
 			if (txMax < txMin) {
 				double tmp = txMax;
@@ -82,22 +133,22 @@ public class AxisAlignedBox extends Shape {
 			tMax = (txMax < tMax) ? txMax : tMax;
 			tMin = (txMin > tMin) ? txMin : tMin;
 			if(tMin > tMax || tMax < Ops.epsilon){
-				return null;
+				return Double.NaN;
 			}
 		}
 		else{
 			if (ray.source().x < minPoint.x || ray.source().x > maxPoint.x){
-				return null;
+				return Double.NaN;
 			}
 		}
 		if (Math.abs(ray.direction().y) > Ops.epsilon) {
 			double tyMin = find_t(ray.direction().y, minPoint.y, ray.source().y);
 			if(Double.isNaN(tyMin)){
-				return null;
+				return Double.NaN;
 			}
 			double tyMax = find_t(ray.direction().y, maxPoint.y, ray.source().y);
 			if(Double.isNaN(tyMax)){
-				return null;
+				return Double.NaN;
 			}
 			if (tyMax < tyMin) {
 				double tmp = tyMax;
@@ -107,22 +158,22 @@ public class AxisAlignedBox extends Shape {
 			tMax = (tyMax < tMax) ? tyMax : tMax;
 			tMin = (tyMin > tMin) ? tyMin : tMin;
 			if(tMin > tMax || tMax < Ops.epsilon){
-				return null;
+				return Double.NaN;
 			}
 		}
 		else {
 			if (ray.source().y < minPoint.y || ray.source().y > maxPoint.y) {
-				return null;
+				return Double.NaN;
 			}
 		}
 		if (Math.abs(ray.direction().z) > Ops.epsilon) {
 			double tzMin = find_t(ray.direction().z, minPoint.z, ray.source().z);
 			if(Double.isNaN(tzMin)){
-				return null;
+				return Double.NaN;
 			}
 			double tzMax = find_t(ray.direction().z, maxPoint.z, ray.source().z);
 			if(Double.isNaN(tzMax)){
-				return null;
+				return Double.NaN;
 			}
 			if (tzMax < tzMin) {
 				double tmp = tzMax;
@@ -132,22 +183,15 @@ public class AxisAlignedBox extends Shape {
 			tMax = (tzMax < tMax) ? tzMax : tMax;
 			tMin = (tzMin > tMin) ? tzMin : tMin;
 			if(tMin > tMax || tMax < Ops.epsilon){
-				return null;
+				return Double.NaN;
 			}
 		}
 		else {
 			if (ray.source().z < minPoint.z || ray.source().z > maxPoint.z) {
-				return null;
+				return Double.NaN;
 			}
 		}
-		Vec normal = calcNormal(ray.add(tMin));
-		Hit hit = new Hit(tMin, normal);
-		if(tMin < Ops.epsilon){
-			isWithin = true;
-			normal = calcNormal(ray.add(tMax)).neg();
-			hit = new Hit(tMax, normal);
-		}
-		return hit.setIsWithin(isWithin);
+		return tMin < Ops.epsilon ? -tMax : tMin;
 	}
 
 	private double find_t(double rayDirection, double boxExtreme, double raySource) {
@@ -163,27 +207,25 @@ public class AxisAlignedBox extends Shape {
 		return t;
 	}
 
-	private Vec calcNormal(Point hitPoint) {
-		Vec normalToSurface = null;
-		if (Math.abs(hitPoint.x - minPoint.x) < Ops.epsilon) {
-			normalToSurface = new Vec(-1.0, 0.0, 0.0);
+	private void calcNormal(double x, double y, double z, Vec normalToSurface) {
+		if (Math.abs(x - minPoint.x) < Ops.epsilon) {
+			normalToSurface.set(-1.0, 0.0, 0.0);
 		}
-		if (Math.abs(hitPoint.x - maxPoint.x) < Ops.epsilon) {
-			normalToSurface = new Vec(1.0, 0.0, 0.0);
+		if (Math.abs(x - maxPoint.x) < Ops.epsilon) {
+			normalToSurface.set(1.0, 0.0, 0.0);
 		}
-		if (Math.abs(hitPoint.y - maxPoint.y) < Ops.epsilon) {
-			normalToSurface = new Vec(0.0, 1.0, 0.0);
+		if (Math.abs(y - maxPoint.y) < Ops.epsilon) {
+			normalToSurface.set(0.0, 1.0, 0.0);
 		}
-		if (Math.abs(hitPoint.y - minPoint.y) < Ops.epsilon) {
-			normalToSurface = new Vec(0.0, -1.0, 0.0);
+		if (Math.abs(y - minPoint.y) < Ops.epsilon) {
+			normalToSurface.set(0.0, -1.0, 0.0);
 		}
-		if (Math.abs(hitPoint.z - maxPoint.z) < Ops.epsilon) {
-			normalToSurface = new Vec(0.0, 0.0, 1.0);
+		if (Math.abs(z - maxPoint.z) < Ops.epsilon) {
+			normalToSurface.set(0.0, 0.0, 1.0);
 		}
-		if (Math.abs(hitPoint.z - minPoint.z) < Ops.epsilon) {
-			normalToSurface = new Vec(0.0, 0.0, -1.0);
+		if (Math.abs(z - minPoint.z) < Ops.epsilon) {
+			normalToSurface.set(0.0, 0.0, -1.0);
 		}
-		return normalToSurface;
 	}
 
 }
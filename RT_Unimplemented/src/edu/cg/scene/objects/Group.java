@@ -0,0 +1,110 @@
+package edu.cg.scene.objects;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import edu.cg.algebra.BoundingBox;
+import edu.cg.algebra.Hit;
+import edu.cg.algebra.Ray;
+import edu.cg.scene.acceleration.BVH;
+
+/**
+ * A shape made of other shapes, to be placed many times by instances: the group is added to the scene once
+ * as a prototype (Scene.addPrototype) and every Instance of it shares its shapes.
+ *
+ * The group keeps its own BVH over its shapes, built on first use. It is the lower level of a two level
+ * hierarchy whose upper level is the scene's BVH over the instances, so a group can't hold instances or
+ * other groups. The shapes must not change while the group is rendered.
+ */
+public class Group extends Shape {
+	private List<Shape> shapes = new ArrayList<>();
+
+	private transient volatile BVH bvh = null;
+	private transient BoundingBox bounds = null;
+	private transient ThreadLocal<Scratch> scratch = ThreadLocal.withInitial(Scratch::new);
+
+	//the candidate hit and the traversal stack of a rendering thread
+	private static class Scratch {
+		final Hit candidate = new Hit();
+		int[] stack = new int[0];
+
+		int[] stack(BVH bvh) {
+			if(stack.length < bvh.depth() + 1)
+				stack = bvh.newStack();
+			return stack;
+		}
+	}
+
+	@Override
+	public String toString() {
+		String endl = System.lineSeparator();
+		return "Group:" + endl + "Shapes: " + shapes.size() + endl;
+	}
+
+	public Group addShape(Shape shape) {
+		checkMember(shape);
+		shapes.add(shape);
+		bvh = null;
+		return this;
+	}
+
+	public List<Shape> getShapes() {
+		return Collections.unmodifiableList(shapes);
+	}
+
+	private static void checkMember(Shape shape) {
+		if(shape instanceof Group || shape instanceof Instance)
+			throw new IllegalArgumentException("A group can't hold a " + shape.getClass().getSimpleName());
+	}
+
+	/**
+	 * Returns the BVH over the shapes, building it if needed.
+	 */
+	private BVH structure() {
+		BVH structure = bvh;
+		if(structure == null) {
+			synchronized(this) {
+				structure = bvh;
+				if(structure == null) {
+					//the BVH is built over surfaces, the surface of the group's hit is set by the instance
+					List<Surface> members = new ArrayList<>(shapes.size());
+					BoundingBox union = null;
+					boolean bounded = true;
+					for(Shape shape : shapes) {
+						checkMember(shape);
+						members.add(new Surface(shape, null));
+						BoundingBox box = shape.boundingBox();
+						if(box == null)
+							bounded = false;
+						else
+							union = union == null ? box : union.union(box);
+					}
+					bounds = bounded ? union : null;
+					structure = new BVH(members);
+					bvh = structure;
+				}
+			}
+		}
+		return structure;
+	}
+
+	@Override
+	public BoundingBox boundingBox() {
+		structure();
+		return bounds;
+	}
+
+	@Override
+	public boolean intersect(Ray ray, Hit hit) {
+		BVH structure = structure();
+		Scratch s = scratch.get();
+		return structure.closestHit(ray, hit, s.candidate, s.stack(structure));
+	}
+
+	@Override
+	public boolean occludes(Ray ray, double maxT) {
+		BVH structure = structure();
+		return structure.occludes(ray, maxT, scratch.get().stack(structure));
+	}
+}
@@ -0,0 +1,143 @@
+package edu.cg.scene.objects;
+
+import java.util.Map;
+
+import edu.cg.algebra.BoundingBox;
+import edu.cg.algebra.Hit;
+import edu.cg.algebra.Point;
+import edu.cg.algebra.Ray;
+import edu.cg.algebra.Vec;
+
+/**
+ * A copy of one of the scene's prototypes (Scene.addPrototype), usually a Group, moved and uniformly scaled:
+ * the point p of the prototype is at translation + scale * p.
+ *
+ * Rays are moved into the prototype's coordinates and intersected with the prototype itself, so all the
+ * instances share its shapes and its BVH, and an instance takes only a few dozen bytes. The prototype is
+ * referred to by its name, and looked up by the scene before every render.
+ * An instance can't be a prototype, and a group can't hold instances, so a ray is moved only once.
+ */
+public class Instance extends Shape {
+	private String prototype;
+	private Vec translation = new Vec(0, 0, 0);
+	private double scale = 1;
+
+	private transient Shape shape = null;
+
+	//the ray in the prototype's coordinates, one per rendering thread
+	private static final ThreadLocal<Ray> LOCAL_RAY = ThreadLocal.withInitial(Ray::new);
+	private static final ThreadLocal<Point> LOCAL_SOURCE = ThreadLocal.withInitial(Point::new);
+
+	/**
+	 * Creates an instance of the named prototype.
+	 * @param prototype - the name of the prototype in the scene.
+	 * @param translation - where the prototype's origin is placed.
+	 * @param scale - the uniform scale of the prototype, positive.
+	 */
+	public Instance(String prototype, Vec translation, double scale) {
+		this.prototype = prototype;
+		initTranslation(translation);
+		initScale(scale);
+	}
+
+	public Instance() {
+		this(null, new Vec(0, 0, 0), 1);
+	}
+
+	@Override
+	public String toString() {
+		String endl = System.lineSeparator();
+		return "Instance:" + endl + "Prototype: " + prototype + endl + "Translation: " + translation + endl +
+				"Scale: " + scale + endl;
+	}
+
+	public Instance initPrototype(String prototype) {
+		this.prototype = prototype;
+		this.shape = null;
+		return this;
+	}
+
+	public Instance initTranslation(Vec translation) {
+		this.translation = translation;
+		return this;
+	}
+
+	public Instance initScale(double scale) {
+		if(!(scale > 0))
+			throw new IllegalArgumentException("The scale of an instance must be positive");
+		this.scale = scale;
+		return this;
+	}
+
+	public String getPrototype() {
+		return prototype;
+	}
+
+	public Vec getTranslation() {
+		return translation;
+	}
+
+	public double getScale() {
+		return scale;
+	}
+
+	/**
+	 * Returns an unresolved copy of the instance, which the render resolves among its own copies of the prototypes.
+	 */
+	@Override
+	public Instance snapshot() {
+		return new Instance(prototype, new Vec(translation), scale);
+	}
+
+	/**
+	 * Looks up the prototype among the scene's prototypes.
+	 * @throws IllegalArgumentException if the scene has no such prototype, or it is an instance.
+	 */
+	public void resolve(Map<String, Shape> prototypes) {
+		Shape found = prototypes.get(prototype);
+		if(found == null)
+			throw new IllegalArgumentException("The scene has no prototype named " + prototype);
+		if(found instanceof Instance)
+			throw new IllegalArgumentException("The prototype " + prototype + " is an instance");
+		shape = found;
+	}
+
+	private Shape shape() {
+		if(shape == null)
+			throw new IllegalStateException("The instance of " + prototype + " wasn't resolved by its scene");
+		return shape;
+	}
+
+	private Ray toLocal(Ray ray) {
+		Point source = ray.source();
+		Point localSource = LOCAL_SOURCE.get().set((source.x - translation.x) / scale,
+				(source.y - translation.y) / scale, (source.z - translation.z) / scale);
+		//the direction doesn't change, so distances along the local ray are the world ones divided by the scale
+		return LOCAL_RAY.get().set(localSource, ray.direction());
+	}
+
+	@Override
+	public BoundingBox boundingBox() {
+		BoundingBox box = shape().boundingBox();
+		if(box == null)
+			return null;
+		return new BoundingBox(translation.x + scale * box.minX, translation.y + scale * box.minY,
+				translation.z + scale * box.minZ, translation.x + scale * box.maxX,
+				translation.y + scale * box.maxY, translation.z + scale * box.maxZ);
+	}
+
+	@Override
+	public boolean intersect(Ray ray, Hit hit) {
+		if(!shape().intersect(toLocal(ray), hit))
+			return false;
+		//normals keep their direction under translation and uniform scale
+		Vec normal = hit.getNormalToSurface();
+		hit.set(hit.t() * scale, normal.x, normal.y, normal.z);
+		return true;
+	}
+
+	@Override
+	public boolean occludes(Ray ray, double maxT) {
+		return shape().occludes(toLocal(ray), maxT / scale);
+	}
+}
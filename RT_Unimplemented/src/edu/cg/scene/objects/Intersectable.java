@@ -14,5 +14,32 @@ public interface Intersectable {
 	 * @param ray the specified ray
 	 * @return The hit point of the ray with the object if exist and null otherwise. 
 	 */
-	public Hit intersect(Ray ray);
+	public default Hit intersect(Ray ray) {
+		Hit hit = new Hit();
+		return intersect(ray, hit) ? hit : null;
+	}
+	
+	/**
+	 * Same as intersect(ray), but fills the given hit instead of creating a new one,
+	 * so that the rendering loop can reuse its hits.
+	 * 
+	 * @param ray the specified ray
+	 * @param hit the hit to fill. It is left in an undefined state if the ray misses the object.
+	 * @return true if the ray hits the object.
+	 */
+	public boolean intersect(Ray ray, Hit hit);
+	
+	/**
+	 * Checks if the ray hits the object closer than the given distance.
+	 * Unlike intersect, no hit (and no normal) is constructed, so implementations should
+	 * override this method with a cheaper test whenever they can.
+	 * 
+	 * @param ray the specified ray
+	 * @param maxT the distance along the ray beyond which hits are ignored
+	 * @return true if intersect(ray) would return a hit with t smaller than maxT.
+	 */
+	public default boolean occludes(Ray ray, double maxT) {
+		Hit hit = intersect(ray);
+		return hit != null && hit.t() < maxT;
+	}
 }
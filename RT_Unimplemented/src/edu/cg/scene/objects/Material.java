@@ -13,6 +13,23 @@ public class Material {
 	public double refractionIntensity = 0.3; // The refraction intensity
 	public double refractionIndex = 1.5; // refraction index
 
+	public Material() {
+	}
+
+	/**
+	 * Copies the given material, with copies of its colors.
+	 */
+	public Material(Material other) {
+		this.Ka = new Vec(other.Ka);
+		this.Kd = new Vec(other.Kd);
+		this.Ks = new Vec(other.Ks);
+		this.reflectionIntensity = other.reflectionIntensity;
+		this.shininess = other.shininess;
+		this.isTransparent = other.isTransparent;
+		this.refractionIntensity = other.refractionIntensity;
+		this.refractionIndex = other.refractionIndex;
+	}
+
 	@Override
 	public String toString() {
 		String endl = System.lineSeparator();
@@ -0,0 +1,229 @@
+package edu.cg.scene.objects;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+/**
+ * Reads the geometry of a Wavefront OBJ file into flat arrays, without an object per vertex, face or line:
+ * the file is read in large chunks of bytes, and numbers are parsed from the bytes directly.
+ *
+ * Only the vertices (v) and the faces (f) are read: texture coordinates, normals, groups and materials are skipped.
+ * A face of more than three vertices is split into a fan of triangles. Vertex indices can be negative,
+ * relative to the last vertex read so far, and can carry texture and normal indices (v/vt/vn, v//vn).
+ */
+final class ObjReader {
+	private static final int CHUNK_SIZE = 1 << 20;
+	//powers of ten that are exact doubles, for the fast path of parsing a number
+	private static final double[] POWERS_OF_TEN = new double[23];
+	static {
+		POWERS_OF_TEN[0] = 1;
+		for(int i = 1; i < POWERS_OF_TEN.length; ++i)
+			POWERS_OF_TEN[i] = 10 * POWERS_OF_TEN[i - 1];
+	}
+
+	private double[] vertices = new double[3 * 1024];
+	private int vertexCount = 0;
+	private int[] triangles = new int[3 * 1024];
+	private int triangleCount = 0;
+	//the vertices of the face being read
+	private int[] face = new int[16];
+
+	//the line being read, and the position of the next byte to parse in it
+	private byte[] line;
+	private int pos;
+	private int end;
+
+	private ObjReader() {
+	}
+
+	/**
+	 * Reads the OBJ file.
+	 * @return a mesh of the file's vertices and triangles.
+	 */
+	static TriangleMesh read(Path file) throws IOException {
+		ObjReader reader = new ObjReader();
+		try(InputStream in = Files.newInputStream(file)) {
+			byte[] buffer = new byte[CHUNK_SIZE];
+			int filled = 0;
+			int number = 0;
+			while(true) {
+				int read = in.read(buffer, filled, buffer.length - filled);
+				boolean last = read < 0;
+				if(!last)
+					filled += read;
+				//parse the complete lines of the buffer, and the rest of it at the end of the file
+				int start = 0;
+				for(int i = 0; i < filled; ++i) {
+					if(buffer[i] == '\n') {
+						reader.parseLine(buffer, start, i, file, ++number);
+						start = i + 1;
+					}
+				}
+				if(last) {
+					if(start < filled)
+						reader.parseLine(buffer, start, filled, file, ++number);
+					break;
+				}
+				//keep the partial line, and grow the buffer if a single line fills it
+				filled -= start;
+				System.arraycopy(buffer, start, buffer, 0, filled);
+				if(filled == buffer.length)
+					buffer = Arrays.copyOf(buffer, 2 * buffer.length);
+			}
+		}
+		return new TriangleMesh(Arrays.copyOf(reader.vertices, 3 * reader.vertexCount),
+				Arrays.copyOf(reader.triangles, 3 * reader.triangleCount));
+	}
+
+	private void parseLine(byte[] buffer, int start, int lineEnd, Path file, int number) throws IOException {
+		line = buffer;
+		pos = start;
+		end = lineEnd;
+		try {
+			skipSpaces();
+			if(pos + 1 >= end || !isSpace(line[pos + 1]))
+				return;
+			byte kind = line[pos];
+			pos += 2;
+			if(kind == 'v')
+				parseVertex();
+			else if(kind == 'f')
+				parseFace();
+		} catch(NumberFormatException e) {
+			throw new IOException(file + ":" + number + ": " + e.getMessage() + ": " +
+					new String(buffer, start, lineEnd - start, StandardCharsets.ISO_8859_1).trim(), e);
+		}
+	}
+
+	private void parseVertex() {
+		if(3 * vertexCount + 3 > vertices.length)
+			vertices = Arrays.copyOf(vertices, 2 * vertices.length);
+		for(int axis = 0; axis < 3; ++axis) {
+			skipSpaces();
+			if(pos >= end)
+				throw new NumberFormatException("A vertex needs three coordinates");
+			vertices[3 * vertexCount + axis] = parseDouble();
+		}
+		++vertexCount;
+	}
+
+	private void parseFace() {
+		int corners = 0;
+		while(true) {
+			skipSpaces();
+			if(pos >= end || line[pos] == '#')
+				break;
+			//the vertex index, up to the first slash
+			boolean negative = line[pos] == '-';
+			if(negative)
+				++pos;
+			int index = 0, digits = 0;
+			for(; pos < end && line[pos] >= '0' && line[pos] <= '9'; ++pos, ++digits)
+				index = 10 * index + (line[pos] - '0');
+			if(digits == 0 || index == 0)
+				throw new NumberFormatException("Bad vertex index");
+			index = negative ? vertexCount - index : index - 1;
+			if(index < 0 || index >= vertexCount)
+				throw new NumberFormatException("No vertex " + (index + 1));
+			if(corners == face.length)
+				face = Arrays.copyOf(face, 2 * face.length);
+			face[corners++] = index;
+			skipToken();
+		}
+		if(corners < 3)
+			throw new NumberFormatException("A face needs three vertices");
+		for(int k = 2; k < corners; ++k)
+			addTriangle(face[0], face[k - 1], face[k]);
+	}
+
+	private void addTriangle(int a, int b, int c) {
+		if(3 * triangleCount + 3 > triangles.length)
+			triangles = Arrays.copyOf(triangles, 2 * triangles.length);
+		triangles[3 * triangleCount] = a;
+		triangles[3 * triangleCount + 1] = b;
+		triangles[3 * triangleCount + 2] = c;
+		++triangleCount;
+	}
+
+	/**
+	 * Parses the number at the current position. Numbers of up to 15 significant digits and small exponents,
+	 * as OBJ files usually have, are computed exactly from their digits; others are left to Double.parseDouble.
+	 */
+	private double parseDouble() {
+		int start = pos;
+		boolean negative = false;
+		if(pos < end && (line[pos] == '-' || line[pos] == '+'))
+			negative = line[pos++] == '-';
+		long mantissa = 0;
+		int digits = 0, exponent = 0;
+		boolean any = false;
+		for(; pos < end && line[pos] >= '0' && line[pos] <= '9'; ++pos) {
+			any = true;
+			if(mantissa != 0 || line[pos] != '0')
+				++digits;
+			if(digits <= 18)
+				mantissa = 10 * mantissa + (line[pos] - '0');
+			else
+				++exponent;
+		}
+		if(pos < end && line[pos] == '.') {
+			for(++pos; pos < end && line[pos] >= '0' && line[pos] <= '9'; ++pos) {
+				any = true;
+				if(mantissa != 0 || line[pos] != '0')
+					++digits;
+				if(digits <= 18) {
+					mantissa = 10 * mantissa + (line[pos] - '0');
+					--exponent;
+				}
+			}
+		}
+		if(pos < end && (line[pos] == 'e' || line[pos] == 'E')) {
+			++pos;
+			boolean negativeExponent = false;
+			if(pos < end && (line[pos] == '-' || line[pos] == '+'))
+				negativeExponent = line[pos++] == '-';
+			int e = 0;
+			boolean anyExponent = false;
+			for(; pos < end && line[pos] >= '0' && line[pos] <= '9'; ++pos) {
+				anyExponent = true;
+				if(e < 10000)
+					e = 10 * e + (line[pos] - '0');
+			}
+			if(!anyExponent)
+				any = false;
+			exponent += negativeExponent ? -e : e;
+		}
+		if(!any || (pos < end && !isSpace(line[pos]) && line[pos] != '\r')) {
+			skipToken();
+			return Double.parseDouble(new String(line, start, pos - start, StandardCharsets.ISO_8859_1));
+		}
+
+		double value;
+		if(digits <= 15 && Math.abs(exponent) < POWERS_OF_TEN.length) {
+			//both the mantissa and the power of ten are exact, so is the single rounding of their product or quotient
+			value = exponent < 0 ? mantissa / POWERS_OF_TEN[-exponent] : mantissa * POWERS_OF_TEN[exponent];
+		} else {
+			value = Double.parseDouble(new String(line, start, pos - start, StandardCharsets.ISO_8859_1));
+			return value;
+		}
+		return negative ? -value : value;
+	}
+
+	private static boolean isSpace(byte c) {
+		return c == ' ' || c == '\t' || c == '\r';
+	}
+
+	private void skipSpaces() {
+		while(pos < end && isSpace(line[pos]))
+			++pos;
+	}
+
+	private void skipToken() {
+		while(pos < end && !isSpace(line[pos]))
+			++pos;
+	}
+}
@@ -10,7 +10,7 @@ public class Plain extends Shape {
 	//implicit form of a plain: ax + by + cz + d = 0;
 	private double a, b, c, d;
 	
-	private transient Vec normal = null;
+	private transient volatile Vec normal = null;
 	
 	public Plain(double a, double b, double c, double d) {
 		this.a = a;
@@ -33,10 +33,33 @@ public class Plain extends Shape {
 		return "Plain: a = " + a + ", b = " + b + ", c = " + c + ", d = " + d + endl;
 	}
 	
-	public synchronized Vec normal() {
-		if(normal == null)
-			normal = new Vec(a, b, c).normalize();
-		return normal;
+	public double getA() {
+		return a;
+	}
+	
+	public double getB() {
+		return b;
+	}
+	
+	public double getC() {
+		return c;
+	}
+	
+	public double getD() {
+		return d;
+	}
+	
+	@Override
+	public Plain snapshot() {
+		return new Plain(a, b, c, d);
+	}
+	
+	public Vec normal() {
+		//racy but safe: every thread computes the same normal, and the field is volatile
+		Vec n = normal;
+		if(n == null)
+			normal = n = new Vec(a, b, c).normalize();
+		return n;
 	}
 	
 	
@@ -50,10 +73,31 @@ public class Plain extends Shape {
 	}
 
 	@Override
-	public Hit intersect(Ray ray) {
-		Vec abc = new Vec(a, b, c);
+	public boolean intersect(Ray ray, Hit hit) {
+		double t = hitDistance(ray);
+		if (!(t > Ops.epsilon & t < Ops.infinity)) {
+			return false;
+		}
+		Vec n = normal();
+		Vec v = ray.direction();
+		if (v.dot(n) < 0) {
+			hit.set(t, n.x, n.y, n.z);
+		} else {
+			hit.set(t, -n.x, -n.y, -n.z);
+		}
+		hit.setOutside();
+		return true;
+	}
 
-		double t = -substitute(ray.source()) / ray.direction().dot(abc);
-		return t > Ops.epsilon & t < Ops.infinity ? new Hit(t, normal(ray)) : null;
+	@Override
+	public boolean occludes(Ray ray, double maxT) {
+		double t = hitDistance(ray);
+		return t > Ops.epsilon & t < Ops.infinity & t < maxT;
+	}
+	
+	private double hitDistance(Ray ray) {
+		Point p = ray.source();
+		Vec v = ray.direction();
+		return -(a*p.x + b*p.y + c*p.z + d) / (v.x*a + v.y*b + v.z*c);
 	}
 }
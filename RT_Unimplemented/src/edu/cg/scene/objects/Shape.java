@@ -1,7 +1,25 @@
 package edu.cg.scene.objects;
 
+import edu.cg.algebra.BoundingBox;
 
 public abstract class Shape implements Intersectable {
 	// An abstract class the represents a shape.
 	// You can add abstract methods here.
+	
+	/**
+	 * Returns an axis aligned box that contains every point the shape can be hit at.
+	 * @return the bounding box of the shape, or null if the shape is unbounded.
+	 */
+	public BoundingBox boundingBox() {
+		return null;
+	}
+	
+	/**
+	 * Returns a copy of the shape for a render, so that changes to this shape while the render runs don't reach it
+	 * (see RenderSnapshot). Groups and meshes are too large to copy: they return themselves, and must not change
+	 * while they are rendered.
+	 */
+	public Shape snapshot() {
+		return this;
+	}
 }
@@ -1,4 +1,5 @@
 package edu.cg.scene.objects;
+import edu.cg.algebra.BoundingBox;
 import edu.cg.algebra.Hit;
 import edu.cg.algebra.Point;
 import edu.cg.algebra.Ray;
@@ -36,40 +37,64 @@ public class Sphere extends Shape {
 	}
 
 	@Override
-	public Hit intersect(Ray ray) {
-		Hit hit = null;
-		double b = ray.direction().mult(2.0).dot((ray.source().sub(this.center)));
-		double c = ray.source().distSqr(this.center) - Math.pow(radius,2);
-		double t = Double.NEGATIVE_INFINITY;
-		Vec normalToSurface = null;
-		double[] t_values = quadraticEquation(1, b, c);
-		boolean isWithin = false;
-		if(t_values[1] != Double.NEGATIVE_INFINITY && t_values[0] != Double.NEGATIVE_INFINITY){
-			if(t_values[1] > Ops.epsilon){
-				t = t_values[0];
-				normalToSurface = ray.add(t_values[0]).sub(this.center).normalize();
-				if(t_values[0] < Ops.epsilon){
-					t = t_values[1];
-					normalToSurface = ray.add(t_values[0]).sub(this.center).normalize().neg();
-					isWithin = true;
-				}
-			}
-			if (t < Ops.infinity && t > Ops.epsilon) {
-				hit  = new Hit(t, normalToSurface);
-				hit.setIsWithin(isWithin);
-			}
+	public Sphere snapshot() {
+		return new Sphere(new Point(center), radius);
+	}
+
+	public Point getCenter() {
+		return center;
+	}
+
+	public double getRadius() {
+		return radius;
+	}
+
+	@Override
+	public BoundingBox boundingBox() {
+		double r = Math.abs(radius);
+		return new BoundingBox(center.x - r, center.y - r, center.z - r,
+				center.x + r, center.y + r, center.z + r);
+	}
+
+	@Override
+	public boolean intersect(Ray ray, Hit hit) {
+		double t = hitDistance(ray);
+		if (Double.isNaN(t)) {
+			return false;
 		}
-		return hit;
+		Point p = ray.source();
+		Vec v = ray.direction();
+		hit.set(t, p.x + t * v.x - center.x, p.y + t * v.y - center.y, p.z + t * v.z - center.z);
+		hit.getNormalToSurface().normalizeInPlace();
+		hit.setOutside();
+		return true;
+	}
+
+	@Override
+	public boolean occludes(Ray ray, double maxT) {
+		double t = hitDistance(ray);
+		return !Double.isNaN(t) && t < maxT;
 	}
 
-	private double [] quadraticEquation(double a, double b, double c) {
-		double [] values = {Double.NEGATIVE_INFINITY,Double.NEGATIVE_INFINITY};
-		double determinant = Math.pow(b,2) - (4 * a * c);
-		if (determinant >= 0) {
-			values[0] = (-b + Math.sqrt(determinant)) / (2 * a);
-			values[1] = (-b - Math.sqrt(determinant)) / (2 * a);
+	/**
+	 * Solves the quadratic equation of the ray and the sphere.
+	 * The ray is only considered to hit the sphere from the outside, at the far root.
+	 * @return the distance to the hit, or NaN if the ray misses the sphere.
+	 */
+	private double hitDistance(Ray ray) {
+		Point p = ray.source();
+		Vec v = ray.direction();
+		double ox = p.x - center.x, oy = p.y - center.y, oz = p.z - center.z;
+		double b = 2.0 * v.x * ox + 2.0 * v.y * oy + 2.0 * v.z * oz;
+		double c = ox * ox + oy * oy + oz * oz - radius * radius;
+		double determinant = b * b - 4.0 * c;
+		if (determinant < 0) {
+			return Double.NaN;
 		}
-		return values;
+		double sqrtDeterminant = Math.sqrt(determinant);
+		double near = (-b - sqrtDeterminant) / 2.0;
+		double far = (-b + sqrtDeterminant) / 2.0;
+		return near > Ops.epsilon && far < Ops.infinity ? far : Double.NaN;
 	}
 
 }
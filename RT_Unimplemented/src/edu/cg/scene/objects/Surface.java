@@ -1,4 +1,7 @@
 package edu.cg.scene.objects;
+import java.util.Map;
+
+import edu.cg.algebra.BoundingBox;
 import edu.cg.algebra.Hit;
 import edu.cg.algebra.Ray;
 import edu.cg.algebra.Vec;
@@ -25,12 +28,33 @@ public class Surface implements Intersectable {
 	}
 	
 	@Override
-	public Hit intersect(Ray ray) {
-		Hit hit = this.shape.intersect(ray);
-		if (hit != null) {
-			hit.setSurface(this);
+	public boolean intersect(Ray ray, Hit hit) {
+		if (!this.shape.intersect(ray, hit)) {
+			return false;
 		}
-		return hit;
+		hit.setSurface(this);
+		return true;
+	}
+	
+	@Override
+	public boolean occludes(Ray ray, double maxT) {
+		return this.shape.occludes(ray, maxT);
+	}
+	
+	/**
+	 * Returns a copy of the surface for a render, with a snapshot of its shape (see Shape.snapshot) and a copy of
+	 * its material. Surfaces that share a material share its copy, which is kept in the given map by material.
+	 */
+	public Surface snapshot(Map<Material, Material> materials) {
+		return new Surface(shape.snapshot(), material == null ? null : materials.computeIfAbsent(material, Material::new));
+	}
+	
+	public Shape shape() {
+		return shape;
+	}
+	
+	public BoundingBox boundingBox() {
+		return shape.boundingBox();
 	}
 	
 	public Vec Ka() {
@@ -0,0 +1,188 @@
+package edu.cg.scene.objects;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.zip.CRC32C;
+
+import edu.cg.algebra.BoundingBox;
+import edu.cg.algebra.Hit;
+import edu.cg.algebra.Ray;
+import edu.cg.scene.acceleration.TriangleBVH;
+
+/**
+ * A mesh of triangles, usually read from a Wavefront OBJ file (see ObjReader).
+ *
+ * The vertices and the triangles are kept in flat arrays and the mesh has its own BVH over its triangles
+ * (TriangleBVH), built when the mesh is loaded, so a mesh of millions of triangles is a single surface of the scene.
+ * The triangles are hit on both sides: a ray that hits the back of a triangle is within the mesh, so a closed
+ * mesh whose triangles wind counterclockwise seen from the outside refracts like the other shapes.
+ *
+ * In a scene file a mesh is saved as the absolute path of its OBJ file and a checksum of its geometry, so cached
+ * renders of the scene don't outlive a change of the OBJ file. Relative paths in a scene file are relative to the
+ * scene file's directory (see readFile). A mesh built from arrays has no file, and can't be saved with its scene.
+ */
+public class TriangleMesh extends Shape {
+	private String file = null;
+	private String checksum = null;
+
+	private transient volatile TriangleBVH bvh = null;
+	private transient double[] vertices;
+	private transient ThreadLocal<TriangleBVH.Stack> stack = new ThreadLocal<>();
+
+	/**
+	 * Creates a mesh of the given triangles. The arrays are taken by the mesh, and the triangles are reordered.
+	 * @param vertices - the vertices as x, y, z triples.
+	 * @param triangles - the triangles as triples of indices of vertices.
+	 */
+	public TriangleMesh(double[] vertices, int[] triangles) {
+		if(vertices.length % 3 != 0 || triangles.length % 3 != 0)
+			throw new IllegalArgumentException("The vertices and the triangles of a mesh must be triples");
+		int vertexCount = vertices.length / 3;
+		for(int index : triangles) {
+			if(index < 0 || index >= vertexCount)
+				throw new IllegalArgumentException("A triangle of the mesh refers to no vertex " + index);
+		}
+		this.checksum = checksum(vertices, triangles);
+		this.vertices = vertices;
+		this.bvh = new TriangleBVH(vertices, triangles);
+	}
+
+	public TriangleMesh() {
+	}
+
+	/**
+	 * Creates a mesh of the given OBJ file, which is read by readFile or when the mesh is first used.
+	 */
+	public TriangleMesh(String file) {
+		this.file = file;
+	}
+
+	/**
+	 * Reads a mesh from an OBJ file and builds its BVH.
+	 */
+	public static TriangleMesh load(Path file) throws IOException {
+		TriangleMesh mesh = ObjReader.read(file);
+		mesh.file = file.toAbsolutePath().normalize().toString();
+		return mesh;
+	}
+
+	/**
+	 * Reads the mesh's OBJ file now, a relative path resolved against the given directory, and keeps its absolute
+	 * path, so the scene's JSON names the same file for any process that reads it. The checksum is computed from
+	 * the file as it is, instead of the one saved with the scene. Does nothing if the mesh has no file.
+	 * @param confined - whether the file must be in the directory, or one of its subdirectories.
+	 */
+	public synchronized void readFile(Path directory, boolean confined) throws IOException {
+		if(file == null)
+			return;
+		Path path = directory.resolve(file).toAbsolutePath().normalize();
+		//then the real paths, so a symbolic link in the directory doesn't lead out of it
+		if(confined && (!path.startsWith(directory.toAbsolutePath().normalize()) ||
+				!path.toRealPath().startsWith(directory.toRealPath())))
+			throw new IOException("The mesh file " + file + " is outside of " + directory);
+		TriangleMesh loaded = ObjReader.read(path);
+		file = path.toString();
+		vertices = loaded.vertices;
+		checksum = loaded.checksum;
+		bvh = loaded.bvh;
+	}
+
+	@Override
+	public String toString() {
+		String endl = System.lineSeparator();
+		return "TriangleMesh:" + endl + "File: " + file + endl + "Triangles: " + triangleCount() + endl;
+	}
+
+	public String getFile() {
+		return file;
+	}
+
+	public int vertexCount() {
+		structure();
+		return vertices.length / 3;
+	}
+
+	public int triangleCount() {
+		return structure().triangleCount();
+	}
+
+	/**
+	 * Returns the BVH over the triangles. A mesh made by Gson from a scene file reads its OBJ file first.
+	 */
+	private TriangleBVH structure() {
+		TriangleBVH structure = bvh;
+		if(structure == null) {
+			synchronized(this) {
+				structure = bvh;
+				if(structure == null) {
+					if(file == null)
+						throw new IllegalStateException("The mesh has no file to read its triangles from");
+					TriangleMesh loaded;
+					try {
+						loaded = ObjReader.read(Paths.get(file));
+					} catch(IOException e) {
+						throw new UncheckedIOException(e);
+					}
+					vertices = loaded.vertices;
+					checksum = loaded.checksum;
+					structure = loaded.bvh;
+					bvh = structure;
+				}
+			}
+		}
+		return structure;
+	}
+
+	private static String checksum(double[] vertices, int[] triangles) {
+		CRC32C crc = new CRC32C();
+		ByteBuffer buffer = ByteBuffer.allocate(8 * 1024);
+		for(double v : vertices) {
+			if(buffer.remaining() < Double.BYTES) {
+				crc.update(buffer.flip());
+				buffer.clear();
+			}
+			buffer.putDouble(v);
+		}
+		for(int index : triangles) {
+			if(buffer.remaining() < Integer.BYTES) {
+				crc.update(buffer.flip());
+				buffer.clear();
+			}
+			buffer.putInt(index);
+		}
+		crc.update(buffer.flip());
+		return (vertices.length / 3) + "/" + (triangles.length / 3) + "/" + Long.toHexString(crc.getValue());
+	}
+
+	@Override
+	public BoundingBox boundingBox() {
+		double[] bounds = structure().bounds();
+		if(bounds == null)
+			return null;
+		return new BoundingBox(bounds[0], bounds[1], bounds[2], bounds[3], bounds[4], bounds[5]);
+	}
+
+	private TriangleBVH.Stack stack(TriangleBVH structure) {
+		TriangleBVH.Stack s = stack.get();
+		if(s == null || s.size() < structure.depth() + 1) {
+			s = structure.newStack();
+			stack.set(s);
+		}
+		return s;
+	}
+
+	@Override
+	public boolean intersect(Ray ray, Hit hit) {
+		TriangleBVH structure = structure();
+		return structure.closestHit(ray, hit, stack(structure));
+	}
+
+	@Override
+	public boolean occludes(Ray ray, double maxT) {
+		TriangleBVH structure = structure();
+		return structure.occludes(ray, maxT, stack(structure));
+	}
+}
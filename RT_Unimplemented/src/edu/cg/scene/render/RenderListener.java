@@ -0,0 +1,28 @@
+package edu.cg.scene.render;
+
+/**
+ * Gets notified while a scene is rendered progressively, so a partial image can be presented, or while it is
+ * rendered in tiles, so the progress of the render can be reported.
+ * tileRendered is called from the rendering threads, passStarted and passCompleted from the thread that started the render.
+ */
+public interface RenderListener {
+	/**
+	 * Called before the tiles of a pass are rendered.
+	 * @param pass - the number of the pass, starting from 1.
+	 * @param passCount - the total number of passes.
+	 * @param tileCount - the number of tiles of the pass.
+	 */
+	public default void passStarted(int pass, int passCount, int tileCount) {}
+	
+	/**
+	 * Called after the pixels of the given tile have been written in the current pass.
+	 */
+	public default void tileRendered(Tile tile) {}
+	
+	/**
+	 * Called after all the tiles of a pass have been written.
+	 * @param pass - the number of the pass that has been completed, starting from 1.
+	 * @param passCount - the total number of passes.
+	 */
+	public default void passCompleted(int pass, int passCount) {}
+}
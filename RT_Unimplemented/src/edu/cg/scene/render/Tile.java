@@ -0,0 +1,25 @@
+package edu.cg.scene.render;
+
+/**
+ * A rectangular block of pixels of the rendered image.
+ */
+public class Tile {
+	public final int x, y;
+	public final int width, height;
+	
+	public Tile(int x, int y, int width, int height) {
+		this.x = x;
+		this.y = y;
+		this.width = width;
+		this.height = height;
+	}
+	
+	public int pixelCount() {
+		return width * height;
+	}
+	
+	@Override
+	public String toString() {
+		return "Tile (" + x + ", " + y + ") " + width + "x" + height;
+	}
+}
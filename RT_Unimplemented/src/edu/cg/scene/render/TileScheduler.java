@@ -0,0 +1,108 @@
+package edu.cg.scene.render;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * Splits an image into square tiles and hands them out in Morton (Z-curve) order, so that tiles
+ * rendered one after the other are close to each other in the image and in the scene.
+ *
+ * Tiles are not materialized: every worker pulls the next Morton code from a shared counter and
+ * decodes it, so the scheduler needs the same memory for any resolution.
+ */
+public class TileScheduler {
+	public static final int DEFAULT_TILE_SIZE = 16;
+	
+	private final int imgWidth, imgHeight;
+	private final int tileSize;
+	private final int tilesX, tilesY;
+	private final int codeCount;
+	private final AtomicInteger nextCode = new AtomicInteger(0);
+	
+	public TileScheduler(int imgWidth, int imgHeight, int tileSize) {
+		if(tileSize <= 0)
+			throw new IllegalArgumentException("Tile size must be positive");
+		
+		this.imgWidth = imgWidth;
+		this.imgHeight = imgHeight;
+		this.tileSize = tileSize;
+		this.tilesX = (imgWidth + tileSize - 1) / tileSize;
+		this.tilesY = (imgHeight + tileSize - 1) / tileSize;
+		
+		//the Morton curve covers a square grid with a power of two side
+		int side = 1;
+		while(side < Math.max(tilesX, tilesY))
+			side <<= 1;
+		if(side > (1 << 15))
+			throw new IllegalArgumentException("Too many tiles, use a bigger tile size");
+		this.codeCount = side * side;
+	}
+	
+	public int tileSize() {
+		return tileSize;
+	}
+	
+	public int tileCount() {
+		return tilesX * tilesY;
+	}
+	
+	/**
+	 * Returns the next tile to render, or null if all the tiles have been handed out.
+	 * This method is thread safe.
+	 */
+	public Tile nextTile() {
+		int code;
+		while((code = nextCode.getAndIncrement()) < codeCount) {
+			int tx = compactBits(code);
+			int ty = compactBits(code >>> 1);
+			if(tx < tilesX && ty < tilesY)
+				return tile(tx, ty);
+		}
+		return null;
+	}
+	
+	/**
+	 * Returns the tile at the given column and row of the tile grid.
+	 */
+	public Tile tile(int tx, int ty) {
+		int x = tx * tileSize;
+		int y = ty * tileSize;
+		return new Tile(x, y, Math.min(tileSize, imgWidth - x), Math.min(tileSize, imgHeight - y));
+	}
+	
+	/**
+	 * Renders all the tiles with the given number of workers on the given pool and waits for them to finish.
+	 * Every worker keeps pulling tiles until none are left, so the load is balanced dynamically.
+	 * @param pool - the pool to run the workers on
+	 * @param nWorkers - the number of workers
+	 * @param renderer - renders a single tile
+	 */
+	public void run(ForkJoinPool pool, int nWorkers, Consumer<Tile> renderer)
+			throws InterruptedException, ExecutionException {
+		ForkJoinTask<?>[] workers = new ForkJoinTask<?>[nWorkers];
+		for(int i = 0; i < nWorkers; ++i) {
+			workers[i] = pool.submit(() -> {
+				Tile tile;
+				while((tile = nextTile()) != null)
+					renderer.accept(tile);
+				return null;
+			});
+		}
+		
+		for(ForkJoinTask<?> worker : workers)
+			worker.get();
+	}
+	
+	//Takes the even bits of the given code (the odd bits after a shift by one)
+	private static int compactBits(int code) {
+		code &= 0x55555555;
+		code = (code | (code >>> 1)) & 0x33333333;
+		code = (code | (code >>> 2)) & 0x0f0f0f0f;
+		code = (code | (code >>> 4)) & 0x00ff00ff;
+		code = (code | (code >>> 8)) & 0x0000ffff;
+		return code;
+	}
+}
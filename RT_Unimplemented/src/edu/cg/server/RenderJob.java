@@ -0,0 +1,211 @@
+package edu.cg.server;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import edu.cg.Logger;
+import edu.cg.RenderParameters;
+import edu.cg.image.PngWriter;
+import edu.cg.image.RowSource;
+import edu.cg.scene.RenderStatistics;
+import edu.cg.scene.Scene;
+import edu.cg.scene.render.RenderListener;
+import edu.cg.scene.render.Tile;
+
+/**
+ * A render submitted to a RenderServer: its scene and parameters, its state, the progress of its render and the
+ * times of its stages. A job runs on a thread of the server's job executor, and renders and encodes its image on
+ * the server's shared pool. The image is kept as PNG bytes once the job is done, and the scene is let go.
+ */
+final class RenderJob implements Runnable, RenderListener {
+	enum State {
+		QUEUED, RENDERING, ENCODING, DONE, FAILED, CANCELLED;
+
+		boolean isFinished() {
+			return this == DONE || this == FAILED || this == CANCELLED;
+		}
+	}
+
+	final int id;
+	private final String sceneName;
+	private final RenderParameters parameters;
+	private final ForkJoinPool workers;
+	private final Logger logger;
+	//released when the render is over
+	private Scene scene;
+
+	private State state = State.QUEUED;
+	private final long submitted = System.nanoTime();
+	private final double readMillis;
+	private long started, rendered, finished;
+	private String error = null;
+	private byte[] png = null;
+	private RenderStatistics statistics = null;
+	private long primaryRays = 0;
+
+	//the progress of the render, written by the rendering threads
+	private volatile int pass = 0, passCount = 1, passTiles = 1;
+	private final AtomicInteger tilesRendered = new AtomicInteger();
+
+	/**
+	 * @param readMillis - the time the scene took to read.
+	 */
+	RenderJob(int id, Scene scene, RenderParameters parameters, double readMillis, ForkJoinPool workers, Logger logger) {
+		this.id = id;
+		this.sceneName = scene.getName();
+		this.scene = scene;
+		this.parameters = parameters;
+		this.readMillis = readMillis;
+		this.workers = workers;
+		this.logger = logger;
+	}
+
+	@Override
+	public void run() {
+		if(!start())
+			return;
+		try {
+			BufferedImage img = scene.render(parameters.width(), parameters.height(), parameters.viewPlainWidth(),
+					logger, workers, this);
+			RenderStatistics renderStatistics = scene.getStatistics();
+			long rays = renderStatistics != null ? renderStatistics.getPrimaryRays() :
+				(long)parameters.width() * parameters.height() * scene.getFactor() * scene.getFactor();
+			rendered(renderStatistics, rays);
+			scene = null;
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			PngWriter.write(RowSource.of(img), out, workers);
+			finish(State.DONE, out.toByteArray(), null);
+		} catch(Exception | OutOfMemoryError e) {
+			scene = null;
+			finish(State.FAILED, null, e.toString());
+		}
+	}
+
+	private synchronized boolean start() {
+		if(state != State.QUEUED)
+			return false;
+		state = State.RENDERING;
+		started = System.nanoTime();
+		return true;
+	}
+
+	private synchronized void rendered(RenderStatistics renderStatistics, long rays) {
+		state = State.ENCODING;
+		rendered = System.nanoTime();
+		statistics = renderStatistics;
+		primaryRays = rays;
+	}
+
+	private synchronized void finish(State end, byte[] image, String message) {
+		state = end;
+		finished = System.nanoTime();
+		png = image;
+		error = message;
+		logger.log(end == State.DONE ? String.format("Done in %.3f s", (finished - submitted) / 1e9) : "Failed: " + message);
+	}
+
+	/**
+	 * Cancels the job if it hasn't started.
+	 * @return false if it has.
+	 */
+	synchronized boolean cancel() {
+		if(state != State.QUEUED)
+			return false;
+		scene = null;
+		state = State.CANCELLED;
+		finished = System.nanoTime();
+		return true;
+	}
+
+	synchronized State state() {
+		return state;
+	}
+
+	/**
+	 * The PNG image, null unless the job is done.
+	 */
+	synchronized byte[] png() {
+		return png;
+	}
+
+	@Override
+	public void passStarted(int pass, int passCount, int tileCount) {
+		tilesRendered.set(0);
+		this.passTiles = tileCount;
+		this.passCount = passCount;
+		this.pass = pass;
+	}
+
+	@Override
+	public void tileRendered(Tile tile) {
+		tilesRendered.incrementAndGet();
+	}
+
+	/**
+	 * The fraction of the render that is done, from 0 to 1, by the tiles rendered in every pass. The supersampling
+	 * pass of adaptive anti aliasing counts as much as the first pass, so the progress is only an estimate then.
+	 */
+	private double progress() {
+		int current = pass;
+		if(current == 0)
+			return 0.0;
+		double passDone = Math.min(1.0, (double)tilesRendered.get() / passTiles);
+		return (current - 1 + passDone) / passCount;
+	}
+
+	/**
+	 * The state of the job as it is reported by the server, in JSON through Gson.
+	 * Times are in milliseconds, and left out (null) for the stages the job hasn't reached.
+	 */
+	synchronized Status status() {
+		Status status = new Status();
+		long now = System.nanoTime();
+		status.id = id;
+		status.scene = sceneName;
+		status.parameters = parameters.toString();
+		status.state = state;
+		status.progress = state == State.RENDERING ? progress() : (state == State.ENCODING || state == State.DONE ? 1.0 : 0.0);
+		if(state == State.RENDERING) {
+			status.pass = pass;
+			status.passes = passCount;
+		}
+		status.readMillis = readMillis;
+		long queueEnd = started != 0 ? started : (finished != 0 ? finished : now);
+		status.queuedMillis = millis(submitted, queueEnd);
+		if(started != 0)
+			status.renderMillis = millis(started, rendered != 0 ? rendered : (finished != 0 ? finished : now));
+		if(rendered != 0)
+			status.encodeMillis = millis(rendered, finished != 0 ? finished : now);
+		status.totalMillis = millis(submitted, finished != 0 ? finished : now);
+		if(rendered != 0) {
+			status.primaryRays = primaryRays;
+			status.raysPerSecond = primaryRays / ((rendered - started) / 1e9);
+		}
+		if(png != null)
+			status.pngBytes = png.length;
+		status.error = error;
+		status.statistics = statistics;
+		return status;
+	}
+
+	private static Double millis(long from, long to) {
+		return (to - from) / 1e6;
+	}
+
+	static class Status {
+		int id;
+		String scene;
+		String parameters;
+		State state;
+		double progress;
+		Integer pass, passes;
+		Double readMillis, queuedMillis, renderMillis, encodeMillis, totalMillis;
+		Long primaryRays;
+		Double raysPerSecond;
+		Integer pngBytes;
+		String error;
+		RenderStatistics statistics;
+	}
+}
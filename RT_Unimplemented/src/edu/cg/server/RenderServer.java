@@ -0,0 +1,602 @@
+package edu.cg.server;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonParseException;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import edu.cg.JsonSceneReader;
+import edu.cg.Logger;
+import edu.cg.RenderParameters;
+import edu.cg.Scenes;
+import edu.cg.scene.Scene;
+
+/**
+ * A long running process that renders scenes sent to it over HTTP, so the tools of a pipeline don't start a JVM
+ * per render and the renders share the cores of the machine and the JIT compiled code.
+ *
+ * A job is the JSON of a scene (as saved by the GUI through GsonMaker) posted to /jobs, with the render parameters
+ * in the query, named as the options of BatchRenderer. Jobs wait in a queue of limited length, at most a given number
+ * of them render at a time, and all of them render and encode their images on one pool of threads, whose tiles
+ * they share. The progress and the times of a job are at /jobs/ID, its PNG image at /jobs/ID/image once it is done,
+ * and the state of the server with the times of all its jobs at /status. Finished jobs are kept in memory, up to
+ * a given number, and the oldest are forgotten first. Jobs of more than a given number of pixels are refused, and
+ * the meshes of a scene are only read from a given directory, so a client can't make the server read any file.
+ *
+ * Usage: RenderServer [options]
+ */
+public class RenderServer {
+	private static final String USAGE = String.join(System.lineSeparator(),
+			"Usage: RenderServer [options]",
+			"Renders the scenes posted to it over HTTP:",
+			"  POST   /jobs?width=W&height=H&...  the scene's JSON, answers 202 with the job's status and its URL in Location",
+			"  GET    /jobs/ID                    the job's state, progress and times",
+			"  GET    /jobs/ID/image              the PNG image of a job that is done (409 before)",
+			"  DELETE /jobs/ID                    cancels a queued job, or forgets a finished one",
+			"  GET    /status                     the server's state and the times of all its jobs",
+			"The query takes the rendering options of BatchRenderer without the dashes (width, height, view-width, aa,",
+			"adaptive-aa, aa-threshold, recursion, min-contribution, roulette, cheap-shading, reflections, refractions,",
+			"iterative, packets, float) and stats=on for the ray statistics of the render in its status.",
+			"Options:",
+			"  --port N               port to listen on (default 7420, 0 for any free port)",
+			"  --host HOST            address to listen on (default localhost, * for all addresses)",
+			"  --threads N            number of rendering threads shared by all jobs (default: number of cores)",
+			"  --concurrency N        number of jobs rendered at the same time (default 2)",
+			"  --queue N              number of jobs that can wait, more are refused with 503 (default 100)",
+			"  --keep N               number of finished jobs kept with their images (default 100)",
+			"  --max-pixels N         largest width x height of a job, larger ones are refused with 400 (default 16777216)",
+			"  --max-body N           largest scene JSON in bytes, larger ones are refused with 413 (default 16777216)",
+			"  --mesh-dir DIR         directory the meshes of the scenes are read from, relative paths resolved against it",
+			"                         (default: none, scenes with meshes are refused with 400)",
+			"  --warm-up N            renders of a small built-in scene at start, to compile the renderer (default 1)",
+			"  --verbose              print the renderer's log",
+			"  --help                 print this message");
+	public static final int DEFAULT_PORT = 7420;
+	//4096x4096
+	public static final long DEFAULT_MAX_PIXELS = 1L << 24;
+	//16 MB, a scene names the files of its meshes instead of holding them
+	public static final long DEFAULT_MAX_BODY = 1L << 24;
+	//the threads that read the requests and the scenes
+	private static final int HTTP_THREADS = 4;
+	private static final int WARM_UP_SIZE = 200;
+
+	private final HttpServer server;
+	private final ExecutorService requests;
+	private final ForkJoinPool workers;
+	private final ThreadPoolExecutor jobExecutor;
+	private final int queueSize;
+	private final int keep;
+	private final long maxPixels;
+	private final long maxBody;
+	//null if scenes may not have meshes
+	private final Path meshDirectory;
+	private final boolean verbose;
+	//the jobs by id, in the order they were submitted
+	private final Map<Integer, RenderJob> jobs = new LinkedHashMap<>();
+	private final AtomicInteger nextId = new AtomicInteger(1);
+	private final AtomicLong refused = new AtomicLong();
+	private final long startTime = System.nanoTime();
+	private final Gson gson = new GsonBuilder().setPrettyPrinting().serializeSpecialFloatingPointValues().create();
+
+	/**
+	 * Starts listening on the address.
+	 * @param nThreads - the number of rendering threads.
+	 * @param concurrency - the number of jobs rendered at the same time.
+	 * @param queueSize - the number of jobs that can wait for a render.
+	 * @param keep - the number of finished jobs that are kept.
+	 * @param maxPixels - the largest number of pixels of a job.
+	 * @param maxBody - the largest number of bytes of the JSON of a job.
+	 * @param meshDirectory - the directory the meshes of the scenes are read from, null to refuse scenes with meshes.
+	 */
+	public RenderServer(InetSocketAddress address, int nThreads, int concurrency, int queueSize, int keep, long maxPixels,
+			long maxBody, Path meshDirectory, boolean verbose) throws IOException {
+		this.workers = new ForkJoinPool(nThreads);
+		this.jobExecutor = new ThreadPoolExecutor(concurrency, concurrency, 0L, TimeUnit.MILLISECONDS,
+				new LinkedBlockingQueue<>(queueSize));
+		this.queueSize = queueSize;
+		this.keep = keep;
+		this.maxPixels = maxPixels;
+		this.maxBody = maxBody;
+		this.meshDirectory = meshDirectory;
+		this.verbose = verbose;
+		this.requests = Executors.newFixedThreadPool(HTTP_THREADS);
+		this.server = HttpServer.create(address, 0);
+		server.createContext("/jobs", this::handleJobs);
+		server.createContext("/status", this::handleStatus);
+		server.setExecutor(requests);
+		server.start();
+	}
+
+	public static void main(String[] args) {
+		System.setProperty("java.awt.headless", "true");
+
+		int port = DEFAULT_PORT;
+		String host = null;
+		int nThreads = Runtime.getRuntime().availableProcessors();
+		int concurrency = 2;
+		int queueSize = 100;
+		int keep = 100;
+		long maxPixels = DEFAULT_MAX_PIXELS;
+		long maxBody = DEFAULT_MAX_BODY;
+		Path meshDirectory = null;
+		int warmUps = 1;
+		boolean verbose = false;
+		try {
+			for(int i = 0; i < args.length; ++i) {
+				String arg = args[i];
+				if(arg.equals("--help")) {
+					System.out.println(USAGE);
+					return;
+				} else if(arg.equals("--verbose")) {
+					verbose = true;
+					continue;
+				}
+				if(i + 1 >= args.length)
+					throw new IllegalArgumentException("Missing value for " + arg);
+				String value = args[++i];
+				switch(arg) {
+				case "--port":
+					port = Integer.parseInt(value);
+					break;
+				case "--host":
+					host = value;
+					break;
+				case "--threads":
+					nThreads = Integer.parseInt(value);
+					break;
+				case "--concurrency":
+					concurrency = Integer.parseInt(value);
+					break;
+				case "--queue":
+					queueSize = Integer.parseInt(value);
+					break;
+				case "--keep":
+					keep = Integer.parseInt(value);
+					break;
+				case "--max-pixels":
+					maxPixels = Long.parseLong(value);
+					break;
+				case "--max-body":
+					maxBody = Long.parseLong(value);
+					break;
+				case "--mesh-dir":
+					meshDirectory = Paths.get(value);
+					if(!Files.isDirectory(meshDirectory))
+						throw new IllegalArgumentException("No such directory " + value);
+					break;
+				case "--warm-up":
+					warmUps = Integer.parseInt(value);
+					break;
+				default:
+					throw new IllegalArgumentException("Unknown option " + arg);
+				}
+			}
+			if(nThreads <= 0 || concurrency <= 0 || queueSize <= 0 || keep <= 0 || maxPixels <= 0 || maxBody <= 0)
+				throw new IllegalArgumentException("--threads, --concurrency, --queue, --keep, --max-pixels and --max-body must be positive");
+			if(port < 0 || warmUps < 0)
+				throw new IllegalArgumentException("--port and --warm-up must not be negative");
+		} catch(NumberFormatException e) {
+			System.err.println("Bad number: " + e.getMessage());
+			System.err.println(USAGE);
+			System.exit(2);
+		} catch(IllegalArgumentException e) {
+			System.err.println(e.getMessage());
+			System.err.println(USAGE);
+			System.exit(2);
+		}
+
+		try {
+			InetSocketAddress address = host == null ? new InetSocketAddress(InetAddress.getLoopbackAddress(), port) :
+				(host.equals("*") ? new InetSocketAddress(port) : new InetSocketAddress(host, port));
+			RenderServer renderServer = new RenderServer(address, nThreads, concurrency, queueSize, keep, maxPixels,
+					maxBody, meshDirectory, verbose);
+			Runtime.getRuntime().addShutdownHook(new Thread(renderServer::close));
+			renderServer.warmUp(warmUps);
+			System.out.println("Rendering on " + nThreads + " threads, " + concurrency + " job(s) at a time, at http://" +
+					address.getHostString() + ":" + renderServer.getPort() + "/jobs");
+		} catch(Exception e) {
+			System.err.println("The server couldn't start: " + e);
+			System.exit(1);
+		}
+	}
+
+	public int getPort() {
+		return server.getAddress().getPort();
+	}
+
+	/**
+	 * Renders Scenes.scene1 at 200x200 the given number of times on the rendering threads, so the first jobs don't
+	 * run in the interpreter. Jobs posted meanwhile render alongside it.
+	 */
+	public void warmUp(int renders) throws Exception {
+		for(int i = 0; i < renders; ++i) {
+			long start = System.nanoTime();
+			Scenes.scene1().render(WARM_UP_SIZE, WARM_UP_SIZE, 4.0, logger("warm-up"), workers);
+			log("warm-up", String.format("rendered in %.3f s", (System.nanoTime() - start) / 1e9));
+		}
+	}
+
+	/**
+	 * Stops listening, and stops the jobs.
+	 */
+	public void close() {
+		server.stop(0);
+		requests.shutdownNow();
+		jobExecutor.shutdownNow();
+		workers.shutdownNow();
+	}
+
+	//MARK: requests
+	private void handleJobs(HttpExchange exchange) throws IOException {
+		try(HttpExchange request = exchange) {
+			String[] path = request.getRequestURI().getPath().split("/");
+			String method = request.getRequestMethod();
+			//path[0] is empty and path[1] is "jobs", the context also gets paths such as /jobsfoo
+			if(path.length < 2 || !path[1].equals("jobs")) {
+				sendError(request, 404, "No such resource");
+				return;
+			}
+			if(path.length == 2) {
+				if(method.equals("POST"))
+					submit(request);
+				else if(method.equals("GET"))
+					sendJson(request, 200, jobStatuses());
+				else
+					sendError(request, 405, method + " is not allowed on /jobs");
+				return;
+			}
+
+			RenderJob job;
+			try {
+				synchronized(jobs) {
+					job = jobs.get(Integer.parseInt(path[2]));
+				}
+			} catch(NumberFormatException e) {
+				job = null;
+			}
+			if(job == null || path.length > 4 || (path.length == 4 && !path[3].equals("image"))) {
+				sendError(request, 404, "No such job");
+				return;
+			}
+
+			if(path.length == 4) {
+				if(!method.equals("GET")) {
+					sendError(request, 405, method + " is not allowed on an image");
+					return;
+				}
+				byte[] png = job.png();
+				if(png == null) {
+					sendJson(request, 409, job.status());
+					return;
+				}
+				request.getResponseHeaders().set("Content-Type", "image/png");
+				send(request, 200, png);
+			} else if(method.equals("GET")) {
+				sendJson(request, 200, job.status());
+			} else if(method.equals("DELETE")) {
+				delete(request, job);
+			} else {
+				sendError(request, 405, method + " is not allowed on a job");
+			}
+		} catch(RuntimeException e) {
+			log("server", "Couldn't answer " + exchange.getRequestURI() + ": " + e);
+		}
+	}
+
+	private void handleStatus(HttpExchange exchange) throws IOException {
+		try(HttpExchange request = exchange) {
+			//the context also gets paths such as /status/1 and /statusfoo
+			if(!request.getRequestURI().getPath().equals("/status")) {
+				sendError(request, 404, "No such resource");
+				return;
+			}
+			if(!request.getRequestMethod().equals("GET")) {
+				sendError(request, 405, request.getRequestMethod() + " is not allowed on /status");
+				return;
+			}
+			ServerStatus status = new ServerStatus();
+			status.uptimeSeconds = (System.nanoTime() - startTime) / 1e9;
+			status.threads = workers.getParallelism();
+			status.concurrency = jobExecutor.getMaximumPoolSize();
+			status.queueSize = queueSize;
+			status.received = nextId.get() - 1;
+			status.refused = refused.get();
+			status.jobs = jobStatuses();
+			for(RenderJob.Status job : status.jobs) {
+				switch(job.state) {
+				case QUEUED: ++status.queued; break;
+				case RENDERING: case ENCODING: ++status.running; break;
+				case DONE: ++status.done; break;
+				case FAILED: ++status.failed; break;
+				default: break;
+				}
+			}
+			sendJson(request, 200, status);
+		} catch(RuntimeException e) {
+			log("server", "Couldn't answer " + exchange.getRequestURI() + ": " + e);
+		}
+	}
+
+	/**
+	 * Reads the scene and the parameters of a new job and queues it, or refuses it if the queue is full. The parameters,
+	 * the length of the body and the room in the queue are checked before the scene is read, so a refused job costs
+	 * next to nothing, and no more than maxBody bytes of a scene are read.
+	 */
+	private void submit(HttpExchange request) throws IOException {
+		RenderParameters parameters = new RenderParameters();
+		Map<String, Boolean> sceneSwitches;
+		long start = System.nanoTime();
+		int id = nextId.getAndIncrement();
+		try {
+			sceneSwitches = applyQuery(parseQuery(request.getRequestURI().getRawQuery()), parameters);
+			if((long)parameters.width() * parameters.height() > maxPixels)
+				throw new IllegalArgumentException(parameters.width() + "x" + parameters.height() + " is more than " +
+						maxPixels + " pixels");
+		} catch(IllegalArgumentException e) {
+			refused.incrementAndGet();
+			sendError(request, 400, e.getMessage());
+			return;
+		}
+		String length = request.getRequestHeaders().getFirst("Content-Length");
+		if(length != null && parseLength(length) > maxBody) {
+			refused.incrementAndGet();
+			sendError(request, 413, "The scene is more than " + maxBody + " bytes");
+			return;
+		}
+		//the queue can still fill up meanwhile, which the executor refuses below
+		if(jobExecutor.getQueue().remainingCapacity() == 0) {
+			refused.incrementAndGet();
+			sendError(request, 503, "The queue is full");
+			return;
+		}
+		Scene scene;
+		try {
+			//a chunked body has no length, and a length can be wrong
+			InputStream body = new LimitedInputStream(request.getRequestBody(), maxBody);
+			scene = JsonSceneReader.read(new InputStreamReader(body, StandardCharsets.UTF_8), "job " + id,
+					meshDirectory, true);
+			applySceneSwitches(sceneSwitches, parameters, scene);
+		} catch(BodyTooLargeException e) {
+			refused.incrementAndGet();
+			sendError(request, 413, e.getMessage());
+			return;
+		} catch(IOException | JsonParseException | IllegalArgumentException e) {
+			refused.incrementAndGet();
+			sendError(request, 400, e.getMessage());
+			return;
+		}
+
+		Logger logger = logger("job " + id);
+		RenderJob job = new RenderJob(id, scene, parameters, (System.nanoTime() - start) / 1e6, workers, logger);
+		synchronized(jobs) {
+			jobs.put(id, job);
+			forgetFinishedJobs();
+		}
+		try {
+			jobExecutor.execute(job);
+		} catch(RejectedExecutionException e) {
+			synchronized(jobs) {
+				jobs.remove(id);
+			}
+			refused.incrementAndGet();
+			sendError(request, 503, "The queue is full");
+			return;
+		}
+		logger.log("Queued " + scene.getName() + " at " + parameters);
+		request.getResponseHeaders().set("Location", "/jobs/" + id);
+		sendJson(request, 202, job.status());
+	}
+
+	private void delete(HttpExchange request, RenderJob job) throws IOException {
+		if(job.cancel()) {
+			jobExecutor.remove(job);
+			logger("job " + job.id).log("Cancelled");
+		} else if(!job.state().isFinished()) {
+			sendError(request, 409, "The job is being rendered");
+			return;
+		} else {
+			synchronized(jobs) {
+				jobs.remove(job.id);
+			}
+		}
+		sendJson(request, 200, job.status());
+	}
+
+	//forgets the oldest finished jobs beyond the number kept
+	private void forgetFinishedJobs() {
+		int finished = 0;
+		for(RenderJob job : jobs.values())
+			if(job.state().isFinished())
+				++finished;
+		for(Iterator<RenderJob> i = jobs.values().iterator(); finished > keep && i.hasNext();) {
+			if(i.next().state().isFinished()) {
+				i.remove();
+				--finished;
+			}
+		}
+	}
+
+	private List<RenderJob.Status> jobStatuses() {
+		List<RenderJob> all;
+		synchronized(jobs) {
+			all = new ArrayList<>(jobs.values());
+		}
+		List<RenderJob.Status> statuses = new ArrayList<>(all.size());
+		for(RenderJob job : all)
+			statuses.add(job.status());
+		return statuses;
+	}
+
+	//MARK: parameters
+	private static Map<String, String> parseQuery(String query) {
+		if(query == null || query.isEmpty())
+			return Collections.emptyMap();
+		Map<String, String> parameters = new LinkedHashMap<>();
+		for(String pair : query.split("&")) {
+			int equals = pair.indexOf('=');
+			if(equals < 0)
+				throw new IllegalArgumentException("Missing value for " + pair);
+			parameters.put(URLDecoder.decode(pair.substring(0, equals), StandardCharsets.UTF_8),
+					URLDecoder.decode(pair.substring(equals + 1), StandardCharsets.UTF_8));
+		}
+		return parameters;
+	}
+
+	/**
+	 * Sets the render parameters of the query, before the scene is read.
+	 * @return the switches of the query that are set on the scene, by name.
+	 */
+	private static Map<String, Boolean> applyQuery(Map<String, String> query, RenderParameters parameters) {
+		Map<String, Boolean> sceneSwitches = new LinkedHashMap<>();
+		for(Map.Entry<String, String> parameter : query.entrySet()) {
+			String name = parameter.getKey(), value = parameter.getValue();
+			try {
+				if(parameters.initOption(name, value))
+					continue;
+				switch(name) {
+				case "iterative":
+				case "packets":
+				case "float":
+				case "stats":
+					sceneSwitches.put(name, RenderParameters.parseSwitch(name, value));
+					break;
+				default:
+					throw new IllegalArgumentException("Unknown parameter " + name);
+				}
+			} catch(NumberFormatException e) {
+				throw new IllegalArgumentException("Bad value for " + name + ": " + value);
+			}
+		}
+		return sceneSwitches;
+	}
+
+	private static void applySceneSwitches(Map<String, Boolean> sceneSwitches, RenderParameters parameters, Scene scene) {
+		for(Map.Entry<String, Boolean> sceneSwitch : sceneSwitches.entrySet()) {
+			boolean on = sceneSwitch.getValue();
+			switch(sceneSwitch.getKey()) {
+			case "iterative": scene.initIterativeTracing(on); break;
+			case "packets": scene.initPacketTracing(on); break;
+			case "float": scene.initSinglePrecision(on); break;
+			case "stats": scene.initCollectStatistics(on); break;
+			default: break;
+			}
+		}
+		parameters.applyTo(scene);
+	}
+
+	private static long parseLength(String length) {
+		try {
+			return Long.parseLong(length.trim());
+		} catch(NumberFormatException e) {
+			//HttpServer refuses such requests before they get here
+			return -1;
+		}
+	}
+
+	//the body of a request, which fails once more than the given number of bytes are read from it
+	private static class LimitedInputStream extends FilterInputStream {
+		private long remaining;
+		private final long limit;
+
+		LimitedInputStream(InputStream in, long limit) {
+			super(in);
+			this.remaining = limit;
+			this.limit = limit;
+		}
+
+		@Override
+		public int read() throws IOException {
+			int b = super.read();
+			if(b >= 0)
+				count(1);
+			return b;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			int n = super.read(b, off, len);
+			if(n > 0)
+				count(n);
+			return n;
+		}
+
+		private void count(int n) throws BodyTooLargeException {
+			remaining -= n;
+			if(remaining < 0)
+				throw new BodyTooLargeException("The scene is more than " + limit + " bytes");
+		}
+	}
+
+	@SuppressWarnings("serial")
+	private static class BodyTooLargeException extends IOException {
+		BodyTooLargeException(String message) {
+			super(message);
+		}
+	}
+
+	//MARK: responses
+	private void sendJson(HttpExchange request, int code, Object body) throws IOException {
+		request.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+		send(request, code, gson.toJson(body).getBytes(StandardCharsets.UTF_8));
+	}
+
+	private void sendError(HttpExchange request, int code, String message) throws IOException {
+		sendJson(request, code, Collections.singletonMap("error", String.valueOf(message)));
+	}
+
+	private static void send(HttpExchange request, int code, byte[] body) throws IOException {
+		request.sendResponseHeaders(code, body.length);
+		try(OutputStream out = request.getResponseBody()) {
+			out.write(body);
+		}
+	}
+
+	private Logger logger(String name) {
+		return verbose ? (s -> log(name, s)) : (s -> {});
+	}
+
+	private static synchronized void log(String name, Object message) {
+		System.out.println("[" + name + "] " + message);
+	}
+
+	static class ServerStatus {
+		double uptimeSeconds;
+		int threads;
+		int concurrency;
+		int queueSize;
+		//the jobs posted, and how many of them were refused for a bad request or a full queue
+		long received;
+		long refused;
+		int queued, running, done, failed;
+		List<RenderJob.Status> jobs;
+	}
+}
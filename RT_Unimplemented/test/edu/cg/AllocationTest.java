@@ -0,0 +1,69 @@
+package edu.cg;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Checks that tracing allocates next to nothing per ray: a reference scene is rendered in a JVM of its own with the
+ * Epsilon GC, which never frees memory, and a heap of 32 MB. Scene 3's reflective and refractive spheres fill the
+ * frame, so most primary rays hit, are shaded and spawn secondary rays. Three 400x400 renders with anti aliasing x2
+ * trace 1.9 million primary rays and about 10 million secondary ones, so a single 16 byte object per ray would run
+ * out of heap.
+ */
+public class AllocationTest {
+	private static final String HEAP = "-Xmx32m";
+	private static final int RENDERS = 3;
+	private static final int SIZE = 400;
+	private static final double VIEW_PLAIN_WIDTH = 2.0;
+	private static final int OUT_OF_MEMORY = 3;
+	private static final long TIMEOUT_MINUTES = 5;
+
+	@Test
+	public void rendersWithoutGarbageCollection() throws IOException, InterruptedException {
+		String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+		//the output goes to a file, so waiting for the process can time out
+		Path log = Files.createTempFile("allocation-test", ".log");
+		try {
+			Process process = new ProcessBuilder(java, "-XX:+UnlockExperimentalVMOptions", "-XX:+UseEpsilonGC", HEAP,
+					"-Xlog:disable", "-Djava.awt.headless=true", "-cp", System.getProperty("java.class.path"),
+					AllocationTest.class.getName())
+					.redirectErrorStream(true).redirectOutput(log.toFile()).start();
+			if(!process.waitFor(TIMEOUT_MINUTES, TimeUnit.MINUTES)) {
+				process.destroyForcibly().waitFor();
+				fail("The render didn't finish in " + TIMEOUT_MINUTES + " minutes:\n" + read(log));
+			}
+			assertEquals(0, process.exitValue(), "The render failed under the Epsilon GC with " + HEAP + ":\n" + read(log));
+		} finally {
+			Files.deleteIfExists(log);
+		}
+	}
+
+	private static String read(Path log) throws IOException {
+		return new String(Files.readAllBytes(log), StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Renders the reference scene in the forked JVM, and exits with OUT_OF_MEMORY if the heap runs out.
+	 */
+	public static void main(String[] args) throws Exception {
+		ForkJoinPool pool = new ForkJoinPool(2);
+		try {
+			for(int i = 0; i < RENDERS; ++i)
+				Scenes.scene3().initAntiAliasingFactor(2).render(SIZE, SIZE, VIEW_PLAIN_WIDTH, s -> {}, pool);
+		} catch(OutOfMemoryError e) {
+			System.out.println("Out of memory: " + e.getMessage());
+			System.exit(OUT_OF_MEMORY);
+		}
+		pool.shutdown();
+	}
+}
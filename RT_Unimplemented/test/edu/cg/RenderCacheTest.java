@@ -0,0 +1,94 @@
+package edu.cg;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.awt.image.BufferedImage;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.locks.LockSupport;
+
+import org.junit.jupiter.api.Test;
+
+import edu.cg.algebra.Point;
+import edu.cg.algebra.Vec;
+import edu.cg.scene.Scene;
+import edu.cg.scene.objects.Instance;
+import edu.cg.scene.objects.Material;
+import edu.cg.scene.objects.Sphere;
+import edu.cg.scene.objects.Surface;
+import edu.cg.scene.render.RenderListener;
+import edu.cg.scene.render.Tile;
+
+/**
+ * The render cache relies on a key always giving the same pixels: the keys of two loads of a scene are equal, and
+ * the scene renders to the same pixels whatever the number of threads and the order its tiles are rendered in.
+ */
+public class RenderCacheTest {
+	private static final int SIZE = 96;
+	private static final double VIEW_PLAIN_WIDTH = 2.0;
+
+	//scene 7 has boxes, whose names differ between loads, instances and reflections; adaptive anti aliasing
+	//compares the pixels of neighboring tiles
+	private static Scene scene() {
+		return Scenes.scene7().initAntiAliasingFactor(2).initAdaptiveAntiAliasing(true);
+	}
+
+	@Test
+	public void keysOfTwoLoadsAreEqual() throws Exception {
+		Scene first = scene(), second = scene();
+		String key = RenderCache.key(first, SIZE, SIZE, VIEW_PLAIN_WIDTH);
+		assertEquals(key, RenderCache.key(second, SIZE, SIZE, VIEW_PLAIN_WIDTH));
+		render(first, 2, null);
+		assertEquals(key, RenderCache.key(first, SIZE, SIZE, VIEW_PLAIN_WIDTH), "A render changed the key of its scene");
+	}
+
+	@Test
+	public void keysKeepPrototypesCalledName() {
+		String small = RenderCache.key(sphereInstance(1.0), SIZE, SIZE, VIEW_PLAIN_WIDTH);
+		String large = RenderCache.key(sphereInstance(2.0), SIZE, SIZE, VIEW_PLAIN_WIDTH);
+		assertNotEquals(small, large);
+	}
+
+	@Test
+	public void pixelsDontDependOnTheScheduling() throws Exception {
+		Scene scene = scene();
+		int[] reference = render(scene, 1, null);
+		for(long seed = 1; seed <= 3; ++seed)
+			assertArrayEquals(reference, render(scene, 3, new Random(seed)), "The pixels differ with seed " + seed);
+		assertNull(RenderCache.checkDeterminism(scene, SIZE, SIZE, VIEW_PLAIN_WIDTH, s -> {}, 1, 4));
+	}
+
+	private static Scene sphereInstance(double radius) {
+		return new Scene().initCamera(new Point(0, 0, 5), new Vec(0, 0, -1), new Vec(0, 1, 0), 1.0)
+				.addPrototype("name", new Sphere(new Point(0, 0, 0), radius))
+				.addSurface(new Surface(new Instance("name", new Vec(0, 0, 0), 1.0), new Material()));
+	}
+
+	/**
+	 * Renders the scene on a pool of the given number of threads. With a random generator, every thread pauses for
+	 * up to half a millisecond after each of its tiles, so the threads take the tiles in a shuffled order.
+	 */
+	private static int[] render(Scene scene, int nThreads, Random random) throws Exception {
+		RenderListener shuffler = new RenderListener() {
+			@Override
+			public void tileRendered(Tile tile) {
+				long pause;
+				synchronized(random) {
+					pause = random.nextInt(500_000);
+				}
+				LockSupport.parkNanos(pause);
+			}
+		};
+		ForkJoinPool pool = new ForkJoinPool(nThreads);
+		try {
+			BufferedImage img = random == null ? scene.render(SIZE, SIZE, VIEW_PLAIN_WIDTH, s -> {}, pool) :
+				scene.render(SIZE, SIZE, VIEW_PLAIN_WIDTH, s -> {}, pool, shuffler);
+			return img.getRGB(0, 0, SIZE, SIZE, null, 0, SIZE);
+		} finally {
+			pool.shutdown();
+		}
+	}
+}
@@ -0,0 +1,85 @@
+package edu.cg.distributed;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.awt.image.BufferedImage;
+import java.net.InetAddress;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+
+import edu.cg.Logger;
+import edu.cg.Scenes;
+import edu.cg.scene.Scene;
+
+/**
+ * A distributed render gives the pixels of a local render, even when a worker is lost in the middle of it and its
+ * tiles are handed out to the other worker.
+ */
+public class RenderCoordinatorTest {
+	private static final int SIZE = 96;
+	private static final int TILE_SIZE = 16;
+	private static final double VIEW_PLAIN_WIDTH = 2.0;
+
+	@Test
+	@Timeout(300)
+	public void losingAWorkerKeepsThePixels() throws Exception {
+		Scene scene = Scenes.scene3();
+		int[] expected = renderLocally(scene);
+
+		try(RenderCoordinator coordinator = new RenderCoordinator(InetAddress.getLoopbackAddress(), 0, s -> {})
+				.initTileSize(TILE_SIZE)) {
+			//the dropped worker is closed once it started the job, when the coordinator has handed it tiles
+			CountDownLatch started = new CountDownLatch(1);
+			RenderWorker dropped = new RenderWorker(1, s -> {
+				if(s.startsWith("Started job"))
+					started.countDown();
+			});
+			RenderWorker kept = new RenderWorker(1, s -> {});
+			start(dropped, coordinator.getPort());
+			start(kept, coordinator.getPort());
+			while(coordinator.workerCount() < 2)
+				Thread.sleep(10);
+
+			Thread closer = new Thread(() -> {
+				try {
+					started.await();
+					dropped.close();
+				} catch(Exception e) {
+					throw new RuntimeException(e);
+				}
+			});
+			closer.start();
+			BufferedImage img = coordinator.render(scene, SIZE, SIZE, VIEW_PLAIN_WIDTH, s -> {});
+			closer.join();
+
+			assertArrayEquals(expected, img.getRGB(0, 0, SIZE, SIZE, null, 0, SIZE));
+			assertTrue(coordinator.reassigned() > 0, "No tile of the lost worker was handed out again");
+		}
+	}
+
+	private static int[] renderLocally(Scene scene) throws Exception {
+		ForkJoinPool pool = new ForkJoinPool(2);
+		try {
+			return scene.render(SIZE, SIZE, VIEW_PLAIN_WIDTH, s -> {}, pool).getRGB(0, 0, SIZE, SIZE, null, 0, SIZE);
+		} finally {
+			pool.shutdown();
+		}
+	}
+
+	//runs the worker until it is closed or the coordinator is
+	private static void start(RenderWorker worker, int port) {
+		Thread thread = new Thread(() -> {
+			try {
+				worker.run(InetAddress.getLoopbackAddress().getHostAddress(), port, 10_000);
+			} catch(Exception e) {
+				//the dropped worker stops with the closed socket
+			}
+		});
+		thread.setDaemon(true);
+		thread.start();
+	}
+}
@@ -0,0 +1,130 @@
+package edu.cg.server;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assertions.fail;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+import javax.imageio.ImageIO;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+import edu.cg.Scenes;
+import edu.cg.menu.GsonMaker;
+import edu.cg.scene.Scene;
+
+/**
+ * The HTTP interface of a RenderServer with one rendering thread, one job at a time and room for one more in the
+ * queue. The jobs that have to stay unfinished render scene 6 large enough to keep the thread busy for the test.
+ */
+public class RenderServerTest {
+	private static final int SIZE = 64;
+	private static final double VIEW_PLAIN_WIDTH = 2.0;
+	private static final long MAX_PIXELS = 1L << 22;
+	private static final String SLOW_QUERY = "width=1500&height=1500&aa=3";
+
+	private RenderServer server;
+	private HttpClient client;
+
+	@BeforeEach
+	public void start() throws Exception {
+		server = new RenderServer(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 1, 1, 1, 10,
+				MAX_PIXELS, RenderServer.DEFAULT_MAX_BODY, null, false);
+		client = HttpClient.newHttpClient();
+	}
+
+	@AfterEach
+	public void stop() {
+		server.close();
+	}
+
+	@Test
+	@Timeout(300)
+	public void rendersAPostedScene() throws Exception {
+		Scene scene = Scenes.scene3();
+		HttpResponse<String> posted = post(scene, "width=" + SIZE + "&height=" + SIZE + "&view-width=" + VIEW_PLAIN_WIDTH);
+		assertEquals(202, posted.statusCode(), posted.body());
+		String location = posted.headers().firstValue("Location").orElseThrow();
+		for(String state = state(location); !state.equals("DONE"); state = state(location)) {
+			assertNotEquals("FAILED", state, "The job failed");
+			TimeUnit.MILLISECONDS.sleep(20);
+		}
+
+		HttpResponse<byte[]> image = client.send(request(location + "/image").build(), HttpResponse.BodyHandlers.ofByteArray());
+		assertEquals(200, image.statusCode());
+		assertEquals("image/png", image.headers().firstValue("Content-Type").orElse(null));
+		BufferedImage png = ImageIO.read(new ByteArrayInputStream(image.body()));
+		ForkJoinPool pool = new ForkJoinPool(2);
+		try {
+			BufferedImage expected = scene.render(SIZE, SIZE, VIEW_PLAIN_WIDTH, s -> {}, pool);
+			assertArrayEquals(expected.getRGB(0, 0, SIZE, SIZE, null, 0, SIZE), png.getRGB(0, 0, SIZE, SIZE, null, 0, SIZE));
+		} finally {
+			pool.shutdown();
+		}
+	}
+
+	@Test
+	public void refusesTooManyPixels() throws Exception {
+		HttpResponse<String> posted = post(Scenes.scene1(), "width=4096&height=4096");
+		assertEquals(400, posted.statusCode());
+		assertTrue(posted.body().contains("pixels"), posted.body());
+	}
+
+	@Test
+	@Timeout(300)
+	public void queuesCancelsAndRefusesJobs() throws Exception {
+		//the first job renders, the second one waits in the queue and there is no room for a third
+		String rendering = post(Scenes.scene6(), SLOW_QUERY).headers().firstValue("Location").orElseThrow();
+		HttpResponse<String> queued = post(Scenes.scene6(), SLOW_QUERY);
+		assertEquals(202, queued.statusCode(), queued.body());
+		assertEquals(503, post(Scenes.scene6(), SLOW_QUERY).statusCode());
+
+		HttpResponse<String> image = client.send(request(rendering + "/image").build(), HttpResponse.BodyHandlers.ofString());
+		assertEquals(409, image.statusCode());
+
+		String location = queued.headers().firstValue("Location").orElseThrow();
+		assertEquals("QUEUED", state(location));
+		HttpResponse<String> deleted = client.send(request(location).DELETE().build(), HttpResponse.BodyHandlers.ofString());
+		assertEquals(200, deleted.statusCode());
+		assertEquals("CANCELLED", state(location));
+		//the queue has room again
+		assertEquals(202, post(Scenes.scene6(), SLOW_QUERY).statusCode());
+	}
+
+	private HttpResponse<String> post(Scene scene, String query) throws Exception {
+		String json = GsonMaker.getInstance().toJson(scene);
+		return client.send(request("/jobs?" + query).POST(HttpRequest.BodyPublishers.ofString(json)).build(),
+				HttpResponse.BodyHandlers.ofString());
+	}
+
+	private String state(String location) throws Exception {
+		HttpResponse<String> status = client.send(request(location).build(), HttpResponse.BodyHandlers.ofString());
+		if(status.statusCode() != 200)
+			fail("GET " + location + " answered " + status.statusCode() + ": " + status.body());
+		JsonObject json = new JsonParser().parse(status.body()).getAsJsonObject();
+		return json.get("state").getAsString();
+	}
+
+	private HttpRequest.Builder request(String path) {
+		return HttpRequest.newBuilder(URI.create("http://" + InetAddress.getLoopbackAddress().getHostAddress() + ":" +
+				server.getPort() + path));
+	}
+}
@@ -0,0 +1,33 @@
+package edu.cg.benchmarks;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Entry point of the benchmarks jar. Accepts the usual JMH command line, and adds the GC profiler
+ * when no profiler is given, so allocation regressions show up next to time regressions.
+ *
+ * Usage: java -jar benchmarks/target/benchmarks.jar [JMH options] [benchmark regexp]
+ */
+public class Benchmarks {
+	public static void main(String[] args) throws Exception {
+		CommandLineOptions cmdOptions = new CommandLineOptions(args);
+		if(cmdOptions.shouldHelp()) {
+			cmdOptions.showHelp();
+			return;
+		}
+		
+		ChainedOptionsBuilder builder = new OptionsBuilder().parent(cmdOptions);
+		if(cmdOptions.getProfilers().isEmpty())
+			builder.addProfiler(GCProfiler.class);
+		
+		Runner runner = new Runner(builder.build());
+		if(cmdOptions.shouldList())
+			runner.list();
+		else
+			runner.run();
+	}
+}
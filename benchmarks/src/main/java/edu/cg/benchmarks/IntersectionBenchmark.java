@@ -0,0 +1,82 @@
+package edu.cg.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import edu.cg.algebra.Hit;
+import edu.cg.algebra.Ops;
+import edu.cg.algebra.Point;
+import edu.cg.algebra.Ray;
+import edu.cg.algebra.Vec;
+import edu.cg.scene.objects.AxisAlignedBox;
+import edu.cg.scene.objects.Plain;
+import edu.cg.scene.objects.Shape;
+import edu.cg.scene.objects.Sphere;
+
+/**
+ * Throughput of a single ray against a single primitive, for rays that hit it and rays that miss it.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class IntersectionBenchmark {
+	@Param({"sphere", "box", "plain"})
+	public String shape;
+	
+	@Param({"hit", "miss"})
+	public String outcome;
+	
+	private Shape target;
+	private Ray ray;
+	private final Hit hit = new Hit();
+	
+	@Setup
+	public void setup() {
+		switch(shape) {
+		case "sphere":
+			target = new Sphere(new Point(0, 0, 0), 1.0);
+			break;
+		case "box":
+			target = new AxisAlignedBox(new Point(-1, -1, -1), new Point(1, 1, 1));
+			break;
+		default:
+			target = new Plain(new Vec(0, 0, 1), new Point(0, 0, 0));
+			break;
+		}
+		
+		boolean hits = outcome.equals("hit");
+		if(target instanceof Plain)
+			ray = new Ray(new Point(0.2, 0.3, 5), new Vec(0.1, 0.05, hits ? -1 : 1));
+		else
+			ray = new Ray(hits ? new Point(0.2, 0.3, 5) : new Point(3, 3, 5), new Vec(0.01, 0.02, -1));
+	}
+	
+	@Benchmark
+	public boolean intersect() {
+		return target.intersect(ray, hit);
+	}
+	
+	@Benchmark
+	public Hit intersectAllocating() {
+		return target.intersect(ray);
+	}
+	
+	@Benchmark
+	public boolean occludes() {
+		return target.occludes(ray, Ops.infinity);
+	}
+}
@@ -0,0 +1,56 @@
+package edu.cg.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import edu.cg.algebra.Ops;
+import edu.cg.algebra.Vec;
+
+/**
+ * The reflection and refraction kernels of Ops, in their allocating and in-place forms.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MathBenchmark {
+	private final Vec direction = new Vec(0.3, -0.8, -0.5).normalize();
+	private final Vec normal = new Vec(0.0, 1.0, 0.0);
+	private final Vec result = new Vec();
+	
+	@Benchmark
+	public Vec refract() {
+		return Ops.refract(direction, normal, 1.0, 1.5);
+	}
+	
+	@Benchmark
+	public Vec refractInPlace() {
+		return Ops.refract(direction, normal, 1.0, 1.5, result);
+	}
+	
+	@Benchmark
+	public Vec reflect() {
+		return Ops.reflect(direction, normal);
+	}
+	
+	@Benchmark
+	public Vec reflectInPlace() {
+		return Ops.reflect(direction, normal, result);
+	}
+	
+	@Benchmark
+	public Vec normalize() {
+		return direction.normalize();
+	}
+}
@@ -0,0 +1,139 @@
+package edu.cg.benchmarks;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import edu.cg.algebra.Hit;
+import edu.cg.algebra.Ops;
+import edu.cg.algebra.Point;
+import edu.cg.algebra.Ray;
+import edu.cg.algebra.Vec;
+import edu.cg.scene.objects.TriangleMesh;
+
+/**
+ * Loading a triangle mesh from an OBJ file, and tracing rays against it. The mesh is a generated sphere of
+ * about segments^2 triangles, 40 thousand and 4 million for the default sizes. The rays are a grid
+ * over the sphere, traced in scanline order like primary rays, and the time of tracing is per ray.
+ *
+ * Usage: java -jar benchmarks/target/benchmarks.jar Mesh
+ */
+@State(Scope.Benchmark)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx4g"})
+public class MeshBenchmark {
+	private static final int GRID = 256;
+
+	@Param({"200", "2000"})
+	public int segments;
+
+	private Path file;
+	private TriangleMesh mesh;
+	private Ray[] rays;
+	private final Hit hit = new Hit();
+
+	@Setup
+	public void setup() throws IOException {
+		file = Files.createTempFile("mesh", ".obj");
+		writeSphere(file, segments);
+		mesh = TriangleMesh.load(file);
+		rays = new Ray[GRID * GRID];
+		Point source = new Point(0.1, 0.05, 5);
+		for(int y = 0; y < GRID; ++y) {
+			for(int x = 0; x < GRID; ++x)
+				rays[y * GRID + x] = new Ray(source, new Vec(0.5 * (x - GRID / 2) / GRID, 0.5 * (y - GRID / 2) / GRID, -1));
+		}
+	}
+
+	@TearDown
+	public void tearDown() throws IOException {
+		Files.deleteIfExists(file);
+	}
+
+	/**
+	 * Writes a sphere of radius 1 with the given number of segments around it and segments / 2 rings,
+	 * with its coordinates to six decimal places like common exporters.
+	 */
+	private static void writeSphere(Path file, int segments) throws IOException {
+		int rings = segments / 2;
+		try(BufferedWriter out = Files.newBufferedWriter(file)) {
+			out.write("v 0 0 1\n");
+			for(int r = 1; r < rings; ++r) {
+				double theta = Math.PI * r / rings;
+				for(int s = 0; s < segments; ++s) {
+					double phi = 2 * Math.PI * s / segments;
+					out.write(String.format(Locale.ROOT, "v %.6f %.6f %.6f\n", Math.sin(theta) * Math.cos(phi),
+							Math.sin(theta) * Math.sin(phi), Math.cos(theta)));
+				}
+			}
+			out.write("v 0 0 -1\n");
+			int last = 2 + (rings - 1) * segments;
+			for(int s = 0; s < segments; ++s)
+				out.write("f 1 " + (2 + s) + " " + (2 + (s + 1) % segments) + "\n");
+			for(int r = 1; r < rings - 1; ++r) {
+				for(int s = 0; s < segments; ++s) {
+					int next = (s + 1) % segments;
+					out.write("f " + (2 + (r - 1) * segments + s) + " " + (2 + r * segments + s) + " " +
+							(2 + r * segments + next) + " " + (2 + (r - 1) * segments + next) + "\n");
+				}
+			}
+			for(int s = 0; s < segments; ++s)
+				out.write("f " + (2 + (rings - 2) * segments + s) + " " + last + " " +
+						(2 + (rings - 2) * segments + (s + 1) % segments) + "\n");
+		}
+	}
+
+	@Benchmark
+	@BenchmarkMode(Mode.SingleShotTime)
+	@OutputTimeUnit(TimeUnit.MILLISECONDS)
+	@Warmup(iterations = 2)
+	@Measurement(iterations = 5)
+	public TriangleMesh load() throws IOException {
+		return TriangleMesh.load(file);
+	}
+
+	@Benchmark
+	@BenchmarkMode(Mode.AverageTime)
+	@OperationsPerInvocation(GRID * GRID)
+	@Warmup(iterations = 3, time = 1)
+	@Measurement(iterations = 5, time = 1)
+	public int intersect() {
+		int hits = 0;
+		for(Ray ray : rays) {
+			if(mesh.intersect(ray, hit))
+				++hits;
+		}
+		return hits;
+	}
+
+	@Benchmark
+	@BenchmarkMode(Mode.AverageTime)
+	@OperationsPerInvocation(GRID * GRID)
+	@Warmup(iterations = 3, time = 1)
+	@Measurement(iterations = 5, time = 1)
+	public int occludes() {
+		int hits = 0;
+		for(Ray ray : rays) {
+			if(mesh.occludes(ray, Ops.infinity))
+				++hits;
+		}
+		return hits;
+	}
+}
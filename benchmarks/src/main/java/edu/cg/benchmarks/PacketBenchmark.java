@@ -0,0 +1,98 @@
+package edu.cg.benchmarks;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import edu.cg.algebra.Hit;
+import edu.cg.algebra.Point;
+import edu.cg.algebra.Ray;
+import edu.cg.algebra.Vec;
+import edu.cg.scene.acceleration.BVH;
+import edu.cg.scene.acceleration.PacketTraversal;
+import edu.cg.scene.camera.PinholeCamera;
+import edu.cg.scene.objects.Surface;
+
+/**
+ * Closest hits of the primary rays of a 64x64 image of the box pyramid of ShadowBenchmark,
+ * traced one by one through the BVH and in packets. Shading is left out.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = {"--add-modules", "jdk.incubator.vector"})
+public class PacketBenchmark {
+	private static final int RESOLUTION = 64;
+	
+	private BVH bvh;
+	private PacketTraversal packets;
+	private int[] stack;
+	private Ray[] primaryRays;
+	private final Hit hit = new Hit();
+	private final Hit candidate = new Hit();
+	private Ray[] packetRays;
+	private Surface[] packetSurfaces;
+	private double[] scratch;
+	
+	@Setup
+	public void setup() {
+		List<Surface> surfaces = ShadowBenchmark.pyramid(4);
+		bvh = new BVH(surfaces);
+		stack = bvh.newStack();
+		packets = PacketTraversal.create(bvh);
+		if(packets == null)
+			throw new IllegalStateException("The vector API is not available");
+		
+		PinholeCamera camera = new PinholeCamera(new Point(-4.0, -4.0, 6.0), new Vec(1.0, 1.0, -0.7), new Vec(0.0, 0.0, 1.0), 1.0);
+		camera.initResolution(RESOLUTION, RESOLUTION, 2.0);
+		primaryRays = new Ray[RESOLUTION * RESOLUTION];
+		for(int y = 0; y < RESOLUTION; ++y)
+			for(int x = 0; x < RESOLUTION; ++x)
+				primaryRays[y * RESOLUTION + x] = new Ray(camera.cameraPosition, camera.transform(x, y));
+		
+		packetRays = new Ray[packets.packetSize()];
+		packetSurfaces = new Surface[packets.packetSize()];
+		scratch = packets.newScratch();
+	}
+	
+	@Benchmark
+	public int scalar() {
+		int hits = 0;
+		for(Ray ray : primaryRays)
+			if(bvh.closestHit(ray, hit, candidate, stack))
+				++hits;
+		return hits;
+	}
+	
+	@Benchmark
+	public int packets() {
+		int hits = 0;
+		int size = packetRays.length;
+		for(int first = 0; first < primaryRays.length; first += size) {
+			int count = Math.min(size, primaryRays.length - first);
+			System.arraycopy(primaryRays, first, packetRays, 0, count);
+			if(packets.closestSurfaces(packetRays, count, packetSurfaces, scratch, stack)) {
+				for(int i = 0; i < count; ++i)
+					if(packetSurfaces[i] != null)
+						++hits;
+			} else {
+				for(int i = 0; i < count; ++i)
+					if(bvh.closestHit(packetRays[i], hit, candidate, stack))
+						++hits;
+			}
+		}
+		return hits;
+	}
+}
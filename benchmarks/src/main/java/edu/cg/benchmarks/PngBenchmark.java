@@ -0,0 +1,87 @@
+package edu.cg.benchmarks;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+import javax.imageio.ImageIO;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import edu.cg.Scenes;
+import edu.cg.image.PngWriter;
+import edu.cg.image.RowSource;
+
+/**
+ * PNG encoding of a render of scene 1 at 8K (7680x4320) by ImageIO, and by PngWriter on the calling thread
+ * and on a pool of all the processors. The image is rendered once per trial and written to a stream that only
+ * counts the bytes, so the disk is not measured.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 3)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx2g", "-Djava.awt.headless=true"})
+public class PngBenchmark {
+	@Param({"imageio", "inline", "pool"})
+	public String encoder;
+
+	@Param({"7680"})
+	public int width;
+
+	@Param({"4320"})
+	public int height;
+
+	private BufferedImage image;
+	private ForkJoinPool pool;
+
+	@Setup
+	public void setup() throws Exception {
+		pool = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+		image = Scenes.scene1().render(width, height, 4.0 * width / height, s -> {}, pool);
+	}
+
+	@TearDown
+	public void tearDown() {
+		pool.shutdown();
+	}
+
+	private static class CountingOutputStream extends OutputStream {
+		long count;
+
+		@Override
+		public void write(int b) {
+			++count;
+		}
+
+		@Override
+		public void write(byte[] b, int offset, int length) {
+			count += length;
+		}
+	}
+
+	@Benchmark
+	public long write() throws IOException {
+		CountingOutputStream out = new CountingOutputStream();
+		switch(encoder) {
+		case "imageio": ImageIO.write(image, "png", out); break;
+		case "inline": PngWriter.write(RowSource.of(image), out, null); break;
+		default: PngWriter.write(RowSource.of(image), out, pool); break;
+		}
+		return out.count;
+	}
+}
@@ -0,0 +1,106 @@
+package edu.cg.benchmarks;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import edu.cg.algebra.Hit;
+import edu.cg.algebra.Point;
+import edu.cg.algebra.Ray;
+import edu.cg.algebra.Vec;
+import edu.cg.scene.acceleration.BVH;
+import edu.cg.scene.acceleration.FloatBVH;
+import edu.cg.scene.acceleration.PackedBVH;
+import edu.cg.scene.camera.PinholeCamera;
+import edu.cg.scene.objects.AxisAlignedBox;
+import edu.cg.scene.objects.Material;
+import edu.cg.scene.objects.Sphere;
+import edu.cg.scene.objects.Surface;
+
+/**
+ * Closest hits and shadow queries of the primary rays of a 64x64 image of a field of random spheres and boxes,
+ * through the double precision BVH, through PackedBVH (its shapes packed in arrays, as renders use it) and through
+ * FloatBVH. Shading is left out.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx2g"})
+public class PrecisionBenchmark {
+	private static final int RESOLUTION = 64;
+
+	@Param({"1000", "300000"})
+	public int surfaces;
+
+	@Param({"double", "packed", "float"})
+	public String precision;
+
+	private BVH bvh;
+	private int[] stack;
+	private Ray[] primaryRays;
+	private Ray[] shadowRays;
+	private final Hit hit = new Hit();
+	private final Hit candidate = new Hit();
+
+	@Setup
+	public void setup() {
+		Random random = new Random(1);
+		Material material = new Material();
+		List<Surface> field = new ArrayList<>(surfaces);
+		for(int i = 0; i < surfaces; ++i) {
+			double x = 100 * random.nextDouble(), y = 100 * random.nextDouble(), z = -100 * random.nextDouble();
+			Point p = new Point(x, y, z);
+			field.add(new Surface(i % 2 == 0 ? new Sphere(p, 0.5) :
+				new AxisAlignedBox(p, new Point(x + 0.5, y + 0.5, z + 0.5)), material));
+		}
+		bvh = precision.equals("float") ? new FloatBVH(field) : precision.equals("packed") ? new PackedBVH(field) : new BVH(field);
+		stack = bvh.newStack();
+
+		PinholeCamera camera = new PinholeCamera(new Point(50, 50, 5), new Vec(0, 0, -1), new Vec(0, 1, 0), 1.0);
+		camera.initResolution(RESOLUTION, RESOLUTION, 2.0);
+		primaryRays = new Ray[RESOLUTION * RESOLUTION];
+		shadowRays = new Ray[RESOLUTION * RESOLUTION];
+		Point light = new Point(0, 100, 10);
+		for(int y = 0; y < RESOLUTION; ++y) {
+			for(int x = 0; x < RESOLUTION; ++x) {
+				Ray ray = new Ray(camera.cameraPosition, camera.transform(x, y));
+				primaryRays[y * RESOLUTION + x] = ray;
+				Point target = ray.add(60.0);
+				shadowRays[y * RESOLUTION + x] = new Ray(target, light.sub(target).normalize());
+			}
+		}
+	}
+
+	@Benchmark
+	public int closestHits() {
+		int hits = 0;
+		for(Ray ray : primaryRays)
+			if(bvh.closestHit(ray, hit, candidate, stack))
+				++hits;
+		return hits;
+	}
+
+	@Benchmark
+	public int shadows() {
+		int occluded = 0;
+		for(Ray ray : shadowRays)
+			if(bvh.occludes(ray, 200.0, stack))
+				++occluded;
+		return occluded;
+	}
+}
@@ -0,0 +1,70 @@
+package edu.cg.benchmarks;
+
+import java.awt.image.BufferedImage;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import edu.cg.Scenes;
+import edu.cg.scene.Scene;
+
+/**
+ * End to end renders of the scenes in Scenes at a fixed resolution, on a pool created once per trial,
+ * with and without primary ray packets.
+ * Some scenes pick random materials, so each trial renders the same scene but different trials may not.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = {"-Djava.awt.headless=true", "--add-modules", "jdk.incubator.vector"})
+public class RenderBenchmark {
+	@Param({"1", "2", "3", "4", "5"})
+	public int scene;
+	
+	@Param({"400"})
+	public int resolution;
+	
+	//primary ray packets, used when the vector API is available and anti aliasing is off
+	@Param({"true", "false"})
+	public boolean packets;
+	
+	private Scene target;
+	private ForkJoinPool pool;
+	
+	@Setup
+	public void setup() {
+		switch(scene) {
+		case 1: target = Scenes.scene1(); break;
+		case 2: target = Scenes.scene2(); break;
+		case 3: target = Scenes.scene3(); break;
+		case 4: target = Scenes.scene4(); break;
+		default: target = Scenes.scene5(); break;
+		}
+		target.initPacketTracing(packets);
+		pool = new ForkJoinPool(Math.max(2, Runtime.getRuntime().availableProcessors()));
+	}
+	
+	@TearDown
+	public void tearDown() {
+		pool.shutdown();
+	}
+	
+	@Benchmark
+	public BufferedImage render() throws Exception {
+		return target.render(resolution, resolution, 4.0, s -> {}, pool);
+	}
+}
@@ -0,0 +1,110 @@
+package edu.cg.benchmarks;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import edu.cg.SceneIO;
+import edu.cg.algebra.Point;
+import edu.cg.algebra.Vec;
+import edu.cg.scene.Scene;
+import edu.cg.scene.objects.AxisAlignedBox;
+import edu.cg.scene.objects.Material;
+import edu.cg.scene.objects.Sphere;
+import edu.cg.scene.objects.Surface;
+
+/**
+ * Loading a generated scene of spheres and boxes with the reflective Gson loader, the streaming JSON loader
+ * and from a binary scene file. Besides the time of a load, reports the peak heap it took: the sum of the
+ * peak usages of the heap pools, which are reset after a full GC before every load. JMH sums this counter
+ * over the iterations in its summary, so read the per iteration values.
+ *
+ * Usage: java -jar benchmarks/target/benchmarks.jar SceneLoad
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = {"-Djava.awt.headless=true", "-Xmx4g"})
+public class SceneLoadBenchmark {
+	@Param({"1000000"})
+	public int surfaces;
+
+	@Param({"gson", "streaming", "binary"})
+	public String loader;
+
+	private Path file;
+
+	@Setup
+	public void setup() throws IOException {
+		Random random = new Random(1);
+		Scene scene = new Scene().initCamera(new Point(0, 0, 5), new Vec(0, 0, -1), new Vec(0, 1, 0), 1);
+		Material[] materials = new Material[16];
+		for(int i = 0; i < materials.length; ++i)
+			materials[i] = new Material().initKd(new Vec(random.nextDouble(), random.nextDouble(), random.nextDouble()))
+				.initReflectionIntensity(random.nextDouble());
+		for(int i = 0; i < surfaces; ++i) {
+			double x = 100 * random.nextDouble(), y = 100 * random.nextDouble(), z = -100 * random.nextDouble();
+			Point p = new Point(x, y, z);
+			scene.addSurface(new Surface(i % 2 == 0 ? new Sphere(p, 0.1) :
+				new AxisAlignedBox(p, new Point(x + 0.1, y + 0.1, z + 0.1)), materials[i % materials.length]));
+		}
+		file = Files.createTempFile("scene", loader.equals("binary") ? SceneIO.BINARY_EXTENSION : ".json");
+		SceneIO.save(scene, file);
+	}
+
+	@TearDown
+	public void tearDown() throws IOException {
+		Files.deleteIfExists(file);
+	}
+
+	@AuxCounters(AuxCounters.Type.EVENTS)
+	@State(Scope.Thread)
+	public static class PeakHeap {
+		public double peakHeapMB;
+
+		@Setup(Level.Invocation)
+		public void reset() {
+			System.gc();
+			for(MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans())
+				pool.resetPeakUsage();
+		}
+
+		void measure() {
+			long peak = 0;
+			for(MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+				if(pool.getType() == MemoryType.HEAP)
+					peak += pool.getPeakUsage().getUsed();
+			}
+			peakHeapMB = peak / (1024.0 * 1024.0);
+		}
+	}
+
+	@Benchmark
+	public Scene load(PeakHeap peakHeap) throws IOException {
+		Scene scene = loader.equals("gson") ? SceneIO.loadWithGson(file) : SceneIO.load(file);
+		peakHeap.measure();
+		return scene;
+	}
+}
@@ -0,0 +1,105 @@
+package edu.cg.benchmarks;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import edu.cg.algebra.Point;
+import edu.cg.algebra.Ray;
+import edu.cg.algebra.Vec;
+import edu.cg.scene.acceleration.BVH;
+import edu.cg.scene.lightSources.DirectionalLight;
+import edu.cg.scene.lightSources.Light;
+import edu.cg.scene.lightSources.PointLight;
+import edu.cg.scene.lightSources.Spotlight;
+import edu.cg.scene.objects.AxisAlignedBox;
+import edu.cg.scene.objects.Material;
+import edu.cg.scene.objects.Plain;
+import edu.cg.scene.objects.Surface;
+
+/**
+ * Shadow queries against the box pyramid of Scenes.scene4() standing on a plain, for each type of light.
+ * The shadow ray starts either in the shadow of the pyramid or on its lit side.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ShadowBenchmark {
+	@Param({"directional", "point", "spot"})
+	public String light;
+	
+	@Param({"lit", "occluded"})
+	public String outcome;
+	
+	private List<Surface> surfaces;
+	private BVH bvh;
+	private int[] stack;
+	private Light source;
+	private Point fromPoint;
+	private final Ray rayToLight = new Ray();
+	
+	@Setup
+	public void setup() {
+		surfaces = pyramid(4);
+		bvh = new BVH(surfaces);
+		stack = bvh.newStack();
+		
+		//the lights are on the +x side of the pyramid, whose base spans x in [0, 8]
+		switch(light) {
+		case "directional":
+			source = new DirectionalLight().initDirection(new Vec(-1.0, 0.0, -0.1));
+			break;
+		case "point":
+			source = new PointLight().initPosition(new Point(20.0, 4.0, 2.0));
+			break;
+		default:
+			source = new Spotlight().initDirection(new Vec(-1.0, 0.0, -0.1)).initPosition(new Point(20.0, 4.0, 2.0));
+			break;
+		}
+		fromPoint = outcome.equals("lit") ? new Point(12.0, 4.0, 0.01) : new Point(-2.0, 4.0, 0.01);
+	}
+	
+	static List<Surface> pyramid(int pyramidHeight) {
+		List<Surface> surfaces = new ArrayList<>();
+		Material material = new Material();
+		for(int level = 0; level < pyramidHeight; ++level) {
+			int numOfBoxes = (int)Math.pow(2, pyramidHeight - 1) - 2 * level;
+			for(int i = 0; i < numOfBoxes; ++i)
+				for(int j = 0; j < numOfBoxes; ++j)
+					surfaces.add(new Surface(new AxisAlignedBox(new Point(level + i, level + j, level),
+							new Point(level + i + 1, level + j + 1, level + 1)), material));
+		}
+		surfaces.add(new Surface(new Plain(new Vec(0.0, 0.0, 1.0), new Point(0.0, 0.0, 0.0)), material));
+		return surfaces;
+	}
+	
+	@Benchmark
+	public boolean shadowQuery() {
+		Ray ray = source.rayToLight(fromPoint, rayToLight);
+		return !source.reaches(ray) || bvh.occludes(ray, source.maxShadowDistance(fromPoint), stack);
+	}
+	
+	@Benchmark
+	public boolean perSurfaceLoop() {
+		Ray ray = source.rayToLight(fromPoint);
+		for(Surface surface : surfaces)
+			if(source.isOccludedBy(surface, ray))
+				return true;
+		return false;
+	}
+}